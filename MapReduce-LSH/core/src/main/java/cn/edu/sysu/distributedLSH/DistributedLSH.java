@@ -7,13 +7,22 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 
+import cn.edu.sysu.distributedLSH.common.Snapshots;
+import cn.edu.sysu.distributedLSH.converter.Converter;
+import cn.edu.sysu.distributedLSH.inspector.Inspector;
 import cn.edu.sysu.distributedLSH.lsh.builder.HashTableBuilder;
+import cn.edu.sysu.distributedLSH.lsh.deleter.Deleter;
+import cn.edu.sysu.distributedLSH.lsh.inserter.Inserter;
+import cn.edu.sysu.distributedLSH.lsh.merger.Merger;
 import cn.edu.sysu.distributedLSH.lsh.searcher.LSHSearcher;
 import cn.edu.sysu.distributedLSH.statistics.Statistician;
 
 
 public class DistributedLSH extends Configured implements Tool {
+    private static final int DEFAULT_RETAIN_SNAPSHOTS = 2;
+
     private Configuration conf;
     private FileSystem fs;
 
@@ -34,6 +43,12 @@ public class DistributedLSH extends Configured implements Tool {
         System.out.print("  -b,\t\t\tbuild hash tables\n");
         System.out.print("  -s,\t\t\tsearch near neighbors\n");
         System.out.print("  -bs,\t\t\tbuild hash talbles then search\n");
+        System.out.print("  -insert,\t\tinsert the data points of insertFileName into the built index\n");
+        System.out.print("  -merge,\t\tmerge the delta segments of the partitions which exceed the thresholds\n");
+        System.out.print("  -delete,\t\tdelete the data points whose IDs are in deleteFileName\n");
+        System.out.print("  -inspect,\t\treport the bucket sizes and the probe costs of the partitions\n");
+        System.out.print("  -compact,\t\tmerge the delta segments and drop the deleted rows of all the partitions\n");
+        System.out.print("  -convert,\t\tconvert the text data set to the binary data set\n");
     }
 
     /**
@@ -51,6 +66,12 @@ public class DistributedLSH extends Configured implements Tool {
 
         boolean isBuild = false;
         boolean isSearch = false;
+        boolean isConvert = false;
+        boolean isInsert = false;
+        boolean isDelete = false;
+        boolean isMerge = false;
+        boolean isInspect = false;
+        boolean isCompact = false;
 
         // Parse parameters.
         if (1 == args.length) {
@@ -61,6 +82,18 @@ public class DistributedLSH extends Configured implements Tool {
             } else if (args[0].equals("-bs")) {
                 isBuild = true;
                 isSearch = true;
+            } else if (args[0].equals("-convert")) {
+                isConvert = true;
+            } else if (args[0].equals("-insert")) {
+                isInsert = true;
+            } else if (args[0].equals("-delete")) {
+                isDelete = true;
+            } else if (args[0].equals("-merge")) {
+                isMerge = true;
+            } else if (args[0].equals("-inspect")) {
+                isInspect = true;
+            } else if (args[0].equals("-compact")) {
+                isCompact = true;
             } else {
                 printUsage();
                 return 0;
@@ -70,7 +103,30 @@ public class DistributedLSH extends Configured implements Tool {
             return 0;
         }
 
+        // baseDir keeps the snapshots of the index. See Snapshots.
+        String rootDir = conf.get("baseDir");
+
+        if (isConvert) {
+            // The width of a coordinate is chosen from the statistics of the text data set.
+            // They are got in a scratch directory, thus the snapshots are kept.
+            String scratchDir = rootDir + "/_convert";
+            conf.set("baseDir", scratchDir);
+            conf.set("dataSetFormat", "text");
+            Statistician statistician = new Statistician(conf, fs);
+            statistician.run();
+
+            Converter converter = new Converter(conf, fs);
+            converter.run();
+            fs.delete(new Path(scratchDir), true);
+            conf.set("baseDir", rootDir);
+        }
+
         if (isBuild) {
+            // The index is built into a new snapshot, and the searches keep
+            // using the current one until it is published.
+            String snapshotDir = Snapshots.create(fs, rootDir);
+            conf.set("baseDir", snapshotDir);
+
             // get some statistics
             Statistician statistician = new Statistician(conf, fs);
             statistician.run();
@@ -78,6 +134,57 @@ public class DistributedLSH extends Configured implements Tool {
             // build hash tables
             HashTableBuilder hashTableBuilder = new HashTableBuilder(conf, fs);
             hashTableBuilder.run();
+
+            Snapshots.publish(fs, rootDir, snapshotDir);
+            int count = Snapshots.collect(fs, rootDir,
+                    conf.getInt("retainSnapshots", DEFAULT_RETAIN_SNAPSHOTS));
+            System.out.printf("%d old snapshots deleted\n", count);
+            conf.set("baseDir", rootDir);
+        }
+
+        if (isInsert || isDelete || isMerge || isCompact) {
+            // The maintenance rewrites a fork of the current snapshot, which
+            // is published once all of it succeeds, thus the searches never
+            // see a partition being rewritten.
+            String snapshotDir = Snapshots.fork(fs, rootDir);
+            conf.set("baseDir", snapshotDir);
+
+            if (isInsert) {
+                Inserter inserter = new Inserter(conf, fs);
+                inserter.run();
+            }
+
+            if (isDelete) {
+                Deleter deleter = new Deleter(conf, fs);
+                deleter.run();
+            }
+
+            if (isMerge) {
+                Merger merger = new Merger(conf, fs);
+                merger.run();
+            }
+
+            if (isCompact) {
+                // Merger rewrites every partition which is not compact.
+                conf.setBoolean("compactIndex", true);
+                Merger merger = new Merger(conf, fs);
+                merger.run();
+            }
+
+            Snapshots.publish(fs, rootDir, snapshotDir);
+            int count = Snapshots.collect(fs, rootDir,
+                    conf.getInt("retainSnapshots", DEFAULT_RETAIN_SNAPSHOTS));
+            System.out.printf("%d old snapshots deleted\n", count);
+        }
+
+        // The other jobs read the snapshot which is current when they start,
+        // and write their outputs to rootDir, since an old snapshot is deleted.
+        conf.set("baseDir", Snapshots.resolve(fs, rootDir));
+        conf.set("outputDir", rootDir);
+
+        if (isInspect) {
+            Inspector inspector = new Inspector(conf, fs);
+            inspector.run();
         }
 
         if (isSearch) {
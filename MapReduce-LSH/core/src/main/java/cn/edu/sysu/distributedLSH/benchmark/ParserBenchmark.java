@@ -0,0 +1,162 @@
+package cn.edu.sysu.distributedLSH.benchmark;
+
+import java.util.Random;
+import java.util.Scanner;
+
+import org.apache.hadoop.io.Text;
+
+import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.VectorParser;
+
+
+/**
+ * ParserBenchmark compares the throughput of VectorParser with the Scanner
+ * based parsing which it replaces. The lines are generated in memory in the
+ * format of the text data set, so only the parsing is measured.
+ * Usage: ParserBenchmark nLines dimension maxCoordinate [rounds]
+ * */
+public class ParserBenchmark {
+    private int nLines;
+    private int dimension;
+    private int maxCoordinate;
+    private int rounds;
+
+    private Text[] lines = null;
+    private long totalBytes = 0;
+
+
+    /**
+     * Constructor.
+     * */
+    public ParserBenchmark(final int nLines, final int dimension, final int maxCoordinate,
+            final int rounds) {
+        this.nLines = nLines;
+        this.dimension = dimension;
+        this.maxCoordinate = maxCoordinate;
+        this.rounds = rounds;
+    }
+
+    /**
+     * Generate the lines of a random data set. Some coordinates are negative
+     * and the separators vary, which Scanner accepts as well.
+     * */
+    private void generate() {
+        Random random = new Random(0);
+        StringBuilder sb = new StringBuilder();
+
+        lines = new Text[nLines];
+        for (int i = 0; i < nLines; i++) {
+            sb.setLength(0);
+            sb.append(i + 1);
+            for (int j = 0; j < dimension; j++) {
+                sb.append(0 == j % 8 ? '\t' : ' ');
+                sb.append(random.nextInt(2 * maxCoordinate + 1) - maxCoordinate);
+            }
+            lines[i] = new Text(sb.toString());
+            totalBytes += lines[i].getLength();
+        }
+    }
+
+    /**
+     * Parse all lines with Scanner as the mappers used to do.
+     * @return the checksum of the coordinates
+     * */
+    private long parseWithScanner(final int[] point) {
+        long checksum = 0;
+        for (int i = 0; i < nLines; i++) {
+            Scanner scanner = null;
+            try {
+                scanner = new Scanner(lines[i].toString());
+                checksum += scanner.nextInt();
+                for (int j = 0; j < dimension; j++) {
+                    point[j] = scanner.nextInt();
+                    checksum += point[j];
+                }
+            } finally {
+                scanner.close();
+            }
+        }
+        return checksum;
+    }
+
+    /**
+     * Parse all lines with VectorParser.
+     * @return the checksum of the coordinates
+     * */
+    private long parseWithVectorParser(final int[] point) {
+        VectorParser parser = new VectorParser();
+        long checksum = 0;
+        for (int i = 0; i < nLines; i++) {
+            checksum += parser.parse(lines[i], point, dimension);
+            for (int j = 0; j < dimension; j++) {
+                checksum += point[j];
+            }
+        }
+        return checksum;
+    }
+
+    /**
+     * Print the throughput of a round.
+     * */
+    private void report(final String name, final int round, final long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%-12s round %d: %8.3f s, %12.0f lines/s, %8.2f MB/s\n", name, round,
+                seconds, nLines / seconds, totalBytes / seconds / (1 << 20));
+    }
+
+    /**
+     * run.
+     * */
+    public int run() {
+        int[] point = new int[dimension];
+        long scannerNanos = 0;
+        long parserNanos = 0;
+        long start;
+
+        this.generate();
+        System.out.printf("%d lines, dimension %d, %.2f MB\n", nLines, dimension,
+                totalBytes / (double)(1 << 20));
+
+        // The first round warms up the JIT and is not counted.
+        for (int round = 0; round <= rounds; round++) {
+            start = System.nanoTime();
+            long scannerSum = this.parseWithScanner(point);
+            long nanos = System.nanoTime() - start;
+            this.report("Scanner", round, nanos);
+            if (round > 0) {
+                scannerNanos += nanos;
+            }
+
+            start = System.nanoTime();
+            long parserSum = this.parseWithVectorParser(point);
+            nanos = System.nanoTime() - start;
+            this.report("VectorParser", round, nanos);
+            if (round > 0) {
+                parserNanos += nanos;
+            }
+
+            if (scannerSum != parserSum) {
+                LSHTool.printAndExit("checksum mismatch between Scanner and VectorParser");
+            }
+        }
+
+        System.out.printf("---------------------------------------------------------------\n");
+        System.out.printf("Speedup of VectorParser over Scanner: %.2fx\n",
+                scannerNanos / (double)parserNanos);
+        System.out.printf("---------------------------------------------------------------\n");
+        return 0;
+    }
+
+    /**
+     * main.
+     * */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            LSHTool.printAndExit("Usage: ParserBenchmark nLines dimension maxCoordinate [rounds]");
+        }
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        ParserBenchmark benchmark = new ParserBenchmark(Integer.parseInt(args[0]),
+                Integer.parseInt(args[1]), Integer.parseInt(args[2]), rounds);
+        System.exit(benchmark.run());
+    }
+}
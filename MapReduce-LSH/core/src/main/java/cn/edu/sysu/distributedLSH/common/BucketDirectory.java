@@ -0,0 +1,317 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.hadoop.fs.PositionedReadable;
+
+
+/**
+ * BucketDirectory is the on-disk layout of a hash table in the partition
+ * index. The buckets are sorted by ID and cut into directory blocks of
+ * BLOCK_SIZE buckets. The layout of a table section is:
+ *   nBuckets
+ *   firstKeys[nBlocks]     the first bucket ID of each block, which is a
+ *                          sparse index of the blocks
+ *   blocks[nBlocks]        block b holds the buckets from b * BLOCK_SIZE on:
+ *                          keys[len], the bucket IDs, then starts[len + 1],
+ *                          bucket i owns postings[starts[i], starts[i + 1])
+ *   postings[]             the indexes of the data points, bucket by bucket
+ * Only nBuckets and the sparse index are read when the directory is opened.
+ * All blocks but the last are full, thus the offset of a block is known,
+ * and a block is fetched with a positional read when some query falls into
+ * it. The postings of a bucket are fetched the same way, see PartitionIndex.
+ * */
+public class BucketDirectory {
+    // the number of buckets in a directory block
+    static final int BLOCK_SIZE = 128;
+
+    private PositionedReadable file = null;
+    private int nBuckets = 0;
+    private int[] firstKeys = null;
+    private long blocksOffset = -1;     // the offset of blocks[0] in the index file
+    private long postingsOffset = -1;   // the offset of postings[0] in the index file
+    // the loaded blocks, null if a block has not been read
+    private int[][] blockKeys = null;
+    private int[][] blockStarts = null;
+    private byte[] readBuffer = new byte[0];
+
+
+    /**
+     * Write a hash table in the layout described above.
+     * @param out output stream
+     * @param table the hash table
+     * */
+    public static void write(final DataOutput out, final BucketTable table) throws IOException {
+        Map<Integer, SimpleList> map = table.get();
+        int nBuckets = map.size();
+
+        int[] sortedKeys = new int[nBuckets];
+        int index = 0;
+        for (Integer bucketID : map.keySet()) {
+            sortedKeys[index++] = bucketID;
+        }
+        Arrays.sort(sortedKeys);
+
+        int[] starts = new int[nBuckets + 1];
+        for (int i = 0; i < nBuckets; i++) {
+            starts[i + 1] = starts[i] + map.get(sortedKeys[i]).size();
+        }
+        writeDirectory(out, sortedKeys, starts, nBuckets);
+        for (int i = 0; i < nBuckets; i++) {
+            // keep the order of SimpleList so that the search is not changed
+            SimpleList bucket = map.get(sortedKeys[i]);
+            bucket.setCursorToHead();
+            while (bucket.hasNext()) {
+                out.writeInt(bucket.next());
+            }
+        }
+    }
+
+    /**
+     * Write nBuckets, the sparse index and the blocks of a table section.
+     * The postings must be written right after them, bucket by bucket.
+     * @param out output stream
+     * @param keys the sorted bucket IDs, whose length is at least nBuckets
+     * @param starts the starts of the buckets in postings, whose length is
+     *  at least nBuckets + 1
+     * @param nBuckets the number of buckets
+     * */
+    public static void writeDirectory(final DataOutput out, final int[] keys, final int[] starts,
+            final int nBuckets) throws IOException {
+        int nBlocks = getBlockNum(nBuckets);
+        out.writeInt(nBuckets);
+        for (int b = 0; b < nBlocks; b++) {
+            out.writeInt(keys[b * BLOCK_SIZE]);
+        }
+        for (int b = 0; b < nBlocks; b++) {
+            int first = b * BLOCK_SIZE;
+            int end = Math.min(nBuckets, first + BLOCK_SIZE);
+            for (int i = first; i < end; i++) {
+                out.writeInt(keys[i]);
+            }
+            for (int i = first; i <= end; i++) {
+                out.writeInt(starts[i]);
+            }
+        }
+    }
+
+    /**
+     * Read nBuckets and the sparse index of a table section. The blocks are
+     * read from the file when they are needed.
+     * @param file the index file
+     * @param sectionOffset the offset of the section in the index file
+     * */
+    public void read(final PositionedReadable file, final long sectionOffset)
+            throws IOException {
+        this.file = file;
+        byte[] header = new byte[4];
+        file.readFully(sectionOffset, header, 0, header.length);
+        nBuckets = VectorEncoding.decodeInt(header, 0);
+
+        int nBlocks = getBlockNum(nBuckets);
+        firstKeys = new int[nBlocks];
+        if (nBlocks > 0) {
+            byte[] index = new byte[4 * nBlocks];
+            file.readFully(sectionOffset + 4, index, 0, index.length);
+            for (int b = 0; b < nBlocks; b++) {
+                firstKeys[b] = VectorEncoding.decodeInt(index, 4 * b);
+            }
+        }
+        blockKeys = new int[nBlocks][];
+        blockStarts = new int[nBlocks][];
+        blocksOffset = sectionOffset + 4L * (1 + nBlocks);
+        // every block has a key and a start per bucket, and one more start
+        postingsOffset = blocksOffset + 4L * (2L * nBuckets + nBlocks);
+    }
+
+    /**
+     * Find a bucket. Its block is read if it has not been.
+     * @param bucketID bucket ID
+     * @return the position of the bucket, or -1 if the bucket does not exist
+     * */
+    public int find(final int bucketID) throws IOException {
+        int b = this.findBlock(bucketID);
+        if (b < 0) {
+            return -1;
+        }
+        if (null == blockKeys[b]) {
+            this.readBlocks(b, b);
+        }
+        return this.findInBlock(b, bucketID);
+    }
+
+    /**
+     * Find some buckets. The blocks which hold them are read first, and the
+     * blocks that are close to each other in the file are read at once.
+     * @param bucketIDs bucket IDs, in any order
+     * @return positions[i] is the position of the bucket bucketIDs[i], or -1
+     *  if the bucket does not exist
+     * */
+    public int[] find(final int[] bucketIDs) throws IOException {
+        int[] blocks = new int[bucketIDs.length];
+        int[] missing = new int[bucketIDs.length];
+        int nMissing = 0;
+        for (int i = 0; i < bucketIDs.length; i++) {
+            blocks[i] = this.findBlock(bucketIDs[i]);
+            if (blocks[i] >= 0 && null == blockKeys[blocks[i]]) {
+                missing[nMissing++] = blocks[i];
+            }
+        }
+        Arrays.sort(missing, 0, nMissing);
+        this.readBlocks(missing, nMissing);
+
+        int[] positions = new int[bucketIDs.length];
+        for (int i = 0; i < bucketIDs.length; i++) {
+            positions[i] = blocks[i] < 0 ? -1 : this.findInBlock(blocks[i], bucketIDs[i]);
+        }
+        return positions;
+    }
+
+    /**
+     * Read the blocks of some positions which have not been read, e.g. before
+     * the postings of the buckets are fetched.
+     * @param positions the positions of the buckets, sorted ascending
+     * */
+    public void readBlocksOf(final int[] positions) throws IOException {
+        int[] missing = new int[positions.length];
+        int nMissing = 0;
+        for (int i = 0; i < positions.length; i++) {
+            int b = positions[i] / BLOCK_SIZE;
+            if (null == blockKeys[b] && (0 == nMissing || missing[nMissing - 1] != b)) {
+                missing[nMissing++] = b;
+            }
+        }
+        this.readBlocks(missing, nMissing);
+    }
+
+    /**
+     * Read all the blocks at once, e.g. to scan every bucket.
+     * */
+    public void readAll() throws IOException {
+        if (blockKeys.length > 0) {
+            this.readBlocks(0, blockKeys.length - 1);
+        }
+    }
+
+    /**
+     * Get the ID of the bucket at pos, whose block has been read.
+     * */
+    public int getKey(final int pos) {
+        return blockKeys[pos / BLOCK_SIZE][pos % BLOCK_SIZE];
+    }
+
+    /**
+     * Get the number of postings in the bucket at pos, whose block has been
+     * read.
+     * */
+    public int getBucketSize(final int pos) {
+        int[] starts = blockStarts[pos / BLOCK_SIZE];
+        int i = pos % BLOCK_SIZE;
+        return starts[i + 1] - starts[i];
+    }
+
+    /**
+     * Get the offset of the first posting of the bucket at pos in the index
+     * file. The block of the bucket has been read.
+     * */
+    public long getBucketOffset(final int pos) {
+        return postingsOffset + 4L * blockStarts[pos / BLOCK_SIZE][pos % BLOCK_SIZE];
+    }
+
+    /**
+     * Get the number of buckets.
+     * */
+    public int size() {
+        return nBuckets;
+    }
+
+    /**
+     * Get the number of blocks of a directory.
+     * */
+    private static int getBlockNum(final int nBuckets) {
+        return (nBuckets + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    /**
+     * Find the block which may hold a bucket by binary search in the sparse
+     * index.
+     * @return the block, or -1 if the bucket is before the first one
+     * */
+    private int findBlock(final int bucketID) {
+        int b = Arrays.binarySearch(firstKeys, bucketID);
+        // the last block whose first key is not larger than bucketID
+        return b >= 0 ? b : -b - 2;
+    }
+
+    /**
+     * Find a bucket in a block which has been read.
+     * */
+    private int findInBlock(final int b, final int bucketID) {
+        int i = Arrays.binarySearch(blockKeys[b], bucketID);
+        return i >= 0 ? b * BLOCK_SIZE + i : -1;
+    }
+
+    /**
+     * Get the offset of a block in the index file.
+     * */
+    private long getBlockOffset(final int b) {
+        return blocksOffset + 4L * (2 * BLOCK_SIZE + 1) * b;
+    }
+
+    /**
+     * Get the end of a block in the index file.
+     * */
+    private long getBlockEnd(final int b) {
+        int len = Math.min(BLOCK_SIZE, nBuckets - b * BLOCK_SIZE);
+        return this.getBlockOffset(b) + 4L * (2 * len + 1);
+    }
+
+    /**
+     * Read some blocks. As with PartitionIndex.readBuckets, blocks whose gap
+     * is small are read at once.
+     * @param blocks the blocks, sorted ascending
+     * @param size the number of blocks
+     * */
+    private void readBlocks(final int[] blocks, final int size) throws IOException {
+        int first = 0;
+        while (first < size) {
+            int last = first + 1;
+            while (last < size && this.getBlockOffset(blocks[last])
+                    - this.getBlockEnd(blocks[last - 1]) <= PartitionIndex.MAX_READ_GAP) {
+                last++;
+            }
+            this.readBlocks(blocks[first], blocks[last - 1]);
+            first = last;
+        }
+    }
+
+    /**
+     * Read the blocks from first to last, inclusive, with a positional read.
+     * */
+    private void readBlocks(final int first, final int last) throws IOException {
+        long start = this.getBlockOffset(first);
+        int length = (int)(this.getBlockEnd(last) - start);
+        if (readBuffer.length < length) {
+            readBuffer = new byte[length];
+        }
+        file.readFully(start, readBuffer, 0, length);
+
+        for (int b = first; b <= last; b++) {
+            int len = Math.min(BLOCK_SIZE, nBuckets - b * BLOCK_SIZE);
+            int pos = (int)(this.getBlockOffset(b) - start);
+            int[] keys = new int[len];
+            for (int i = 0; i < len; i++, pos += 4) {
+                keys[i] = VectorEncoding.decodeInt(readBuffer, pos);
+            }
+            int[] starts = new int[len + 1];
+            for (int i = 0; i <= len; i++, pos += 4) {
+                starts[i] = VectorEncoding.decodeInt(readBuffer, pos);
+            }
+            blockKeys[b] = keys;
+            blockStarts[b] = starts;
+        }
+    }
+}
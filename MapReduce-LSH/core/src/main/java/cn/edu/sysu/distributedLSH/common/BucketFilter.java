@@ -0,0 +1,122 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+
+
+/**
+ * BucketFilter is a blocked Bloom filter over the bucket IDs of a hash table.
+ * It answers "does this bucket exist?" without touching the table itself, so
+ * a query that falls into an empty bucket can be skipped before the table is
+ * even loaded. All the bits of a key live in one 512-bit block, thus a probe
+ * costs a single cache line.
+ * */
+public class BucketFilter implements Writable {
+    private static final int BLOCK_WORDS = 8;       // 8 * 64 = 512 bits per block
+    private static final int BLOCK_BITS_MASK = 511;
+    private static final int BITS_PER_KEY = 10;     // about 1% false positive rate
+    private static final int NUM_PROBES = 6;
+
+    private int numBlocks = 0;
+    private long[] bits = null;
+
+
+    /**
+     * Default constructor.
+     * */
+    public BucketFilter() {}
+
+    /**
+     * Constructor.
+     * @param expectedKeys the number of buckets that will be added
+     * */
+    public BucketFilter(final int expectedKeys) {
+        long totalBits = (long)Math.max(expectedKeys, 1) * BITS_PER_KEY;
+        numBlocks = (int)((totalBits + BLOCK_WORDS * 64 - 1) / (BLOCK_WORDS * 64));
+        bits = new long[numBlocks * BLOCK_WORDS];
+    }
+
+    /**
+     * Add a bucket ID to the filter.
+     * @param bucketID bucket ID
+     * */
+    public void add(final int bucketID) {
+        long hash = mix(bucketID);
+        int base = blockOffset(hash);
+        int h1 = (int)hash;
+        int h2 = Integer.rotateLeft(h1, 16) | 1;
+
+        for (int i = 0; i < NUM_PROBES; i++) {
+            int bit = (h1 + i * h2) & BLOCK_BITS_MASK;
+            bits[base + (bit >>> 6)] |= 1L << (bit & 63);
+        }
+    }
+
+    /**
+     * Test whether a bucket may exist.
+     * @param bucketID bucket ID
+     * @return false if the bucket definitely does not exist
+     * */
+    public boolean mightContain(final int bucketID) {
+        long hash = mix(bucketID);
+        int base = blockOffset(hash);
+        int h1 = (int)hash;
+        int h2 = Integer.rotateLeft(h1, 16) | 1;
+
+        for (int i = 0; i < NUM_PROBES; i++) {
+            int bit = (h1 + i * h2) & BLOCK_BITS_MASK;
+            if (0 == (bits[base + (bit >>> 6)] & (1L << (bit & 63)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Select the block by the higher 32 bits of the hash.
+     * */
+    private int blockOffset(final long hash) {
+        long high = hash >>> 32;
+        return (int)((high * numBlocks) >>> 32) * BLOCK_WORDS;
+    }
+
+    /**
+     * The finalizer of MurmurHash3. Bucket IDs are already hash values, but
+     * they are not uniformly distributed in the lower bits.
+     * */
+    private static long mix(final int key) {
+        long h = key & 0xffffffffL;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Implement the method in the interface Writable.
+     * @param out output stream
+     * */
+    public void write(final DataOutput out) throws IOException {
+        out.writeInt(numBlocks);
+        for (int i = 0; i < bits.length; i++) {
+            out.writeLong(bits[i]);
+        }
+    }
+
+    /**
+     * Implement the method in the interface Writable.
+     * @param in input stream
+     * */
+    public void readFields(final DataInput in) throws IOException {
+        numBlocks = in.readInt();
+        bits = new long[numBlocks * BLOCK_WORDS];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = in.readLong();
+        }
+    }
+}
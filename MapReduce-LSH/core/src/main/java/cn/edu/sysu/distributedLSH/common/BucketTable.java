@@ -46,6 +46,17 @@ public class BucketTable implements Writable {
         return bucketTable;
     }
 
+    /**
+     * Build a BucketFilter over all the bucket IDs in this table.
+     * */
+    public BucketFilter createFilter() {
+        BucketFilter filter = new BucketFilter(bucketTable.size());
+        for (Integer bucketID : bucketTable.keySet()) {
+            filter.add(bucketID);
+        }
+        return filter;
+    }
+
     /**
      * clear.
      * */
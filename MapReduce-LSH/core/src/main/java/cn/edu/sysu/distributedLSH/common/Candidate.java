@@ -12,6 +12,7 @@ import org.apache.hadoop.io.WritableComparable;
  * */
 public class Candidate implements WritableComparable<Candidate> {
     private int dim = -1;
+    private int id = -1;            // the ID of the candidate in the data set
     private double dist = -1;       // the distance between the candidate and the query
     private int[] point = null;     // the candidate data point
 
@@ -24,9 +25,10 @@ public class Candidate implements WritableComparable<Candidate> {
     /**
      * Constructor.
      * */
-    public Candidate(final int dim, final double dist, final int[] point)
+    public Candidate(final int dim, final int id, final double dist, final int[] point)
             throws ArrayIndexOutOfBoundsException {
         this.dim = dim;
+        this.id = id;
         this.dist = dist;
         this.point = new int[dim];
         for (int i = 0; i < dim; i++) {
@@ -39,6 +41,7 @@ public class Candidate implements WritableComparable<Candidate> {
      * */
     public Candidate(final Candidate other) {
         this.dim = other.dim;
+        this.id = other.id;
         this.dist = other.dist;
         this.point = new int[dim];
         for (int i = 0; i < dim; i++) {
@@ -53,12 +56,34 @@ public class Candidate implements WritableComparable<Candidate> {
         return dist;
     }
 
+    /**
+     * get id.
+     * */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * get the dimension of point.
+     * */
+    public int getDim() {
+        return dim;
+    }
+
+    /**
+     * get point. It is reused by readFields, thus it should be copied.
+     * */
+    public int[] getPoint() {
+        return point;
+    }
+
     /**
      * Deep copy the Candidate.
      * @param other
      * */
     public void deepCopy(final Candidate other) throws ArrayIndexOutOfBoundsException {
         this.dim = other.dim;
+        this.id = other.id;
         this.dist = other.dist;
         for (int i = 0; i < dim; i++) {
             this.point[i] = other.point[i];
@@ -68,8 +93,9 @@ public class Candidate implements WritableComparable<Candidate> {
     /**
      * Shallow set the Candidate. It only copy the reference of point.
      * */
-    public void shallowSet(final double dist, final int[] point) {
+    public void shallowSet(final int id, final double dist, final int[] point) {
         this.dim = point.length;
+        this.id = id;
         this.dist = dist;
         this.point = point;
     }
@@ -82,6 +108,8 @@ public class Candidate implements WritableComparable<Candidate> {
         StringBuilder stringBuilder = new StringBuilder();
 
         stringBuilder.append(dist);
+        stringBuilder.append(" ");
+        stringBuilder.append(id);
         for (int val : point) {
             stringBuilder.append(" ");
             stringBuilder.append(val);
@@ -93,14 +121,17 @@ public class Candidate implements WritableComparable<Candidate> {
     
     /**
      * Implement the method in the interface Writable.
+     * The point is written in the narrowest width that covers its coordinates.
      * @param out output stream
      * */
     public void write(final DataOutput out) throws IOException {
+        int width = VectorEncoding.choose(point, dim);
+
         out.writeInt(dim);
+        out.writeInt(id);
         out.writeDouble(dist);
-        for (int val : point) {
-            out.writeInt(val);
-        }
+        out.writeByte(width);
+        VectorEncoding.write(out, point, dim, width);
     }
 
     /**
@@ -109,15 +140,15 @@ public class Candidate implements WritableComparable<Candidate> {
      * */
     public void readFields(final DataInput in) throws IOException {
         dim = in.readInt();
+        id = in.readInt();
         dist = in.readDouble();
+        int width = VectorEncoding.check(in.readByte());
         // Since Writable is always reused by Hadoop, we can make use of
         // the current Candidate instance to avoid allocating memory.
-        if (null == point) {
+        if (null == point || point.length != dim) {
             point = new int[dim];
         }
-        for (int i = 0; i < dim; i++) {
-            point[i] = in.readInt();
-        }
+        VectorEncoding.read(in, point, dim, width);
     }
     
     /**
@@ -1,19 +1,24 @@
 package cn.edu.sysu.distributedLSH.common;
 
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.PriorityQueue;
-import java.util.Queue;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
+import org.apache.hadoop.io.Writable;
 
-public class CandidatePriorityQueue {
+
+public class CandidatePriorityQueue implements Writable {
     private int kNeighbors = -1;
+    private int dim = -1;
+
+    // The candQueue is a max-heap whose capacity is kNeighbors. Its items are
+    // the IDs of the candidates, and its data are the candidate points. It is
+    // created once the dimension is known from the first candidate, which is
+    // zero if the queue only carries the IDs and the distances.
+    private TopKHeap candQueue = null;
 
-    // The candQueue is a max-heap whose capacity is kNeighbors. The implementation of
-    // max-heap is PriorityQueue. It can support finding top-k minimum value efficiently.
-    private Queue<Candidate> candQueue = null;
+    // a buffer of a point
+    private int[] point = null;
 
 
     /**
@@ -26,7 +31,6 @@ public class CandidatePriorityQueue {
      * */
     public CandidatePriorityQueue(final int kNeighbors) {
         this.kNeighbors = kNeighbors;
-        candQueue = new PriorityQueue<Candidate>(kNeighbors);
     }
 
     /**
@@ -34,67 +38,197 @@ public class CandidatePriorityQueue {
      * @return the size of candQueue
      * */
     public int size() {
-        return candQueue.size();
+        return null == candQueue ? 0 : candQueue.size();
+    }
+
+    /**
+     * clear.
+     * */
+    public void clear() {
+        if (null != candQueue) {
+            candQueue.clear();
+        }
     }
 
     /**
-     * Given a collided point, update the candQueue.
-     * @param point the collided point
-     * @param query the query
-     * @param ratioRadius  equals to ratio * currentRadius, which is cR
+     * Given a candidate, update the candQueue. The point of the candidate is
+     * only copied if it enters the candQueue.
+     * @param candidate
      * */
     public void update(final Candidate candidate) {
-        if (candQueue.size() == kNeighbors) {
-            // get the candidate with maximum dist in candQueue
-            Candidate currentCand = candQueue.peek();
-            if (candidate.getDist() < currentCand.getDist()) {
-                candQueue.poll();
-                // Update candidate to avoid allocating memory.
-                currentCand.deepCopy(candidate);
-                // insert the new candidate
-                candQueue.add(currentCand);
-            }
-        } else {
-            // insert the collided point to the candQueue
-            candQueue.add(new Candidate(candidate));
+        this.offer(candidate.getDist(), candidate.getId(), candidate.getPoint());
+    }
+
+    /**
+     * Offer a candidate. The point is only copied if it enters the candQueue.
+     * @param dist the distance between the candidate and the query
+     * @param id the ID of the candidate
+     * @param point the candidate point
+     * */
+    public void offer(final double dist, final int id, final int[] point) {
+        this.ensureQueue(point.length);
+        candQueue.offer(dist, id, point, 0);
+    }
+
+    /**
+     * Offer a candidate without its point.
+     * @param dist the distance between the candidate and the query
+     * @param id the ID of the candidate
+     * */
+    public void offer(final double dist, final int id) {
+        this.ensureQueue(0);
+        candQueue.offer(dist, id);
+    }
+
+    /**
+     * Merge the candidates of another queue of the same query, which come
+     * from other partitions.
+     * @param other
+     * */
+    public void merge(final CandidatePriorityQueue other) {
+        if (0 == other.size()) {
+            return;
         }
+        this.ensureQueue(other.dim);
+        candQueue.merge(other.candQueue);
     }
-    
+
     /**
-     * sortedList.
-     * @return the sorted list which is constructed from candQueue
+     * Sort the candidates ascending by distance, after which getId and
+     * getDist return the i-th nearest one.
      * */
-    public List<Candidate> sortedList() {
-        List<Candidate> list = new LinkedList<Candidate>(candQueue);
+    public void sort() {
+        if (null != candQueue) {
+            candQueue.sort();
+        }
+    }
 
-        // Sort the list by dist in ascending order.
-        Collections.sort(list, new Comparator<Candidate>() {
-            public int compare(Candidate a, Candidate b) {
-                if (a.getDist() > b.getDist()) {
-                    return 1;
-                } else if (a.getDist() < b.getDist()) {
-                    return -1;
-                }
-                return 0;
-            }
-        });
+    /**
+     * Get the ID of the i-th candidate.
+     * */
+    public int getId(final int i) {
+        return candQueue.getItem(candQueue.getSlot(i));
+    }
 
-        return list;
+    /**
+     * Get the distance of the i-th candidate.
+     * */
+    public double getDist(final int i) {
+        return candQueue.getDist(candQueue.getSlot(i));
     }
 
     /**
-     * This method will convert the sorted list of the candQueue to a string.
+     * Copy the point of the i-th candidate.
+     * @param i
+     * @param dst receives the dim coordinates of the point
+     * */
+    public void getPoint(final int i, final int[] dst) {
+        int slot = candQueue.getSlot(i);
+        System.arraycopy(candQueue.getData(), candQueue.getDataPos(slot), dst, 0, dim);
+    }
+
+    /**
+     * Create the candQueue for points of dim coordinates.
+     * */
+    private void ensureQueue(final int dim) {
+        if (null == candQueue) {
+            this.dim = dim;
+            candQueue = new TopKHeap(kNeighbors, dim);
+            point = new int[dim];
+        }
+    }
+
+    /**
+     * This method will convert the candQueue sorted by dist in ascending
+     * order to a string.
      * */
     @Override
     public String toString() {
-        List<Candidate> candList = sortedList();
         StringBuilder stringBuilder = new StringBuilder();
 
-        for (Candidate candidate : candList) {
-            stringBuilder.append(candidate.toString());
+        if (null != candQueue) {
+            candQueue.sort();
+            int[] points = candQueue.getData();
+            for (int i = 0; i < candQueue.size(); i++) {
+                int slot = candQueue.getSlot(i);
+                stringBuilder.append(candQueue.getDist(slot));
+                stringBuilder.append(" ");
+                stringBuilder.append(candQueue.getItem(slot));
+                int pos = candQueue.getDataPos(slot);
+                for (int j = pos; j < pos + dim; j++) {
+                    stringBuilder.append(" ");
+                    stringBuilder.append(points[j]);
+                }
+                stringBuilder.append("\n");
+            }
         }
         stringBuilder.append("\n");
 
         return stringBuilder.toString();
     }
+
+    /**
+     * Implement the method in the interface Writable.
+     * The candidates are written nearest first as one record, in which the
+     * points share the narrowest width that covers all of them.
+     * @param out output stream
+     * */
+    public void write(final DataOutput out) throws IOException {
+        this.sort();
+        int size = this.size();
+        int width = VectorEncoding.UINT8;
+        for (int i = 0; i < size; i++) {
+            this.copyPoint(candQueue.getSlot(i));
+            width = Math.max(width, VectorEncoding.choose(point, dim));
+        }
+
+        out.writeInt(kNeighbors);
+        out.writeInt(dim);
+        out.writeByte(width);
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            int slot = candQueue.getSlot(i);
+            out.writeInt(candQueue.getItem(slot));
+            out.writeDouble(candQueue.getDist(slot));
+            this.copyPoint(slot);
+            VectorEncoding.write(out, point, dim, width);
+        }
+    }
+
+    /**
+     * Implement the method in the interface Writable.
+     * @param out output stream
+     * */
+    public void readFields(final DataInput in) throws IOException {
+        int oldKNeighbors = kNeighbors;
+        int oldDim = dim;
+        kNeighbors = in.readInt();
+        dim = in.readInt();
+        int width = VectorEncoding.check(in.readByte());
+
+        // Since Writable is always reused by Hadoop, the heap is reused if
+        // it has the same shape. An empty queue may not know its dimension.
+        if (oldKNeighbors != kNeighbors || oldDim != dim) {
+            candQueue = null;
+        }
+        if (dim >= 0) {
+            this.ensureQueue(dim);
+        }
+        this.clear();
+
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            int id = in.readInt();
+            double dist = in.readDouble();
+            VectorEncoding.read(in, point, dim, width);
+            candQueue.offer(dist, id, point, 0);
+        }
+    }
+
+    /**
+     * Copy the point of a slot to the buffer.
+     * */
+    private void copyPoint(final int slot) {
+        System.arraycopy(candQueue.getData(), candQueue.getDataPos(slot), point, 0, dim);
+    }
 }
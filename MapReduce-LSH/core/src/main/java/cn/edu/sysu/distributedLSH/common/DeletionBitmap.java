@@ -0,0 +1,172 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Writable;
+
+
+/**
+ * DeletionBitmap marks the deleted data points, one bit per row, so that a
+ * deleted point stays in the hash tables until compaction while the
+ * searcher skips it before any distance is calculated. It is kept in its
+ * own file beside the index, since the index is not rewritten by a delete.
+ * A row beyond the size of the bitmap is not deleted, thus the bitmap stays
+ * valid when rows are appended.
+ * */
+public class DeletionBitmap implements Writable {
+    /** the bitmap of a partition is part_X/part.deleted, indexed by row */
+    public static final String FILE_NAME = "part.deleted";
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private int size = 0;           // the number of rows covered
+    private int count = 0;          // the number of deleted rows
+    private long[] words = new long[0];
+
+
+    /**
+     * Default constructor.
+     * */
+    public DeletionBitmap() {}
+
+    /**
+     * Constructor. new a bitmap without deleted row.
+     * @param size the number of rows
+     * */
+    public DeletionBitmap(final int size) {
+        this.size = size;
+        words = new long[(size + 63) >>> 6];
+    }
+
+    /**
+     * Whether a row is deleted.
+     * @param row
+     * */
+    public boolean get(final int row) {
+        if (row >= size) {
+            return false;
+        }
+        return 0 != (words[row >>> 6] & (1L << (row & 63)));
+    }
+
+    /**
+     * Mark a row as deleted.
+     * @param row
+     * @return false if the row has been deleted
+     * */
+    public boolean set(final int row) {
+        if (row >= size) {
+            LSHTool.printAndExit("row " + row + " is beyond the deletion bitmap of "
+                    + size + " rows");
+        }
+        long mask = 1L << (row & 63);
+        if (0 != (words[row >>> 6] & mask)) {
+            return false;
+        }
+        words[row >>> 6] |= mask;
+        count++;
+        return true;
+    }
+
+    /**
+     * Cover more rows, which are not deleted.
+     * @param newSize
+     * */
+    public void resize(final int newSize) {
+        if (newSize <= size) {
+            return;
+        }
+        long[] newWords = new long[(newSize + 63) >>> 6];
+        System.arraycopy(words, 0, newWords, 0, words.length);
+        words = newWords;
+        size = newSize;
+    }
+
+    /**
+     * get the number of rows covered.
+     * */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * get the number of deleted rows.
+     * */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Implement the method in the interface Writable.
+     * @param out output stream
+     * */
+    public void write(final DataOutput out) throws IOException {
+        out.writeInt(size);
+        out.writeInt(count);
+        for (int i = 0; i < words.length; i++) {
+            out.writeLong(words[i]);
+        }
+    }
+
+    /**
+     * Implement the method in the interface Writable.
+     * @param in input stream
+     * */
+    public void readFields(final DataInput in) throws IOException {
+        size = in.readInt();
+        count = in.readInt();
+        words = new long[(size + 63) >>> 6];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = in.readLong();
+        }
+    }
+
+    /**
+     * Save the bitmap to hdfs.
+     * @param fileName
+     * @param fs
+     * */
+    public void saveToHdfs(final String fileName, final FileSystem fs) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                fs.create(new Path(fileName), true), BUFFER_SIZE));
+        try {
+            this.write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read the bitmap from hdfs.
+     * @param fileName
+     * @param fs
+     * @param size the number of rows, which is used if the file does not exist
+     * @return the bitmap, in which no row is deleted if the file does not exist
+     * */
+    public static DeletionBitmap readFromHdfs(final String fileName, final FileSystem fs,
+            final int size) throws IOException {
+        Path inFile = new Path(fileName);
+        if (!fs.exists(inFile)) {
+            return new DeletionBitmap(size);
+        }
+
+        DeletionBitmap bitmap = new DeletionBitmap();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                fs.open(inFile), BUFFER_SIZE));
+        try {
+            bitmap.readFields(in);
+        } finally {
+            in.close();
+        }
+        bitmap.resize(size);
+        return bitmap;
+    }
+}
@@ -1,12 +1,5 @@
 package cn.edu.sysu.distributedLSH.common;
 
-import java.io.IOException;
-
-import org.apache.hadoop.fs.FSDataInputStream;
-import org.apache.hadoop.fs.FSDataOutputStream;
-import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.Path;
-
 
 public class HashTable extends BucketTable {
     private int radiusID;
@@ -48,51 +41,16 @@ public class HashTable extends BucketTable {
     }
 
     /**
-     * @param dir the directory
-     * @param conf
+     * get radiusID.
      * */
-    public void saveToHdfs(final String dir, final FileSystem fs)
-            throws IOException {
-        String fileName = dir + "/radius_" + radiusID + "/" + tableID + ".table";
-
-        Path outFile = new Path(fileName);
-        if (fs.exists(outFile)) {
-            LSHTool.printAndExit("Output file " + fileName + " already exists");
-        }
-
-        FSDataOutputStream out = fs.create(outFile);
-        try {
-            super.write(out);
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            out.close();
-        }
+    public int getRadiusID() {
+        return radiusID;
     }
 
     /**
-     * @param dir the directory
-     * @param conf
+     * get tableID.
      * */
-    public void readFromHdfs(final String dir, final FileSystem fs)
-            throws IOException {
-        String fileName = dir + "/radius_" + radiusID + "/" + tableID + ".table";
-
-        Path inFile = new Path(fileName);
-        if (!fs.exists(inFile)) {
-            LSHTool.printAndExit("Input file " + fileName + " not found");
-        }
-        if (!fs.isFile(inFile)) {
-            LSHTool.printAndExit("Input " + fileName + " should be a file");
-        }
-
-        FSDataInputStream in = fs.open(inFile);
-        try {
-            super.readFields(in);
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            in.close();
-        }
+    public int getTableID() {
+        return tableID;
     }
 }
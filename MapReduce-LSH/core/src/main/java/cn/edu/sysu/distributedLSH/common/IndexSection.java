@@ -0,0 +1,18 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+
+/**
+ * IndexSection writes a section of the partition index which is streamed
+ * from somewhere else, e.g. a local file, when it is written. Unlike a
+ * Writable, it is only written, the section is read back by PartitionIndex.
+ * */
+public interface IndexSection {
+    /**
+     * Write the section.
+     * @param out output stream
+     * */
+    void write(DataOutput out) throws IOException;
+}
@@ -5,11 +5,8 @@ import static java.lang.Math.*;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 
-import org.apache.hadoop.fs.FSDataInputStream;
-import org.apache.hadoop.fs.FSDataOutputStream;
-import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Writable;
 
 
@@ -21,6 +18,8 @@ public class LSH implements Writable {
     private static final int PRIME = 2147483647;            // 2^31 - 1
     // width of the interval, or the "bucket", that is w
     private static final double WIDTH = 4.0;
+    // the number of points projected together by projectPoints
+    private static final int PROJECT_BLOCK = 64;
 
     /** parameters from input */
     private int maxCoordinate;      // the maximum coordinate value in the data set, that is t
@@ -68,6 +67,10 @@ public class LSH implements Writable {
         return hashTableSize;
     }
 
+    public int getProjDim() {
+        return projDim;
+    }
+
     /**
      * Calculate parameters for LSH.
      * */
@@ -214,13 +217,48 @@ public class LSH implements Writable {
         return result;
     }
 
+    /**
+     * Whether the hash space covers the points whose coordinates are within
+     * [-coordinate, coordinate], that is whether such points can be hashed
+     * with these parameters. It is the bound of calcHashVecBitWidth, thus
+     * the parameters calculated for a data set cover its maxCoordinate.
+     * @param coordinate the maximum absolute value of a coordinate
+     * */
+    public boolean covers(final int coordinate) {
+        double max = pow(2, hashVecBitWidth);
+        double sum;
+
+        for (int i = 0; i < hashTableSize; i++) {
+            for (int j = 0; j < projDim; j++) {
+                sum = 0;
+                for (int k = 0; k < dim; k++) {
+                    sum += abs(projVector[i][j][k]);
+                }
+                if (2 * (sum*coordinate + shift[i][j]) / WIDTH > max) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     /**
      * Calculate hash value for a point in a hash table with ID tableID.
      * */
     public int calcHashValue(final int tableID, final int radius, final int[] point) {
+        return calcHashValue(tableID, radius, point, new double[projDim]);
+    }
+
+    /**
+     * Calculate hash value for a point in a hash table with ID tableID.
+     * hashVector is the scratch space of the projection, whose length is at
+     * least projDim, so that a caller hashing many points allocates nothing.
+     * A scratch space must not be shared among threads.
+     * */
+    public int calcHashValue(final int tableID, final int radius, final int[] point,
+            final double[] hashVector) {
         int result;
         double hashValue;
-        double hashVector[] = new double[projDim];
 
         // Project a point to an m-dimension vector
         for (int i = 0; i < projDim; i++) {
@@ -231,35 +269,99 @@ public class LSH implements Writable {
             hashVector[i] = hashValue + shift[tableID][i];
         }
         // Call the auxiliary function to calculate standard hash value
-        result = calcStandardHashValue(radius, hashVector);
+        result = calcStandardHashValue(radius, hashVector, 0);
         return result;
     }
 
+    /**
+     * Project a batch of points in a hash table with ID tableID. The batch is
+     * blocked so that the projection vectors of a block of points stay in
+     * cache, and each projection is summed in the same order as in
+     * calcHashValue, so that a point falls into the same bucket either way.
+     * @param tableID
+     * @param points the points
+     * @param projected the projected vectors, the one of the p-th point is in
+     *  [p * projDim, (p + 1) * projDim); its length is at least
+     *  points.length * projDim
+     * */
+    public void projectPoints(final int tableID, final int[][] points, final double[] projected) {
+        final double[][] vectors = projVector[tableID];
+        for (int start = 0; start < points.length; start += PROJECT_BLOCK) {
+            int end = Math.min(points.length, start + PROJECT_BLOCK);
+            for (int i = 0; i < projDim; i++) {
+                final double[] vector = vectors[i];
+                for (int p = start; p < end; p++) {
+                    final int[] point = points[p];
+                    double hashValue = 0;
+                    for (int j = 0; j < dim; j++) {
+                        hashValue += vector[j] * point[j];
+                    }
+                    projected[p * projDim + i] = hashValue + shift[tableID][i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculate hash value for a point projected by projectPoints.
+     * @param radius
+     * @param projected the projected vectors
+     * @param offset the position of the projected point in projected
+     * */
+    public int calcHashValue(final int radius, final double[] projected, final int offset) {
+        return calcStandardHashValue(radius, projected, offset);
+    }
+
+    /**
+     * Whether another LSH has the same hash functions, i.e. it hashes every
+     * point into the same buckets.
+     * */
+    public boolean hasSameHashFunctions(final LSH other) {
+        if (this.dim != other.dim || this.projDim != other.projDim
+                || this.hashTableSize != other.hashTableSize
+                || this.hashVecBitWidth != other.hashVecBitWidth
+                || this.maxShiftedProj != other.maxShiftedProj
+                || !Arrays.equals(this.standardHash, other.standardHash)) {
+            return false;
+        }
+        for (int i = 0; i < hashTableSize; i++) {
+            if (!Arrays.equals(this.shift[i], other.shift[i])) {
+                return false;
+            }
+            for (int j = 0; j < projDim; j++) {
+                if (!Arrays.equals(this.projVector[i][j], other.projVector[i][j])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     /**
      * Calculate standard hash value for an m-dimension hash vector. 
      * This is an auxiliary function for calcHashValue.
      * */
-    private int calcStandardHashValue(final int radius, final double[] hashVector) {
+    private int calcStandardHashValue(final int radius, final double[] hashVector,
+            final int offset) {
         final int maxHashingValue = 1 << hashVecBitWidth;
-        int shiftedVector[] = new int[projDim];
+        int shiftedValue;
 
-        // Shift the hash vector first.
+        // Shift the hash vector first, then calculate standard hash value
+        // based on the shifted vector.
+        long result = 0;
         for (int i = 0; i < projDim; i++) {
             // Move the hash vector (maxShifted / 2) units towards right
             // to make it non-negative.
-            shiftedVector[i] = (int)floor((hashVector[i] + maxShiftedProj/2.0) / (WIDTH*radius));
+            shiftedValue = (int)floor((hashVector[offset + i] + maxShiftedProj/2.0)
+                    / (WIDTH*radius));
 
-            if (shiftedVector[i] < 0 || shiftedVector[i] >= maxHashingValue) {
+            if (shiftedValue < 0 || shiftedValue >= maxHashingValue) {
                 System.out.printf("%d, %d, %.9f\n",
-                        maxHashingValue, shiftedVector[i], hashVector[i]);
+                        maxHashingValue, shiftedValue, hashVector[offset + i]);
                 LSHTool.printAndExit("Illegal coordinate in the hash space found.");
             }
-        }
 
-        // Then calculate standard hash value based on the shifted vector.
-        long result = 0;
-        for (int i = 0; i < projDim; i++) {
-            result += shiftedVector[i] * standardHash[i];
+            result += shiftedValue * standardHash[i];
             // (result & mask) equal to lower-32-bit of result
             // (result >> 32) equal to higher-32-bit of result
             result = (result & MASK) + 5 * (result >> 32);
@@ -367,54 +469,4 @@ public class LSH implements Writable {
             standardHash[i] = in.readInt();
         }
     }
-
-    /**
-     * Save the LSH to hdfs.
-     * @param dir the directory
-     * @param conf
-     * */
-    public void saveToHdfs(final String dir, final FileSystem fs)
-            throws IOException {
-        String fileName = dir + "/hash.param";
-
-        Path outFile = new Path(fileName);
-        if (fs.exists(outFile)) {
-            LSHTool.printAndExit("Output file " + fileName + " already exists");
-        }
-
-        FSDataOutputStream out = fs.create(outFile);
-        try {
-            this.write(out);
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            out.close();
-        }
-    }
-
-    /**
-     * Read the LSH from hdfs.
-     * @param dir the directory
-     * @param conf
-     * */
-    public void readFromHdfs(final String dir, final FileSystem fs) throws IOException {
-        String fileName = dir + "/hash.param";
-
-        Path inFile = new Path(fileName);
-        if (!fs.exists(inFile)) {
-            LSHTool.printAndExit("Input file " + fileName + " not found");
-        }
-        if (!fs.isFile(inFile)) {
-            LSHTool.printAndExit("Input " + fileName + " should be a file");
-        }
-
-        FSDataInputStream in = fs.open(inFile);
-        try {
-            this.readFields(in);
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            in.close();
-        }
-    }
 }
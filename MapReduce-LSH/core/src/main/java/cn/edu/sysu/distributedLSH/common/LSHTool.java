@@ -4,6 +4,8 @@ import static java.lang.Math.*;
 
 import java.util.Random;
 
+import org.apache.hadoop.io.Text;
+
 
 public class LSHTool {
     private static final double DOUBLE_ZERO = 1e-6;
@@ -191,6 +193,21 @@ public class LSHTool {
         return sqrt(distance);
     }
 
+    /**
+     * Parse the partition ID from a line of a seed file of partitions.
+     * @param parser which is reused for the lines
+     * @param value contains the partition id
+     * */
+    public static int parsePartID(final VectorParser parser, final Text value) {
+        parser.reset(value);
+        try {
+            return parser.nextInt();
+        } catch (NumberFormatException e) {
+            printAndExit(e.getMessage());
+        }
+        return -1;
+    }
+
     /**
      * Print a string then exit.
      * @param str
@@ -0,0 +1,471 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Writable;
+
+
+/**
+ * PartitionIndex packs everything built for a partition of the data set into
+ * the single file part_X/part.index, instead of one file per radius and table.
+ * The layout of the file is:
+ *   header:    MAGIC, VERSION
+ *   sections:  the LSH parameters, the data points, the IDs of the data
+ *              points, the hash tables and their bucket filters, in the
+ *              order they are written. The hash tables are laid out by
+ *              BucketDirectory.
+ *   directory: the number of sections, then (type, radiusID, tableID,
+ *              offset, length) for each section
+ *   footer:    the offset of the directory, MAGIC
+ * Both the builder and the searcher go through one handle of the file.
+ * */
+public class PartitionIndex {
+    public static final String FILE_NAME = "part.index";
+
+    private static final int MAGIC = 0x4c534849;    // "LSHI"
+    // 2: the bucket directories are cut into blocks with a sparse index
+    private static final int VERSION = 2;
+    private static final int FOOTER_SIZE = 12;
+    private static final int BUFFER_SIZE = 65536;
+    // Two buckets, or two directory blocks, are fetched by one read if the
+    // gap between them is not larger than this. Reading a few useless bytes
+    // is cheaper than a seek.
+    static final int MAX_READ_GAP = 65536;
+
+    /** section types */
+    private static final int LSH_SECTION = 0;
+    private static final int DATASET_SECTION = 1;
+    private static final int TABLE_SECTION = 2;
+    private static final int FILTER_SECTION = 3;
+    private static final int ID_MAP_SECTION = 4;
+
+    private String fileName;
+
+    // for writing
+    private FSDataOutputStream rawOut = null;
+    private DataOutputStream out = null;
+    private List<long[]> entries = null;
+
+    // for reading
+    private FSDataInputStream rawIn = null;
+    // key: section key, value: {offset, length}
+    private Map<Long, long[]> directory = null;
+    private byte[] readBuffer = new byte[0];
+
+
+    /**
+     * Constructor. Use create or open instead.
+     * */
+    private PartitionIndex(final String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * Create a new index file in the directory of a partition.
+     * @param partDir the directory of the partition
+     * @param fs
+     * */
+    public static PartitionIndex create(final String partDir, final FileSystem fs)
+            throws IOException {
+        return create(partDir, FILE_NAME, fs);
+    }
+
+    /**
+     * Create a new index file with the given name in the directory of a
+     * partition, e.g. a delta segment. See PartitionSegments.
+     * @param partDir the directory of the partition
+     * @param name the name of the index file
+     * @param fs
+     * */
+    public static PartitionIndex create(final String partDir, final String name,
+            final FileSystem fs) throws IOException {
+        PartitionIndex index = new PartitionIndex(partDir + "/" + name);
+
+        Path outFile = new Path(index.fileName);
+        if (fs.exists(outFile)) {
+            LSHTool.printAndExit("Output file " + index.fileName + " already exists");
+        }
+
+        index.rawOut = fs.create(outFile);
+        index.out = new DataOutputStream(new BufferedOutputStream(index.rawOut, BUFFER_SIZE));
+        index.entries = new ArrayList<long[]>();
+
+        index.out.writeInt(MAGIC);
+        index.out.writeInt(VERSION);
+        return index;
+    }
+
+    /**
+     * Open the index file of a partition and read its directory.
+     * @param partDir the directory of the partition
+     * @param fs
+     * */
+    public static PartitionIndex open(final String partDir, final FileSystem fs)
+            throws IOException {
+        return open(partDir, FILE_NAME, fs);
+    }
+
+    /**
+     * Open the index file with the given name in the directory of a
+     * partition and read its directory.
+     * @param partDir the directory of the partition
+     * @param name the name of the index file
+     * @param fs
+     * */
+    public static PartitionIndex open(final String partDir, final String name,
+            final FileSystem fs) throws IOException {
+        PartitionIndex index = new PartitionIndex(partDir + "/" + name);
+
+        Path inFile = new Path(index.fileName);
+        if (!fs.exists(inFile)) {
+            LSHTool.printAndExit("Input file " + index.fileName + " not found");
+        }
+        if (!fs.isFile(inFile)) {
+            LSHTool.printAndExit("Input " + index.fileName + " should be a file");
+        }
+
+        index.rawIn = fs.open(inFile);
+        index.readDirectory(fs.getFileStatus(inFile).getLen());
+        return index;
+    }
+
+    /**
+     * Read the footer and then the directory.
+     * @param fileLength the length of the index file
+     * */
+    private void readDirectory(final long fileLength) throws IOException {
+        if (fileLength < 8 + FOOTER_SIZE) {
+            LSHTool.printAndExit("Index file " + fileName + " is truncated");
+        }
+        rawIn.seek(0);
+        if (rawIn.readInt() != MAGIC) {
+            LSHTool.printAndExit("Index file " + fileName + " is corrupted");
+        }
+        if (rawIn.readInt() != VERSION) {
+            LSHTool.printAndExit("Index file " + fileName + " is of another version,"
+                    + " please build the index again");
+        }
+
+        rawIn.seek(fileLength - FOOTER_SIZE);
+        long dirOffset = rawIn.readLong();
+        if (rawIn.readInt() != MAGIC) {
+            LSHTool.printAndExit("Index file " + fileName + " is corrupted");
+        }
+
+        DataInputStream in = this.seek(dirOffset);
+        int size = in.readInt();
+        directory = new HashMap<Long, long[]>(size * 2);
+        for (int i = 0; i < size; i++) {
+            int type = in.readInt();
+            int radiusID = in.readInt();
+            int tableID = in.readInt();
+            long offset = in.readLong();
+            long length = in.readLong();
+            directory.put(sectionKey(type, radiusID, tableID), new long[] {offset, length});
+        }
+    }
+
+    /**
+     * Encode a section into a single long key.
+     * */
+    private static long sectionKey(final int type, final int radiusID, final int tableID) {
+        return ((long)type << 56) | ((long)radiusID << 32) | (tableID & 0xffffffffL);
+    }
+
+    /**
+     * Seek to the offset and return a buffered stream reading from there.
+     * */
+    private DataInputStream seek(final long offset) throws IOException {
+        rawIn.seek(offset);
+        return new DataInputStream(new BufferedInputStream(rawIn, BUFFER_SIZE));
+    }
+
+    /**
+     * Begin a section.
+     * @return the offset of the section
+     * */
+    private long beginSection() throws IOException {
+        // Flush the buffer first so that getPos is the real offset.
+        out.flush();
+        return rawOut.getPos();
+    }
+
+    /**
+     * End a section and add it to the directory.
+     * */
+    private void endSection(final int type, final int radiusID, final int tableID,
+            final long offset) throws IOException {
+        out.flush();
+        entries.add(new long[] {type, radiusID, tableID, offset, rawOut.getPos() - offset});
+    }
+
+    /**
+     * Append a section to the index file.
+     * */
+    private void writeSection(final int type, final int radiusID, final int tableID,
+            final Writable writable) throws IOException {
+        long offset = beginSection();
+        writable.write(out);
+        endSection(type, radiusID, tableID, offset);
+    }
+
+    /**
+     * Append a streamed section to the index file.
+     * */
+    private void writeSection(final int type, final int radiusID, final int tableID,
+            final IndexSection section) throws IOException {
+        long offset = beginSection();
+        section.write(out);
+        endSection(type, radiusID, tableID, offset);
+    }
+
+    /**
+     * Find a section in the directory.
+     * @return {offset, length} of the section
+     * */
+    private long[] findSection(final int type, final int radiusID, final int tableID) {
+        long[] entry = directory.get(sectionKey(type, radiusID, tableID));
+        if (null == entry) {
+            LSHTool.printAndExit("Section (" + type + ", " + radiusID + ", " + tableID
+                    + ") not found in " + fileName);
+        }
+        return entry;
+    }
+
+    /**
+     * Read a section from the index file.
+     * */
+    private void readSection(final int type, final int radiusID, final int tableID,
+            final Writable writable) throws IOException {
+        long[] entry = findSection(type, radiusID, tableID);
+        writable.readFields(this.seek(entry[0]));
+    }
+
+    /**
+     * Write the LSH parameters.
+     * */
+    public void writeLsh(final LSH lsh) throws IOException {
+        writeSection(LSH_SECTION, 0, 0, lsh);
+    }
+
+    /**
+     * Read the LSH parameters.
+     * */
+    public void readLsh(final LSH lsh) throws IOException {
+        readSection(LSH_SECTION, 0, 0, lsh);
+    }
+
+    /**
+     * Write the data points of the partition.
+     * */
+    public void writeDataSet(final TwoDArray dataPoints) throws IOException {
+        writeSection(DATASET_SECTION, 0, 0, dataPoints);
+    }
+
+    /**
+     * Write the data points of the partition with a section which writes in
+     * the layout of TwoDArray, e.g. by streaming the rows from a local file.
+     * */
+    public void writeDataSet(final IndexSection dataPoints) throws IOException {
+        writeSection(DATASET_SECTION, 0, 0, dataPoints);
+    }
+
+    /**
+     * Read the data points of the partition.
+     * */
+    public void readDataSet(final TwoDArray dataPoints) throws IOException {
+        readSection(DATASET_SECTION, 0, 0, dataPoints);
+    }
+
+    /**
+     * Read the width of the coordinates of the data points without reading
+     * the data points.
+     * */
+    public int readDataSetWidth() throws IOException {
+        long[] entry = findSection(DATASET_SECTION, 0, 0);
+        // skip the number of rows and the number of columns
+        rawIn.seek(entry[0] + 8);
+        return VectorEncoding.check(rawIn.readByte());
+    }
+
+    /**
+     * Write the IDs of the data points. ids[i] is the ID of the i-th row of
+     * the data points.
+     * */
+    public void writeIdMap(final int[] ids) throws IOException {
+        long offset = beginSection();
+        out.writeInt(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            out.writeInt(ids[i]);
+        }
+        endSection(ID_MAP_SECTION, 0, 0, offset);
+    }
+
+    /**
+     * Write the IDs of the data points with a section which writes the
+     * number of IDs followed by the IDs, in the layout of writeIdMap(int[]).
+     * */
+    public void writeIdMap(final IndexSection ids) throws IOException {
+        writeSection(ID_MAP_SECTION, 0, 0, ids);
+    }
+
+    /**
+     * Read the IDs of the data points.
+     * */
+    public int[] readIdMap() throws IOException {
+        long[] entry = findSection(ID_MAP_SECTION, 0, 0);
+        DataInputStream in = this.seek(entry[0]);
+        int[] ids = new int[in.readInt()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = in.readInt();
+        }
+        return ids;
+    }
+
+    /**
+     * Read the number of IDs, which is the number of data points, without
+     * reading the IDs.
+     * */
+    public int readIdMapSize() throws IOException {
+        long[] entry = findSection(ID_MAP_SECTION, 0, 0);
+        rawIn.seek(entry[0]);
+        return rawIn.readInt();
+    }
+
+    /**
+     * Write a hash table with a sorted bucket directory.
+     * */
+    public void writeTable(final HashTable hashTable) throws IOException {
+        long offset = beginSection();
+        BucketDirectory.write(out, hashTable);
+        endSection(TABLE_SECTION, hashTable.getRadiusID(), hashTable.getTableID(), offset);
+    }
+
+    /**
+     * Write a hash table with a section which writes in the layout of
+     * BucketDirectory, e.g. by merging sorted runs from local files.
+     * */
+    public void writeTable(final int radiusID, final int tableID, final IndexSection table)
+            throws IOException {
+        writeSection(TABLE_SECTION, radiusID, tableID, table);
+    }
+
+    /**
+     * Read the sparse index of the bucket directory of a hash table. The
+     * directory blocks are read by find or readAll of the directory, and the
+     * postings are left on disk and should be fetched by readBuckets.
+     * */
+    public BucketDirectory readBucketDirectory(final int radiusID, final int tableID)
+            throws IOException {
+        long[] entry = findSection(TABLE_SECTION, radiusID, tableID);
+        BucketDirectory bucketDir = new BucketDirectory();
+        bucketDir.read(rawIn, entry[0]);
+        return bucketDir;
+    }
+
+    /**
+     * Fetch the postings of some buckets with positional reads. Buckets that
+     * are close to each other in the file are coalesced into a single read,
+     * thus the I/O is proportional to the touched buckets rather than the
+     * whole table.
+     * @param bucketDir the bucket directory of the table
+     * @param positions the positions of the buckets in bucketDir, which must
+     *  be distinct and sorted ascending
+     * @return postings[i] is the postings of the bucket at positions[i]
+     * */
+    public int[][] readBuckets(final BucketDirectory bucketDir, final int[] positions)
+            throws IOException {
+        int[][] postings = new int[positions.length][];
+        bucketDir.readBlocksOf(positions);
+
+        int first = 0;
+        while (first < positions.length) {
+            // extend the run as long as the next bucket is close enough
+            long runStart = bucketDir.getBucketOffset(positions[first]);
+            long runEnd = runStart + 4L * bucketDir.getBucketSize(positions[first]);
+            int last = first + 1;
+            while (last < positions.length) {
+                long nextStart = bucketDir.getBucketOffset(positions[last]);
+                if (nextStart - runEnd > MAX_READ_GAP) {
+                    break;
+                }
+                runEnd = nextStart + 4L * bucketDir.getBucketSize(positions[last]);
+                last++;
+            }
+
+            int runLength = (int)(runEnd - runStart);
+            if (readBuffer.length < runLength) {
+                readBuffer = new byte[runLength];
+            }
+            rawIn.readFully(runStart, readBuffer, 0, runLength);
+
+            for (int i = first; i < last; i++) {
+                int size = bucketDir.getBucketSize(positions[i]);
+                int pos = (int)(bucketDir.getBucketOffset(positions[i]) - runStart);
+                int[] bucket = new int[size];
+                for (int j = 0; j < size; j++, pos += 4) {
+                    bucket[j] = VectorEncoding.decodeInt(readBuffer, pos);
+                }
+                postings[i] = bucket;
+            }
+            first = last;
+        }
+        return postings;
+    }
+
+    /**
+     * Write the bucket filter of a hash table.
+     * */
+    public void writeFilter(final int radiusID, final int tableID, final BucketFilter filter)
+            throws IOException {
+        writeSection(FILTER_SECTION, radiusID, tableID, filter);
+    }
+
+    /**
+     * Read the bucket filter of a hash table.
+     * */
+    public void readFilter(final int radiusID, final int tableID, final BucketFilter filter)
+            throws IOException {
+        readSection(FILTER_SECTION, radiusID, tableID, filter);
+    }
+
+    /**
+     * Close the index. When writing, the directory and the footer are
+     * appended first.
+     * */
+    public void close() throws IOException {
+        if (null != out) {
+            out.flush();
+            long dirOffset = rawOut.getPos();
+
+            out.writeInt(entries.size());
+            for (long[] entry : entries) {
+                out.writeInt((int)entry[0]);
+                out.writeInt((int)entry[1]);
+                out.writeInt((int)entry[2]);
+                out.writeLong(entry[3]);
+                out.writeLong(entry[4]);
+            }
+            out.writeLong(dirOffset);
+            out.writeInt(MAGIC);
+            out.close();
+            out = null;
+        }
+        if (null != rawIn) {
+            rawIn.close();
+            rawIn = null;
+        }
+    }
+}
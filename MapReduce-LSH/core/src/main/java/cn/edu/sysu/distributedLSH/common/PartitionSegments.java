@@ -0,0 +1,281 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Writable;
+
+
+/**
+ * PartitionSegments lists the segments of a partition. A partition consists
+ * of the base index part.index, which is always there, and the delta
+ * segments written by the inserts since the base was built, oldest first.
+ * A delta segment is a PartitionIndex of the new points only, with the LSH
+ * parameters of the base. The list is kept in the manifest
+ * part_X/part.segments, and a partition without a manifest has only the
+ * base. The rows of the segments are numbered one after another, base
+ * first, thus the partition is searched and its deletion bitmap is indexed
+ * as if it was a single index. A delta file which is not in the manifest is
+ * left by a merge and removed by clean.
+ * */
+public class PartitionSegments implements Writable {
+    public static final String MANIFEST_NAME = "part.segments";
+
+    private static final String DELTA_PREFIX = "delta_";
+    private static final String DELTA_SUFFIX = ".index";
+
+    private List<String> deltaNames = new ArrayList<String>();
+    private List<Long> createTimes = new ArrayList<Long>();
+    // offsets[i] is the first row of segment i, offsets[getSegmentNum()] is
+    // the number of rows. It is set by readRows or readRowNum.
+    private int[] offsets = null;
+
+
+    /**
+     * Default constructor. new a list with the base only.
+     * */
+    public PartitionSegments() {}
+
+    /**
+     * Read the manifest of a partition.
+     * @param partDir the directory of the partition
+     * @param fs
+     * @return the segments, which is the base only if there is no manifest
+     * */
+    public static PartitionSegments read(final String partDir, final FileSystem fs)
+            throws IOException {
+        PartitionSegments segments = new PartitionSegments();
+        Path inFile = new Path(partDir + "/" + MANIFEST_NAME);
+        if (!fs.exists(inFile)) {
+            return segments;
+        }
+
+        FSDataInputStream in = fs.open(inFile);
+        try {
+            segments.readFields(in);
+        } finally {
+            in.close();
+        }
+        return segments;
+    }
+
+    /**
+     * Save the manifest to the directory of a partition.
+     * @param partDir the directory of the partition, or the work directory
+     *  of the partition for a side file
+     * @param fs
+     * */
+    public void save(final String partDir, final FileSystem fs) throws IOException {
+        FSDataOutputStream out = fs.create(new Path(partDir + "/" + MANIFEST_NAME), true);
+        try {
+            this.write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Delete the delta files of a partition which are not in its manifest.
+     * @param partDir the directory of the partition
+     * @param fs
+     * @return the number of the deleted files
+     * */
+    public static int clean(final String partDir, final FileSystem fs) throws IOException {
+        Path dir = new Path(partDir);
+        if (!fs.exists(dir)) {
+            return 0;
+        }
+        Set<String> live = new HashSet<String>(read(partDir, fs).deltaNames);
+
+        int count = 0;
+        for (FileStatus status : fs.listStatus(dir)) {
+            String name = status.getPath().getName();
+            if (name.startsWith(DELTA_PREFIX) && !live.contains(name)) {
+                fs.delete(status.getPath(), false);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * get the file name of a delta segment.
+     * @param segmentID the unique ID of the segment, e.g. the time it is
+     *  created
+     * */
+    public static String getDeltaName(final long segmentID) {
+        return DELTA_PREFIX + segmentID + DELTA_SUFFIX;
+    }
+
+    /**
+     * Append a delta segment.
+     * @param name the file name of the segment
+     * @param createTime the time in milliseconds when the segment is created
+     * */
+    public void addDelta(final String name, final long createTime) {
+        deltaNames.add(name);
+        createTimes.add(createTime);
+        offsets = null;
+    }
+
+    /**
+     * get the number of delta segments.
+     * */
+    public int getDeltaNum() {
+        return deltaNames.size();
+    }
+
+    /**
+     * get the time when the oldest delta segment is created, or -1 if there
+     * is no delta segment.
+     * */
+    public long getOldestCreateTime() {
+        return createTimes.isEmpty() ? -1 : createTimes.get(0);
+    }
+
+    /**
+     * get the number of segments, including the base.
+     * */
+    public int getSegmentNum() {
+        return deltaNames.size() + 1;
+    }
+
+    /**
+     * get the file name of a segment.
+     * @param i 0 for the base, i for the i-th delta segment
+     * */
+    public String getSegmentName(final int i) {
+        return 0 == i ? PartitionIndex.FILE_NAME : deltaNames.get(i - 1);
+    }
+
+    /**
+     * Open all the segments of a partition.
+     * @param partDir the directory of the partition
+     * @param fs
+     * */
+    public PartitionIndex[] openAll(final String partDir, final FileSystem fs)
+            throws IOException {
+        PartitionIndex[] indexes = new PartitionIndex[this.getSegmentNum()];
+        try {
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = PartitionIndex.open(partDir, this.getSegmentName(i), fs);
+            }
+        } catch (IOException e) {
+            closeAll(indexes);
+            throw e;
+        }
+        return indexes;
+    }
+
+    /**
+     * Close the opened segments.
+     * @param indexes
+     * */
+    public static void closeAll(final PartitionIndex[] indexes) throws IOException {
+        IOException error = null;
+        for (int i = 0; i < indexes.length; i++) {
+            if (null == indexes[i]) {
+                continue;
+            }
+            try {
+                indexes[i].close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (null != error) {
+            throw error;
+        }
+    }
+
+    /**
+     * Read the data points of all the segments, one after another.
+     * @param indexes the opened segments
+     * @param dataPoints the data points, in the width of the base
+     * @return the IDs of the data points
+     * */
+    public int[] readRows(final PartitionIndex[] indexes, final TwoDArray dataPoints)
+            throws IOException {
+        indexes[0].readDataSet(dataPoints);
+        if (1 == indexes.length) {
+            int[] ids = indexes[0].readIdMap();
+            offsets = new int[] {0, ids.length};
+            return ids;
+        }
+
+        int size = this.readRowNum(indexes);
+        int[] ids = new int[size];
+        dataPoints.ensureCapacity(size);
+        TwoDArray delta = new TwoDArray();
+        int[] point = new int[dataPoints.getCol()];
+        for (int i = 0; i < indexes.length; i++) {
+            int[] segmentIds = indexes[i].readIdMap();
+            System.arraycopy(segmentIds, 0, ids, offsets[i], segmentIds.length);
+            if (i > 0) {
+                indexes[i].readDataSet(delta);
+                for (int row = 0; row < delta.getRow(); row++) {
+                    delta.getRow(row, point);
+                    dataPoints.add(point);
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Read the number of rows of all the segments without reading the rows.
+     * @param indexes the opened segments
+     * */
+    public int readRowNum(final PartitionIndex[] indexes) throws IOException {
+        offsets = new int[indexes.length + 1];
+        for (int i = 0; i < indexes.length; i++) {
+            offsets[i + 1] = offsets[i] + indexes[i].readIdMapSize();
+        }
+        return offsets[indexes.length];
+    }
+
+    /**
+     * get the first row of a segment, after readRows or readRowNum.
+     * @param i the segment, or getSegmentNum() for the number of rows
+     * */
+    public int getRowOffset(final int i) {
+        return offsets[i];
+    }
+
+    /**
+     * Implement the method in the interface Writable.
+     * @param out output stream
+     * */
+    public void write(final DataOutput out) throws IOException {
+        out.writeInt(deltaNames.size());
+        for (int i = 0; i < deltaNames.size(); i++) {
+            out.writeUTF(deltaNames.get(i));
+            out.writeLong(createTimes.get(i));
+        }
+    }
+
+    /**
+     * Implement the method in the interface Writable.
+     * @param in input stream
+     * */
+    public void readFields(final DataInput in) throws IOException {
+        deltaNames.clear();
+        createTimes.clear();
+        offsets = null;
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            deltaNames.add(in.readUTF());
+            createTimes.add(in.readLong());
+        }
+    }
+}
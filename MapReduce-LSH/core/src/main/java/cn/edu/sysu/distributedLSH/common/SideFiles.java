@@ -0,0 +1,88 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+
+/**
+ * SideFiles lets the tasks of a job write files under baseDir besides the
+ * records of the job, such as the statistics and the hash tables, so that
+ * the job is safe with speculative execution and task retries.
+ * A task writes a side file under the directory returned by getWorkDir,
+ * with the same path relative to it as relative to baseDir. The directory
+ * is in the work directory of the task attempt, which FileOutputCommitter
+ * promotes to the output directory of the job only for the committed
+ * attempt. After the job succeeds, the driver calls promote to move the
+ * side files to baseDir. Thus the files of a failed or a killed attempt are
+ * never seen, and two attempts never write the same file.
+ * */
+public class SideFiles {
+    // It begins with "_" so that it is not taken as the output of the job.
+    public static final String DIR_NAME = "_side";
+
+
+    /**
+     * For safe.
+     * */
+    private SideFiles() {}
+
+    /**
+     * get the directory of the side files of the task attempt.
+     * @param context
+     * */
+    public static String getWorkDir(final TaskInputOutputContext<?, ?, ?, ?> context)
+            throws IOException, InterruptedException {
+        return FileOutputFormat.getWorkOutputPath(context).toString() + "/" + DIR_NAME;
+    }
+
+    /**
+     * Move the side files promoted to the output directory of a job to
+     * baseDir, replacing the existing files of the same path. If baseDir is
+     * a fork, the entries which get side files are copied into it first.
+     * See Snapshots.
+     * @param fs
+     * @param outputDir the output directory of the job
+     * @param baseDir
+     * @return the number of the moved files
+     * */
+    public static int promote(final FileSystem fs, final Path outputDir, final String baseDir)
+            throws IOException {
+        Path sideDir = new Path(outputDir, DIR_NAME);
+        if (!fs.exists(sideDir)) {
+            return 0;
+        }
+        for (FileStatus status : fs.listStatus(sideDir)) {
+            Snapshots.own(fs, baseDir, status.getPath().getName());
+        }
+        int count = move(fs, sideDir, new Path(baseDir));
+        fs.delete(sideDir, true);
+        return count;
+    }
+
+    /**
+     * Move the files under src to dst recursively.
+     * */
+    private static int move(final FileSystem fs, final Path src, final Path dst)
+            throws IOException {
+        int count = 0;
+        fs.mkdirs(dst);
+        for (FileStatus status : fs.listStatus(src)) {
+            Path target = new Path(dst, status.getPath().getName());
+            if (status.isDir()) {
+                count += move(fs, status.getPath(), target);
+            } else {
+                fs.delete(target, false);
+                if (!fs.rename(status.getPath(), target)) {
+                    throw new IOException("move " + status.getPath() + " to " + target + " failed");
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+}
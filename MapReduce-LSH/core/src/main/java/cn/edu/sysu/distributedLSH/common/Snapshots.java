@@ -0,0 +1,614 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+
+
+/**
+ * Snapshots keeps the built indexes of baseDir in numbered snapshot
+ * directories, baseDir/snapshot_N, and the name of the one to search in the
+ * pointer file baseDir/CURRENT. A build goes to a new snapshot, which is
+ * published only after it succeeds, so the searches keep using the current
+ * snapshot meanwhile and a failed build changes nothing. A job resolves the
+ * snapshot once when it starts. A directory without CURRENT, e.g. an index
+ * built before the snapshots or a resolved snapshot, is resolved to itself.
+ * The maintenance, e.g. an insert or a merge, never rewrites a published
+ * snapshot either: it works on a fork of the current one, which is
+ * published in the same way. A fork is copy-on-write: it holds only the
+ * entries which are rewritten, e.g. the partitions the maintenance
+ * changes, and the statistics. Its manifest maps each of the other entries
+ * to the snapshot which holds it, thus the readers find an entry with
+ * locate, and the writers call own before they rewrite it.
+ * A snapshot is marked as being built until it is published. The marker
+ * holds the owner and the start time, and the owner writes it again every
+ * HEARTBEAT_MILLIS. A snapshot whose marker has not been written for
+ * STALE_MILLIS is left by a job which died, and only such a snapshot is
+ * reclaimed, so that the jobs running at the same time are not disturbed.
+ * */
+public class Snapshots {
+    public static final String CURRENT_NAME = "CURRENT";
+
+    // The new pointer is complete before CURRENT is replaced by it, thus a
+    // reader which misses CURRENT finds the new pointer.
+    private static final String NEW_NAME = "CURRENT.new";
+    private static final String PREFIX = "snapshot_";
+    private static final int RESOLVE_RETRIES = 10;
+    private static final long RESOLVE_WAIT_MILLIS = 100;
+    // A heartbeat writes the marker under the next sequence number before
+    // the previous one is deleted, thus a snapshot being built always has a
+    // marker, _BUILDING.0, _BUILDING.1 and so on.
+    static final String BUILDING_NAME = "_BUILDING";
+    private static final long HEARTBEAT_MILLIS = 60 * 1000L;
+    static final long STALE_MILLIS = 10 * 60 * 1000L;
+    // The manifest of a fork, which maps each entry held by another
+    // snapshot to the name of that snapshot, or to "" for baseDir itself.
+    static final String MANIFEST_NAME = "_MANIFEST";
+    // the statistics are small and rewritten by an insert, thus copied
+    private static final String STAT_NAME = "stat";
+
+    // the heartbeats of the snapshots built by this process, by directory
+    private static final Map<String, Heartbeat> heartbeats = new HashMap<String, Heartbeat>();
+    private static Timer timer = null;
+
+
+    /**
+     * The heartbeat of a snapshot being built by this process.
+     * */
+    private static class Heartbeat extends TimerTask {
+        private FileSystem fs;
+        private String snapshotDir;
+        private long startTime;
+        private int sequence = 0;
+        private boolean stopped = false;
+
+        Heartbeat(final FileSystem fs, final String snapshotDir, final long startTime) {
+            this.fs = fs;
+            this.snapshotDir = snapshotDir;
+            this.startTime = startTime;
+        }
+
+        @Override
+        public synchronized void run() {
+            if (stopped) {
+                return;
+            }
+            try {
+                Path oldMarker = new Path(snapshotDir, BUILDING_NAME + "." + sequence);
+                if (!fs.exists(oldMarker)) {
+                    // the snapshot has been reclaimed
+                    this.stop();
+                    return;
+                }
+                writeMarker(fs, snapshotDir, sequence + 1, startTime, true);
+                sequence++;
+                fs.delete(oldMarker, false);
+            } catch (IOException e) {
+                // the next beat tries again
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * Stop the heartbeat. A beat which is running is finished first.
+         * */
+        synchronized void stop() {
+            stopped = true;
+            this.cancel();
+        }
+    }
+
+
+    /**
+     * For safe.
+     * */
+    private Snapshots() {}
+
+    /**
+     * Resolve the directory of the current snapshot.
+     * @param fs
+     * @param baseDir
+     * @return the current snapshot, or baseDir if there is no snapshot
+     * */
+    public static String resolve(final FileSystem fs, final String baseDir) throws IOException {
+        for (int i = 0; i < RESOLVE_RETRIES; i++) {
+            String name = readPointer(fs, new Path(baseDir, CURRENT_NAME));
+            if (null == name) {
+                // CURRENT is being replaced
+                name = readPointer(fs, new Path(baseDir, NEW_NAME));
+            }
+            if (null != name) {
+                return baseDir + "/" + name;
+            }
+            if (!fs.exists(new Path(baseDir, NEW_NAME))) {
+                // Either nothing has been published, or the new pointer has
+                // just been renamed to CURRENT after CURRENT was read.
+                name = readPointer(fs, new Path(baseDir, CURRENT_NAME));
+                if (null == name) {
+                    return baseDir;
+                }
+                return baseDir + "/" + name;
+            }
+            // The new pointer is there but being written, try again.
+            try {
+                Thread.sleep(RESOLVE_WAIT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while resolving the current snapshot of "
+                        + baseDir, e);
+            }
+        }
+        throw new IOException("can not resolve the current snapshot of " + baseDir);
+    }
+
+    /**
+     * Read the name of a snapshot from a pointer file.
+     * @return the name, or null if the file does not exist or is being
+     *  written
+     * */
+    private static String readPointer(final FileSystem fs, final Path path) throws IOException {
+        FSDataInputStream in;
+        try {
+            in = fs.open(path);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            return in.readUTF();
+        } catch (EOFException e) {
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Create a new snapshot whose number is larger than those of all the
+     * existing ones, and mark it as being built by this process until it is
+     * published. The snapshots left by the builds or the maintenance which
+     * died are deleted first.
+     * @param fs
+     * @param baseDir
+     * @return the directory of the new snapshot
+     * */
+    public static String create(final FileSystem fs, final String baseDir) throws IOException {
+        reclaimAbandoned(fs, baseDir, readCurrentNumber(fs, baseDir));
+        int[] numbers = listNumbers(fs, baseDir);
+        int number = 0 == numbers.length ? 1 : numbers[numbers.length - 1] + 1;
+        long startTime = System.currentTimeMillis();
+        // The first marker is never overwritten, thus two jobs which create a
+        // snapshot at the same time take different numbers.
+        while (fs.exists(new Path(baseDir, PREFIX + number))
+                || !writeMarker(fs, baseDir + "/" + PREFIX + number, 0, startTime, false)) {
+            number++;
+        }
+
+        String snapshotDir = baseDir + "/" + PREFIX + number;
+        Heartbeat heartbeat = new Heartbeat(fs, snapshotDir, startTime);
+        synchronized (heartbeats) {
+            if (null == timer) {
+                timer = new Timer("snapshot heartbeat", true);
+            }
+            heartbeats.put(snapshotDir, heartbeat);
+            timer.schedule(heartbeat, HEARTBEAT_MILLIS, HEARTBEAT_MILLIS);
+        }
+        return snapshotDir;
+    }
+
+    /**
+     * Write the marker of a snapshot being built.
+     * @param snapshotDir
+     * @param sequence the sequence number of the marker
+     * @param startTime when the snapshot was created
+     * @param overwrite false to fail if the marker exists
+     * @return false if overwrite is false and the marker exists
+     * */
+    private static boolean writeMarker(final FileSystem fs, final String snapshotDir,
+            final int sequence, final long startTime, final boolean overwrite)
+            throws IOException {
+        Path path = new Path(snapshotDir, BUILDING_NAME + "." + sequence);
+        FSDataOutputStream out;
+        try {
+            out = fs.create(path, overwrite);
+        } catch (IOException e) {
+            if (!overwrite && fs.exists(path)) {
+                return false;
+            }
+            throw e;
+        }
+        try {
+            // the user and the process, e.g. user/pid@host
+            out.writeUTF(System.getProperty("user.name") + "/"
+                    + ManagementFactory.getRuntimeMXBean().getName());
+            out.writeLong(startTime);
+        } finally {
+            out.close();
+        }
+        return true;
+    }
+
+    /**
+     * Create a new snapshot from the current one, in which the maintenance
+     * rewrites the partitions. HDFS has no links, thus the directories of
+     * the index, e.g. the partitions, are not copied but listed in the
+     * manifest of the new snapshot with the snapshot which holds them. Only
+     * the files and the statistics are copied. The entries beginning with
+     * "_", which are scratch directories, are skipped. An index built before
+     * the snapshots is taken from baseDir itself.
+     * @param fs
+     * @param baseDir
+     * @return the directory of the new snapshot
+     * */
+    public static String fork(final FileSystem fs, final String baseDir) throws IOException {
+        String currentDir = resolve(fs, baseDir);
+        boolean legacy = currentDir.equals(baseDir);
+        String owner = legacy ? "" : new Path(currentDir).getName();
+        String snapshotDir = create(fs, baseDir);
+
+        // The entries which the current snapshot shares are held by their
+        // owners, thus every entry of the manifest points to the snapshot
+        // which holds it.
+        Map<String, String> manifest = readManifest(fs, currentDir);
+        for (FileStatus status : fs.listStatus(new Path(currentDir))) {
+            String name = status.getPath().getName();
+            if (name.startsWith("_") || (legacy && (name.startsWith(PREFIX)
+                    || name.equals(CURRENT_NAME) || name.equals(NEW_NAME)))) {
+                continue;
+            }
+            if (status.isDir() && !name.equals(STAT_NAME)) {
+                manifest.put(name, owner);
+            } else if (!FileUtil.copy(fs, status.getPath(), fs, new Path(snapshotDir, name),
+                    false, fs.getConf())) {
+                throw new IOException("copy " + status.getPath() + " to " + snapshotDir
+                        + " failed");
+            }
+        }
+        writeManifest(fs, snapshotDir, manifest);
+        System.out.printf("snapshot %s is forked from %s, sharing %d entries\n",
+                new Path(snapshotDir).getName(), new Path(currentDir).getName(),
+                manifest.size());
+        return snapshotDir;
+    }
+
+    /**
+     * Locate an entry of a snapshot, which may be held by another snapshot.
+     * @param fs
+     * @param snapshotDir the snapshot, or any directory without a manifest
+     * @param name the name of the entry, e.g. part_0
+     * @return the path of the entry
+     * */
+    public static String locate(final FileSystem fs, final String snapshotDir,
+            final String name) throws IOException {
+        String owner = readManifest(fs, snapshotDir).get(name);
+        if (null == owner) {
+            return snapshotDir + "/" + name;
+        }
+        return getOwnerDir(snapshotDir, owner) + "/" + name;
+    }
+
+    /**
+     * Copy an entry into a fork before it is rewritten, if the entry is held
+     * by another snapshot, so that the published snapshots never change.
+     * @param fs
+     * @param snapshotDir the directory returned by fork
+     * @param name the name of the entry, e.g. part_0
+     * @return true if the entry is copied
+     * */
+    public static boolean own(final FileSystem fs, final String snapshotDir, final String name)
+            throws IOException {
+        Map<String, String> manifest = readManifest(fs, snapshotDir);
+        String owner = manifest.remove(name);
+        if (null == owner) {
+            return false;
+        }
+        Path src = new Path(getOwnerDir(snapshotDir, owner), name);
+        Path dst = new Path(snapshotDir, name);
+        fs.delete(dst, true);
+        if (!FileUtil.copy(fs, src, fs, dst, false, fs.getConf())) {
+            throw new IOException("copy " + src + " to " + snapshotDir + " failed");
+        }
+        writeManifest(fs, snapshotDir, manifest);
+        return true;
+    }
+
+    /**
+     * Get the directory of the snapshot which holds an entry.
+     * @param owner the name of the snapshot, or "" for baseDir
+     * */
+    private static String getOwnerDir(final String snapshotDir, final String owner) {
+        String baseDir = new Path(snapshotDir).getParent().toString();
+        return 0 == owner.length() ? baseDir : baseDir + "/" + owner;
+    }
+
+    /**
+     * Read the manifest of a snapshot.
+     * @return entry name -> snapshot name, empty if the snapshot holds all
+     *  its entries
+     * */
+    private static Map<String, String> readManifest(final FileSystem fs,
+            final String snapshotDir) throws IOException {
+        Map<String, String> manifest = new TreeMap<String, String>();
+        FSDataInputStream in;
+        try {
+            in = fs.open(new Path(snapshotDir, MANIFEST_NAME));
+        } catch (FileNotFoundException e) {
+            return manifest;
+        }
+        try {
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String name = in.readUTF();
+                manifest.put(name, in.readUTF());
+            }
+        } finally {
+            in.close();
+        }
+        return manifest;
+    }
+
+    /**
+     * Write the manifest of a fork, which is not published yet.
+     * */
+    private static void writeManifest(final FileSystem fs, final String snapshotDir,
+            final Map<String, String> manifest) throws IOException {
+        FSDataOutputStream out = fs.create(new Path(snapshotDir, MANIFEST_NAME), true);
+        try {
+            out.writeInt(manifest.size());
+            for (Map.Entry<String, String> entry : manifest.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Make a snapshot the current one.
+     * @param fs
+     * @param baseDir
+     * @param snapshotDir the directory returned by create
+     * */
+    public static void publish(final FileSystem fs, final String baseDir,
+            final String snapshotDir) throws IOException {
+        String name = new Path(snapshotDir).getName();
+        Heartbeat heartbeat;
+        synchronized (heartbeats) {
+            heartbeat = heartbeats.remove(snapshotDir);
+        }
+        if (null != heartbeat) {
+            heartbeat.stop();
+        }
+        if (0 == listMarkers(fs, snapshotDir).length) {
+            // it has not been written for STALE_MILLIS
+            throw new IOException("snapshot " + snapshotDir + " has been reclaimed");
+        }
+
+        Path newPath = new Path(baseDir, NEW_NAME);
+        Path currentPath = new Path(baseDir, CURRENT_NAME);
+
+        FSDataOutputStream out = fs.create(newPath, true);
+        try {
+            out.writeUTF(name);
+        } finally {
+            out.close();
+        }
+        // A rename does not replace an existing file on HDFS.
+        fs.delete(currentPath, false);
+        if (!fs.rename(newPath, currentPath)) {
+            throw new IOException("publish " + snapshotDir + " failed");
+        }
+        // The marker is deleted after the snapshot is current, thus collect
+        // never takes the snapshot for an old one.
+        deleteMarkers(fs, snapshotDir);
+        System.out.printf("snapshot %s is published\n", name);
+    }
+
+    /**
+     * Delete the old snapshots. The current snapshot and the retain - 1
+     * newest other published snapshots are kept, so that the jobs which
+     * have resolved them can finish. The snapshots being built are kept, but
+     * those left by the builds or the maintenance which died are deleted.
+     * A snapshot which holds an entry of a kept one is kept too.
+     * @param fs
+     * @param baseDir
+     * @param retain the number of published snapshots to keep, at least 1
+     * @return the number of the deleted snapshots
+     * */
+    public static int collect(final FileSystem fs, final String baseDir, final int retain)
+            throws IOException {
+        int currentNumber = readCurrentNumber(fs, baseDir);
+        int count = reclaimAbandoned(fs, baseDir, currentNumber);
+        if (0 == currentNumber) {
+            return count;
+        }
+
+        int[] numbers = listNumbers(fs, baseDir);
+        boolean[] keep = new boolean[numbers.length];
+        // the current one
+        int kept = 1;
+        for (int i = numbers.length - 1; i >= 0; i--) {
+            String dir = baseDir + "/" + PREFIX + numbers[i];
+            if (numbers[i] == currentNumber || listMarkers(fs, dir).length > 0) {
+                keep[i] = true;
+            } else if (kept < Math.max(1, retain)) {
+                keep[i] = true;
+                kept++;
+            }
+        }
+        // The manifests are flat, thus the owners of the entries of the kept
+        // snapshots hold them by themselves.
+        Set<String> owners = new HashSet<String>();
+        for (int i = 0; i < numbers.length; i++) {
+            if (keep[i]) {
+                owners.addAll(readManifest(fs, baseDir + "/" + PREFIX + numbers[i]).values());
+            }
+        }
+        for (int i = 0; i < numbers.length; i++) {
+            if (!keep[i] && !owners.contains(PREFIX + numbers[i])) {
+                fs.delete(new Path(baseDir, PREFIX + numbers[i]), true);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Delete the snapshots whose markers have not been written for
+     * STALE_MILLIS. The current snapshot is never deleted: if it is marked,
+     * its publish stopped before the marker was deleted.
+     * @param currentNumber the number of the current snapshot, or 0 if
+     *  nothing has been published
+     * @return the number of the deleted snapshots
+     * */
+    private static int reclaimAbandoned(final FileSystem fs, final String baseDir,
+            final int currentNumber) throws IOException {
+        int[] numbers = listNumbers(fs, baseDir);
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (int i = 0; i < numbers.length; i++) {
+            String dir = baseDir + "/" + PREFIX + numbers[i];
+            FileStatus[] markers = listMarkers(fs, dir);
+            if (0 == markers.length) {
+                continue;
+            }
+            if (numbers[i] == currentNumber) {
+                deleteMarkers(fs, dir);
+                continue;
+            }
+
+            long lastBeat = 0;
+            for (FileStatus marker : markers) {
+                lastBeat = Math.max(lastBeat, marker.getModificationTime());
+            }
+            if (now - lastBeat < STALE_MILLIS) {
+                continue;
+            }
+            String owner = "unknown";
+            long startTime = 0;
+            FSDataInputStream in = fs.open(markers[markers.length - 1].getPath());
+            try {
+                owner = in.readUTF();
+                startTime = in.readLong();
+            } catch (EOFException e) {
+                // the last beat did not finish
+            } finally {
+                in.close();
+            }
+            fs.delete(new Path(dir), true);
+            System.out.printf("snapshot %s of %s, started at %s, is abandoned and deleted\n",
+                    PREFIX + numbers[i], owner, new Date(startTime));
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * List the markers of a snapshot.
+     * @return the markers, sorted by the sequence number, or an empty array
+     *  if the snapshot is not being built
+     * */
+    private static FileStatus[] listMarkers(final FileSystem fs, final String snapshotDir)
+            throws IOException {
+        FileStatus[] fileStatus = fs.listStatus(new Path(snapshotDir));
+        if (null == fileStatus) {
+            return new FileStatus[0];
+        }
+        FileStatus[] markers = new FileStatus[fileStatus.length];
+        int size = 0;
+        for (int i = 0; i < fileStatus.length; i++) {
+            if (fileStatus[i].getPath().getName().startsWith(BUILDING_NAME + ".")) {
+                markers[size++] = fileStatus[i];
+            }
+        }
+        FileStatus[] result = new FileStatus[size];
+        System.arraycopy(markers, 0, result, 0, size);
+        Arrays.sort(result, new Comparator<FileStatus>() {
+            public int compare(final FileStatus a, final FileStatus b) {
+                return getSequence(a) - getSequence(b);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Get the sequence number of a marker.
+     * */
+    private static int getSequence(final FileStatus marker) {
+        return Integer.parseInt(marker.getPath().getName().substring(BUILDING_NAME.length() + 1));
+    }
+
+    /**
+     * Delete the markers of a snapshot.
+     * */
+    private static void deleteMarkers(final FileSystem fs, final String snapshotDir)
+            throws IOException {
+        for (FileStatus marker : listMarkers(fs, snapshotDir)) {
+            fs.delete(marker.getPath(), false);
+        }
+    }
+
+    /**
+     * Read the number of the current snapshot.
+     * @return the number, or 0 if nothing has been published
+     * */
+    private static int readCurrentNumber(final FileSystem fs, final String baseDir)
+            throws IOException {
+        String current = readPointer(fs, new Path(baseDir, CURRENT_NAME));
+        if (null == current) {
+            // the last publish stopped before CURRENT was replaced
+            current = readPointer(fs, new Path(baseDir, NEW_NAME));
+        }
+        if (null == current) {
+            return 0;
+        }
+        return Integer.parseInt(current.substring(PREFIX.length()));
+    }
+
+    /**
+     * List the numbers of the snapshots, sorted ascending.
+     * */
+    private static int[] listNumbers(final FileSystem fs, final String baseDir)
+            throws IOException {
+        Path dir = new Path(baseDir);
+        if (!fs.exists(dir)) {
+            return new int[0];
+        }
+
+        FileStatus[] fileStatus = fs.listStatus(dir);
+        int[] numbers = new int[fileStatus.length];
+        int size = 0;
+        for (int i = 0; i < fileStatus.length; i++) {
+            String name = fileStatus[i].getPath().getName();
+            if (fileStatus[i].isDir() && name.startsWith(PREFIX)) {
+                try {
+                    numbers[size++] = Integer.parseInt(name.substring(PREFIX.length()));
+                } catch (NumberFormatException e) {
+                    size--;
+                }
+            }
+        }
+        int[] result = new int[size];
+        System.arraycopy(numbers, 0, result, 0, size);
+        Arrays.sort(result);
+        return result;
+    }
+}
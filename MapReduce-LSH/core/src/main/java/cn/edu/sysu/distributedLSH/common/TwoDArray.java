@@ -4,20 +4,25 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
-import org.apache.hadoop.fs.FSDataInputStream;
-import org.apache.hadoop.fs.FSDataOutputStream;
-import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Writable;
 
 
 /**
- * TwoDArray can be used to store a part of data set.
+ * TwoDArray can be used to store a part of data set. The rows are stored in
+ * a flat array whose element type is chosen by VectorEncoding, so a data set
+ * of uint8 coordinates takes a quarter of the memory and the disk space.
+ * Rows can also be appended, in which case the flat array grows like an
+ * ArrayList and may have more capacity than row * col.
  * */
 public class TwoDArray implements Writable {
     private int row = 0;
     private int col = 0;
-    private int[][] array = null;
+    private int width = VectorEncoding.INT32;
+
+    // only one of them is used, depending on the width
+    private byte[] bytes = null;
+    private short[] shorts = null;
+    private int[] ints = null;
 
 
     /**
@@ -28,98 +33,239 @@ public class TwoDArray implements Writable {
     /**
      * Constructor. new a 2-d array with size row * col
      * @param row
-     * @param col 
+     * @param col
+     * @param width the width of a coordinate, see VectorEncoding
      * */
-    public TwoDArray(final int row, final int col) {
+    public TwoDArray(final int row, final int col, final int width) {
         this.row = row;
         this.col = col;
-        array = new int[row][];
-        for (int i = 0; i < row; i++) {
-            array[i] = new int[col];
+        this.width = VectorEncoding.check(width);
+        this.allocate();
+    }
+
+    /**
+     * Allocate the flat array for row * col coordinates.
+     * */
+    private void allocate() {
+        bytes = null;
+        shorts = null;
+        ints = null;
+        if (VectorEncoding.UINT8 == width) {
+            bytes = new byte[row * col];
+        } else if (VectorEncoding.INT16 == width) {
+            shorts = new short[row * col];
+        } else {
+            ints = new int[row * col];
         }
     }
 
     /**
-     * get.
+     * get the number of rows that fit in the flat array.
      * */
-    public int[][] get() {
-        return array;
+    public int getCapacity() {
+        if (0 == col) {
+            return 0;
+        }
+        if (VectorEncoding.UINT8 == width) {
+            return bytes.length / col;
+        } else if (VectorEncoding.INT16 == width) {
+            return shorts.length / col;
+        }
+        return ints.length / col;
     }
 
     /**
-     * Implement the method in the interface Writable.
-     * @param out output stream
+     * Grow the flat array so that it holds at least minRows rows. The
+     * capacity is at least doubled, thus appending is amortized O(col).
+     * @param minRows
      * */
-    public void write(final DataOutput out) throws IOException {
-        out.writeInt(row);
-        out.writeInt(col);
-        for (int i = 0; i < row; i++) {
+    public void ensureCapacity(final int minRows) {
+        int capacity = this.getCapacity();
+        if (minRows <= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(minRows, Math.max(capacity * 2, 16));
+        int length = row * col;
+        if (VectorEncoding.UINT8 == width) {
+            byte[] newBytes = new byte[newCapacity * col];
+            System.arraycopy(bytes, 0, newBytes, 0, length);
+            bytes = newBytes;
+        } else if (VectorEncoding.INT16 == width) {
+            short[] newShorts = new short[newCapacity * col];
+            System.arraycopy(shorts, 0, newShorts, 0, length);
+            shorts = newShorts;
+        } else {
+            int[] newInts = new int[newCapacity * col];
+            System.arraycopy(ints, 0, newInts, 0, length);
+            ints = newInts;
+        }
+    }
+
+    /**
+     * Append a row. The coordinates must fit the width.
+     * @param point the data point
+     * @return the row index of the data point
+     * */
+    public int add(final int[] point) {
+        this.ensureCapacity(row + 1);
+        this.set(row, point);
+        return row++;
+    }
+
+    /**
+     * Remove all rows but keep the capacity.
+     * */
+    public void clear() {
+        row = 0;
+    }
+
+    /**
+     * get the number of rows.
+     * */
+    public int getRow() {
+        return row;
+    }
+
+    /**
+     * get the number of columns.
+     * */
+    public int getCol() {
+        return col;
+    }
+
+    /**
+     * get width.
+     * */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Set the i-th row. The coordinates must fit the width.
+     * @param i the row index
+     * @param point the data point
+     * */
+    public void set(final int i, final int[] point) {
+        int offset = i * col;
+        if (VectorEncoding.UINT8 == width) {
+            for (int j = 0; j < col; j++) {
+                bytes[offset + j] = (byte)point[j];
+            }
+        } else if (VectorEncoding.INT16 == width) {
             for (int j = 0; j < col; j++) {
-                out.writeInt(array[i][j]);
+                shorts[offset + j] = (short)point[j];
             }
+        } else {
+            System.arraycopy(point, 0, ints, offset, col);
         }
     }
 
     /**
-     * Implement the method in the interface Writable.
-     * @param out output stream
+     * Decode the i-th row.
+     * @param i the row index
+     * @param point the array to be filled, whose length is at least col
      * */
-    public void readFields(final DataInput in) throws IOException {
-        row = in.readInt();
-        col = in.readInt();
-        array = new int[row][];
-        for (int i = 0; i < row; i++) {
-            array[i] = new int[col];
+    public void getRow(final int i, final int[] point) {
+        int offset = i * col;
+        if (VectorEncoding.UINT8 == width) {
+            for (int j = 0; j < col; j++) {
+                point[j] = bytes[offset + j] & 0xff;
+            }
+        } else if (VectorEncoding.INT16 == width) {
             for (int j = 0; j < col; j++) {
-                array[i][j] = in.readInt();
+                point[j] = shorts[offset + j];
             }
+        } else {
+            System.arraycopy(ints, offset, point, 0, col);
         }
     }
 
     /**
-     * @param partDir the directory of this partition of the data set
-     * @param conf
+     * Calculate the L2 distance between the i-th row and the query. The
+     * narrow widths are accumulated in long, which is exact and avoids the
+     * int to double conversion of every coordinate.
+     * @param i the row index
+     * @param query the query
      * */
-    public void saveToHdfs(final String partDir, final FileSystem fs) throws IOException {
-        String fileName = partDir + "/part.dataset";
-
-        Path outFile = new Path(fileName);
-        if (fs.exists(outFile)) {
-            LSHTool.printAndExit("Output file " + fileName + " already exists");
+    public double calcL2Distance(final int i, final int[] query) {
+        int offset = i * col;
+        if (VectorEncoding.UINT8 == width) {
+            long distance = 0;
+            for (int j = 0; j < col; j++) {
+                long difference = (bytes[offset + j] & 0xff) - query[j];
+                distance += difference * difference;
+            }
+            return Math.sqrt(distance);
+        } else if (VectorEncoding.INT16 == width) {
+            long distance = 0;
+            for (int j = 0; j < col; j++) {
+                long difference = shorts[offset + j] - query[j];
+                distance += difference * difference;
+            }
+            return Math.sqrt(distance);
         }
 
-        FSDataOutputStream out = fs.create(outFile);
-        try {
-            this.write(out);
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            out.close();
+        double difference, distance = 0;
+        for (int j = 0; j < col; j++) {
+            difference = ints[offset + j] - query[j];
+            distance += difference * difference;
         }
+        return Math.sqrt(distance);
     }
 
     /**
-     * @param partDir the directory of this partition of the data set
-     * @param conf
+     * Write the header of a TwoDArray. It is followed by row * col
+     * coordinates, which are written in the way of VectorEncoding.write, thus
+     * the rows can also be streamed by a writer which does not hold them.
+     * @param out output stream
      * */
-    public void readFromHdfs(final String partDir, final FileSystem fs) throws IOException {
-        String fileName = partDir + "/part.dataset";
+    public static void writeHeader(final DataOutput out, final int row, final int col,
+            final int width) throws IOException {
+        out.writeInt(row);
+        out.writeInt(col);
+        out.writeByte(width);
+    }
 
-        Path inFile = new Path(fileName);
-        if (!fs.exists(inFile)) {
-            LSHTool.printAndExit("Input file " + fileName + " not found");
-        }
-        if (!fs.isFile(inFile)) {
-            LSHTool.printAndExit("Input " + fileName + " should be a file");
+    /**
+     * Implement the method in the interface Writable.
+     * @param out output stream
+     * */
+    public void write(final DataOutput out) throws IOException {
+        writeHeader(out, row, col, width);
+        // the capacity beyond row * col is not written
+        int length = row * col;
+        if (VectorEncoding.UINT8 == width) {
+            out.write(bytes, 0, length);
+        } else if (VectorEncoding.INT16 == width) {
+            for (int i = 0; i < length; i++) {
+                out.writeShort(shorts[i]);
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                out.writeInt(ints[i]);
+            }
         }
+    }
 
-        FSDataInputStream in = fs.open(inFile);
-        try {
-            this.readFields(in);
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            in.close();
+    /**
+     * Implement the method in the interface Writable.
+     * @param out output stream
+     * */
+    public void readFields(final DataInput in) throws IOException {
+        row = in.readInt();
+        col = in.readInt();
+        width = VectorEncoding.check(in.readByte());
+        this.allocate();
+        if (VectorEncoding.UINT8 == width) {
+            in.readFully(bytes);
+        } else if (VectorEncoding.INT16 == width) {
+            for (int i = 0; i < shorts.length; i++) {
+                shorts[i] = in.readShort();
+            }
+        } else {
+            for (int i = 0; i < ints.length; i++) {
+                ints[i] = in.readInt();
+            }
         }
     }
 }
@@ -0,0 +1,186 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+
+
+/**
+ * VectorInputFormat reads the binary data set produced by the Converter. A
+ * binary data set file is laid out as:
+ *   header:  MAGIC, VERSION, dimension, width (4 ints)
+ *   records: id, then dimension coordinates in width bytes each
+ * All records have the same size, thus the file is split on record
+ * boundaries and every split can be read without looking at its neighbors.
+ * The binary data set may be a directory of such files.
+ * */
+public class VectorInputFormat extends FileInputFormat<LongWritable, VectorWritable> {
+    public static final int HEADER_SIZE = 16;
+
+    private static final int MAGIC = 0x4c534856;    // "LSHV"
+    private static final int VERSION = 1;
+
+
+    /**
+     * Whether the data set is read in the binary format. It is decided by
+     * dataSetFormat, which is text by default.
+     * @param conf
+     * */
+    public static boolean isBinary(final Configuration conf) {
+        return "binary".equals(conf.get("dataSetFormat", "text"));
+    }
+
+    /**
+     * Set the data set as the input of a job. The binary data set
+     * binaryDataSetFileName is used if isBinary, otherwise the text data set
+     * dataSetFileName is used.
+     * @param job
+     * @param fs
+     * */
+    public static void setDataSetInput(final Job job, final FileSystem fs) throws IOException {
+        Configuration conf = job.getConfiguration();
+        String key = isBinary(conf) ? "binaryDataSetFileName" : "dataSetFileName";
+        setVectorInput(job, fs, new Path(conf.get(key)));
+    }
+
+    /**
+     * Set a file of data points in the format of the data set, which is
+     * decided by dataSetFormat, as the input of a job.
+     * @param job
+     * @param fs
+     * @param inputPath
+     * */
+    public static void setVectorInput(final Job job, final FileSystem fs, final Path inputPath)
+            throws IOException {
+        boolean binary = isBinary(job.getConfiguration());
+
+        if (!fs.exists(inputPath)) {
+            LSHTool.printAndExit("Input data set dose not exist");
+        }
+        if (binary) {
+            job.setInputFormatClass(VectorInputFormat.class);
+        } else {
+            if (!fs.isFile(inputPath)) {
+                LSHTool.printAndExit("Input data set should be a file");
+            }
+            job.setInputFormatClass(TextInputFormat.class);
+        }
+        FileInputFormat.addInputPath(job, inputPath);
+    }
+
+    /**
+     * The class of the data points emitted by a mapper that passes the data
+     * set through.
+     * @param conf
+     * */
+    public static Class<? extends Writable> getValueClass(final Configuration conf) {
+        return isBinary(conf) ? VectorWritable.class : Text.class;
+    }
+
+    /**
+     * Write the header of a binary data set file.
+     * @param out output stream
+     * @param dim the dimensionality of the data points
+     * @param width the width of a coordinate, see VectorEncoding
+     * */
+    public static void writeHeader(final DataOutput out, final int dim, final int width)
+            throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(dim);
+        out.writeInt(width);
+    }
+
+    /**
+     * Read the header of a binary data set file.
+     * @param in input stream positioned at the beginning of the file
+     * @param fileName for the error message
+     * @return {dimension, width}
+     * */
+    public static int[] readHeader(final DataInput in, final String fileName) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            LSHTool.printAndExit(fileName + " is not a binary data set");
+        }
+        int dim = in.readInt();
+        int width = VectorEncoding.check(in.readInt());
+        return new int[] {dim, width};
+    }
+
+    /**
+     * The size of a record in bytes.
+     * @param dim the dimensionality of the data points
+     * @param width the width of a coordinate
+     * */
+    public static int recordSize(final int dim, final int width) {
+        return 4 + dim * width;
+    }
+
+    /**
+     * Split the files on record boundaries.
+     * @param job
+     * */
+    @Override
+    public List<InputSplit> getSplits(final JobContext job) throws IOException {
+        long minSize = Math.max(getFormatMinSplitSize(), getMinSplitSize(job));
+        long maxSize = getMaxSplitSize(job);
+        List<InputSplit> splits = new ArrayList<InputSplit>();
+
+        for (FileStatus file : listStatus(job)) {
+            Path path = file.getPath();
+            FileSystem fs = path.getFileSystem(job.getConfiguration());
+            long length = file.getLen();
+
+            int[] header;
+            FSDataInputStream in = fs.open(path);
+            try {
+                header = readHeader(in, path.toString());
+            } finally {
+                in.close();
+            }
+            int recordSize = recordSize(header[0], header[1]);
+
+            // round the split size down to whole records
+            long splitSize = computeSplitSize(file.getBlockSize(), minSize, maxSize);
+            splitSize = Math.max(1, splitSize / recordSize) * recordSize;
+
+            BlockLocation[] blkLocations = fs.getFileBlockLocations(file, 0, length);
+            long offset = HEADER_SIZE;
+            while (offset < length) {
+                long size = Math.min(splitSize, length - offset);
+                int blkIndex = getBlockIndex(blkLocations, offset);
+                splits.add(new FileSplit(path, offset, size, blkLocations[blkIndex].getHosts()));
+                offset += size;
+            }
+        }
+        return splits;
+    }
+
+    /**
+     * Implement the abstract method in InputFormat.
+     * */
+    @Override
+    public RecordReader<LongWritable, VectorWritable> createRecordReader(final InputSplit split,
+            final TaskAttemptContext context) {
+        return new VectorRecordReader();
+    }
+}
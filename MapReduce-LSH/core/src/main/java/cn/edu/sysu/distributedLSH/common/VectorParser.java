@@ -0,0 +1,247 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.LineReader;
+
+
+/**
+ * VectorParser reads the integers of a line of the text data set straight
+ * out of the bytes of a Text. Unlike Scanner, it neither copies the line into
+ * a String nor tokenizes it with regular expressions, and an instance can be
+ * reused for all the lines. A malformed line is reported by a
+ * NumberFormatException whose message contains the line.
+ * */
+public class VectorParser {
+    /** the counter of the malformed lines which are skipped */
+    public static final String COUNTER_GROUP = "VectorParser";
+    public static final String MALFORMED_LINES = "MALFORMED_LINES";
+
+    private byte[] bytes = null;
+    private int start = 0;
+    private int pos = 0;
+    private int end = 0;
+
+
+    /**
+     * Constructor.
+     * */
+    public VectorParser() {}
+
+    /**
+     * Parse a new line.
+     * @param line
+     * */
+    public void reset(final Text line) {
+        this.reset(line.getBytes(), 0, line.getLength());
+    }
+
+    /**
+     * Parse a new line.
+     * @param bytes contains the line
+     * @param offset the offset of the line in bytes
+     * @param length the length of the line
+     * */
+    public void reset(final byte[] bytes, final int offset, final int length) {
+        this.bytes = bytes;
+        start = offset;
+        pos = offset;
+        end = offset + length;
+    }
+
+    /**
+     * Skip the whitespace and check whether there is another integer.
+     * */
+    public boolean hasNext() {
+        while (pos < end && isWhitespace(bytes[pos])) {
+            pos++;
+        }
+        return pos < end;
+    }
+
+    /**
+     * Parse the next integer.
+     * */
+    public int nextInt() {
+        if (!this.hasNext()) {
+            throw this.malformed("too few integers");
+        }
+
+        boolean negative = false;
+        if ('-' == bytes[pos] || '+' == bytes[pos]) {
+            negative = '-' == bytes[pos];
+            pos++;
+        }
+
+        int digitStart = pos;
+        long value = 0;
+        while (pos < end && !isWhitespace(bytes[pos])) {
+            int digit = bytes[pos] - '0';
+            if (digit < 0 || digit > 9) {
+                throw this.malformed("invalid character '" + (char)bytes[pos] + "'");
+            }
+            value = value * 10 + digit;
+            if (value > (long)Integer.MAX_VALUE + 1) {
+                throw this.malformed("integer overflow");
+            }
+            pos++;
+        }
+        if (digitStart == pos) {
+            throw this.malformed("sign without digits");
+        }
+
+        if (negative) {
+            value = -value;
+        } else if (value > Integer.MAX_VALUE) {
+            throw this.malformed("integer overflow");
+        }
+        return (int)value;
+    }
+
+    /**
+     * Count the integers from the current position to the end of the line.
+     * The position is not changed.
+     * */
+    public int count() {
+        int savedPos = pos;
+        int count = 0;
+        while (this.hasNext()) {
+            this.nextInt();
+            count++;
+        }
+        pos = savedPos;
+        return count;
+    }
+
+    /**
+     * Parse a line of the data set or the query set, that is the ID followed
+     * by dim coordinates.
+     * @param line
+     * @param point the coordinates are stored here
+     * @param dim the dimensionality of the data point
+     * @return the ID of the data point
+     * */
+    public int parse(final Text line, final int[] point, final int dim) {
+        this.reset(line);
+        int id = this.nextInt();
+        for (int i = 0; i < dim; i++) {
+            point[i] = this.nextInt();
+        }
+        if (this.hasNext()) {
+            throw this.malformed("more than " + dim + " coordinates");
+        }
+        return id;
+    }
+
+    /**
+     * Read the query set from a local file, e.g. the one in Hadoop's
+     * distributed cache. A malformed query is fatal.
+     * @param fileName the local file of the query set
+     * @param querySetSize the number of queries to read
+     * @param dimension the dimensionality of a query
+     * */
+    public static int[][] readQuerySet(final String fileName, final int querySetSize,
+            final int dimension) throws IOException {
+        int[][] querySet = new int[querySetSize][];
+        VectorParser parser = new VectorParser();
+        Text line = new Text();
+
+        LineReader reader = new LineReader(new FileInputStream(fileName));
+        try {
+            for (int i = 0; i < querySetSize; i++) {
+                if (0 == reader.readLine(line)) {
+                    LSHTool.printAndExit("query set " + fileName + " has less than "
+                            + querySetSize + " queries");
+                }
+                querySet[i] = new int[dimension];
+                try {
+                    // skip the query ID
+                    parser.parse(line, querySet[i], dimension);
+                } catch (NumberFormatException e) {
+                    LSHTool.printAndExit(e.getMessage());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return querySet;
+    }
+
+    /**
+     * Read a list of data point IDs from hdfs, one ID per line. The blank
+     * lines are skipped and a malformed line is fatal.
+     * @param fs
+     * @param path the file of the IDs
+     * @return the distinct IDs, sorted ascending
+     * */
+    public static int[] readIds(final FileSystem fs, final Path path) throws IOException {
+        if (!fs.isFile(path)) {
+            LSHTool.printAndExit("ID file " + path + " does not exist");
+        }
+
+        int[] ids = new int[16];
+        int size = 0;
+        VectorParser parser = new VectorParser();
+        Text line = new Text();
+
+        LineReader reader = new LineReader(fs.open(path));
+        try {
+            while (reader.readLine(line) > 0) {
+                parser.reset(line);
+                if (!parser.hasNext()) {
+                    continue;
+                }
+                if (size == ids.length) {
+                    int[] newIds = new int[ids.length * 2];
+                    System.arraycopy(ids, 0, newIds, 0, size);
+                    ids = newIds;
+                }
+                try {
+                    ids[size++] = parser.nextInt();
+                } catch (NumberFormatException e) {
+                    LSHTool.printAndExit(e.getMessage());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        Arrays.sort(ids, 0, size);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (0 == distinct || ids[distinct - 1] != ids[i]) {
+                ids[distinct++] = ids[i];
+            }
+        }
+        int[] result = new int[distinct];
+        System.arraycopy(ids, 0, result, 0, distinct);
+        return result;
+    }
+
+    /**
+     * Create the exception for a malformed line.
+     * @param reason
+     * */
+    private NumberFormatException malformed(final String reason) {
+        String line;
+        try {
+            line = new String(bytes, start, end - start, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            line = "";
+        }
+        return new NumberFormatException("malformed line (" + reason + "): " + line);
+    }
+
+    /**
+     * Whether a byte is whitespace.
+     * */
+    private static boolean isWhitespace(final byte b) {
+        return ' ' == b || '\t' == b || '\r' == b || '\n' == b || '\f' == b || 0x0b == b;
+    }
+}
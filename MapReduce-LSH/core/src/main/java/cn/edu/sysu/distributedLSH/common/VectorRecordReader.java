@@ -0,0 +1,128 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+
+/**
+ * VectorRecordReader reads the records of a split of the binary data set.
+ * The key is the record number in the file, and the value is the data point.
+ * Both are reused, and a record is decoded from a byte array, thus no object
+ * is allocated per record.
+ * */
+public class VectorRecordReader extends RecordReader<LongWritable, VectorWritable> {
+    private static final int BUFFER_SIZE = 65536;
+
+    private FSDataInputStream fileIn = null;
+    private DataInputStream in = null;
+    private int dim;
+    private int width;
+    private int recordSize;
+    private byte[] record = null;
+
+    private long start;
+    private long pos;
+    private long end;
+
+    private LongWritable key = new LongWritable();
+    private VectorWritable value = null;
+
+
+    /**
+     * Implement the method in RecordReader.
+     * */
+    @Override
+    public void initialize(final InputSplit genericSplit, final TaskAttemptContext context)
+            throws IOException {
+        FileSplit split = (FileSplit)genericSplit;
+        Path file = split.getPath();
+        FileSystem fs = file.getFileSystem(context.getConfiguration());
+
+        fileIn = fs.open(file);
+        int[] header = VectorInputFormat.readHeader(fileIn, file.toString());
+        dim = header[0];
+        width = header[1];
+        recordSize = VectorInputFormat.recordSize(dim, width);
+        record = new byte[recordSize];
+        value = new VectorWritable(dim);
+
+        start = split.getStart();
+        end = start + split.getLength();
+        // A record belongs to the split in which it starts. The splits from
+        // VectorInputFormat are aligned, but do not rely on it.
+        pos = VectorInputFormat.HEADER_SIZE;
+        if (start > pos) {
+            pos += (start - pos + recordSize - 1) / recordSize * recordSize;
+        }
+        start = pos;
+
+        fileIn.seek(pos);
+        in = new DataInputStream(new BufferedInputStream(fileIn, BUFFER_SIZE));
+    }
+
+    /**
+     * Implement the method in RecordReader.
+     * */
+    @Override
+    public boolean nextKeyValue() throws IOException {
+        if (pos >= end) {
+            return false;
+        }
+        in.readFully(record);
+
+        key.set((pos - VectorInputFormat.HEADER_SIZE) / recordSize);
+        value.setId(VectorEncoding.decodeInt(record, 0));
+        VectorEncoding.decode(record, 4, value.getPoint(), dim, width);
+        pos += recordSize;
+        return true;
+    }
+
+    /**
+     * Implement the method in RecordReader.
+     * */
+    @Override
+    public LongWritable getCurrentKey() {
+        return key;
+    }
+
+    /**
+     * Implement the method in RecordReader.
+     * */
+    @Override
+    public VectorWritable getCurrentValue() {
+        return value;
+    }
+
+    /**
+     * Implement the method in RecordReader.
+     * */
+    @Override
+    public float getProgress() {
+        if (end <= start) {
+            return 1.0f;
+        }
+        return Math.min(1.0f, (pos - start) / (float)(end - start));
+    }
+
+    /**
+     * Implement the method in RecordReader.
+     * */
+    @Override
+    public void close() throws IOException {
+        if (null != in) {
+            in.close();
+        } else if (null != fileIn) {
+            fileIn.close();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+
+
+/**
+ * VectorWritable is a data point read from the binary data set, that is its
+ * ID and its coordinates.
+ * */
+public class VectorWritable implements Writable {
+    private int id = -1;
+    private int dim = 0;
+    private int[] point = null;
+
+
+    /**
+     * Default constructor.
+     * */
+    public VectorWritable() {}
+
+    /**
+     * Constructor.
+     * @param dim the dimensionality of the vector
+     * */
+    public VectorWritable(final int dim) {
+        this.dim = dim;
+        point = new int[dim];
+    }
+
+    /**
+     * Copy constructor.
+     * */
+    public VectorWritable(final VectorWritable other) {
+        this(other.dim);
+        this.set(other);
+    }
+
+    /**
+     * get id.
+     * */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * set id.
+     * */
+    public void setId(final int id) {
+        this.id = id;
+    }
+
+    /**
+     * get dim.
+     * */
+    public int getDim() {
+        return dim;
+    }
+
+    /**
+     * Get the coordinates. The array is reused by the RecordReader, so copy
+     * it if it should be kept.
+     * */
+    public int[] getPoint() {
+        return point;
+    }
+
+    /**
+     * Deep copy another VectorWritable of the same dimensionality.
+     * @param other
+     * */
+    public void set(final VectorWritable other) {
+        this.id = other.id;
+        System.arraycopy(other.point, 0, this.point, 0, dim);
+    }
+
+    /**
+     * Implement the method in the interface Writable.
+     * @param out output stream
+     * */
+    public void write(final DataOutput out) throws IOException {
+        int width = VectorEncoding.choose(point, dim);
+
+        out.writeInt(id);
+        out.writeInt(dim);
+        out.writeByte(width);
+        VectorEncoding.write(out, point, dim, width);
+    }
+
+    /**
+     * Implement the method in the interface Writable.
+     * @param in input stream
+     * */
+    public void readFields(final DataInput in) throws IOException {
+        id = in.readInt();
+        dim = in.readInt();
+        int width = VectorEncoding.check(in.readByte());
+        // reuse the array if possible
+        if (null == point || point.length != dim) {
+            point = new int[dim];
+        }
+        VectorEncoding.read(in, point, dim, width);
+    }
+}
@@ -0,0 +1,58 @@
+package cn.edu.sysu.distributedLSH.converter;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.VectorParser;
+import cn.edu.sysu.distributedLSH.common.VectorWritable;
+
+
+public class ConvertMapper extends Mapper<Object, Text, NullWritable, VectorWritable> {
+    private Configuration conf;
+
+    private int dimension;
+    private VectorWritable vector = null;
+    private VectorParser parser = new VectorParser();
+
+
+    /**
+     * setup.
+     * @param context
+     * */
+    @Override
+    protected void setup(final Context context) {
+        conf = context.getConfiguration();
+
+        dimension = conf.getInt("dimension", -1);
+        if (dimension < 1) {
+            LSHTool.printAndExit("dimension error in ConvertMapper");
+        }
+        vector = new VectorWritable(dimension);
+    }
+
+    /**
+     * map.
+     * @param key dummy
+     * @param value contains the data point
+     * @param context
+     * */
+    @Override
+    protected void map(final Object key, final Text value, final Context context)
+            throws IOException, InterruptedException {
+        try {
+            // the line number is the ID of the data point
+            vector.setId(parser.parse(value, vector.getPoint(), dimension));
+        } catch (NumberFormatException e) {
+            // skip the malformed line
+            System.err.println(e.getMessage());
+            context.getCounter(VectorParser.COUNTER_GROUP, VectorParser.MALFORMED_LINES).increment(1);
+            return;
+        }
+        context.write(NullWritable.get(), vector);
+    }
+}
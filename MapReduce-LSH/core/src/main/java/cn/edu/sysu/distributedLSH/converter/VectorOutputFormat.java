@@ -0,0 +1,77 @@
+package cn.edu.sysu.distributedLSH.converter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import cn.edu.sysu.distributedLSH.common.VectorEncoding;
+import cn.edu.sysu.distributedLSH.common.VectorInputFormat;
+import cn.edu.sysu.distributedLSH.common.VectorWritable;
+
+
+/**
+ * VectorOutputFormat writes data points in the binary data set format which
+ * is read by VectorInputFormat.
+ * */
+public class VectorOutputFormat<K> extends FileOutputFormat<K, VectorWritable> {
+    private static final int BUFFER_SIZE = 65536;
+
+    /**
+     * the RecordWriter for the binary data set
+     * */
+    protected static class VectorRecordWriter<K> extends RecordWriter<K, VectorWritable> {
+        private DataOutputStream out;
+        private int dim;
+        private int width;
+
+        /**
+         * Constructor. The header is written at once.
+         * */
+        public VectorRecordWriter(DataOutputStream out, final int dim, final int width)
+                throws IOException {
+            this.out = out;
+            this.dim = dim;
+            this.width = width;
+            VectorInputFormat.writeHeader(out, dim, width);
+        }
+
+        /**
+         * close.
+         * */
+        public void close(TaskAttemptContext job) throws IOException, InterruptedException {
+            out.close();
+        }
+
+        /**
+         * write.
+         * @param key dummy
+         * @param value contains the data point
+         * */
+        public void write(K key, VectorWritable value) throws IOException, InterruptedException {
+            out.writeInt(value.getId());
+            VectorEncoding.write(out, value.getPoint(), dim, width);
+        }
+    }
+
+    /**
+     * Implement the abstract method in FileOutputFormat.
+     * */
+    public RecordWriter<K, VectorWritable> getRecordWriter(TaskAttemptContext job)
+        throws IOException, InterruptedException {
+        Configuration conf = job.getConfiguration();
+        Path filePath = getDefaultWorkFile(job, "");
+        FileSystem fs = filePath.getFileSystem(conf);
+        FSDataOutputStream fileOut = fs.create(filePath, false);
+        return new VectorRecordWriter<K>(
+                new DataOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE)),
+                conf.getInt("dimension", -1), conf.getInt("vectorWidth", VectorEncoding.INT32));
+    }
+}
@@ -0,0 +1,145 @@
+package cn.edu.sysu.distributedLSH.inspector;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import cn.edu.sysu.distributedLSH.common.BucketDirectory;
+import cn.edu.sysu.distributedLSH.common.DeletionBitmap;
+import cn.edu.sysu.distributedLSH.common.LSH;
+import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.PartitionIndex;
+import cn.edu.sysu.distributedLSH.common.PartitionSegments;
+import cn.edu.sysu.distributedLSH.common.Snapshots;
+import cn.edu.sysu.distributedLSH.common.VectorParser;
+
+
+/**
+ * InspectMapper reads the bucket directories of all the hash tables of a
+ * partition, without reading the postings, and outputs one line for each
+ * table:
+ *
+ * partID radiusID tableID rows deleted segments bytes buckets maxBucket
+ * probeCost hist_0 ... hist_{HIST_SIZE-1}
+ *
+ * probeCost is the expected number of postings a query reads from the
+ * table, assuming the queries are distributed like the data points, i.e.
+ * the sum of the squared bucket sizes divided by the rows. hist_k is the
+ * number of buckets whose size is in [2^k, 2^(k+1)), and the last one also
+ * counts the larger buckets. The buckets of the delta segments are counted
+ * separately.
+ * */
+public class InspectMapper extends Mapper<Object, Text, Text, NullWritable> {
+    public static final int HIST_SIZE = 16;
+
+    private Configuration conf;
+    private FileSystem fs;
+
+    private int dimension;
+    private int nRadii;
+    private String baseDir;
+
+    private VectorParser parser = new VectorParser();
+
+
+    /**
+     * setup.
+     * @param context
+     * */
+    @Override
+    protected void setup(final Context context) {
+        conf = context.getConfiguration();
+        try {
+            fs = FileSystem.get(conf);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // dimension and nRadii are set by Inspector.
+        dimension = conf.getInt("dimension", -1);
+        nRadii = conf.getInt("nRadii", -1);
+        if (dimension < 1 || nRadii < 1) {
+            LSHTool.printAndExit("dimension or nRadii error");
+        }
+        baseDir = conf.get("baseDir");
+    }
+
+    /**
+     * map.
+     * @param key dummy
+     * @param value contains the partition id
+     * @param context
+     * */
+    @Override
+    protected void map(final Object key, final Text value, final Context context)
+            throws IOException, InterruptedException {
+        int partID = LSHTool.parsePartID(parser, value);
+        String partDir = Snapshots.locate(fs, baseDir, "part_" + partID);
+
+        PartitionSegments segments = PartitionSegments.read(partDir, fs);
+        PartitionIndex[] indexes = segments.openAll(partDir, fs);
+        try {
+            int rows = segments.readRowNum(indexes);
+            int deleted = DeletionBitmap.readFromHdfs(partDir + "/" + DeletionBitmap.FILE_NAME,
+                    fs, rows).getCount();
+            long bytes = 0;
+            for (int i = 0; i < indexes.length; i++) {
+                bytes += fs.getFileStatus(new Path(partDir + "/"
+                        + segments.getSegmentName(i))).getLen();
+            }
+            LSH lsh = new LSH(dimension);
+            indexes[0].readLsh(lsh);
+
+            Text line = new Text();
+            for (int i = 0; i < nRadii; i++) {
+                // i is the radius id
+                for (int j = 0; j < lsh.getHashTableSize(); j++) {
+                    // j is the table id
+                    int buckets = 0;
+                    int maxBucket = 0;
+                    double squares = 0;
+                    long[] hist = new long[HIST_SIZE];
+                    for (int k = 0; k < indexes.length; k++) {
+                        BucketDirectory dir = indexes[k].readBucketDirectory(i, j);
+                        dir.readAll();
+                        buckets += dir.size();
+                        for (int m = 0; m < dir.size(); m++) {
+                            int size = dir.getBucketSize(m);
+                            maxBucket = Math.max(maxBucket, size);
+                            squares += (double)size * size;
+                            hist[Math.min(HIST_SIZE - 1, log2(size))]++;
+                        }
+                    }
+                    double probeCost = 0 == rows ? 0 : squares / rows;
+
+                    StringBuilder sb = new StringBuilder();
+                    sb.append(partID).append(' ').append(i).append(' ').append(j);
+                    sb.append(' ').append(rows).append(' ').append(deleted);
+                    sb.append(' ').append(indexes.length).append(' ').append(bytes);
+                    sb.append(' ').append(buckets).append(' ').append(maxBucket);
+                    sb.append(' ').append(probeCost);
+                    for (int k = 0; k < HIST_SIZE; k++) {
+                        sb.append(' ').append(hist[k]);
+                    }
+                    line.set(sb.toString());
+                    context.write(line, NullWritable.get());
+                }
+                context.progress();
+            }
+        } finally {
+            PartitionSegments.closeAll(indexes);
+        }
+    }
+
+    /**
+     * floor(log2(n)) of a positive n.
+     * */
+    private static int log2(final int n) {
+        return 31 - Integer.numberOfLeadingZeros(n);
+    }
+}
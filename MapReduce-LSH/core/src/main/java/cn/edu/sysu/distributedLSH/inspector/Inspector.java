@@ -0,0 +1,264 @@
+package cn.edu.sysu.distributedLSH.inspector;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.NLineInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.statistics.Statistician;
+
+
+/**
+ * Inspector reports the layout of the built index: the size, the delta
+ * segments and the deleted rows of each partition, the bucket size
+ * histogram, and the expected number of postings a query reads. The
+ * partitions are read in parallel by InspectMapper. A partition whose
+ * probe cost is skewFactor times the average one is marked as skewed, its
+ * queries will be slower than those of the others.
+ * */
+public class Inspector extends Configured {
+    private static final float DEFAULT_SKEW_FACTOR = 2.0f;
+
+    private Configuration conf;
+    private FileSystem fs;
+
+    private int partNum;
+    private String baseDir;
+    // the directory of the outputs, which is not in a snapshot
+    private String outputDir;
+    private float skewFactor;
+    private Path seedPath;
+
+    // statistics
+    private int nRadii;
+    private int tableNum = 0;
+
+    // the columns of a line of InspectMapper, indexed by partition
+    private int[] rows;
+    private int[] deleted;
+    private int[] segmentNum;
+    private long[] bytes;
+    private int[] maxBucket;
+    // the probe cost of each partition, indexed by partition and radius,
+    // summed over the tables of the radius
+    private double[][] partCost;
+    // the number of buckets and the largest bucket of each radius
+    private long[] radiusBuckets;
+    private int[] radiusMaxBucket;
+    private long[] hist = new long[InspectMapper.HIST_SIZE];
+
+
+    /**
+     * Constructor.
+     * */
+    public Inspector(final Configuration conf, final FileSystem fs) {
+        this.conf = conf;
+        this.fs = fs;
+
+        partNum = conf.getInt("partNum", 0);
+        if (0 == partNum) {
+            LSHTool.printAndExit("partNum error");
+        }
+        baseDir = conf.get("baseDir");
+        outputDir = conf.get("outputDir", baseDir);
+        skewFactor = conf.getFloat("skewFactor", DEFAULT_SKEW_FACTOR);
+    }
+
+    /**
+     * run.
+     * */
+    public int run() throws IOException, InterruptedException, ClassNotFoundException {
+        long startMillis;
+        int totalSecond;
+
+        startMillis = System.currentTimeMillis();
+        int[] stat = Statistician.readStatistics(fs, baseDir);
+        nRadii = stat[2];
+        conf.setInt("dimension", stat[0]);
+        conf.setInt("nRadii", nRadii);
+
+        this.createSeed();
+        Path outPath = new Path(outputDir + "/inspectOutput");
+        if (!this.inspect(outPath)) {
+            LSHTool.printAndExit("inspect index failed");
+        }
+        this.readReport(outPath);
+        totalSecond = (int)((System.currentTimeMillis() - startMillis) / 1000.0);
+
+        this.printReport();
+        System.out.printf("---------------------------------------------------------------\n");
+        System.out.printf("Data Set: %s, Time of inspecting %s\n", conf.get("dataset"),
+                LSHTool.convertTime(totalSecond));
+        System.out.printf("---------------------------------------------------------------\n");
+
+        return 0;
+    }
+
+    /**
+     * Create a partition seed file for InspectMapper.
+     * */
+    private void createSeed() throws IOException {
+        seedPath = new Path(outputDir + "/inspect.seed");
+        fs.delete(seedPath, false);
+
+        FSDataOutputStream out = fs.create(seedPath);
+        try {
+            for (int i = 0; i < partNum; i++) {
+                // i is the partition id
+                String str = i + "\n";
+                out.write(str.getBytes());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Inspect the partitions using MapReduce.
+     * */
+    private boolean inspect(final Path outPath)
+            throws IOException, InterruptedException, ClassNotFoundException {
+        Job job = new Job(conf, "pdlsh Inspector " + conf.get("dataset"));
+        job.setJarByClass(Inspector.class);
+        job.setMapperClass(InspectMapper.class);
+        // We do not need reduce here.
+        job.setNumReduceTasks(0);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(NullWritable.class);
+
+        job.setInputFormatClass(NLineInputFormat.class);
+        NLineInputFormat.addInputPath(job, seedPath);
+        fs.delete(outPath, true);
+        FileOutputFormat.setOutputPath(job, outPath);
+
+        return job.waitForCompletion(true);
+    }
+
+    /**
+     * Read the lines of InspectMapper and sum them up.
+     * */
+    private void readReport(final Path outPath) throws IOException {
+        rows = new int[partNum];
+        deleted = new int[partNum];
+        segmentNum = new int[partNum];
+        bytes = new long[partNum];
+        maxBucket = new int[partNum];
+        partCost = new double[partNum][nRadii];
+        radiusBuckets = new long[nRadii];
+        radiusMaxBucket = new int[nRadii];
+
+        FileStatus[] fileStatus = fs.listStatus(outPath);
+        for (int i = 0; i < fileStatus.length; i++) {
+            if (!fileStatus[i].getPath().getName().startsWith("part-")) {
+                continue;
+            }
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    fs.open(fileStatus[i].getPath())));
+            try {
+                String line;
+                while (null != (line = in.readLine())) {
+                    this.addLine(line.trim().split("\\s+"));
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Add a line of InspectMapper.
+     * @param cols the columns of the line
+     * */
+    private void addLine(final String[] cols) {
+        if (cols.length != 10 + InspectMapper.HIST_SIZE) {
+            LSHTool.printAndExit("inspect output error");
+        }
+        int partID = Integer.parseInt(cols[0]);
+        int radiusID = Integer.parseInt(cols[1]);
+        int tableID = Integer.parseInt(cols[2]);
+        int buckets = Integer.parseInt(cols[7]);
+        int max = Integer.parseInt(cols[8]);
+
+        tableNum = Math.max(tableNum, tableID + 1);
+        rows[partID] = Integer.parseInt(cols[3]);
+        deleted[partID] = Integer.parseInt(cols[4]);
+        segmentNum[partID] = Integer.parseInt(cols[5]);
+        bytes[partID] = Long.parseLong(cols[6]);
+        maxBucket[partID] = Math.max(maxBucket[partID], max);
+        partCost[partID][radiusID] += Double.parseDouble(cols[9]);
+        radiusBuckets[radiusID] += buckets;
+        radiusMaxBucket[radiusID] = Math.max(radiusMaxBucket[radiusID], max);
+        for (int k = 0; k < InspectMapper.HIST_SIZE; k++) {
+            hist[k] += Long.parseLong(cols[10 + k]);
+        }
+    }
+
+    /**
+     * Print the report.
+     * */
+    private void printReport() {
+        // A query reads the tables of every partition at a radius.
+        double[] radiusCost = new double[nRadii];
+        double[] cost = new double[partNum];
+        double totalCost = 0;
+        for (int i = 0; i < partNum; i++) {
+            for (int j = 0; j < nRadii; j++) {
+                radiusCost[j] += partCost[i][j];
+                cost[i] += partCost[i][j] / nRadii;
+            }
+            totalCost += cost[i];
+        }
+        double avgCost = totalCost / partNum;
+
+        System.out.printf("---------------------------------------------------------------\n");
+        System.out.printf("%d partitions, %d radii, %d tables per radius\n",
+                partNum, nRadii, tableNum);
+        System.out.printf("%-6s %10s %10s %8s %12s %10s %12s\n", "Part", "Rows",
+                "Deleted", "Segments", "Bytes", "MaxBucket", "ProbeCost");
+        int skewed = 0;
+        for (int i = 0; i < partNum; i++) {
+            boolean isSkewed = cost[i] > skewFactor * avgCost;
+            if (isSkewed) {
+                skewed++;
+            }
+            System.out.printf("%-6d %10d %10d %8d %12d %10d %12.1f%s\n", i, rows[i],
+                    deleted[i], segmentNum[i], bytes[i], maxBucket[i], cost[i],
+                    isSkewed ? "  skewed" : "");
+        }
+
+        System.out.printf("%-6s %12s %10s %12s\n", "Radius", "Buckets", "MaxBucket",
+                "ProbeCost");
+        for (int j = 0; j < nRadii; j++) {
+            System.out.printf("%-6d %12d %10d %12.1f\n", j, radiusBuckets[j],
+                    radiusMaxBucket[j], radiusCost[j]);
+        }
+
+        System.out.printf("Bucket size histogram:\n");
+        for (int k = 0; k < InspectMapper.HIST_SIZE; k++) {
+            if (0 == hist[k]) {
+                continue;
+            }
+            if (InspectMapper.HIST_SIZE - 1 == k) {
+                System.out.printf("  [%d, ...): %d\n", 1 << k, hist[k]);
+            } else {
+                System.out.printf("  [%d, %d): %d\n", 1 << k, 1 << (k + 1), hist[k]);
+            }
+        }
+        System.out.printf("Probe cost is the expected postings read by a query, "
+                + "summed over the tables of a radius\n");
+        System.out.printf("%d partitions are skewed (probe cost > %.1f times the average "
+                + "%.1f)\n", skewed, skewFactor, avgCost);
+    }
+}
@@ -0,0 +1,301 @@
+package cn.edu.sysu.distributedLSH.lsh.builder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import cn.edu.sysu.distributedLSH.common.BucketDirectory;
+import cn.edu.sysu.distributedLSH.common.BucketFilter;
+import cn.edu.sysu.distributedLSH.common.HashTable;
+import cn.edu.sysu.distributedLSH.common.IndexSection;
+import cn.edu.sysu.distributedLSH.common.LSH;
+import cn.edu.sysu.distributedLSH.common.PartitionIndex;
+import cn.edu.sysu.distributedLSH.common.TwoDArray;
+
+
+/**
+ * BuildCheckpoint keeps what a HashReducer attempt has built for a partition
+ * in baseDir/_checkpoint/part_X, so that a retried attempt resumes instead of
+ * starting over. The checkpoint contains:
+ *   base:              the LSH parameters, then the data points and their IDs
+ *                      in the order of the rows, since the order of the
+ *                      reducer input may differ between attempts while the
+ *                      postings refer to rows
+ *   table_R_T:         the hash table of radius R and table T in the layout
+ *                      of BucketDirectory
+ *   filter_R_T:        its bucket filter
+ *   MANIFEST:          the entries above that are complete, one per line
+ * Every file is written under a temporary name of the attempt and renamed
+ * when complete, then the manifest is replaced the same way. Thus an entry in
+ * the manifest is always durable, and a half-written file is simply rebuilt.
+ * A speculative attempt may share the checkpoint with the running one. Only
+ * the first base is committed, since HDFS does not rename onto an existing
+ * file, and the other attempt adopts it. The tables built on the same base
+ * are the same, so it does not matter which attempt commits them. The
+ * checkpoints only live through a job: HashTableBuilder removes them before
+ * and after the job.
+ * */
+public class BuildCheckpoint {
+    public static final String DIR_NAME = "_checkpoint";
+
+    private static final String MANIFEST = "MANIFEST";
+    private static final String BASE_ENTRY = "base";
+    private static final int BUFFER_SIZE = 65536;
+
+    private FileSystem fs;
+    private String dir;
+    // the suffix of the temporary files of this attempt
+    private String tmpSuffix;
+    // the complete entries in the order they are committed
+    private List<String> entries = new ArrayList<String>();
+    private Set<String> entrySet = new HashSet<String>();
+
+
+    /**
+     * Constructor. The manifest of an earlier attempt is read if it exists.
+     * @param baseDir
+     * @param partID the ID of the partition
+     * @param attemptID the ID of the task attempt
+     * @param fs
+     * */
+    public BuildCheckpoint(final String baseDir, final int partID, final String attemptID,
+            final FileSystem fs) throws IOException {
+        this.fs = fs;
+        dir = baseDir + "/" + DIR_NAME + "/part_" + partID;
+        tmpSuffix = "." + attemptID + ".tmp";
+        this.readManifest();
+    }
+
+    /**
+     * Read the manifest.
+     * */
+    private void readManifest() throws IOException {
+        Path manifestPath = new Path(dir + "/" + MANIFEST);
+        if (!fs.exists(manifestPath)) {
+            return;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                fs.open(manifestPath), "UTF-8"));
+        try {
+            String line;
+            while (null != (line = reader.readLine())) {
+                if (line.length() > 0 && entrySet.add(line)) {
+                    entries.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Add an entry whose file is complete, then replace the manifest. If
+     * another attempt replaces it at the same time, its manifest is kept,
+     * which may only miss some entries to be rebuilt on a retry.
+     * */
+    private void commit(final String entry) throws IOException {
+        if (entrySet.add(entry)) {
+            entries.add(entry);
+        }
+
+        DataOutputStream out = this.create(MANIFEST);
+        for (String e : entries) {
+            out.write((e + "\n").getBytes("UTF-8"));
+        }
+        this.finish(MANIFEST, out, true);
+    }
+
+    /**
+     * Create a file under its temporary name.
+     * */
+    private DataOutputStream create(final String name) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+                fs.create(new Path(dir + "/" + name + tmpSuffix), true), BUFFER_SIZE));
+    }
+
+    /**
+     * Close a file and rename it to its real name.
+     * @param replace whether to replace the file committed before
+     * @return false if the file has been committed by another attempt
+     * */
+    private boolean finish(final String name, final DataOutputStream out, final boolean replace)
+            throws IOException {
+        out.close();
+        Path tmpPath = new Path(dir + "/" + name + tmpSuffix);
+        Path path = new Path(dir + "/" + name);
+        if (replace) {
+            fs.delete(path, false);
+        } else if (fs.exists(path)) {
+            fs.delete(tmpPath, false);
+            return false;
+        }
+        if (!fs.rename(tmpPath, path)) {
+            if (!fs.exists(path)) {
+                throw new IOException("rename checkpoint file " + path + " failed");
+            }
+            fs.delete(tmpPath, false);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Open a file of a complete entry.
+     * */
+    private DataInputStream open(final String name) throws IOException {
+        return new DataInputStream(new BufferedInputStream(
+                fs.open(new Path(dir + "/" + name)), BUFFER_SIZE));
+    }
+
+    /**
+     * the entry of a table.
+     * */
+    private static String tableEntry(final int radiusID, final int tableID) {
+        return "table_" + radiusID + "_" + tableID;
+    }
+
+    /**
+     * the file of the bucket filter of a table.
+     * */
+    private static String filterName(final int radiusID, final int tableID) {
+        return "filter_" + radiusID + "_" + tableID;
+    }
+
+    /**
+     * Whether the LSH parameters and the data set are checkpointed, that is
+     * whether the build can be resumed.
+     * */
+    public boolean canResume() {
+        return entrySet.contains(BASE_ENTRY);
+    }
+
+    /**
+     * Whether a table is checkpointed.
+     * */
+    public boolean containsTable(final int radiusID, final int tableID) {
+        return entrySet.contains(tableEntry(radiusID, tableID));
+    }
+
+    /**
+     * get the number of checkpointed tables.
+     * */
+    public int getTableCount() {
+        return entrySet.contains(BASE_ENTRY) ? entries.size() - 1 : entries.size();
+    }
+
+    /**
+     * Save the LSH parameters, the data points and their IDs.
+     * @return false if another attempt has saved its own, which must be read
+     *  by readBase and used instead
+     * */
+    public boolean writeBase(final LSH lsh, final TwoDArray dataPoints, final int[] ids)
+            throws IOException {
+        DataOutputStream out = this.create(BASE_ENTRY);
+        lsh.write(out);
+        dataPoints.write(out);
+        for (int i = 0; i < dataPoints.getRow(); i++) {
+            out.writeInt(ids[i]);
+        }
+        if (!this.finish(BASE_ENTRY, out, false)) {
+            // The base of the other attempt is complete, thus it stays in the
+            // manifest when this attempt replaces it with its tables.
+            if (entrySet.add(BASE_ENTRY)) {
+                entries.add(0, BASE_ENTRY);
+            }
+            return false;
+        }
+        this.commit(BASE_ENTRY);
+        return true;
+    }
+
+    /**
+     * Read the LSH parameters and the data points.
+     * @param lsh the LSH parameters are read into it
+     * @param dataPoints the data points are read into it
+     * @return the IDs of the data points
+     * */
+    public int[] readBase(final LSH lsh, final TwoDArray dataPoints) throws IOException {
+        DataInputStream in = this.open(BASE_ENTRY);
+        try {
+            lsh.readFields(in);
+            dataPoints.readFields(in);
+            int[] ids = new int[dataPoints.getRow()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = in.readInt();
+            }
+            return ids;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Save a hash table and its bucket filter.
+     * */
+    public void writeTable(final HashTable hashTable, final BucketFilter filter)
+            throws IOException {
+        int radiusID = hashTable.getRadiusID();
+        int tableID = hashTable.getTableID();
+
+        String filterName = filterName(radiusID, tableID);
+        DataOutputStream out = this.create(filterName);
+        filter.write(out);
+        this.finish(filterName, out, false);
+
+        String tableName = tableEntry(radiusID, tableID);
+        out = this.create(tableName);
+        BucketDirectory.write(out, hashTable);
+        this.finish(tableName, out, false);
+        this.commit(tableName);
+    }
+
+    /**
+     * Copy a checkpointed table and its bucket filter into the index.
+     * @param partIndex
+     * @param radiusID
+     * @param tableID
+     * */
+    public void copyTable(final PartitionIndex partIndex, final int radiusID,
+            final int tableID) throws IOException {
+        final Path tablePath = new Path(dir + "/" + tableEntry(radiusID, tableID));
+        partIndex.writeTable(radiusID, tableID, new IndexSection() {
+            public void write(final DataOutput out) throws IOException {
+                long length = fs.getFileStatus(tablePath).getLen();
+                byte[] buffer = new byte[BUFFER_SIZE];
+                FSDataInputStream in = fs.open(tablePath);
+                try {
+                    while (length > 0) {
+                        int n = (int)Math.min(buffer.length, length);
+                        in.readFully(buffer, 0, n);
+                        out.write(buffer, 0, n);
+                        length -= n;
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        });
+
+        BucketFilter filter = new BucketFilter();
+        DataInputStream in = this.open(filterName(radiusID, tableID));
+        try {
+            filter.readFields(in);
+        } finally {
+            in.close();
+        }
+        partIndex.writeFilter(radiusID, tableID, filter);
+    }
+}
@@ -0,0 +1,438 @@
+package cn.edu.sysu.distributedLSH.lsh.builder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import cn.edu.sysu.distributedLSH.common.IndexSection;
+import cn.edu.sysu.distributedLSH.common.LSH;
+import cn.edu.sysu.distributedLSH.common.PartitionIndex;
+import cn.edu.sysu.distributedLSH.common.TwoDArray;
+import cn.edu.sysu.distributedLSH.common.VectorEncoding;
+import cn.edu.sysu.distributedLSH.lsh.merger.TableMerger;
+
+
+/**
+ * ExternalTableBuilder builds the index of a partition that does not fit in
+ * memory. The data points are streamed from the local spill file of
+ * HashReducer, whose records are the ID followed by the coordinates in the
+ * width of the data set. The spill file is streamed once per table ID: a
+ * point is projected once, since the projection does not depend on the
+ * radius, and then quantized for every radius. The (bucket, row) pairs of
+ * each radius are sorted in runs, which share runMB, the runs are spilled to
+ * local files, and then merged straight into the layout of BucketDirectory.
+ * Only one run per radius, the bucket directory of one table and a read
+ * buffer per run are in memory, no matter how large the partition is.
+ * */
+public class ExternalTableBuilder {
+    private static final int BUFFER_SIZE = 65536;
+    private static final int MERGE_BUFFER_SIZE = 8192;
+    private static final long ROW_MASK = 0xffffffffL;
+    // the number of points projected at once
+    private static final int PROJECT_BATCH = 256;
+
+    /**
+     * A sorted run of (bucket, row) pairs, either in memory or in a local
+     * file, with the pair at the cursor.
+     * */
+    private static class RunCursor implements Comparable<RunCursor> {
+        long[] array = null;
+        int pos = 0;
+        int end = 0;
+        DataInputStream in = null;
+        long remaining = 0;
+        long current;
+
+        /**
+         * Constructor for a run in memory.
+         * */
+        RunCursor(final long[] array, final int end) {
+            this.array = array;
+            this.end = end;
+        }
+
+        /**
+         * Constructor for a run in a local file.
+         * */
+        RunCursor(final File file, final long length) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file), MERGE_BUFFER_SIZE));
+            remaining = length;
+        }
+
+        /**
+         * Move the cursor to the next pair.
+         * @return false if the run is exhausted
+         * */
+        boolean advance() throws IOException {
+            if (null == in) {
+                if (pos == end) {
+                    return false;
+                }
+                current = array[pos++];
+                return true;
+            }
+            if (0 == remaining) {
+                in.close();
+                return false;
+            }
+            current = in.readLong();
+            remaining--;
+            return true;
+        }
+
+        /**
+         * Close the file of the run.
+         * */
+        void close() throws IOException {
+            if (null != in) {
+                in.close();
+            }
+        }
+
+        /**
+         * Implement the method in the interface Comparable.
+         * */
+        public int compareTo(RunCursor other) {
+            if (this.current < other.current) {
+                return -1;
+            } else if (this.current > other.current) {
+                return 1;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * The sorted runs of the (bucket, row) pairs of a table: the run in
+     * memory and the runs spilled to local files.
+     * */
+    private static class RunSet {
+        long[] run;
+        int runSize = 0;
+        List<File> runFiles = new ArrayList<File>();
+        List<Long> runLengths = new ArrayList<Long>();
+
+        /**
+         * Constructor.
+         * @param runLength the number of pairs of the run in memory
+         * */
+        RunSet(final int runLength) {
+            run = new long[runLength];
+        }
+
+        /**
+         * Add a pair, and spill the run if it is full.
+         * */
+        void add(final long pair) throws IOException {
+            run[runSize++] = pair;
+            if (runSize == run.length) {
+                this.spill();
+            }
+        }
+
+        /**
+         * Sort the run in memory and write it to a local run file.
+         * */
+        void spill() throws IOException {
+            Arrays.sort(run, 0, runSize);
+
+            File file = File.createTempFile("table", ".run");
+            file.deleteOnExit();
+            runFiles.add(file);
+            runLengths.add((long)runSize);
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file), BUFFER_SIZE));
+            try {
+                for (int i = 0; i < runSize; i++) {
+                    out.writeLong(run[i]);
+                }
+            } finally {
+                out.close();
+            }
+            runSize = 0;
+        }
+
+        /**
+         * Open a cursor for each run file and the run in memory, and put
+         * those that are not empty into a priority queue.
+         * */
+        PriorityQueue<RunCursor> open() throws IOException {
+            PriorityQueue<RunCursor> queue = new PriorityQueue<RunCursor>(runFiles.size() + 1);
+            for (int i = 0; i < runFiles.size(); i++) {
+                RunCursor cursor = new RunCursor(runFiles.get(i), runLengths.get(i));
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+            RunCursor cursor = new RunCursor(run, runSize);
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+            return queue;
+        }
+
+        /**
+         * Empty the run in memory and delete the run files.
+         * */
+        void clear() {
+            runSize = 0;
+            for (File file : runFiles) {
+                file.delete();
+            }
+            runFiles.clear();
+            runLengths.clear();
+        }
+    }
+
+
+    private File spillFile;
+    private int size;
+    private int dimension;
+    private int width;
+    private LSH lsh;
+    private int[] radii;
+
+    // the runs of each radius
+    private RunSet[] runSets = null;
+
+    // the bucket directory of the current table
+    private int[] keys = new int[1024];
+    private int[] starts = new int[1025];
+    private int nBuckets = 0;
+
+    // the points being projected, and their projections
+    private int[][] batch = null;
+    private double[] projected = null;
+
+
+    /**
+     * Constructor.
+     * @param spillFile the local file of the data points
+     * @param size the number of data points in spillFile
+     * @param dimension
+     * @param width the width of a coordinate in spillFile
+     * @param lsh
+     * @param radii
+     * @param runMB the memory in MB for sorting the runs of all the radii
+     * */
+    public ExternalTableBuilder(final File spillFile, final int size, final int dimension,
+            final int width, final LSH lsh, final int[] radii, final int runMB) {
+        this.spillFile = spillFile;
+        this.size = size;
+        this.dimension = dimension;
+        this.width = width;
+        this.lsh = lsh;
+        this.radii = radii;
+
+        // a pair takes a long
+        int runLength = (int)Math.max(1024, Math.min(Integer.MAX_VALUE - 8,
+                ((long)runMB << 17) / radii.length));
+        runSets = new RunSet[radii.length];
+        for (int i = 0; i < radii.length; i++) {
+            runSets[i] = new RunSet(runLength);
+        }
+        batch = new int[PROJECT_BATCH][dimension];
+        projected = new double[PROJECT_BATCH * lsh.getProjDim()];
+    }
+
+    /**
+     * Write the data points, their IDs, the hash tables and their filters to
+     * the index of the partition.
+     * @param partIndex
+     * */
+    public void build(final PartitionIndex partIndex) throws IOException {
+        partIndex.writeDataSet(new IndexSection() {
+            public void write(final DataOutput out) throws IOException {
+                TwoDArray.writeHeader(out, size, dimension, width);
+                int[] point = batch[0];
+                DataInputStream in = openSpillFile();
+                try {
+                    for (int row = 0; row < size; row++) {
+                        in.readInt();
+                        VectorEncoding.read(in, point, dimension, width);
+                        VectorEncoding.write(out, point, dimension, width);
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        });
+
+        partIndex.writeIdMap(new IndexSection() {
+            public void write(final DataOutput out) throws IOException {
+                out.writeInt(size);
+                int[] point = batch[0];
+                DataInputStream in = openSpillFile();
+                try {
+                    for (int row = 0; row < size; row++) {
+                        out.writeInt(in.readInt());
+                        VectorEncoding.read(in, point, dimension, width);
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        });
+
+        // The tables are written table ID by table ID rather than radius by
+        // radius as HashReducer does, which does not matter since the sections
+        // are found through the directory of the index.
+        for (int j = 0; j < lsh.getHashTableSize(); j++) {
+            // j is the table id
+            this.buildTables(partIndex, j);
+        }
+    }
+
+    /**
+     * Open the spill file.
+     * */
+    private DataInputStream openSpillFile() throws IOException {
+        return new DataInputStream(new BufferedInputStream(
+                new FileInputStream(spillFile), BUFFER_SIZE));
+    }
+
+    /**
+     * Build the hash tables of a table ID for all the radii by sorting and
+     * merging runs.
+     * @param partIndex
+     * @param tableID
+     * */
+    private void buildTables(final PartitionIndex partIndex, final int tableID)
+            throws IOException {
+        try {
+            this.hashPoints(tableID);
+            for (int i = 0; i < radii.length; i++) {
+                // i is the radius id
+                final RunSet runSet = runSets[i];
+                Arrays.sort(runSet.run, 0, runSet.runSize);
+                // The first pass collects the bucket directory, which must be
+                // written before the postings. The second pass writes the
+                // postings.
+                this.collectDirectory(runSet);
+                TableMerger.writeTable(partIndex, i, tableID, keys, starts, nBuckets,
+                        new IndexSection() {
+                            public void write(final DataOutput out) throws IOException {
+                                writePostings(runSet, out);
+                            }
+                        });
+                runSet.clear();
+            }
+        } finally {
+            for (int i = 0; i < radii.length; i++) {
+                runSets[i].clear();
+            }
+        }
+    }
+
+    /**
+     * Stream the spill file, project the points in batches, and add the
+     * (bucket, row) pairs of every radius to its runs.
+     * @param tableID
+     * */
+    private void hashPoints(final int tableID) throws IOException {
+        int projDim = lsh.getProjDim();
+        DataInputStream in = this.openSpillFile();
+        try {
+            for (int first = 0; first < size; first += PROJECT_BATCH) {
+                int n = Math.min(PROJECT_BATCH, size - first);
+                for (int p = 0; p < n; p++) {
+                    in.readInt();
+                    VectorEncoding.read(in, batch[p], dimension, width);
+                }
+                // the rows from n on are left from the last batch and ignored
+                lsh.projectPoints(tableID, batch, projected);
+
+                for (int p = 0; p < n; p++) {
+                    int row = first + p;
+                    for (int i = 0; i < radii.length; i++) {
+                        int bucketID = lsh.calcHashValue(radii[i], projected, p * projDim);
+                        // Bucket IDs are non-negative. The rows of a bucket
+                        // are sorted descending, which is the order of
+                        // SimpleList in HashTable, so the search is the same
+                        // as with the in-memory build.
+                        runSets[i].add(((long)bucketID << 32) | (Integer.MAX_VALUE - row));
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Take the smallest pair from the merged runs.
+     * */
+    private static long poll(final PriorityQueue<RunCursor> queue) throws IOException {
+        RunCursor cursor = queue.poll();
+        long pair = cursor.current;
+        if (cursor.advance()) {
+            queue.add(cursor);
+        }
+        return pair;
+    }
+
+    /**
+     * Merge the runs and collect the keys and starts of the buckets.
+     * @param runSet the runs of the table
+     * */
+    private void collectDirectory(final RunSet runSet) throws IOException {
+        PriorityQueue<RunCursor> queue = runSet.open();
+        nBuckets = 0;
+        int count = 0;
+        long lastBucket = -1;
+        try {
+            while (!queue.isEmpty()) {
+                long bucketID = poll(queue) >>> 32;
+                if (bucketID != lastBucket) {
+                    if (nBuckets == keys.length) {
+                        int[] newKeys = new int[keys.length * 2];
+                        System.arraycopy(keys, 0, newKeys, 0, nBuckets);
+                        keys = newKeys;
+                        int[] newStarts = new int[keys.length + 1];
+                        System.arraycopy(starts, 0, newStarts, 0, nBuckets + 1);
+                        starts = newStarts;
+                    }
+                    starts[nBuckets] = count;
+                    keys[nBuckets++] = (int)bucketID;
+                    lastBucket = bucketID;
+                }
+                count++;
+            }
+        } finally {
+            for (RunCursor cursor : queue) {
+                cursor.close();
+            }
+        }
+        starts[nBuckets] = count;
+    }
+
+    /**
+     * Merge the runs again and write the rows bucket by bucket.
+     * @param runSet the runs of the table
+     * @param out output stream
+     * */
+    private void writePostings(final RunSet runSet, final DataOutput out) throws IOException {
+        PriorityQueue<RunCursor> queue = runSet.open();
+        try {
+            while (!queue.isEmpty()) {
+                out.writeInt(Integer.MAX_VALUE - (int)(poll(queue) & ROW_MASK));
+            }
+        } finally {
+            for (RunCursor cursor : queue) {
+                cursor.close();
+            }
+        }
+    }
+}
@@ -4,14 +4,14 @@ import java.io.IOException;
 import java.util.Random;
 
 import org.apache.hadoop.io.IntWritable;
-import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.conf.Configuration;
 
 import cn.edu.sysu.distributedLSH.common.LSHTool;
 
 
-public class HashMapper extends Mapper<Object, Text, IntWritable, Text> {
+public class HashMapper extends Mapper<Object, Writable, IntWritable, Writable> {
     private static Random random = new Random();
 
     private Configuration conf;
@@ -37,11 +37,12 @@ public class HashMapper extends Mapper<Object, Text, IntWritable, Text> {
     /**
      * map.
      * @param key dummy
-     * @param value contains the data point
+     * @param value contains the data point, which is Text for the text data
+     *  set or VectorWritable for the binary data set
      * @param context
      * */
     @Override
-    protected void map(final Object key, final Text value, final Context context)
+    protected void map(final Object key, final Writable value, final Context context)
             throws IOException, InterruptedException {
         // Partition the original data set into several parts. The part that a data point
         // is distributed to is selected with equal probability. Each part will be processed
@@ -1,10 +1,21 @@
 package cn.edu.sysu.distributedLSH.lsh.builder;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
@@ -12,27 +23,64 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Reducer;
 
+import cn.edu.sysu.distributedLSH.common.BucketFilter;
 import cn.edu.sysu.distributedLSH.common.HashTable;
 import cn.edu.sysu.distributedLSH.common.LSH;
 import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.PartitionIndex;
+import cn.edu.sysu.distributedLSH.common.SideFiles;
 import cn.edu.sysu.distributedLSH.common.TwoDArray;
+import cn.edu.sysu.distributedLSH.common.VectorEncoding;
+import cn.edu.sysu.distributedLSH.common.VectorParser;
+import cn.edu.sysu.distributedLSH.common.VectorWritable;
+
+
+public class HashReducer extends Reducer<IntWritable, Writable, Object, Object> {
+    /**
+     * The scratch space of a thread for hashing data points.
+     * */
+    private static class HashScratch {
+        int[] point = null;
+        double[] hashVector = null;
+
+        /**
+         * Constructor.
+         * */
+        HashScratch(final int dim, final int projDim) {
+            point = new int[dim];
+            hashVector = new double[projDim];
+        }
+    }
 
 
-public class HashReducer extends Reducer<IntWritable, Text, Object, Object> {
     private static final int THRESHOLD_RADIUS = 1;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int BUFFER_SIZE = 65536;
 
     private Configuration conf;
     private FileSystem fs;
 
     private int ratio;
     private String baseDir;
+    // whether to renumber the points in the order of their buckets
+    private boolean localityLayout;
+    // the number of threads for building the hash tables of a partition
+    private int buildThreads;
+    // whether to build the partition out of core, see ExternalTableBuilder
+    private boolean externalBuild;
+    // the memory in MB for sorting a run of a table in the external build
+    private int externalRunMB;
+    // whether to checkpoint the build so that a retried attempt resumes
+    private boolean checkpointBuild;
 
     // statistics
     private int dimension = -1;
     private int maxCoordinate = -1;
     private int nRadii = -1;
+    private int minCoordinate = 0;
 
     private boolean flag = true;
     private int partDataSetSize = 0;        // the size of this part of data set
@@ -41,7 +89,9 @@ public class HashReducer extends Reducer<IntWritable, Text, Object, Object> {
     private LSH lsh = null;
     private int hashTableSize;
     private TwoDArray dataPoints = null;    // data points
-    private List<String> valuesBuffer = null;
+    private int[] ids = null;               // the IDs of the data points
+    private File spillFile = null;          // the spilled data points, or null
+    private int spilledRows = 0;
 
 
     /**
@@ -60,6 +110,20 @@ public class HashReducer extends Reducer<IntWritable, Text, Object, Object> {
 
         ratio = conf.getInt("ratio", 0);
         baseDir = conf.get("baseDir");
+        localityLayout = conf.getBoolean("localityLayout", false);
+        buildThreads = conf.getInt("buildThreads", 1);
+        if (buildThreads < 1) {
+            LSHTool.printAndExit("buildThreads should be positive");
+        }
+        externalBuild = conf.getBoolean("externalBuild", false);
+        externalRunMB = conf.getInt("externalRunMB", 64);
+        if (externalBuild && localityLayout) {
+            LSHTool.printAndExit("localityLayout is not supported by externalBuild");
+        }
+        checkpointBuild = conf.getBoolean("checkpointBuild", false);
+        if (externalBuild && checkpointBuild) {
+            LSHTool.printAndExit("checkpointBuild is not supported by externalBuild");
+        }
 
         this.readStatistics();
         
@@ -88,6 +152,7 @@ public class HashReducer extends Reducer<IntWritable, Text, Object, Object> {
             dimension = in.readInt();
             maxCoordinate = in.readInt();
             nRadii = in.readInt();
+            minCoordinate = in.readInt();
             in.close();
 
             if (dimension < 1 || maxCoordinate < 1 || nRadii < 1) {
@@ -106,7 +171,7 @@ public class HashReducer extends Reducer<IntWritable, Text, Object, Object> {
      * @param context
      * */
     @Override
-    protected void reduce(final IntWritable key, final Iterable<Text> values,
+    protected void reduce(final IntWritable key, final Iterable<Writable> values,
             final Context context) throws IOException, InterruptedException {
         if (flag) {
             flag = false;
@@ -114,97 +179,349 @@ public class HashReducer extends Reducer<IntWritable, Text, Object, Object> {
             LSHTool.printAndExit("HashReducer reduce() is called more than once");
         }
 
-        partDataSetSize = convertValues(values);
-
-        partDir = baseDir + "/part_" + key.get();
-        // We must delete all built LSHs and hash tables in this partition since
-        fs.delete(new Path(partDir), true);
+        BuildCheckpoint checkpoint = null;
+        if (checkpointBuild) {
+            checkpoint = new BuildCheckpoint(baseDir, key.get(),
+                    context.getTaskAttemptID().toString(), fs);
+        }
 
-        this.buildLsh();
+        if (null != checkpoint && checkpoint.canResume()) {
+            // A previous attempt has failed. Its LSH and its rows are reused,
+            // thus the checkpointed tables are still valid.
+            this.readCheckpointBase(checkpoint);
+            System.out.printf("resume partition %d from checkpoint, %d tables are reused\n",
+                    key.get(), checkpoint.getTableCount());
+        } else {
+            partDataSetSize = this.bufferValues(values, context);
+            this.buildLsh();
+            if (!externalBuild && localityLayout) {
+                this.reorderByBucket();
+            }
+            if (null != checkpoint && !checkpoint.writeBase(lsh, dataPoints, ids)) {
+                // A speculative attempt has checkpointed first. Its base is
+                // used so that the tables of both attempts agree.
+                this.readCheckpointBase(checkpoint);
+            }
+        }
         hashTableSize = lsh.getHashTableSize();
-        dataPoints = new TwoDArray(partDataSetSize, dimension);
 
-        this.parseDataSet();
-        this.hash();
+        // The index is written under the work directory of this attempt and
+        // promoted to baseDir/part_X by HashTableBuilder. See SideFiles.
+        partDir = SideFiles.getWorkDir(context) + "/part_" + key.get();
+
+        // Everything of this partition is packed into a single index file.
+        PartitionIndex partIndex = PartitionIndex.create(partDir, fs);
+        try {
+            partIndex.writeLsh(lsh);
+            if (externalBuild) {
+                // The data points stay in the spill file.
+                ExternalTableBuilder builder = new ExternalTableBuilder(spillFile,
+                        partDataSetSize, dimension, VectorEncoding.choose(minCoordinate,
+                        maxCoordinate), lsh, radii, externalRunMB);
+                builder.build(partIndex);
+            } else {
+                partIndex.writeDataSet(dataPoints);
+                partIndex.writeIdMap(ids);
+                this.hash(partIndex, key.get(), checkpoint);
+            }
+        } finally {
+            partIndex.close();
+            if (null != spillFile) {
+                spillFile.delete();
+            }
+        }
     }
 
     /**
-     * Convert values into a list of String then store it in memory.
+     * Restore the LSH, the data points and their IDs from the checkpoint.
+     * @param checkpoint
+     * */
+    private void readCheckpointBase(final BuildCheckpoint checkpoint) throws IOException {
+        lsh = new LSH(dimension);
+        dataPoints = new TwoDArray();
+        ids = checkpoint.readBase(lsh, dataPoints);
+        partDataSetSize = dataPoints.getRow();
+    }
+
+    /**
+     * Parse the values into dataPoints and ids. Each data point is stored at
+     * once in the width of the data set, so a partition is resident only in
+     * its binary form. For externalBuild, the buffer holds externalRunMB of
+     * data points, which are spilled to a local file whenever it is full,
+     * and they are never read back here. A malformed line of the text data
+     * set is skipped.
      * @param values contains a list of data points
+     * @param context
      * @return the size of this partition of the data set
      * */
-    private int convertValues(final Iterable<Text> values) {
-        int size = 0;
+    private int bufferValues(final Iterable<Writable> values, final Context context)
+            throws IOException {
+        int width = VectorEncoding.choose(minCoordinate, maxCoordinate);
+        int maxBufferRows = Integer.MAX_VALUE;
+        if (externalBuild) {
+            // a buffered row takes its coordinates and its ID
+            maxBufferRows = (int)Math.max(1,
+                    ((long)externalRunMB << 20) / (dimension * width + 4));
+        }
 
-        valuesBuffer = new LinkedList<String>();
-        Iterator<Text> it = values.iterator();
-        while (it.hasNext()) {
-            valuesBuffer.add(new String(it.next().toString()));
-            size++;
+        VectorParser parser = new VectorParser();
+        int[] point = new int[dimension];
+        dataPoints = new TwoDArray(0, dimension, width);
+        ids = new int[INITIAL_CAPACITY];
+        DataOutputStream spillOut = null;
+        if (externalBuild) {
+            spillOut = this.createSpillFile();
         }
-        return size;
+
+        try {
+            Iterator<Writable> it = values.iterator();
+            while (it.hasNext()) {
+                Writable value = it.next();
+                int id;
+                if (value instanceof VectorWritable) {
+                    VectorWritable vector = (VectorWritable)value;
+                    id = vector.getId();
+                    System.arraycopy(vector.getPoint(), 0, point, 0, dimension);
+                } else {
+                    try {
+                        // the line number is the ID of the data point
+                        id = parser.parse((Text)value, point, dimension);
+                    } catch (NumberFormatException e) {
+                        // skip the malformed line
+                        System.err.println(e.getMessage());
+                        context.getCounter(VectorParser.COUNTER_GROUP,
+                                VectorParser.MALFORMED_LINES).increment(1);
+                        continue;
+                    }
+                }
+
+                if (dataPoints.getRow() == maxBufferRows) {
+                    this.spill(spillOut);
+                }
+                int index = dataPoints.add(point);
+                if (index == ids.length) {
+                    int[] newIds = new int[ids.length * 2];
+                    System.arraycopy(ids, 0, newIds, 0, index);
+                    ids = newIds;
+                }
+                ids[index] = id;
+                context.progress();
+            }
+            if (externalBuild) {
+                this.spill(spillOut);
+            }
+        } finally {
+            if (null != spillOut) {
+                spillOut.close();
+            }
+        }
+
+        if (externalBuild) {
+            dataPoints = null;
+            ids = null;
+            return spilledRows;
+        } else if (ids.length != dataPoints.getRow()) {
+            int[] newIds = new int[dataPoints.getRow()];
+            System.arraycopy(ids, 0, newIds, 0, newIds.length);
+            ids = newIds;
+        }
+        return dataPoints.getRow();
+    }
+
+    /**
+     * Create the local spill file.
+     * @return the stream of the spill file
+     * */
+    private DataOutputStream createSpillFile() throws IOException {
+        spillFile = File.createTempFile("partition", ".spill");
+        spillFile.deleteOnExit();
+        return new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(spillFile), BUFFER_SIZE));
+    }
+
+    /**
+     * Spill the buffered data points to the local spill file then clear
+     * the buffer.
+     * @param spillOut the stream of the spill file
+     * */
+    private void spill(final DataOutputStream spillOut) throws IOException {
+        int[] point = new int[dimension];
+        int rows = dataPoints.getRow();
+        int width = dataPoints.getWidth();
+        for (int index = 0; index < rows; index++) {
+            dataPoints.getRow(index, point);
+            spillOut.writeInt(ids[index]);
+            VectorEncoding.write(spillOut, point, dimension, width);
+        }
+        spilledRows += rows;
+        dataPoints.clear();
+        System.out.printf("spilled %d data points, %d in total\n", rows, spilledRows);
     }
 
     /**
-     * Build a LSH instance then save it to hdfs. Here, we use the same LSH
-     * for multiple radii.
+     * Build a LSH instance. Here, we use the same LSH for multiple radii.
      * */
-    private void buildLsh() throws IOException {
+    private void buildLsh() {
         lsh = new LSH(dimension);
         lsh.calcParameters(maxCoordinate, partDataSetSize, ratio);
-        lsh.saveToHdfs(partDir, fs);
     }
 
     /**
-     * parse this part of the data set which is stored in valuesBuffer
-     * @throws IOException 
+     * Renumber the data points in the order of their buckets in the primary
+     * table, which is table 0 of the finest radius. The points that collide
+     * in a bucket are then contiguous in memory, and so are most of the
+     * candidates checked by the searcher. The hash tables are built after
+     * the renumbering, thus all postings refer to the new rows, and ids keeps
+     * the original ID of each row.
      * */
-    private void parseDataSet() throws IOException {
-        int[][] points = dataPoints.get();
-
-        int index = 0;
-        for (String str : valuesBuffer) {
-            Scanner scanner = null;
-            try {
-                scanner = new Scanner(str);
-                // skip the line number
-                scanner.nextInt();
-                for (int i = 0; i < dimension; i++) {
-                    points[index][i] = scanner.nextInt();
-                }
-            } catch (ArrayIndexOutOfBoundsException e) {
-                e.printStackTrace();
-            } finally {
-                scanner.close();
-            }
-            index++;
+    private void reorderByBucket() {
+        int[] point = new int[dimension];
+
+        // The high 32 bits is the bucket and the low 32 bits is the old row,
+        // thus sorting the keys sorts the rows by bucket while keeping the
+        // original order in a bucket.
+        long[] keys = new long[partDataSetSize];
+        for (int index = 0; index < partDataSetSize; index++) {
+            dataPoints.getRow(index, point);
+            int bucketID = lsh.calcHashValue(0, radii[0], point);
+            keys[index] = ((long)bucketID << 32) | index;
         }
+        Arrays.sort(keys);
 
-        dataPoints.saveToHdfs(partDir, fs);
+        TwoDArray newDataPoints = new TwoDArray(partDataSetSize, dimension,
+                dataPoints.getWidth());
+        int[] newIds = new int[partDataSetSize];
+        for (int index = 0; index < partDataSetSize; index++) {
+            int oldIndex = (int)keys[index];
+            dataPoints.getRow(oldIndex, point);
+            newDataPoints.set(index, point);
+            newIds[index] = ids[oldIndex];
+        }
+        dataPoints = newDataPoints;
+        ids = newIds;
     }
 
     /**
-     * Hash data points to hash tables.
+     * Hash data points to hash tables. The (radius, table) pairs are
+     * independent, thus they are built by a pool of buildThreads threads.
+     * The tables are written by this thread in the order of their IDs, while
+     * at most two tables per thread are built ahead of the writer. With a
+     * checkpoint, the checkpointed tables are copied instead of built, and
+     * every built table is checkpointed once it is written.
+     * @param partIndex the index of this partition
+     * @param partID the ID of this partition
+     * @param checkpoint the checkpoint of this partition, or null
      * */
-    private void hash() {
-        int[][] points = dataPoints.get();
-
-        for (int i = 0; i < nRadii; i++) {
-            // i is the radius id 
-            for (int j = 0; j < hashTableSize; j++) {
-                // j is the table id
-                HashTable hashTable = new HashTable(i, j);
-                for (int index = 0; index < partDataSetSize; index++) {
-                    int bucketID = lsh.calcHashValue(j, radii[i], points[index]);
-                    hashTable.add(bucketID, index);
+    private void hash(final PartitionIndex partIndex, final int partID,
+            final BuildCheckpoint checkpoint) throws IOException {
+        int nTables = nRadii * hashTableSize;
+        int window = 2 * buildThreads;
+        // the CPU time spent on building each table. Its sum over the wall
+        // time is the parallelism of the build, which is not a speedup: it
+        // only tells how many threads were busy on average.
+        final long[] buildNanos = new long[nTables];
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        final ThreadLocal<HashScratch> scratch = new ThreadLocal<HashScratch>() {
+            @Override
+            protected HashScratch initialValue() {
+                return new HashScratch(dimension, lsh.getProjDim());
+            }
+        };
+
+        // the number of tables copied from the checkpoint
+        int restored = 0;
+        long startNanos = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(buildThreads);
+        try {
+            List<Future<HashTable>> futures = new ArrayList<Future<HashTable>>(nTables);
+            int submitted = 0;
+            for (int written = 0; written < nTables; written++) {
+                while (submitted < nTables && submitted - written < window) {
+                    final int tableIndex = submitted++;
+                    if (null != checkpoint && checkpoint.containsTable(
+                            tableIndex / hashTableSize, tableIndex % hashTableSize)) {
+                        futures.add(null);
+                        continue;
+                    }
+                    futures.add(pool.submit(new Callable<HashTable>() {
+                        public HashTable call() {
+                            long start = threadBean.getCurrentThreadCpuTime();
+                            HashTable hashTable = buildTable(tableIndex / hashTableSize,
+                                    tableIndex % hashTableSize, scratch.get());
+                            buildNanos[tableIndex] = threadBean.getCurrentThreadCpuTime() - start;
+                            return hashTable;
+                        }
+                    }));
                 }
-                // save hash table to hdfs
-                try {
-                    hashTable.saveToHdfs(partDir, fs);
-                } catch (IOException e) {
-                    e.printStackTrace();
+
+                if (null == futures.get(written)) {
+                    checkpoint.copyTable(partIndex, written / hashTableSize,
+                            written % hashTableSize);
+                    restored++;
+                    continue;
+                }
+
+                HashTable hashTable = this.waitFor(futures.get(written));
+                // release the table once it is written
+                futures.set(written, null);
+                // save hash table and its bucket filter to the index
+                BucketFilter filter = hashTable.createFilter();
+                partIndex.writeTable(hashTable);
+                partIndex.writeFilter(hashTable.getRadiusID(), hashTable.getTableID(), filter);
+                if (null != checkpoint) {
+                    checkpoint.writeTable(hashTable, filter);
                 }
             }
+        } finally {
+            pool.shutdownNow();
+        }
+        long wallNanos = System.nanoTime() - startNanos;
+
+        long totalNanos = 0;
+        for (int i = 0; i < nTables; i++) {
+            totalNanos += buildNanos[i];
+        }
+        System.out.printf("partition %d: %d tables built by %d threads in %.3f s, "
+                + "%.3f s CPU time of table building, parallelism %.2f (CPU time / wall time)\n", partID,
+                nTables - restored, buildThreads, wallNanos / 1e9, totalNanos / 1e9,
+                totalNanos / (double)Math.max(1, wallNanos));
+        if (restored > 0) {
+            System.out.printf("partition %d: %d tables restored from checkpoint\n",
+                    partID, restored);
+        }
+    }
+
+    /**
+     * Build the hash table of a radius. This is called by the threads of
+     * the pool, thus it only reads the shared fields.
+     * @param radiusID
+     * @param tableID
+     * @param scratch the scratch space of the calling thread
+     * */
+    private HashTable buildTable(final int radiusID, final int tableID,
+            final HashScratch scratch) {
+        HashTable hashTable = new HashTable(radiusID, tableID);
+        for (int index = 0; index < partDataSetSize; index++) {
+            dataPoints.getRow(index, scratch.point);
+            int bucketID = lsh.calcHashValue(tableID, radii[radiusID], scratch.point,
+                    scratch.hashVector);
+            hashTable.add(bucketID, index);
+        }
+        return hashTable;
+    }
+
+    /**
+     * Wait for a table which is built by the pool.
+     * @param future
+     * */
+    private HashTable waitFor(final Future<HashTable> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while building hash tables", e);
+        } catch (ExecutionException e) {
+            throw new IOException("build hash table failed", e.getCause());
         }
     }
 }
@@ -7,12 +7,14 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.io.IntWritable;
-import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
-import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 
+import cn.edu.sysu.distributedLSH.common.DeletionBitmap;
 import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.PartitionSegments;
+import cn.edu.sysu.distributedLSH.common.SideFiles;
+import cn.edu.sysu.distributedLSH.common.VectorInputFormat;
 
 
 public class HashTableBuilder extends Configured {
@@ -23,7 +25,6 @@ public class HashTableBuilder extends Configured {
     // mapred.reduce.tasks will be set to partNum when building hash tables.
     private int partNum;
     private String baseDir;
-    private String dataSetFileName;
 
 
     /**
@@ -38,7 +39,6 @@ public class HashTableBuilder extends Configured {
             LSHTool.printAndExit("partNum error");
         }
         baseDir = conf.get("baseDir");
-        dataSetFileName = conf.get("dataSetFileName");
     }
 
     /**
@@ -49,7 +49,10 @@ public class HashTableBuilder extends Configured {
         int totalSecond;
 
         startMillis = System.currentTimeMillis();
-        this.build();
+        // A failed build must not be published. See Snapshots.
+        if (!this.build()) {
+            LSHTool.printAndExit("build hash tables failed");
+        }
         totalSecond = (int)((System.currentTimeMillis() - startMillis) / 1000.0);
 
         System.out.printf("---------------------------------------------------------------\n");
@@ -64,15 +67,6 @@ public class HashTableBuilder extends Configured {
      * Build LSH and hash tables. Then hash the data points to the built hash tables.
      * */
     private boolean build() throws IOException, InterruptedException, ClassNotFoundException {
-        Path inputPath = new Path(dataSetFileName);
-        
-        if (!fs.exists(inputPath)) {
-            LSHTool.printAndExit("Input data set dose not exist");
-        }
-        if (!fs.isFile(inputPath)) {
-            LSHTool.printAndExit("Input data set should be a file");
-        }
-
         // set timeout to 90 minutes
         conf.setLong("mapred.task.timeout", 5400000);
 
@@ -82,17 +76,39 @@ public class HashTableBuilder extends Configured {
         job.setReducerClass(HashReducer.class);
         job.setNumReduceTasks(partNum);
 
-        job.setInputFormatClass(TextInputFormat.class);
         job.setMapOutputKeyClass(IntWritable.class);
-        job.setMapOutputValueClass(Text.class);
-
-        // TODO
-        job.setSpeculativeExecution(false);
-
-        TextInputFormat.addInputPath(job, inputPath);
-        String outFile = baseDir + "/buildOutput";
-        FileOutputFormat.setOutputPath(job, new Path(outFile));
-
-        return job.waitForCompletion(true);
+        // HashMapper passes the data points through as they are read
+        job.setMapOutputValueClass(VectorInputFormat.getValueClass(conf));
+
+        // The reducers write the indexes as side files and share a checkpoint
+        // safely, thus speculative execution is safe. See SideFiles.
+
+        // the text data set or the binary one, depending on dataSetFormat
+        VectorInputFormat.setDataSetInput(job, fs);
+        // The output goes to a scratch directory, which a fork skips. See
+        // Snapshots.
+        String outFile = baseDir + "/_build/buildOutput";
+        Path outPath = new Path(outFile);
+        fs.delete(outPath, true);
+        FileOutputFormat.setOutputPath(job, outPath);
+
+        // The checkpoints of the reducers are only valid within this job, a
+        // retried attempt resumes from them. See BuildCheckpoint.
+        Path checkpointPath = new Path(baseDir + "/" + BuildCheckpoint.DIR_NAME);
+        fs.delete(checkpointPath, true);
+        boolean flag = job.waitForCompletion(true);
+        if (flag) {
+            SideFiles.promote(fs, outPath, baseDir);
+            fs.delete(checkpointPath, true);
+            // The rows of a rebuilt partition are new, thus its deletion
+            // bitmap and its delta segments are out of date.
+            for (int i = 0; i < partNum; i++) {
+                String partDir = baseDir + "/part_" + i;
+                fs.delete(new Path(partDir + "/" + DeletionBitmap.FILE_NAME), false);
+                fs.delete(new Path(partDir + "/" + PartitionSegments.MANIFEST_NAME), false);
+                PartitionSegments.clean(partDir, fs);
+            }
+        }
+        return flag;
     }
 }
@@ -0,0 +1,133 @@
+package cn.edu.sysu.distributedLSH.lsh.deleter;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import cn.edu.sysu.distributedLSH.common.DeletionBitmap;
+import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.PartitionIndex;
+import cn.edu.sysu.distributedLSH.common.PartitionSegments;
+import cn.edu.sysu.distributedLSH.common.SideFiles;
+import cn.edu.sysu.distributedLSH.common.Snapshots;
+import cn.edu.sysu.distributedLSH.common.VectorParser;
+import cn.edu.sysu.distributedLSH.lsh.merger.TableMerger;
+
+
+/**
+ * DeleteMapper marks the deleted data points of a partition in its deletion
+ * bitmap. If the deleted rows reach compactRatio of the rows, the partition
+ * is compacted: its segments are merged into a new base without the
+ * deleted rows, and the remaining rows are numbered again in the same
+ * order. The LSH parameters are kept, thus no point is hashed again. The
+ * new bitmap or index is written as a side file and promoted by Deleter.
+ * */
+public class DeleteMapper extends Mapper<Object, Text, Object, Object> {
+    private static final float DEFAULT_COMPACT_RATIO = 0.25f;
+
+    private Configuration conf;
+    private FileSystem fs;
+
+    private int nRadii;
+    private float compactRatio;
+    private String baseDir;
+
+    private int[] deleteIds = null;     // the IDs to delete, sorted ascending
+    private VectorParser parser = new VectorParser();
+
+
+    /**
+     * setup.
+     * @param context
+     * */
+    @Override
+    protected void setup(final Context context) {
+        conf = context.getConfiguration();
+        try {
+            fs = FileSystem.get(conf);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // nRadii is set by Deleter.
+        nRadii = conf.getInt("nRadii", -1);
+        if (nRadii < 1) {
+            LSHTool.printAndExit("nRadii error");
+        }
+        compactRatio = conf.getFloat("compactRatio", DEFAULT_COMPACT_RATIO);
+        baseDir = conf.get("baseDir");
+
+        try {
+            deleteIds = VectorParser.readIds(fs, new Path(conf.get("deleteFileName")));
+        } catch (IOException e) {
+            e.printStackTrace();
+            LSHTool.printAndExit("read the IDs to delete failed");
+        }
+    }
+
+    /**
+     * map.
+     * @param key dummy
+     * @param value contains the partition id
+     * @param context
+     * */
+    @Override
+    protected void map(final Object key, final Text value, final Context context)
+            throws IOException, InterruptedException {
+        int partID = LSHTool.parsePartID(parser, value);
+        String partDir = Snapshots.locate(fs, baseDir, "part_" + partID);
+        String workDir = SideFiles.getWorkDir(context) + "/part_" + partID;
+
+        PartitionSegments segments = PartitionSegments.read(partDir, fs);
+        PartitionIndex[] indexes = segments.openAll(partDir, fs);
+        try {
+            // The rows of the delta segments follow those of the base.
+            int size = segments.readRowNum(indexes);
+            DeletionBitmap deleted = DeletionBitmap.readFromHdfs(partDir + "/"
+                    + DeletionBitmap.FILE_NAME, fs, size);
+
+            int count = 0;
+            for (int i = 0; i < indexes.length; i++) {
+                int[] ids = indexes[i].readIdMap();
+                int offset = segments.getRowOffset(i);
+                for (int row = 0; row < ids.length; row++) {
+                    if (Arrays.binarySearch(deleteIds, ids[row]) >= 0
+                            && deleted.set(offset + row)) {
+                        count++;
+                    }
+                }
+            }
+            context.getCounter(Deleter.COUNTER_GROUP, Deleter.DELETED_POINTS).increment(count);
+
+            if (deleted.getCount() > 0 && deleted.getCount() >= compactRatio * size) {
+                PartitionIndex newIndex = PartitionIndex.create(workDir, fs);
+                int newSize;
+                try {
+                    newSize = TableMerger.writePartition(newIndex, indexes, segments, deleted,
+                            nRadii, context);
+                } finally {
+                    newIndex.close();
+                }
+                // The delta segments are folded into the base, and the rows
+                // are numbered again, thus no row is deleted.
+                new PartitionSegments().save(workDir, fs);
+                new DeletionBitmap(newSize).saveToHdfs(workDir + "/" + DeletionBitmap.FILE_NAME,
+                        fs);
+                context.getCounter(Deleter.COUNTER_GROUP, Deleter.COMPACTED_PARTITIONS).increment(1);
+                System.out.printf("partition %d: %d points deleted, compacted to %d points\n",
+                        partID, count, newSize);
+            } else if (count > 0) {
+                deleted.saveToHdfs(workDir + "/" + DeletionBitmap.FILE_NAME, fs);
+                System.out.printf("partition %d: %d points deleted, %d of %d points are "
+                        + "deleted\n", partID, count, deleted.getCount(), size);
+            }
+        } finally {
+            PartitionSegments.closeAll(indexes);
+        }
+    }
+}
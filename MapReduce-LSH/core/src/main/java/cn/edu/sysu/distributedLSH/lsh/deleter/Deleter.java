@@ -0,0 +1,155 @@
+package cn.edu.sysu.distributedLSH.lsh.deleter;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.NLineInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.PartitionSegments;
+import cn.edu.sysu.distributedLSH.common.SideFiles;
+import cn.edu.sysu.distributedLSH.common.VectorParser;
+import cn.edu.sysu.distributedLSH.statistics.Statistician;
+
+
+/**
+ * Deleter removes the data points whose IDs are listed in deleteFileName,
+ * one ID per line, from the built index. A delete only marks the rows in
+ * the deletion bitmap of the partition, which the searcher skips. Once the
+ * deleted rows of a partition reach compactRatio of its rows, DeleteMapper
+ * compacts the partition, i.e. writes its index again without them.
+ * */
+public class Deleter extends Configured {
+    /** the counters of DeleteMapper */
+    public static final String COUNTER_GROUP = "Deleter";
+    public static final String DELETED_POINTS = "DELETED_POINTS";
+    public static final String COMPACTED_PARTITIONS = "COMPACTED_PARTITIONS";
+
+    private Configuration conf;
+    private FileSystem fs;
+
+    private int partNum;
+    private String baseDir;
+    // the seed and the output of the job, which a fork skips
+    private String scratchDir;
+    private Path deletePath;
+    private Path seedPath;
+    // the number of distinct IDs to delete
+    private int deleteSize;
+
+
+    /**
+     * Constructor.
+     * */
+    public Deleter(final Configuration conf, final FileSystem fs) {
+        this.conf = conf;
+        this.fs = fs;
+
+        partNum = conf.getInt("partNum", 0);
+        if (0 == partNum) {
+            LSHTool.printAndExit("partNum error");
+        }
+        baseDir = conf.get("baseDir");
+        scratchDir = baseDir + "/_delete";
+
+        if (null == conf.get("deleteFileName")) {
+            LSHTool.printAndExit("deleteFileName is not set");
+        }
+        deletePath = new Path(conf.get("deleteFileName"));
+    }
+
+    /**
+     * run.
+     * */
+    public int run() throws IOException, InterruptedException, ClassNotFoundException {
+        long startMillis;
+        int totalSecond;
+
+        startMillis = System.currentTimeMillis();
+        // The tables of all the radii are copied by a compaction.
+        int[] stat = Statistician.readStatistics(fs, baseDir);
+        conf.setInt("nRadii", stat[2]);
+        // check the ID file before the job is submitted
+        deleteSize = VectorParser.readIds(fs, deletePath).length;
+        if (0 == deleteSize) {
+            System.out.printf("There is no data point to delete\n");
+            return 0;
+        }
+
+        this.createSeed();
+        if (!this.delete()) {
+            LSHTool.printAndExit("delete data points failed");
+        }
+        totalSecond = (int)((System.currentTimeMillis() - startMillis) / 1000.0);
+
+        System.out.printf("---------------------------------------------------------------\n");
+        System.out.printf("Data Set: %s, Time of deleting %s\n", conf.get("dataset"),
+                LSHTool.convertTime(totalSecond));
+        System.out.printf("---------------------------------------------------------------\n");
+
+        return 0;
+    }
+
+    /**
+     * Create a partition seed file for DeleteMapper.
+     * */
+    private void createSeed() throws IOException {
+        seedPath = new Path(scratchDir + "/delete.seed");
+        fs.delete(seedPath, false);
+
+        FSDataOutputStream out = fs.create(seedPath);
+        try {
+            for (int i = 0; i < partNum; i++) {
+                // i is the partition id
+                String str = i + "\n";
+                out.write(str.getBytes());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Mark the data points as deleted in the partitions using MapReduce.
+     * */
+    private boolean delete() throws IOException, InterruptedException, ClassNotFoundException {
+        // set timeout to 90 minutes, a compaction may take long
+        conf.setLong("mapred.task.timeout", 5400000);
+
+        Job job = new Job(conf, "pdlsh Deleter " + conf.get("dataset"));
+        job.setJarByClass(Deleter.class);
+        job.setMapperClass(DeleteMapper.class);
+        // We do not need reduce here.
+        job.setNumReduceTasks(0);
+
+        job.setInputFormatClass(NLineInputFormat.class);
+        NLineInputFormat.addInputPath(job, seedPath);
+        Path outPath = new Path(scratchDir + "/deleteOutput");
+        fs.delete(outPath, true);
+        FileOutputFormat.setOutputPath(job, outPath);
+
+        boolean flag = job.waitForCompletion(true);
+        if (flag) {
+            // replace the bitmaps and the compacted indexes of the partitions
+            SideFiles.promote(fs, outPath, baseDir);
+            // remove the delta segments folded into the compacted bases
+            for (int i = 0; i < partNum; i++) {
+                PartitionSegments.clean(baseDir + "/part_" + i, fs);
+            }
+
+            Counters counters = job.getCounters();
+            System.out.printf("%d of %d points deleted, %d partitions compacted\n",
+                    counters.findCounter(COUNTER_GROUP, DELETED_POINTS).getValue(),
+                    deleteSize,
+                    counters.findCounter(COUNTER_GROUP, COMPACTED_PARTITIONS).getValue());
+        }
+        return flag;
+    }
+}
@@ -0,0 +1,66 @@
+package cn.edu.sysu.distributedLSH.lsh.inserter;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import cn.edu.sysu.distributedLSH.common.LSHTool;
+
+
+public class InsertMapper extends Mapper<Object, Writable, IntWritable, Writable> {
+    private Configuration conf;
+    private int partNum;
+
+    // the size of each partition, including the points routed by this mapper
+    private long[] partSizes = null;
+    private IntWritable partID = new IntWritable();
+
+
+    /**
+     * setup.
+     * @param context
+     * */
+    @Override
+    protected void setup(final Context context) {
+        conf = context.getConfiguration();
+
+        partNum = conf.getInt("partNum", 0);
+        String[] sizes = conf.getStrings("partSizes");
+        if (0 == partNum || null == sizes || sizes.length != partNum) {
+            LSHTool.printAndExit("partSizes error");
+        }
+
+        partSizes = new long[partNum];
+        for (int i = 0; i < partNum; i++) {
+            partSizes[i] = Long.parseLong(sizes[i]);
+        }
+    }
+
+    /**
+     * map.
+     * @param key dummy
+     * @param value contains the data point, which is Text for the text data
+     *  set or VectorWritable for the binary data set
+     * @param context
+     * */
+    @Override
+    protected void map(final Object key, final Writable value, final Context context)
+            throws IOException, InterruptedException {
+        // Route the data point to the least loaded partition. Each mapper
+        // only knows the points routed by itself, thus the partitions are
+        // balanced exactly for a single mapper and roughly for several ones.
+        int target = 0;
+        for (int i = 1; i < partNum; i++) {
+            if (partSizes[i] < partSizes[target]) {
+                target = i;
+            }
+        }
+        partSizes[target]++;
+
+        partID.set(target);
+        context.write(partID, value);
+    }
+}
@@ -0,0 +1,382 @@
+package cn.edu.sysu.distributedLSH.lsh.inserter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Reducer;
+
+import cn.edu.sysu.distributedLSH.common.BucketDirectory;
+import cn.edu.sysu.distributedLSH.common.LSH;
+import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.PartitionIndex;
+import cn.edu.sysu.distributedLSH.common.PartitionSegments;
+import cn.edu.sysu.distributedLSH.common.SideFiles;
+import cn.edu.sysu.distributedLSH.common.Snapshots;
+import cn.edu.sysu.distributedLSH.common.TwoDArray;
+import cn.edu.sysu.distributedLSH.common.VectorEncoding;
+import cn.edu.sysu.distributedLSH.common.VectorParser;
+import cn.edu.sysu.distributedLSH.common.VectorWritable;
+import cn.edu.sysu.distributedLSH.lsh.merger.TableMerger;
+
+
+/**
+ * InsertReducer appends the new data points of a partition to its index.
+ * The new points get the rows after the existing ones and are hashed with
+ * the LSH parameters of the partition. If deltaSegments is set and the base
+ * index is still valid, they are written as a small delta segment, see
+ * PartitionSegments, and only the new points are read and hashed. Otherwise their postings
+ * are merged into the bucket directories of the base tables together with
+ * those of the delta segments, so the points of the base are not hashed
+ * again, and the tables of the extended radii are built for all points.
+ * The result is the same as building the partition with the same LSH
+ * parameters on all points. If the new points do not fit the hash space of
+ * the LSH parameters, the partition is built again with new parameters.
+ * The new segment or index is written as a side file and promoted by
+ * Inserter.
+ * */
+public class InsertReducer extends Reducer<IntWritable, Writable, Object, Object> {
+    private static final int THRESHOLD_RADIUS = 1;
+
+    private Configuration conf;
+    private FileSystem fs;
+
+    private int ratio;
+    private String baseDir;
+
+    // statistics of the index with the new points
+    private int dimension = -1;
+    private int maxCoordinate = -1;
+    private int nRadii = -1;
+    private int minCoordinate = 0;
+    // the number of radii of the existing tables
+    private int oldNRadii = -1;
+    // whether the new points are written as a delta segment when possible
+    private boolean deltaSegments = true;
+    private long segmentID = -1;
+
+    private boolean flag = true;
+    private int[] radii;
+    private TwoDArray dataPoints = null;    // data points
+    private int[] ids = null;               // the IDs of the data points
+    private int[] point = null;
+    private double[] hashVector = null;
+
+
+    /**
+     * setup.
+     * @param context
+     * */
+    @Override
+    protected void setup(final Context context) {
+        conf = context.getConfiguration();
+        try {
+            fs = FileSystem.get(conf);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        ratio = conf.getInt("ratio", 0);
+        baseDir = conf.get("baseDir");
+
+        // The following variables are set by Inserter.
+        dimension = conf.getInt("dimension", -1);
+        maxCoordinate = conf.getInt("maxCoordinate", -1);
+        nRadii = conf.getInt("nRadii", -1);
+        minCoordinate = conf.getInt("minCoordinate", 0);
+        oldNRadii = conf.getInt("oldNRadii", -1);
+        segmentID = conf.getLong("segmentID", -1);
+        if (dimension < 1 || maxCoordinate < 1 || oldNRadii < 1 || nRadii < oldNRadii) {
+            LSHTool.printAndExit("statistics error");
+        }
+        deltaSegments = conf.getBoolean("deltaSegments", true);
+
+        // initialize multiple radii
+        radii = new int[nRadii];
+        radii[0] = THRESHOLD_RADIUS;
+        for (int i = 1; i < nRadii; i++) {
+            radii[i] = ratio * radii[i - 1];
+        }
+        point = new int[dimension];
+    }
+
+    /**
+     * reduce.
+     * @param key contains the partID
+     * @param values contains a list of data points
+     * @param context
+     * */
+    @Override
+    protected void reduce(final IntWritable key, final Iterable<Writable> values,
+            final Context context) throws IOException, InterruptedException {
+        if (flag) {
+            flag = false;
+        } else {
+            LSHTool.printAndExit("InsertReducer reduce() is called more than once");
+        }
+        this.insert(key.get(), values.iterator(), context);
+    }
+
+    /**
+     * cleanup.
+     * A partition which gets no new point still needs the tables of the
+     * extended radii. The partition ID is the key, thus it is the ID of the
+     * reducer.
+     * @param context
+     * */
+    @Override
+    protected void cleanup(final Context context) throws IOException, InterruptedException {
+        if (flag && nRadii > oldNRadii) {
+            this.insert(context.getTaskAttemptID().getTaskID().getId(), null, context);
+        }
+    }
+
+    /**
+     * Append the new data points to a partition. They are written as a new
+     * delta segment if the base is still valid for them, otherwise the
+     * segments and the new points are merged into a new base.
+     * @param partID
+     * @param values the new data points, or null if there is none
+     * @param context
+     * */
+    private void insert(final int partID, final Iterator<Writable> values, final Context context)
+            throws IOException, InterruptedException {
+        String partDir = Snapshots.locate(fs, baseDir, "part_" + partID);
+        String workDir = SideFiles.getWorkDir(context) + "/part_" + partID;
+        PartitionSegments segments = PartitionSegments.read(partDir, fs);
+        PartitionIndex[] oldIndexes = segments.openAll(partDir, fs);
+        PartitionIndex newIndex = null;
+        try {
+            LSH lsh = new LSH(dimension);
+            oldIndexes[0].readLsh(lsh);
+            int oldSize = segments.readRowNum(oldIndexes);
+            int oldWidth = oldIndexes[0].readDataSetWidth();
+            boolean widened = VectorEncoding.choose(minCoordinate, maxCoordinate) > oldWidth;
+            boolean rebuild = !lsh.covers(maxCoordinate);
+
+            if (deltaSegments && !rebuild && !widened && nRadii == oldNRadii) {
+                // The base and the existing deltas are left as they are, thus
+                // only the new points are read and hashed.
+                dataPoints = new TwoDArray(0, dimension, oldWidth);
+                ids = new int[0];
+                if (null != values) {
+                    this.appendValues(values, context);
+                }
+                if (dataPoints.getRow() > 0) {
+                    hashVector = new double[lsh.getProjDim()];
+                    this.writeDelta(workDir, segments, lsh, context);
+                    System.out.printf("partition %d: %d points inserted, %d points in total, "
+                            + "%d delta segments\n", partID, dataPoints.getRow(),
+                            oldSize + dataPoints.getRow(), segments.getDeltaNum());
+                }
+                return;
+            }
+
+            dataPoints = new TwoDArray();
+            ids = segments.readRows(oldIndexes, dataPoints);
+            // the rows of the base, the rows after them are hashed again by a merge
+            int baseSize = segments.getRowOffset(1);
+
+            this.widen();
+            if (null != values) {
+                this.appendValues(values, context);
+            }
+            int size = dataPoints.getRow();
+
+            if (rebuild) {
+                // The existing bucket IDs are invalid under new parameters.
+                System.out.printf("partition %d: the hash space does not cover t = %d, "
+                        + "build again\n", partID, maxCoordinate);
+                lsh = new LSH(dimension);
+                lsh.calcParameters(maxCoordinate, size, ratio);
+            }
+            hashVector = new double[lsh.getProjDim()];
+
+            // Everything of this partition is packed into a single index file.
+            newIndex = PartitionIndex.create(workDir, fs);
+            newIndex.writeLsh(lsh);
+            newIndex.writeDataSet(dataPoints);
+            newIndex.writeIdMap(ids);
+            for (int i = 0; i < nRadii; i++) {
+                // i is the radius id
+                for (int j = 0; j < lsh.getHashTableSize(); j++) {
+                    // j is the table id
+                    if (!rebuild && i < oldNRadii) {
+                        this.writeTable(newIndex, lsh, i, j, oldIndexes[0], baseSize);
+                    } else {
+                        this.writeTable(newIndex, lsh, i, j, null, 0);
+                    }
+                    context.progress();
+                }
+            }
+            // The delta segments are merged into the new base.
+            new PartitionSegments().save(workDir, fs);
+
+            System.out.printf("partition %d: %d points inserted, %d points in total, "
+                    + "%d radii added, %d delta segments merged\n", partID, size - oldSize, size,
+                    nRadii - oldNRadii, segments.getDeltaNum());
+        } finally {
+            if (null != newIndex) {
+                newIndex.close();
+            }
+            PartitionSegments.closeAll(oldIndexes);
+        }
+    }
+
+    /**
+     * Write the new data points as a new delta segment, and the manifest
+     * with the new segment appended.
+     * @param workDir the work directory of the partition
+     * @param segments the segments of the partition
+     * @param lsh the LSH parameters of the base
+     * @param context
+     * */
+    private void writeDelta(final String workDir, final PartitionSegments segments,
+            final LSH lsh, final Context context) throws IOException {
+        String name = PartitionSegments.getDeltaName(segmentID);
+        PartitionIndex delta = PartitionIndex.create(workDir, name, fs);
+        try {
+            delta.writeLsh(lsh);
+            delta.writeDataSet(dataPoints);
+            delta.writeIdMap(ids);
+            for (int i = 0; i < nRadii; i++) {
+                // i is the radius id
+                for (int j = 0; j < lsh.getHashTableSize(); j++) {
+                    // j is the table id
+                    this.writeTable(delta, lsh, i, j, null, 0);
+                    context.progress();
+                }
+            }
+        } finally {
+            delta.close();
+        }
+
+        // The ID of the segment is the time when the insert starts.
+        segments.addDelta(name, segmentID);
+        segments.save(workDir, fs);
+    }
+
+    /**
+     * Widen the coordinates of the data points if the new points do not fit
+     * the width of the partition.
+     * */
+    private void widen() {
+        int width = VectorEncoding.choose(minCoordinate, maxCoordinate);
+        if (width <= dataPoints.getWidth()) {
+            return;
+        }
+
+        TwoDArray newDataPoints = new TwoDArray(dataPoints.getRow(), dimension, width);
+        for (int index = 0; index < dataPoints.getRow(); index++) {
+            dataPoints.getRow(index, point);
+            newDataPoints.set(index, point);
+        }
+        dataPoints = newDataPoints;
+    }
+
+    /**
+     * Append the values to dataPoints and ids. A malformed line of the text
+     * data set is skipped.
+     * @param values contains a list of data points
+     * @param context
+     * */
+    private void appendValues(final Iterator<Writable> values, final Context context) {
+        VectorParser parser = new VectorParser();
+        int size = dataPoints.getRow();
+
+        while (values.hasNext()) {
+            Writable value = values.next();
+            int id;
+            if (value instanceof VectorWritable) {
+                VectorWritable vector = (VectorWritable)value;
+                id = vector.getId();
+                System.arraycopy(vector.getPoint(), 0, point, 0, dimension);
+            } else {
+                try {
+                    // the line number is the ID of the data point
+                    id = parser.parse((Text)value, point, dimension);
+                } catch (NumberFormatException e) {
+                    // skip the malformed line
+                    System.err.println(e.getMessage());
+                    context.getCounter(VectorParser.COUNTER_GROUP,
+                            VectorParser.MALFORMED_LINES).increment(1);
+                    continue;
+                }
+            }
+
+            int index = dataPoints.add(point);
+            if (index == ids.length) {
+                int[] newIds = new int[Math.max(16, ids.length * 2)];
+                System.arraycopy(ids, 0, newIds, 0, index);
+                ids = newIds;
+            }
+            ids[index] = id;
+            size++;
+            context.progress();
+        }
+
+        if (ids.length != size) {
+            int[] newIds = new int[size];
+            System.arraycopy(ids, 0, newIds, 0, size);
+            ids = newIds;
+        }
+    }
+
+    /**
+     * Write a hash table and its bucket filter to the new index. The rows
+     * from firstRow on are hashed and merged with the table in the old
+     * index by TableMerger.
+     * @param newIndex
+     * @param lsh
+     * @param radiusID
+     * @param tableID
+     * @param oldIndex the old index, or null to hash all rows from firstRow on
+     * @param firstRow the first row which is not in the old index
+     * */
+    private void writeTable(final PartitionIndex newIndex, final LSH lsh, final int radiusID,
+            final int tableID, final PartitionIndex oldIndex, final int firstRow)
+            throws IOException {
+        int size = dataPoints.getRow();
+
+        // The high 32 bits is the bucket, which is non-negative, and the low
+        // 32 bits sorts the rows of a bucket descending.
+        long[] pairs = new long[size];
+        int count = 0;
+        if (null != oldIndex) {
+            BucketDirectory oldDir = oldIndex.readBucketDirectory(radiusID, tableID);
+            int[] positions = new int[oldDir.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = i;
+            }
+            int[][] oldBuckets = oldIndex.readBuckets(oldDir, positions);
+            for (int i = 0; i < oldBuckets.length; i++) {
+                long key = (long)oldDir.getKey(i) << 32;
+                for (int j = 0; j < oldBuckets[i].length; j++) {
+                    if (count == firstRow) {
+                        LSHTool.printAndExit("table (" + radiusID + ", " + tableID
+                                + ") of the index has more postings than the " + firstRow
+                                + " rows");
+                    }
+                    pairs[count++] = key | (Integer.MAX_VALUE - oldBuckets[i][j]);
+                }
+            }
+        }
+        if (count != firstRow) {
+            LSHTool.printAndExit("table (" + radiusID + ", " + tableID + ") of the index has "
+                    + count + " postings while there are " + firstRow + " rows");
+        }
+        for (int row = firstRow; row < size; row++) {
+            dataPoints.getRow(row, point);
+            int bucketID = lsh.calcHashValue(tableID, radii[radiusID], point, hashVector);
+            pairs[count++] = ((long)bucketID << 32) | (Integer.MAX_VALUE - row);
+        }
+        Arrays.sort(pairs);
+
+        TableMerger.writeTable(newIndex, radiusID, tableID, pairs);
+    }
+}
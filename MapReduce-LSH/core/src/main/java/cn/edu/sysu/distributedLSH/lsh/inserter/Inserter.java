@@ -0,0 +1,226 @@
+package cn.edu.sysu.distributedLSH.lsh.inserter;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.PartitionIndex;
+import cn.edu.sysu.distributedLSH.common.PartitionSegments;
+import cn.edu.sysu.distributedLSH.common.SideFiles;
+import cn.edu.sysu.distributedLSH.common.Snapshots;
+import cn.edu.sysu.distributedLSH.common.VectorEncoding;
+import cn.edu.sysu.distributedLSH.common.VectorInputFormat;
+import cn.edu.sysu.distributedLSH.lsh.merger.Merger;
+import cn.edu.sysu.distributedLSH.statistics.Statistician;
+import cn.edu.sysu.distributedLSH.statistics.StatisticsMapper;
+
+
+/**
+ * Inserter adds the data points of insertFileName, which is in the format of
+ * the data set, to the built index without rebuilding it. First the
+ * statistics of the new points are merged into the final statistics, which
+ * extends the radii if a new point exceeds maxCoordinate. Then InsertMapper
+ * routes the new points to the least loaded partitions and InsertReducer
+ * appends them to the partitions with their existing LSH parameters, as
+ * delta segments if possible. At last Merger merges the delta segments of
+ * the partitions which exceed its thresholds, unless autoMerge is false.
+ * */
+public class Inserter extends Configured {
+    private Configuration conf;
+    private FileSystem fs;
+
+    private int partNum;
+    private int ratio;
+    private String baseDir;
+    // The outputs of the jobs go to a scratch directory, which a fork
+    // skips. See Snapshots.
+    private String scratchDir;
+    private Path insertPath;
+
+    // statistics of the index and of the index with the new points
+    private int[] oldStat = null;
+    private int[] newStat = null;
+
+
+    /**
+     * Constructor.
+     * */
+    public Inserter(final Configuration conf, final FileSystem fs) {
+        this.conf = conf;
+        this.fs = fs;
+
+        partNum = conf.getInt("partNum", 0);
+        if (0 == partNum) {
+            LSHTool.printAndExit("partNum error");
+        }
+        ratio = conf.getInt("ratio", -1);
+        if (ratio < 1) {
+            LSHTool.printAndExit("ratio error");
+        }
+        baseDir = conf.get("baseDir");
+        scratchDir = baseDir + "/_insert";
+
+        String key = VectorInputFormat.isBinary(conf) ? "binaryInsertFileName" : "insertFileName";
+        if (null == conf.get(key)) {
+            LSHTool.printAndExit(key + " is not set");
+        }
+        insertPath = new Path(conf.get(key));
+    }
+
+    /**
+     * run.
+     * */
+    public int run() throws IOException, InterruptedException, ClassNotFoundException {
+        long startMillis;
+        int totalSecond;
+
+        startMillis = System.currentTimeMillis();
+        fs.delete(new Path(scratchDir), true);
+        oldStat = Statistician.readStatistics(fs, baseDir);
+        if (!this.mergeStatistics()) {
+            System.out.printf("There is no data point to insert\n");
+            fs.delete(new Path(scratchDir), true);
+            return 0;
+        }
+        if (!this.insert()) {
+            LSHTool.printAndExit("insert data points failed");
+        }
+        fs.delete(new Path(scratchDir), true);
+        // The searchers see the new radii only after all partitions have them.
+        Statistician.saveStatistics(fs, baseDir, newStat);
+        if (conf.getBoolean("autoMerge", true)) {
+            // merge the delta segments of the partitions which exceed the thresholds
+            new Merger(new Configuration(conf), fs).run();
+        }
+        totalSecond = (int)((System.currentTimeMillis() - startMillis) / 1000.0);
+
+        System.out.printf("---------------------------------------------------------------\n");
+        System.out.printf("Data Set: %s, Time of inserting %s\n", conf.get("dataset"),
+                LSHTool.convertTime(totalSecond));
+        System.out.printf("---------------------------------------------------------------\n");
+
+        return 0;
+    }
+
+    /**
+     * Get the statistics of the new data points using MapReduce, and merge
+     * them into the statistics of the index.
+     * @return false if there is no data point to insert
+     * */
+    private boolean mergeStatistics() throws IOException, InterruptedException,
+            ClassNotFoundException {
+        Job job = new Job(conf, "pdlsh Inserter statistics " + conf.get("dataset"));
+        job.setJarByClass(Inserter.class);
+        job.setMapperClass(StatisticsMapper.class);
+        // We do not need reduce here.
+        job.setNumReduceTasks(0);
+
+        VectorInputFormat.setVectorInput(job, fs, insertPath);
+        Path outPath = new Path(scratchDir + "/insertStatisticsOutput");
+        FileOutputFormat.setOutputPath(job, outPath);
+
+        if (!job.waitForCompletion(true)) {
+            LSHTool.printAndExit("get statistics of the inserted data points failed");
+        }
+
+        // The statistics files of the mappers are collected in the scratch
+        // directory, so that those of the data set are not mixed up.
+        SideFiles.promote(fs, outPath, scratchDir);
+        int[] stat = Statistician.mergeSplitStatistics(fs, new Path(scratchDir + "/stat"));
+
+        if (stat[0] < 0) {
+            return false;
+        }
+        if (stat[0] != oldStat[0]) {
+            LSHTool.printAndExit("The dimension of the inserted data points is " + stat[0]
+                    + " while that of the data set is " + oldStat[0]);
+        }
+
+        int maxCoordinate = Math.max(oldStat[1], stat[1]);
+        int minCoordinate = Math.min(oldStat[3], stat[2]);
+        // The radii are only extended, never shrunk, so the built tables
+        // stay valid.
+        int nRadii = Math.max(oldStat[2], Statistician.calcRadiiNum(oldStat[0], maxCoordinate,
+                ratio));
+        newStat = new int[] {oldStat[0], maxCoordinate, nRadii, minCoordinate};
+
+        System.out.printf("t: %d -> %d\n", oldStat[1], maxCoordinate);
+        System.out.printf("coordinate width: %d bytes\n",
+                VectorEncoding.choose(minCoordinate, maxCoordinate));
+        System.out.printf("nRadii: %d -> %d\n", oldStat[2], nRadii);
+        return true;
+    }
+
+    /**
+     * Get the size of each partition from its index.
+     * @return the sizes separated by commas
+     * */
+    private String readPartitionSizes() throws IOException {
+        StringBuilder sizes = new StringBuilder();
+        for (int i = 0; i < partNum; i++) {
+            String partDir = Snapshots.locate(fs, baseDir, "part_" + i);
+            PartitionSegments segments = PartitionSegments.read(partDir, fs);
+            PartitionIndex[] indexes = segments.openAll(partDir, fs);
+            try {
+                if (i > 0) {
+                    sizes.append(',');
+                }
+                sizes.append(segments.readRowNum(indexes));
+            } finally {
+                PartitionSegments.closeAll(indexes);
+            }
+        }
+        return sizes.toString();
+    }
+
+    /**
+     * Insert the new data points into the partitions using MapReduce.
+     * */
+    private boolean insert() throws IOException, InterruptedException, ClassNotFoundException {
+        // set timeout to 90 minutes
+        conf.setLong("mapred.task.timeout", 5400000);
+
+        // set some parameters which will be used in Mapper and Reducer
+        conf.set("partSizes", this.readPartitionSizes());
+        conf.setInt("dimension", newStat[0]);
+        conf.setInt("maxCoordinate", newStat[1]);
+        conf.setInt("nRadii", newStat[2]);
+        conf.setInt("minCoordinate", newStat[3]);
+        conf.setInt("oldNRadii", oldStat[2]);
+        // the ID of the delta segments written by this insert
+        conf.setLong("segmentID", System.currentTimeMillis());
+
+        Job job = new Job(conf, "pdlsh Inserter " + conf.get("dataset"));
+        job.setJarByClass(Inserter.class);
+        job.setMapperClass(InsertMapper.class);
+        job.setReducerClass(InsertReducer.class);
+        // The partition ID is the key, thus reducer i gets partition i.
+        job.setNumReduceTasks(partNum);
+
+        job.setMapOutputKeyClass(IntWritable.class);
+        // InsertMapper passes the data points through as they are read
+        job.setMapOutputValueClass(VectorInputFormat.getValueClass(conf));
+
+        VectorInputFormat.setVectorInput(job, fs, insertPath);
+        Path outPath = new Path(scratchDir + "/insertOutput");
+        FileOutputFormat.setOutputPath(job, outPath);
+
+        boolean flag = job.waitForCompletion(true);
+        if (flag) {
+            // add the delta segments or replace the indexes of the partitions
+            SideFiles.promote(fs, outPath, baseDir);
+            // remove the delta segments merged into the new bases
+            for (int i = 0; i < partNum; i++) {
+                PartitionSegments.clean(baseDir + "/part_" + i, fs);
+            }
+        }
+        return flag;
+    }
+}
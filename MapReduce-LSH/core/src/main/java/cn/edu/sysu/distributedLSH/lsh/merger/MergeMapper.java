@@ -0,0 +1,104 @@
+package cn.edu.sysu.distributedLSH.lsh.merger;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import cn.edu.sysu.distributedLSH.common.DeletionBitmap;
+import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.PartitionIndex;
+import cn.edu.sysu.distributedLSH.common.PartitionSegments;
+import cn.edu.sysu.distributedLSH.common.SideFiles;
+import cn.edu.sysu.distributedLSH.common.Snapshots;
+import cn.edu.sysu.distributedLSH.common.VectorParser;
+
+
+/**
+ * MergeMapper merges the segments of a partition into a new base index with
+ * the same LSH parameters. The postings of the delta segments are merged
+ * with those of the base, thus no point is hashed again. The rows keep
+ * their numbers, thus the deletion bitmap stays valid. If compactIndex is
+ * set, the deleted rows are dropped as well, and the remaining rows are
+ * numbered again with an empty bitmap. The new base and an empty manifest
+ * are written as side files and promoted by Merger.
+ * */
+public class MergeMapper extends Mapper<Object, Text, Object, Object> {
+    private Configuration conf;
+    private FileSystem fs;
+
+    private int nRadii;
+    private String baseDir;
+    private boolean compact;
+
+    private VectorParser parser = new VectorParser();
+
+
+    /**
+     * setup.
+     * @param context
+     * */
+    @Override
+    protected void setup(final Context context) {
+        conf = context.getConfiguration();
+        try {
+            fs = FileSystem.get(conf);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // nRadii is set by Merger.
+        nRadii = conf.getInt("nRadii", -1);
+        if (nRadii < 1) {
+            LSHTool.printAndExit("nRadii error");
+        }
+        baseDir = conf.get("baseDir");
+        compact = conf.getBoolean("compactIndex", false);
+    }
+
+    /**
+     * map.
+     * @param key dummy
+     * @param value contains the partition id
+     * @param context
+     * */
+    @Override
+    protected void map(final Object key, final Text value, final Context context)
+            throws IOException, InterruptedException {
+        int partID = LSHTool.parsePartID(parser, value);
+        String partDir = Snapshots.locate(fs, baseDir, "part_" + partID);
+        String workDir = SideFiles.getWorkDir(context) + "/part_" + partID;
+
+        PartitionSegments segments = PartitionSegments.read(partDir, fs);
+        PartitionIndex[] indexes = segments.openAll(partDir, fs);
+        PartitionIndex newIndex = null;
+        try {
+            DeletionBitmap deleted = null;
+            if (compact) {
+                int size = segments.readRowNum(indexes);
+                deleted = DeletionBitmap.readFromHdfs(partDir + "/" + DeletionBitmap.FILE_NAME,
+                        fs, size);
+            }
+
+            newIndex = PartitionIndex.create(workDir, fs);
+            int newSize = TableMerger.writePartition(newIndex, indexes, segments, deleted,
+                    nRadii, context);
+            new PartitionSegments().save(workDir, fs);
+            if (null != deleted && deleted.getCount() > 0) {
+                // The rows are numbered again, thus no row is deleted.
+                new DeletionBitmap(newSize).saveToHdfs(workDir + "/" + DeletionBitmap.FILE_NAME,
+                        fs);
+            }
+
+            System.out.printf("partition %d: %d delta segments merged, %d points in total\n",
+                    partID, segments.getDeltaNum(), newSize);
+        } finally {
+            if (null != newIndex) {
+                newIndex.close();
+            }
+            PartitionSegments.closeAll(indexes);
+        }
+    }
+}
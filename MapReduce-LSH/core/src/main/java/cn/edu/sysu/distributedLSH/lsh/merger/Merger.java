@@ -0,0 +1,202 @@
+package cn.edu.sysu.distributedLSH.lsh.merger;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.NLineInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import cn.edu.sysu.distributedLSH.common.DeletionBitmap;
+import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.PartitionIndex;
+import cn.edu.sysu.distributedLSH.common.PartitionSegments;
+import cn.edu.sysu.distributedLSH.common.SideFiles;
+import cn.edu.sysu.distributedLSH.common.Snapshots;
+import cn.edu.sysu.distributedLSH.statistics.Statistician;
+
+
+/**
+ * Merger merges the delta segments of a partition into a new base index
+ * once one of the thresholds is hit: the partition has maxDeltaSegments
+ * delta segments, the delta segments have maxDeltaRatio of the rows of the
+ * base, or the oldest delta segment is maxDeltaAge seconds old. The
+ * searchers keep using the old segments until the new base is promoted, so
+ * it can run while the index is searched, but not with an insert or a
+ * delete, which also write the manifests. The partitions are merged by
+ * MergeMapper.
+ *
+ * If compactIndex is set, every partition which has a delta segment or a
+ * deleted row is merged regardless of the thresholds, and its deleted rows
+ * are dropped. The index is then compacted offline.
+ * */
+public class Merger extends Configured {
+    private static final int DEFAULT_MAX_DELTA_SEGMENTS = 8;
+    private static final float DEFAULT_MAX_DELTA_RATIO = 0.1f;
+    private static final int DEFAULT_MAX_DELTA_AGE = 3600;
+
+    private Configuration conf;
+    private FileSystem fs;
+
+    private int partNum;
+    private String baseDir;
+    // the seed and the output of the job, which a fork skips
+    private String scratchDir;
+    private int maxDeltaSegments;
+    private float maxDeltaRatio;
+    private long maxDeltaAge;       // in milliseconds
+    private boolean compact;
+    private Path seedPath;
+
+
+    /**
+     * Constructor.
+     * */
+    public Merger(final Configuration conf, final FileSystem fs) {
+        this.conf = conf;
+        this.fs = fs;
+
+        partNum = conf.getInt("partNum", 0);
+        if (0 == partNum) {
+            LSHTool.printAndExit("partNum error");
+        }
+        baseDir = conf.get("baseDir");
+        scratchDir = baseDir + "/_merge";
+
+        maxDeltaSegments = conf.getInt("maxDeltaSegments", DEFAULT_MAX_DELTA_SEGMENTS);
+        maxDeltaRatio = conf.getFloat("maxDeltaRatio", DEFAULT_MAX_DELTA_RATIO);
+        maxDeltaAge = conf.getInt("maxDeltaAge", DEFAULT_MAX_DELTA_AGE) * 1000L;
+        compact = conf.getBoolean("compactIndex", false);
+    }
+
+    /**
+     * run.
+     * */
+    public int run() throws IOException, InterruptedException, ClassNotFoundException {
+        long startMillis;
+        int totalSecond;
+
+        startMillis = System.currentTimeMillis();
+        int count = this.createSeed();
+        if (0 == count) {
+            System.out.printf("There is no partition to merge\n");
+            return 0;
+        }
+
+        // The tables of all the radii are merged.
+        int[] stat = Statistician.readStatistics(fs, baseDir);
+        conf.setInt("nRadii", stat[2]);
+        if (!this.merge()) {
+            LSHTool.printAndExit("merge delta segments failed");
+        }
+        totalSecond = (int)((System.currentTimeMillis() - startMillis) / 1000.0);
+
+        System.out.printf("---------------------------------------------------------------\n");
+        System.out.printf("Data Set: %s, %d partitions merged, Time of merging %s\n",
+                conf.get("dataset"), count, LSHTool.convertTime(totalSecond));
+        System.out.printf("---------------------------------------------------------------\n");
+
+        return 0;
+    }
+
+    /**
+     * Whether the delta segments of a partition hit a threshold.
+     * @param partDir the directory of the partition
+     * @param now the current time in milliseconds
+     * */
+    private boolean needMerge(final String partDir, final long now) throws IOException {
+        PartitionSegments segments = PartitionSegments.read(partDir, fs);
+        if (compact) {
+            return segments.getDeltaNum() > 0 || this.hasDeletedRows(partDir);
+        }
+        if (0 == segments.getDeltaNum()) {
+            return false;
+        }
+        if (segments.getDeltaNum() >= maxDeltaSegments
+                || now - segments.getOldestCreateTime() >= maxDeltaAge) {
+            return true;
+        }
+
+        PartitionIndex[] indexes = segments.openAll(partDir, fs);
+        try {
+            int size = segments.readRowNum(indexes);
+            int baseSize = segments.getRowOffset(1);
+            return size - baseSize >= maxDeltaRatio * baseSize;
+        } finally {
+            PartitionSegments.closeAll(indexes);
+        }
+    }
+
+    /**
+     * Whether a partition has a deleted row.
+     * @param partDir the directory of the partition
+     * */
+    private boolean hasDeletedRows(final String partDir) throws IOException {
+        Path path = new Path(partDir + "/" + DeletionBitmap.FILE_NAME);
+        if (!fs.exists(path)) {
+            return false;
+        }
+        // A bitmap is never shrunk, thus the size 0 keeps it as it is.
+        return DeletionBitmap.readFromHdfs(path.toString(), fs, 0).getCount() > 0;
+    }
+
+    /**
+     * Create a seed file of the partitions to merge for MergeMapper.
+     * @return the number of the partitions to merge
+     * */
+    private int createSeed() throws IOException {
+        seedPath = new Path(scratchDir + "/merge.seed");
+        fs.delete(seedPath, false);
+
+        long now = System.currentTimeMillis();
+        int count = 0;
+        FSDataOutputStream out = fs.create(seedPath);
+        try {
+            for (int i = 0; i < partNum; i++) {
+                // i is the partition id
+                if (this.needMerge(Snapshots.locate(fs, baseDir, "part_" + i), now)) {
+                    String str = i + "\n";
+                    out.write(str.getBytes());
+                    count++;
+                }
+            }
+        } finally {
+            out.close();
+        }
+        return count;
+    }
+
+    /**
+     * Merge the delta segments of the partitions using MapReduce.
+     * */
+    private boolean merge() throws IOException, InterruptedException, ClassNotFoundException {
+        // set timeout to 90 minutes
+        conf.setLong("mapred.task.timeout", 5400000);
+
+        Job job = new Job(conf, "pdlsh Merger " + conf.get("dataset"));
+        job.setJarByClass(Merger.class);
+        job.setMapperClass(MergeMapper.class);
+        // We do not need reduce here.
+        job.setNumReduceTasks(0);
+
+        job.setInputFormatClass(NLineInputFormat.class);
+        NLineInputFormat.addInputPath(job, seedPath);
+        Path outPath = new Path(scratchDir + "/mergeOutput");
+        fs.delete(outPath, true);
+        FileOutputFormat.setOutputPath(job, outPath);
+
+        boolean flag = job.waitForCompletion(true);
+        if (flag) {
+            // replace the indexes and the manifests of the partitions
+            SideFiles.promote(fs, outPath, baseDir);
+            for (int i = 0; i < partNum; i++) {
+                PartitionSegments.clean(baseDir + "/part_" + i, fs);
+            }
+        }
+        return flag;
+    }
+}
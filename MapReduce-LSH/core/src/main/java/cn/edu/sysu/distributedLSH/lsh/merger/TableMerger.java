@@ -0,0 +1,214 @@
+package cn.edu.sysu.distributedLSH.lsh.merger;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.util.Progressable;
+
+import cn.edu.sysu.distributedLSH.common.BucketDirectory;
+import cn.edu.sysu.distributedLSH.common.BucketFilter;
+import cn.edu.sysu.distributedLSH.common.DeletionBitmap;
+import cn.edu.sysu.distributedLSH.common.IndexSection;
+import cn.edu.sysu.distributedLSH.common.LSH;
+import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.PartitionIndex;
+import cn.edu.sysu.distributedLSH.common.PartitionSegments;
+import cn.edu.sysu.distributedLSH.common.TwoDArray;
+
+
+/**
+ * TableMerger writes a hash table of a partition by merging the postings of
+ * the same table in all its segments, which share the LSH parameters. No
+ * data point is hashed again. The rows may be numbered again on the way,
+ * e.g. to drop the deleted rows.
+ * */
+public class TableMerger {
+    /**
+     * For safe.
+     * */
+    private TableMerger() {}
+
+    /**
+     * Merge all the segments of a partition into a new index. The remaining
+     * rows keep their order but are numbered again from 0.
+     * @param newIndex
+     * @param indexes the opened segments
+     * @param segments
+     * @param deleted the rows to drop, or null to keep all the rows
+     * @param nRadii
+     * @param progress reported after each table
+     * @return the number of the rows of the new index
+     * */
+    public static int writePartition(final PartitionIndex newIndex,
+            final PartitionIndex[] indexes, final PartitionSegments segments,
+            final DeletionBitmap deleted, final int nRadii, final Progressable progress)
+            throws IOException {
+        TwoDArray dataPoints = new TwoDArray();
+        int[] ids = segments.readRows(indexes, dataPoints);
+        int dimension = dataPoints.getCol();
+        LSH lsh = new LSH(dimension);
+        indexes[0].readLsh(lsh);
+
+        // the new row of each old row, or -1 if it is deleted
+        int[] newRows = null;
+        int size = ids.length;
+        if (null != deleted && deleted.getCount() > 0) {
+            newRows = new int[ids.length];
+            size = 0;
+            for (int row = 0; row < newRows.length; row++) {
+                newRows[row] = deleted.get(row) ? -1 : size++;
+            }
+
+            TwoDArray newDataPoints = new TwoDArray(size, dimension, dataPoints.getWidth());
+            int[] newIds = new int[size];
+            int[] point = new int[dimension];
+            for (int row = 0; row < newRows.length; row++) {
+                if (newRows[row] >= 0) {
+                    dataPoints.getRow(row, point);
+                    newDataPoints.set(newRows[row], point);
+                    newIds[newRows[row]] = ids[row];
+                }
+            }
+            dataPoints = newDataPoints;
+            ids = newIds;
+        }
+
+        newIndex.writeLsh(lsh);
+        newIndex.writeDataSet(dataPoints);
+        newIndex.writeIdMap(ids);
+        // release the rows before the tables are merged
+        dataPoints = null;
+        ids = null;
+        for (int i = 0; i < nRadii; i++) {
+            // i is the radius id
+            for (int j = 0; j < lsh.getHashTableSize(); j++) {
+                // j is the table id
+                writeTable(newIndex, indexes, segments, newRows, size, i, j);
+                progress.progress();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Merge a hash table of the segments and write it with its bucket filter.
+     * As with SimpleList in HashTable, the rows of a bucket are sorted
+     * descending.
+     * @param newIndex
+     * @param indexes the opened segments
+     * @param segments the segments, whose row offsets have been read
+     * @param newRows the new row of each row, or -1 if it is dropped; null
+     *  to keep the rows
+     * @param size the number of rows of the new index
+     * @param radiusID
+     * @param tableID
+     * */
+    public static void writeTable(final PartitionIndex newIndex, final PartitionIndex[] indexes,
+            final PartitionSegments segments, final int[] newRows, final int size,
+            final int radiusID, final int tableID) throws IOException {
+        // The high 32 bits is the bucket, which is non-negative, and the low
+        // 32 bits sorts the rows of a bucket descending.
+        long[] pairs = new long[size];
+        int count = 0;
+        for (int i = 0; i < indexes.length; i++) {
+            BucketDirectory dir = indexes[i].readBucketDirectory(radiusID, tableID);
+            int[] positions = new int[dir.size()];
+            for (int k = 0; k < positions.length; k++) {
+                positions[k] = k;
+            }
+            int[][] buckets = indexes[i].readBuckets(dir, positions);
+
+            int offset = segments.getRowOffset(i);
+            for (int k = 0; k < buckets.length; k++) {
+                long key = (long)dir.getKey(k) << 32;
+                for (int m = 0; m < buckets[k].length; m++) {
+                    int row = offset + buckets[k][m];
+                    if (null != newRows) {
+                        row = newRows[row];
+                        if (row < 0) {
+                            continue;
+                        }
+                    }
+                    if (count == size) {
+                        LSHTool.printAndExit("table (" + radiusID + ", " + tableID
+                                + ") has more postings than the " + size + " rows");
+                    }
+                    pairs[count++] = key | (Integer.MAX_VALUE - row);
+                }
+            }
+        }
+        if (count != size) {
+            LSHTool.printAndExit("table (" + radiusID + ", " + tableID + ") has " + count
+                    + " postings while there are " + size + " rows");
+        }
+        Arrays.sort(pairs);
+        writeTable(newIndex, radiusID, tableID, pairs);
+    }
+
+    /**
+     * Write a hash table and its bucket filter from its postings. A posting
+     * is a long whose high 32 bits is the bucket, which is non-negative, and
+     * whose low 32 bits is Integer.MAX_VALUE - row. The postings are sorted
+     * ascending, thus the rows of a bucket are sorted descending.
+     * @param newIndex
+     * @param radiusID
+     * @param tableID
+     * @param pairs the sorted postings
+     * */
+    public static void writeTable(final PartitionIndex newIndex, final int radiusID,
+            final int tableID, final long[] pairs) throws IOException {
+        int size = pairs.length;
+        // Every row is in exactly one bucket of a table.
+        int[] keys = new int[size];
+        int[] starts = new int[size + 1];
+        final int[] postings = new int[size];
+        int nBuckets = 0;
+        for (int k = 0; k < size; k++) {
+            int bucketID = (int)(pairs[k] >>> 32);
+            if (0 == nBuckets || keys[nBuckets - 1] != bucketID) {
+                starts[nBuckets] = k;
+                keys[nBuckets++] = bucketID;
+            }
+            postings[k] = Integer.MAX_VALUE - (int)pairs[k];
+        }
+        starts[nBuckets] = size;
+
+        writeTable(newIndex, radiusID, tableID, keys, starts, nBuckets, new IndexSection() {
+            public void write(final DataOutput out) throws IOException {
+                for (int k = 0; k < postings.length; k++) {
+                    out.writeInt(postings[k]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Write a hash table in the layout of BucketDirectory, and its bucket
+     * filter.
+     * @param newIndex
+     * @param radiusID
+     * @param tableID
+     * @param keys the buckets, sorted ascending
+     * @param starts the first posting of each bucket, followed by the number
+     *  of postings
+     * @param nBuckets
+     * @param postings writes the rows bucket by bucket
+     * */
+    public static void writeTable(final PartitionIndex newIndex, final int radiusID,
+            final int tableID, final int[] keys, final int[] starts, final int nBuckets,
+            final IndexSection postings) throws IOException {
+        newIndex.writeTable(radiusID, tableID, new IndexSection() {
+            public void write(final DataOutput out) throws IOException {
+                BucketDirectory.writeDirectory(out, keys, starts, nBuckets);
+                postings.write(out);
+            }
+        });
+
+        BucketFilter filter = new BucketFilter(nBuckets);
+        for (int k = 0; k < nBuckets; k++) {
+            filter.add(keys[k]);
+        }
+        newIndex.writeFilter(radiusID, tableID, filter);
+    }
+}
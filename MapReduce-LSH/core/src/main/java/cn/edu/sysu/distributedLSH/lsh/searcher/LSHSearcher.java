@@ -12,27 +12,44 @@ import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
-import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.fs.PathFilter;
-import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.input.NLineInputFormat;
 
-import cn.edu.sysu.distributedLSH.common.Candidate;
+import cn.edu.sysu.distributedLSH.common.CandidatePriorityQueue;
 import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.VectorWritable;
 
 
 public class LSHSearcher extends Configured {
+    /** the counters of SearchMapper */
+    public static final String COUNTER_GROUP = "Searcher";
+    public static final String HASH_MILLIS = "HASH_MILLIS";
+    public static final String PROBE_MILLIS = "PROBE_MILLIS";
+    public static final String REUSED_HASHES = "REUSED_HASHES";
+
+    private static final int DEFAULT_COLLECT_THREADS = 4;
+
     private Configuration conf;
     private FileSystem fs;
 
     private int partNum;
+    // the number of partitions searched by a map task, whose results are
+    // merged by the combiner
+    private int partsPerMap;
     private int querySetSize;
     // the number of nearest neighbors that is required to find
     private int kNeighbors;
+    // whether the points of the neighbors are fetched by LookupMapper,
+    // otherwise the results only carry their IDs and distances
+    private boolean fetchVectors;
+    // the number of threads reading the results, and whether the results
+    // are exported as text to searchResult.txt
+    private int collectThreads;
+    private boolean exportText;
 
     // statistics
     private int dimension = -1;
@@ -40,6 +57,8 @@ public class LSHSearcher extends Configured {
     private int nRadii = -1;
 
     private String baseDir;
+    // the directory of the outputs, which is not in a snapshot
+    private String outputDir;
     private String groundTruthFileName;
 
     private double[][] groundTruth = null;
@@ -59,6 +78,11 @@ public class LSHSearcher extends Configured {
             LSHTool.printAndExit("partNum error");
         }
 
+        partsPerMap = conf.getInt("partsPerMap", 1);
+        if (partsPerMap < 1) {
+            LSHTool.printAndExit("partsPerMap should be positive");
+        }
+
         querySetSize = conf.getInt("querySetSize", -1);
         if (querySetSize < 1) {
             LSHTool.printAndExit("querySetSize error");
@@ -69,7 +93,15 @@ public class LSHSearcher extends Configured {
             LSHTool.printAndExit("kNeighbors error");
         }
 
+        fetchVectors = conf.getBoolean("fetchVectors", false);
+        collectThreads = conf.getInt("collectThreads", DEFAULT_COLLECT_THREADS);
+        if (collectThreads < 1) {
+            LSHTool.printAndExit("collectThreads should be positive");
+        }
+        exportText = conf.getBoolean("exportText", false);
+
         baseDir = conf.get("baseDir");
+        outputDir = conf.get("outputDir", baseDir);
         groundTruthFileName = conf.get("groundTruthFileName");
     }
 
@@ -89,7 +121,19 @@ public class LSHSearcher extends Configured {
         conf.setInt("nRadii", nRadii);
 
         this.createSeed();
-        this.search();
+        // The search shuffles the IDs and the distances of the neighbors
+        // only, their points are fetched afterwards if they are required.
+        Path outPath = new Path(outputDir + "/searchOutput");
+        Path idsPath = fetchVectors ? new Path(outputDir + "/searchIds") : outPath;
+        if (!this.search(idsPath)) {
+            LSHTool.printAndExit("search failed");
+        }
+        if (fetchVectors) {
+            if (!this.lookup(idsPath, outPath)) {
+                LSHTool.printAndExit("look up the neighbors failed");
+            }
+            fs.delete(idsPath, true);
+        }
 
         totalSecond = (int)((System.currentTimeMillis() - startMillis) / 1000.0);
         System.out.printf("---------------------------------------------------------------\n");
@@ -97,6 +141,7 @@ public class LSHSearcher extends Configured {
                 conf.get("kNeighbors"), totalSecond, LSHTool.convertTime(totalSecond));
         System.out.printf("---------------------------------------------------------------\n");
 
+        this.collectSearchResult();
         this.compareToGroundTruth();
 
         return 0;
@@ -134,7 +179,7 @@ public class LSHSearcher extends Configured {
      * Create a query seed file for SearchMapper.
      * */
     private void createSeed() {
-        String seedName = baseDir + "/query.seed";
+        String seedName = outputDir + "/query.seed";
         this.querySeedPath = new Path(seedName);
 
         try {
@@ -154,23 +199,74 @@ public class LSHSearcher extends Configured {
     
     /**
      * Search for the query set using MapReduce.
+     * @param outPath the output directory
      * */
-    private boolean search() throws IOException, InterruptedException, ClassNotFoundException {
+    private boolean search(final Path outPath)
+            throws IOException, InterruptedException, ClassNotFoundException {
         Job job = new Job(conf, "pdlsh LSHSearcher " + conf.get("dataset")
                 + " K=" + conf.get("kNeighbors"));
         job.setJarByClass(LSHSearcher.class);
         job.setMapperClass(SearchMapper.class);
+        this.setSecondarySort(job);
+
+        job.setInputFormatClass(NLineInputFormat.class);
+
+        job.setOutputFormatClass(SearchResultOutputFormat.class);
+
+        NLineInputFormat.addInputPath(job, querySeedPath);
+        NLineInputFormat.setNumLinesPerSplit(job, partsPerMap);
+        fs.delete(outPath, true);
+        FileOutputFormat.setOutputPath(job, outPath);
+
+        boolean flag = job.waitForCompletion(true);
+        if (flag) {
+            // the time of the phases summed over the map tasks
+            Counters counters = job.getCounters();
+            System.out.printf("Time of hashing queries %d ms (%d partitions reused the "
+                    + "hashes), time of probing %d ms\n",
+                    counters.findCounter(COUNTER_GROUP, HASH_MILLIS).getValue(),
+                    counters.findCounter(COUNTER_GROUP, REUSED_HASHES).getValue(),
+                    counters.findCounter(COUNTER_GROUP, PROBE_MILLIS).getValue());
+        }
+        return flag;
+    }
+
+    /**
+     * Sort the neighbors of a query by the distance in the shuffle, thus
+     * SearchReducer only reads the first k of them, and SearchCombiner drops
+     * the others of a map task before the shuffle.
+     * @param job the search or the lookup
+     * */
+    private void setSecondarySort(final Job job) {
+        job.setMapOutputKeyClass(QueryDistance.class);
+        job.setMapOutputValueClass(VectorWritable.class);
+        job.setPartitionerClass(QueryDistance.QueryPartitioner.class);
+        job.setSortComparatorClass(QueryDistance.Comparator.class);
+        job.setGroupingComparatorClass(QueryDistance.GroupComparator.class);
+        job.setCombinerClass(SearchCombiner.class);
         job.setReducerClass(SearchReducer.class);
+    }
+
+    /**
+     * Fetch the points of the neighbors from the partitions using MapReduce.
+     * @param idsPath the output directory of the search
+     * @param outPath the output directory
+     * */
+    private boolean lookup(final Path idsPath, final Path outPath)
+            throws IOException, InterruptedException, ClassNotFoundException {
+        conf.set("lookupInput", idsPath.toString());
+        Job job = new Job(conf, "pdlsh Lookup " + conf.get("dataset")
+                + " K=" + conf.get("kNeighbors"));
+        job.setJarByClass(LSHSearcher.class);
+        job.setMapperClass(LookupMapper.class);
+        this.setSecondarySort(job);
 
         job.setInputFormatClass(NLineInputFormat.class);
-        job.setMapOutputKeyClass(IntWritable.class);
-        job.setMapOutputValueClass(Candidate.class);
 
         job.setOutputFormatClass(SearchResultOutputFormat.class);
 
         NLineInputFormat.addInputPath(job, querySeedPath);
-        String outputDir = baseDir + "/searchOutput";
-        Path outPath = new Path(outputDir);
+        NLineInputFormat.setNumLinesPerSplit(job, partsPerMap);
         fs.delete(outPath, true);
         FileOutputFormat.setOutputPath(job, outPath);
 
@@ -224,46 +320,27 @@ public class LSHSearcher extends Configured {
     }
 
     /**
-     * Collect search results from output directories.
+     * Collect search results from the output directory, and export them as
+     * text if it is required.
      * */
     private void collectSearchResult() throws IOException {
-        PathFilter reduceFileFilter = new PathFilter() {
-            public boolean accept(Path path) {
-                return path.getName().startsWith("part");
-            }
-        };
+        Path outPath = new Path(outputDir + "/searchOutput");
+        CandidatePriorityQueue[] results = SearchResultCollector.collect(fs, outPath,
+                querySetSize, collectThreads);
+        if (exportText) {
+            SearchResultCollector.exportText(fs, results,
+                    new Path(outputDir + "/searchResult.txt"));
+        }
 
-        // initialize searchResult
         searchResult = new double[querySetSize][];
-        String outputDir = baseDir + "/searchOutput";
-        Path outPath =  new Path(outputDir);
-        FileStatus[] fileStatus = fs.listStatus(outPath, reduceFileFilter);
-
-        for (int i = 0; i < fileStatus.length; i++) {
-            if (0 == fileStatus[i].getLen()) {
+        for (int i = 0; i < querySetSize; i++) {
+            if (null == results[i]) {
                 continue;
             }
-
-            FSDataInputStream in = fs.open(fileStatus[i].getPath());
-            Scanner scanner = null;
-            try {
-                scanner = new Scanner(in, "UTF-8");
-
-                while (scanner.hasNext()) {
-                    int queryID = scanner.nextInt();
-                    int neighborsFound = scanner.nextInt();
-
-                    searchResult[queryID] = new double[neighborsFound];
-                    for (int j = 0; j < neighborsFound; j++) {
-                        searchResult[queryID][j] = scanner.nextDouble();
-                        // skip data point
-                        for (int dummy = 0; dummy < dimension; dummy++) {
-                            scanner.nextInt();
-                        }
-                    }
-                }
-            } finally {
-                scanner.close();
+            results[i].sort();
+            searchResult[i] = new double[results[i].size()];
+            for (int j = 0; j < searchResult[i].length; j++) {
+                searchResult[i][j] = results[i].getDist(j);
             }
         }
     }
@@ -273,7 +350,6 @@ public class LSHSearcher extends Configured {
      * */
     private void compareToGroundTruth() throws IOException {
         this.readGroundTruth();
-        this.collectSearchResult();
 
         String localStatResultFile = conf.get("localStatResultFile") + conf.get("kNeighbors");
         FileOutputStream fileOut = new FileOutputStream(localStatResultFile);
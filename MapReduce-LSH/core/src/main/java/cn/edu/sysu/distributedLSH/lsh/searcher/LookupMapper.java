@@ -0,0 +1,170 @@
+package cn.edu.sysu.distributedLSH.lsh.searcher;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import cn.edu.sysu.distributedLSH.common.CandidatePriorityQueue;
+import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.PartitionIndex;
+import cn.edu.sysu.distributedLSH.common.PartitionSegments;
+import cn.edu.sysu.distributedLSH.common.Snapshots;
+import cn.edu.sysu.distributedLSH.common.TwoDArray;
+import cn.edu.sysu.distributedLSH.common.VectorParser;
+import cn.edu.sysu.distributedLSH.common.VectorWritable;
+
+
+/**
+ * LookupMapper fetches the points of the neighbors found by SearchMapper,
+ * whose results only carry the IDs, the distances and the locations of the
+ * neighbors, i.e. their partitions and rows. It reads the results from
+ * lookupInput, and for each neighbor in its partition, it emits the neighbor
+ * with the point at its row to the query, thus SearchReducer can write the
+ * results with the points. The neighbors are located by the rows rather
+ * than the IDs, since a data point may share its ID with one in another
+ * partition or segment.
+ * */
+public class LookupMapper extends Mapper<Object, Text, QueryDistance, VectorWritable> {
+    private Configuration conf;
+    private FileSystem fs;
+
+    private int dimension;
+    private int querySetSize;
+    private String baseDir;
+
+    // the neighbors found by SearchMapper, the i-th of which is the row
+    // rows[i] of the partition partIDs[i], and is the neighbor of
+    // queryIDs[i] with distance dists[i]
+    private int nNeighbors = 0;
+    private int[] partIDs = null;
+    private int[] rows = null;
+    private int[] queryIDs = null;
+    private double[] dists = null;
+
+    private QueryDistance outKey = new QueryDistance();
+    private VectorWritable neighbor = null;
+    private VectorParser parser = new VectorParser();
+
+
+    /**
+     * setup.
+     * @param context
+     * */
+    @Override
+    protected void setup(final Context context) {
+        conf = context.getConfiguration();
+        try {
+            fs = FileSystem.get(conf);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        dimension = conf.getInt("dimension", -1);
+        querySetSize = conf.getInt("querySetSize", -1);
+        if (dimension < 1 || querySetSize < 1) {
+            LSHTool.printAndExit("dimension or querySetSize error");
+        }
+        baseDir = conf.get("baseDir");
+        neighbor = new VectorWritable(dimension);
+
+        try {
+            this.readNeighbors(new Path(conf.get("lookupInput")));
+        } catch (IOException e) {
+            e.printStackTrace();
+            LSHTool.printAndExit("read search results failed");
+        }
+    }
+
+    /**
+     * Read the neighbors from the results of SearchMapper.
+     * @param inPath the output directory of the search
+     * */
+    private void readNeighbors(final Path inPath) throws IOException {
+        CandidatePriorityQueue[] results = SearchResultCollector.collect(fs, inPath,
+                querySetSize, 1);
+        int total = 0;
+        for (int queryID = 0; queryID < querySetSize; queryID++) {
+            if (null != results[queryID]) {
+                total += results[queryID].size();
+            }
+        }
+        partIDs = new int[total];
+        rows = new int[total];
+        queryIDs = new int[total];
+        dists = new double[total];
+
+        // the location of a neighbor, which SearchMapper writes as its point
+        int[] location = new int[2];
+        for (int queryID = 0; queryID < querySetSize; queryID++) {
+            if (null == results[queryID]) {
+                continue;
+            }
+            for (int j = 0; j < results[queryID].size(); j++) {
+                results[queryID].getPoint(j, location);
+                partIDs[nNeighbors] = location[0];
+                rows[nNeighbors] = location[1];
+                queryIDs[nNeighbors] = queryID;
+                dists[nNeighbors] = results[queryID].getDist(j);
+                nNeighbors++;
+            }
+        }
+    }
+
+    /**
+     * map.
+     * @param key dummy
+     * @param value contains the partition id
+     * @param context
+     * */
+    @Override
+    protected void map(final Object key, final Text value, final Context context)
+            throws IOException, InterruptedException {
+        int partID = LSHTool.parsePartID(parser, value);
+        String partDir = Snapshots.locate(fs, baseDir, "part_" + partID);
+
+        // the neighbors in this partition sorted by the row, each of which
+        // is packed as the row in the high half and its index in the low half
+        long[] pairs = new long[nNeighbors];
+        int count = 0;
+        for (int i = 0; i < nNeighbors; i++) {
+            if (partIDs[i] == partID) {
+                pairs[count++] = ((long)rows[i] << 32) | i;
+            }
+        }
+        if (0 == count) {
+            return;
+        }
+        Arrays.sort(pairs, 0, count);
+
+        PartitionSegments segments = PartitionSegments.read(partDir, fs);
+        PartitionIndex[] indexes = segments.openAll(partDir, fs);
+        TwoDArray partDataSet = new TwoDArray();
+        int[] ids;
+        try {
+            ids = segments.readRows(indexes, partDataSet);
+        } finally {
+            PartitionSegments.closeAll(indexes);
+        }
+
+        int lastRow = -1;
+        for (int k = 0; k < count; k++) {
+            int row = (int)(pairs[k] >>> 32);
+            int i = (int)pairs[k];
+            if (row >= ids.length) {
+                LSHTool.printAndExit("partition " + partID + " has no row " + row);
+            }
+            if (row != lastRow) {
+                neighbor.setId(ids[row]);
+                partDataSet.getRow(row, neighbor.getPoint());
+                lastRow = row;
+            }
+            outKey.set(queryIDs[i], dists[i]);
+            context.write(outKey, neighbor);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package cn.edu.sysu.distributedLSH.lsh.searcher;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+import cn.edu.sysu.distributedLSH.common.LSHTool;
+
+
+/**
+ * QueryDistance is the map output key of the search, that is a query and the
+ * distance of a neighbor of the query. The keys are sorted by the query and
+ * then by the distance, partitioned and grouped by the query, thus
+ * SearchReducer receives the neighbors of a query nearest first.
+ * */
+public class QueryDistance implements WritableComparable<QueryDistance> {
+    private int queryID;
+    private double dist;
+
+
+    /**
+     * Constructor.
+     * */
+    public QueryDistance() {
+        set(-1, -1);
+    }
+
+    /**
+     * set.
+     * @param queryID
+     * @param dist the distance between the neighbor and the query
+     * */
+    public void set(final int queryID, final double dist) {
+        this.queryID = queryID;
+        this.dist = dist;
+    }
+
+    /**
+     * get the query ID.
+     * */
+    public int getQueryID() {
+        return queryID;
+    }
+
+    /**
+     * get the distance.
+     * */
+    public double getDist() {
+        return dist;
+    }
+
+    /**
+     * hashCode.
+     * */
+    @Override
+    public int hashCode() {
+        return queryID;
+    }
+
+    /**
+     * equals.
+     * */
+    @Override
+    public boolean equals(final Object obj) {
+        if (obj instanceof QueryDistance) {
+            QueryDistance that = (QueryDistance)obj;
+            return this.queryID == that.queryID
+                    && 0 == Double.compare(this.dist, that.dist);
+        }
+        return false;
+    }
+
+    /**
+     * toString.
+     * */
+    @Override
+    public String toString() {
+        return queryID + " " + dist;
+    }
+
+    /**
+     * write.
+     * @param out output stream
+     * @throws IOException
+     * */
+    public void write(final DataOutput out) throws IOException {
+        out.writeInt(queryID);
+        out.writeDouble(dist);
+    }
+
+    /**
+     * readFields.
+     * @param in input stream
+     * @throws IOException
+     * */
+    public void readFields(final DataInput in) throws IOException {
+        queryID = in.readInt();
+        dist = in.readDouble();
+    }
+
+    /**
+     * Compare by the query and then by the distance. The distances are
+     * compared exactly, since the order of sorting must be transitive.
+     * */
+    public int compareTo(final QueryDistance that) {
+        int firstResult = LSHTool.compareInts(this.queryID, that.queryID);
+        return firstResult == 0 ? Double.compare(this.dist, that.dist) : firstResult;
+    }
+
+    /**
+     * A raw comparator optimized for QueryDistance.
+     * */
+    public static class Comparator extends WritableComparator {
+        public Comparator() {
+            super(QueryDistance.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1,
+                byte[] b2, int s2, int l2) {
+            int firstResult = LSHTool.compareInts(readInt(b1, s1), readInt(b2, s2));
+            if (0 == firstResult) {
+                return Double.compare(readDouble(b1, s1 + 4), readDouble(b2, s2 + 4));
+            } else {
+                return firstResult;
+            }
+        }
+    }
+
+    /**
+     * A raw comparator which only compares the queries, so that a call of
+     * SearchReducer.reduce gets all the neighbors of a query. Hadoop groups
+     * the serialized keys, thus only the raw comparison is needed.
+     * */
+    public static class GroupComparator extends WritableComparator {
+        public GroupComparator() {
+            super(QueryDistance.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1,
+                byte[] b2, int s2, int l2) {
+            return LSHTool.compareInts(readInt(b1, s1), readInt(b2, s2));
+        }
+    }
+
+    /**
+     * Partition the keys by the query.
+     * */
+    public static class QueryPartitioner<V> extends Partitioner<QueryDistance, V> {
+        @Override
+        public int getPartition(final QueryDistance key, final V value,
+                final int numPartitions) {
+            return (key.queryID & Integer.MAX_VALUE) % numPartitions;
+        }
+    }
+
+    static {
+        // register this comparator
+        WritableComparator.define(QueryDistance.class, new Comparator());
+    }
+}
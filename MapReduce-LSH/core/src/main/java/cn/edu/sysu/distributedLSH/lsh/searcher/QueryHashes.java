@@ -0,0 +1,63 @@
+package cn.edu.sysu.distributedLSH.lsh.searcher;
+
+import cn.edu.sysu.distributedLSH.common.LSH;
+
+
+/**
+ * QueryHashes is the matrix of the buckets of all the queries in all the
+ * hash tables of all the radii under a LSH. The queries of a table are
+ * projected as a batch once, and the projections are quantized for every
+ * radius, since a projection does not depend on the radius. The probing
+ * only looks the buckets up. The matrix can be reused by the partitions
+ * whose LSH has the same hash functions.
+ * */
+public class QueryHashes {
+    private LSH lsh;
+    private int querySetSize;
+    private int hashTableSize;
+
+    // the bucket of query q in table t of radius r is at
+    // (r * hashTableSize + t) * querySetSize + q
+    private int[] buckets;
+
+
+    /**
+     * Compute the buckets of the queries.
+     * @param lsh
+     * @param querySet
+     * @param radii
+     * */
+    public QueryHashes(final LSH lsh, final int[][] querySet, final int[] radii) {
+        this.lsh = lsh;
+        querySetSize = querySet.length;
+        hashTableSize = lsh.getHashTableSize();
+        buckets = new int[radii.length * hashTableSize * querySetSize];
+
+        int projDim = lsh.getProjDim();
+        double[] projected = new double[querySetSize * projDim];
+        for (int tableID = 0; tableID < hashTableSize; tableID++) {
+            lsh.projectPoints(tableID, querySet, projected);
+            for (int radiusID = 0; radiusID < radii.length; radiusID++) {
+                int base = (radiusID * hashTableSize + tableID) * querySetSize;
+                for (int q = 0; q < querySetSize; q++) {
+                    buckets[base + q] = lsh.calcHashValue(radii[radiusID], projected,
+                            q * projDim);
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether the matrix can be used under another LSH.
+     * */
+    public boolean isValidFor(final LSH other) {
+        return lsh == other || lsh.hasSameHashFunctions(other);
+    }
+
+    /**
+     * Get the bucket of a query.
+     * */
+    public int get(final int radiusID, final int tableID, final int queryID) {
+        return buckets[(radiusID * hashTableSize + tableID) * querySetSize + queryID];
+    }
+}
@@ -0,0 +1,57 @@
+package cn.edu.sysu.distributedLSH.lsh.searcher;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Reducer;
+
+import cn.edu.sysu.distributedLSH.common.VectorWritable;
+
+
+/**
+ * SearchCombiner keeps the k nearest neighbors of each query among the map
+ * output of a spill. A combiner is grouped by the whole key, but the keys of
+ * a spill still arrive sorted by the query and then by the distance, thus
+ * it counts the neighbors of the current query across the calls of reduce.
+ * */
+public class SearchCombiner extends Reducer<QueryDistance, VectorWritable, QueryDistance,
+        VectorWritable> {
+    private int kNeighbors;
+
+    private int queryID = -1;   // the current query
+    private int count = 0;      // the number of neighbors of queryID written
+
+
+    /**
+     * setup.
+     * @param context
+     * */
+    @Override
+    protected void setup(final Context context) {
+        Configuration conf = context.getConfiguration();
+
+        kNeighbors = conf.getInt("kNeighbors", -1);
+    }
+
+    /**
+     * Reduce.
+     * @param key contains the query id and the distance of the neighbors
+     * @param values contains the neighbors at the distance
+     * @param context
+     * */
+    @Override
+    public void reduce(final QueryDistance key, final Iterable<VectorWritable> values,
+            final Context context) throws IOException, InterruptedException {
+        if (key.getQueryID() != queryID) {
+            queryID = key.getQueryID();
+            count = 0;
+        }
+        for (VectorWritable neighbor : values) {
+            if (count >= kNeighbors) {
+                break;
+            }
+            context.write(key, neighbor);
+            count++;
+        }
+    }
+}
@@ -1,128 +1,93 @@
 package cn.edu.sysu.distributedLSH.lsh.searcher;
 
-import java.io.File;
 import java.io.IOException;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Queue;
-import java.util.Scanner;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 
-import cn.edu.sysu.distributedLSH.common.Candidate;
-import cn.edu.sysu.distributedLSH.common.HashTable;
+import cn.edu.sysu.distributedLSH.common.BucketDirectory;
+import cn.edu.sysu.distributedLSH.common.BucketFilter;
+import cn.edu.sysu.distributedLSH.common.DeletionBitmap;
 import cn.edu.sysu.distributedLSH.common.LSH;
 import cn.edu.sysu.distributedLSH.common.LSHTool;
-import cn.edu.sysu.distributedLSH.common.SimpleList;
+import cn.edu.sysu.distributedLSH.common.PartitionIndex;
+import cn.edu.sysu.distributedLSH.common.PartitionSegments;
+import cn.edu.sysu.distributedLSH.common.Snapshots;
+import cn.edu.sysu.distributedLSH.common.TopKHeap;
 import cn.edu.sysu.distributedLSH.common.TwoDArray;
+import cn.edu.sysu.distributedLSH.common.VectorParser;
+import cn.edu.sysu.distributedLSH.common.VectorWritable;
+import cn.edu.sysu.distributedLSH.common.VisitedSet;
 
 
-public class SearchMapper extends Mapper<Object, Text, IntWritable, Candidate> {
-    private static class CandidateNode implements Comparable<CandidateNode> {
-        int index = -1;     // the index of the candidate
-        double dist = -1;   // the distance between the candidate and the query
-        
-        /**
-         * Constructor.
-         * */
-        CandidateNode(final int index, final double dist) {
-            this.index = index;
-            this.dist = dist;
-        }
-        
-        /**
-         * set.
-         * */
-        public void set(final int index, final double dist) {
-            this.index = index;
-            this.dist = dist;
-        }
-        
-        /**
-         * Implement the method in the interface Comparable.
-         * This is the compare function for the max-heap.
-         * */
-        public int compareTo(CandidateNode other) {
-            if (this.dist < other.dist) {
-                return 1;
-            } else if (this.dist > other.dist) {
-                return -1;
-            }
-            return 0;
-        }
-    }
-    
-
+public class SearchMapper extends Mapper<Object, Text, QueryDistance, VectorWritable> {
     private static class CandidateIndexHeap {
         int queryID = -1;
         int dim = -1;
         int kNeighbors = -1;
 
         int searchCount = 0;    // how many points have been searched for this query in a radius
+        int bucketID = -1;      // the bucket of this query in the current table
+        int bucketPos = -1;     // the position of the bucket in the bucket directory, or -1
+        int[] bucket = null;    // the postings of the bucket in the current table
+        boolean finished = false;   // whether enough data points have been searched
 
-        // The candQueue is a max-heap whose capacity is kNeighbors. The implementation of
-        // max-heap is PriorityQueue. It can support finding top-k minimum value efficiently.
-        Queue<CandidateNode> candQueue = null;
+        // The candQueue is a max-heap whose capacity is kNeighbors, whose
+        // items are the indexes of the candidates.
+        TopKHeap candQueue = null;
 
         // We use an index set so that we can judge efficiently whether a data point
-        // has been checked.
-        Set<Integer> checkedIndexSet = null;
+        // has been checked. It is taken from the pool of the mapper.
+        VisitedSet checkedIndexSet = null;
 
         /**
          * Constructor.
+         * @param checkedIndexSet an empty set
          * */
-        public CandidateIndexHeap(final int queryID, final int dim, final int kNeighbors) {
+        public CandidateIndexHeap(final int queryID, final int dim, final int kNeighbors,
+                final VisitedSet checkedIndexSet) {
             this.queryID = queryID;
             this.dim = dim;
             this.kNeighbors = kNeighbors;
-            candQueue = new PriorityQueue<CandidateNode>(kNeighbors);
-            checkedIndexSet = new HashSet<Integer>();
+            candQueue = new TopKHeap(kNeighbors);
+            this.checkedIndexSet = checkedIndexSet;
         }
         
         /**
          * Given a collided point, update the candQueue.
          * @param index the index of the collided point in the part of data set
-         * @param point the collided point
+         * @param points contains the data points in the partition of the data set
          * @param query the query
          * @param ratioRadius  equals to ratio * currentRadius, which is cR
          * */
-        public void update(final int index, final int[] point, final int[] query,
+        public void update(final int index, final TwoDArray points, final int[] query,
                 final int ratioRadius) {
-            if (checkedIndexSet.contains(index)) {
+            if (!checkedIndexSet.add(index)) {
                 // the collided point has been checked
                 return;
             }
 
             // We will check the collided point.
-            checkedIndexSet.add(index);
             // calculate the distance between the collided point and the query
-            double curDist = LSHTool.calcL2Distance(point, query, dim);
+            double curDist = points.calcL2Distance(index, query);
 
             // TODO Should this if statement be deleted?
             if (curDist < ratioRadius) {
-                if (candQueue.size() == kNeighbors) {
-                    // get the candidate with maximum dist in candQueue
-                    CandidateNode candNode = candQueue.peek();
-                    if (curDist < candNode.dist) {
-                        candQueue.poll();
-                        // Update candidate to avoid allocating memory.
-                        candNode.set(index, curDist);
-                        // insert the new candidate
-                        candQueue.add(candNode);
-                    }
-                } else {
-                    // insert the collided point to the candQueue
-                    candQueue.add(new CandidateNode(index, curDist));
-                }
+                // The candidate evicts the one with maximum dist if the
+                // candQueue is full.
+                candQueue.offer(curDist, index);
             }
         }
     }
@@ -139,14 +104,31 @@ public class SearchMapper extends Mapper<Object, Text, IntWritable, Candidate> {
     private int ratio;
     private int kNeighbors;
     private int pruneFactor;
+    private int searchThreads;
+    private boolean fetchVectors;
     private String baseDir;
     private String querySetFileName;
 
     private int partKNeighbors;
     private int[][] querySet = null;
     private int[] radii = null;
-    private IntWritable queryIDWritable = new IntWritable();
-    private Candidate candidate = new Candidate();
+    // a neighbor of a query, which only carries the ID of the neighbor. If
+    // the points are fetched by LookupMapper, its point is the location of
+    // the neighbor instead, i.e. the partition and the row, since the IDs
+    // of the data points are not unique.
+    private QueryDistance outKey = new QueryDistance();
+    private VectorWritable neighbor = null;
+    // the partition being searched
+    private int partID = -1;
+    private VectorParser parser = new VectorParser();
+    // The checked sets of the finished queries, which are reused by the
+    // following queries and partitions of this mapper.
+    private LinkedList<VisitedSet> visitedPool = new LinkedList<VisitedSet>();
+    // the buckets of the queries under the LSH of the last partition
+    private QueryHashes queryHashes = null;
+    // the pool which collides the queries with the buckets, or null if
+    // there is only one thread
+    private ExecutorService pool = null;
 
 
     /**
@@ -172,6 +154,15 @@ public class SearchMapper extends Mapper<Object, Text, IntWritable, Candidate> {
         if (pruneFactor < 1) {
             LSHTool.printAndExit("pruneFactor error");
         }
+        searchThreads = conf.getInt("searchThreads", 1);
+        if (searchThreads < 1) {
+            LSHTool.printAndExit("searchThreads should be positive");
+        }
+        if (searchThreads > 1) {
+            pool = Executors.newFixedThreadPool(searchThreads);
+        }
+        fetchVectors = conf.getBoolean("fetchVectors", false);
+        neighbor = new VectorWritable(fetchVectors ? 2 : 0);
 
         baseDir = conf.get("baseDir");
         querySetFileName = conf.get("querySetFileName");
@@ -194,8 +185,24 @@ public class SearchMapper extends Mapper<Object, Text, IntWritable, Candidate> {
             radii[i] = ratio * radii[i - 1];
         }        
     }
-    
-    
+
+    /**
+     * run. Mapper.run does not call cleanup if map fails, thus the pool is
+     * shut down here, otherwise its threads would keep the task alive.
+     * @param context
+     * */
+    @Override
+    public void run(final Context context) throws IOException, InterruptedException {
+        try {
+            super.run(context);
+        } finally {
+            if (null != pool) {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+
     /**
      * Read query set from Hadoop's distributed cache.
      * */
@@ -204,27 +211,7 @@ public class SearchMapper extends Mapper<Object, Text, IntWritable, Candidate> {
             LSHTool.printAndExit("querySetSize and dimension should not be zero");
         }
 
-        File inputFile = new File(querySetFileName);
-        Scanner scanner = null;
-        try {
-            scanner = new Scanner(inputFile, "UTF-8");
-
-            // initialize querySet
-            querySet = new int[querySetSize][];
-            for (int i = 0; i < querySetSize; i++) {
-                querySet[i] = new int[dimension];
-            }
-
-            for (int i = 0; i < querySetSize; i++) {
-                // skip the query ID
-                scanner.nextInt();
-                for (int j = 0; j < dimension; j++) {
-                    querySet[i][j] = scanner.nextInt();
-                }
-            }
-        } finally {
-            scanner.close();
-        }
+        querySet = VectorParser.readQuerySet(querySetFileName, querySetSize, dimension);
     }
     
     /**
@@ -244,24 +231,61 @@ public class SearchMapper extends Mapper<Object, Text, IntWritable, Candidate> {
     @Override
     protected void map(final Object key, final Text value, final Context context)
             throws IOException, InterruptedException {
-        String partDir = baseDir + "/part_" + parsePartID(value);
+        partID = LSHTool.parsePartID(parser, value);
+        String partDir = Snapshots.locate(fs, baseDir, "part_" + partID);
 
+        // The base and the delta segments of this partition are searched
+        // together, each of them is read through one handle.
+        PartitionSegments segments = PartitionSegments.read(partDir, fs);
+        PartitionIndex[] indexes = segments.openAll(partDir, fs);
+        try {
+            this.search(indexes, segments, partDir, context);
+        } finally {
+            PartitionSegments.closeAll(indexes);
+        }
+    }
+
+    /**
+     * Search for queries in a partition. This is an auxiliary for map.
+     * @param indexes the opened segments of the partition
+     * @param segments the segments of the partition
+     * @param partDir the directory of the partition
+     * @param context
+     * */
+    private void search(final PartitionIndex[] indexes, final PartitionSegments segments,
+            final String partDir, final Context context) throws IOException, InterruptedException {
         TwoDArray partDataSet = new TwoDArray();
-        // read the partition of the data set
-        partDataSet.readFromHdfs(partDir, fs);
-        int[][] points = partDataSet.get();     // points in the partition of the data set
+        // read the partition of the data set, the rows of the delta segments
+        // follow those of the base
+        int[] ids = segments.readRows(indexes, partDataSet);
+        // the deleted data points are still in the hash tables until compaction
+        DeletionBitmap deleted = DeletionBitmap.readFromHdfs(partDir + "/"
+                + DeletionBitmap.FILE_NAME, fs, partDataSet.getRow());
         
         List<CandidateIndexHeap> queryList = new LinkedList<CandidateIndexHeap>();
         for (int i = 0; i < querySetSize; i++) {
-            queryList.add(new CandidateIndexHeap(i, dimension, partKNeighbors));
+            queryList.add(new CandidateIndexHeap(i, dimension, partKNeighbors,
+                    this.takeVisitedSet()));
         }
         
         LSH lsh = new LSH(dimension);
-        // read LSH
-        lsh.readFromHdfs(partDir, fs);
+        // read LSH, which is shared by all the segments
+        indexes[0].readLsh(lsh);
         // get some commonly used parameters
         int hashTableSize = lsh.getHashTableSize();
 
+        // Hash all the queries first, unless the last partition has the same
+        // hash functions.
+        long startMillis = System.currentTimeMillis();
+        if (null == queryHashes || !queryHashes.isValidFor(lsh)) {
+            queryHashes = new QueryHashes(lsh, querySet, radii);
+            context.getCounter(LSHSearcher.COUNTER_GROUP, LSHSearcher.HASH_MILLIS).increment(
+                    System.currentTimeMillis() - startMillis);
+        } else {
+            context.getCounter(LSHSearcher.COUNTER_GROUP, LSHSearcher.REUSED_HASHES).increment(1);
+        }
+        startMillis = System.currentTimeMillis();
+
         // the maximum number of real distances to be calculated for a query
         int searchThreshold = pruneFactor * hashTableSize + partKNeighbors;
 
@@ -270,30 +294,17 @@ public class SearchMapper extends Mapper<Object, Text, IntWritable, Candidate> {
             int ratioRadius = ratio * radii[radiusID];
 
             for (int tableID = 0; tableID < hashTableSize; tableID++) {
-                HashTable hashTable = new HashTable(radiusID, tableID);
-                hashTable.readFromHdfs(partDir, fs);
-                Map<Integer, SimpleList> hashTableMap = hashTable.get();
-
-                Iterator<CandidateIndexHeap> it = queryList.iterator();
-                while (it.hasNext()) {
-                    CandidateIndexHeap candIndexHeap = it.next();
-                    int bucketID = lsh.calcHashValue(tableID, radii[radiusID],
-                            querySet[candIndexHeap.queryID]);
-                    // get bucket in hash table by bucketID
-                    SimpleList bucket = hashTableMap.get(bucketID);
-                    if (null == bucket) {
-                        continue;
-                    }
-                    if (this.collide(points, ratioRadius, searchThreshold, candIndexHeap, bucket)) {
-                        // TODO delete
-                        System.out.printf("Query: %d, radiusID: %d\n", candIndexHeap.queryID, radiusID);
-                        
-                        
-                        // We have search for enough data points thus emit the search result.
-                        this.emit(points, candIndexHeap, context);
-                        // Remove the query from queryList.
-                        it.remove();
-                    }
+                // look the buckets of the remaining queries up
+                for (CandidateIndexHeap candIndexHeap : queryList) {
+                    candIndexHeap.bucketID = queryHashes.get(radiusID, tableID,
+                            candIndexHeap.queryID);
+                }
+
+                for (int segment = 0; segment < indexes.length && !queryList.isEmpty();
+                        segment++) {
+                    this.probe(indexes[segment], segments.getRowOffset(segment), radiusID,
+                            tableID, partDataSet, ids, deleted, ratioRadius, searchThreshold,
+                            queryList, context);
                 }
                 if (queryList.isEmpty()) {
                     break;
@@ -309,41 +320,228 @@ public class SearchMapper extends Mapper<Object, Text, IntWritable, Candidate> {
                 }
             }
         }
+
+        for (CandidateIndexHeap candIndexHeap : queryList) {
+            visitedPool.add(candIndexHeap.checkedIndexSet);
+        }
+        context.getCounter(LSHSearcher.COUNTER_GROUP, LSHSearcher.PROBE_MILLIS).increment(
+                System.currentTimeMillis() - startMillis);
+    }
+
+    /**
+     * Take an empty checked set from the pool, or create one.
+     * */
+    private VisitedSet takeVisitedSet() {
+        if (visitedPool.isEmpty()) {
+            return new VisitedSet();
+        }
+        VisitedSet visited = visitedPool.removeFirst();
+        visited.clear();
+        return visited;
     }
     
     /**
-     * Parse the partition id.
-     * @param value contains the partition id
+     * Probe a table of a segment with the remaining queries, whose bucketID
+     * has been set. This is an auxiliary for search.
+     * @param partIndex the segment
+     * @param rowOffset the first row of the segment in the partition
+     * @param radiusID
+     * @param tableID
+     * @param partDataSet contains the data points of all the segments
+     * @param ids contains the IDs of the data points
+     * @param deleted the deleted data points
+     * @param ratioRadius that is ratio * currentRadius
+     * @param searchThreshold the maximum number of real distances to be calculated for a query
+     * @param queryList the remaining queries, a query is removed once its
+     *  result is emitted
+     * @param context
      * */
-    private int parsePartID(final Text value) {
-        int partID = -1;
-        Scanner scanner = null;
-        try {
-            scanner = new Scanner(value.toString());
-            partID = scanner.nextInt();
-        } finally {
-            scanner.close();
+    private void probe(final PartitionIndex partIndex, final int rowOffset, final int radiusID,
+            final int tableID, final TwoDArray partDataSet, final int[] ids,
+            final DeletionBitmap deleted, final int ratioRadius, final int searchThreshold,
+            final List<CandidateIndexHeap> queryList, final Context context)
+            throws IOException, InterruptedException {
+        // The filter is much smaller than the hash table, thus the bucket
+        // directory is only read when some query may fall into an existing
+        // bucket.
+        BucketFilter filter = new BucketFilter();
+        partIndex.readFilter(radiusID, tableID, filter);
+
+        boolean probe = false;
+        for (CandidateIndexHeap candIndexHeap : queryList) {
+            candIndexHeap.bucketPos = -1;
+            if (filter.mightContain(candIndexHeap.bucketID)) {
+                candIndexHeap.bucketPos = 0;
+                probe = true;
+            }
+        }
+        if (!probe) {
+            return;
+        }
+
+        // fetch only the buckets touched by the queries
+        BucketDirectory bucketDir = partIndex.readBucketDirectory(radiusID, tableID);
+        int[] touched = this.findTouchedBuckets(bucketDir, queryList);
+        int[][] buckets = partIndex.readBuckets(bucketDir, touched);
+
+        List<CandidateIndexHeap> activeList = new ArrayList<CandidateIndexHeap>();
+        for (CandidateIndexHeap candIndexHeap : queryList) {
+            if (candIndexHeap.bucketPos >= 0) {
+                candIndexHeap.bucket = buckets[Arrays.binarySearch(touched,
+                        candIndexHeap.bucketPos)];
+                activeList.add(candIndexHeap);
+            }
+        }
+        this.collideAll(partDataSet, deleted, ratioRadius, searchThreshold, activeList,
+                rowOffset);
+
+        // The results are emitted by this thread in the order of queryList,
+        // thus they do not depend on the number of threads.
+        Iterator<CandidateIndexHeap> it = queryList.iterator();
+        while (it.hasNext()) {
+            CandidateIndexHeap candIndexHeap = it.next();
+            candIndexHeap.bucket = null;
+            if (candIndexHeap.finished) {
+                // We have search for enough data points thus emit the search result.
+                this.emit(ids, candIndexHeap, context);
+                // Remove the query from queryList.
+                it.remove();
+                visitedPool.add(candIndexHeap.checkedIndexSet);
+            }
         }
-        return partID;
+    }
+
+    /**
+     * Collide the queries with their buckets, which sets finished of the
+     * queries that have searched enough data points. A query only changes
+     * its own heap and checked set, and the data points, the deletion
+     * bitmap and the buckets are only read, thus the queries are split into
+     * searchThreads contiguous chunks which are collided in parallel. Each
+     * query sees the same postings in the same order with any number of
+     * threads. This is an auxiliary for probe.
+     * @param points contains the data points in the partition of the data set
+     * @param deleted the deleted data points
+     * @param ratioRadius that is ratio * currentRadius
+     * @param searchThreshold the maximum number of real distances to be calculated for a query
+     * @param activeList the queries whose bucket has been fetched
+     * @param rowOffset the first row of the segment of the buckets
+     * */
+    private void collideAll(final TwoDArray points, final DeletionBitmap deleted,
+            final int ratioRadius, final int searchThreshold,
+            final List<CandidateIndexHeap> activeList, final int rowOffset)
+            throws IOException {
+        int chunks = null == pool ? 1 : Math.min(searchThreads, activeList.size());
+        if (chunks <= 1) {
+            for (CandidateIndexHeap candIndexHeap : activeList) {
+                candIndexHeap.finished = this.collide(points, deleted, ratioRadius,
+                        searchThreshold, candIndexHeap, candIndexHeap.bucket, rowOffset);
+            }
+            return;
+        }
+
+        List<Future<Object>> futures = new ArrayList<Future<Object>>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            final List<CandidateIndexHeap> chunk = activeList.subList(
+                    i * activeList.size() / chunks, (i + 1) * activeList.size() / chunks);
+            futures.add(pool.submit(new Callable<Object>() {
+                public Object call() {
+                    for (CandidateIndexHeap candIndexHeap : chunk) {
+                        candIndexHeap.finished = collide(points, deleted, ratioRadius,
+                                searchThreshold, candIndexHeap, candIndexHeap.bucket,
+                                rowOffset);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Object> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while searching", e);
+            } catch (ExecutionException e) {
+                throw new IOException("search failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Look up the buckets of the queries in the bucket directory. This is an
+     * auxiliary for search.
+     * @param bucketDir the bucket directory of the current table
+     * @param queryList the remaining queries, whose bucketPos is set to the
+     *  position of its bucket, or -1 if the bucket does not exist
+     * @return the distinct positions of the touched buckets, sorted ascending
+     * */
+    private int[] findTouchedBuckets(final BucketDirectory bucketDir,
+            final List<CandidateIndexHeap> queryList) throws IOException {
+        // look all the buckets up at once, so that the directory blocks are
+        // read together
+        int size = 0;
+        for (CandidateIndexHeap candIndexHeap : queryList) {
+            if (candIndexHeap.bucketPos >= 0) {
+                size++;
+            }
+        }
+        int[] bucketIDs = new int[size];
+        size = 0;
+        for (CandidateIndexHeap candIndexHeap : queryList) {
+            if (candIndexHeap.bucketPos >= 0) {
+                bucketIDs[size++] = candIndexHeap.bucketID;
+            }
+        }
+        int[] found = bucketDir.find(bucketIDs);
+
+        int[] positions = new int[size];
+        int k = 0;
+        size = 0;
+        for (CandidateIndexHeap candIndexHeap : queryList) {
+            if (candIndexHeap.bucketPos < 0) {
+                continue;
+            }
+            candIndexHeap.bucketPos = found[k++];
+            if (candIndexHeap.bucketPos >= 0) {
+                positions[size++] = candIndexHeap.bucketPos;
+            }
+        }
+        Arrays.sort(positions, 0, size);
+
+        // remove duplicates since several queries may fall into the same bucket
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (0 == distinct || positions[distinct - 1] != positions[i]) {
+                positions[distinct++] = positions[i];
+            }
+        }
+        int[] touched = new int[distinct];
+        System.arraycopy(positions, 0, touched, 0, distinct);
+        return touched;
     }
 
     /**
      * Collide a query with a bucket. This is an auxiliary for map.
      * @param points contains the data points in the partition of the data set
+     * @param deleted the deleted data points, which are skipped without
+     *  counting towards searchThreshold
      * @param ratioRadius that is ratio * currentRadius
      * @param searchThreshold the maximum number of real distances to be calculated for a query
      * @param candIndexHeap contains some staff of the query, such as query id,
      *  checked candidates, etc.
      * @param bucket the bucket which the query falls into
+     * @param rowOffset the first row of the segment of the bucket
      * @return This method will return true if we have searched enough data points.
      * */
-    private boolean collide(final int[][] points, final int ratioRadius, final int searchThreshold,
-            final CandidateIndexHeap candIndexHeap, final SimpleList bucket) {
-        bucket.setCursorToHead();
-        while (bucket.hasNext()) {
+    private boolean collide(final TwoDArray points, final DeletionBitmap deleted,
+            final int ratioRadius, final int searchThreshold,
+            final CandidateIndexHeap candIndexHeap, final int[] bucket, final int rowOffset) {
+        for (int i = 0; i < bucket.length; i++) {
+            int candIndex = rowOffset + bucket[i];
+            if (deleted.get(candIndex)) {
+                continue;
+            }
             candIndexHeap.searchCount++;
-            int candIndex = bucket.next();
-            candIndexHeap.update(candIndex, points[candIndex], querySet[candIndexHeap.queryID],
+            candIndexHeap.update(candIndex, points, querySet[candIndexHeap.queryID],
                     ratioRadius);
             if (candIndexHeap.searchCount >= searchThreshold) {
                 return true;
@@ -354,21 +552,32 @@ public class SearchMapper extends Mapper<Object, Text, IntWritable, Candidate> {
     
     /**
      * Emit the search result for a query. This is an auxiliary for map.
-     * @param points contains the data points in the partition of the data set
+     * Only the IDs and the distances of the candidates are emitted, the
+     * points are fetched by LookupMapper from their locations if they are
+     * required.
+     * @param ids contains the IDs of the data points
      * @param candIndexHeap contains some staff of the query, such as query id,
      *  checked candidates, etc.
      * @param context
      * */
-    private void emit(final int[][] points, final CandidateIndexHeap candIndexHeap,
+    private void emit(final int[] ids, final CandidateIndexHeap candIndexHeap,
             final Context context) throws IOException, InterruptedException {
-        Queue<CandidateNode> candQueue = candIndexHeap.candQueue;
-        queryIDWritable.set(candIndexHeap.queryID);
-
-        while (!candQueue.isEmpty()) {
-            CandidateNode candNode = candQueue.poll();
-            // For the sake of efficiency, we shallow set the candidate to avoid memory allocation.
-            candidate.shallowSet(candNode.dist, points[candNode.index]);
-            context.write(queryIDWritable, candidate);
+        TopKHeap candQueue = candIndexHeap.candQueue;
+
+        // The neighbors are sorted by the query and the distance in the
+        // shuffle. outKey and neighbor can be reused since context.write
+        // serializes them at once.
+        for (int i = 0; i < candQueue.size(); i++) {
+            int slot = candQueue.getSlot(i);
+            outKey.set(candIndexHeap.queryID, candQueue.getDist(slot));
+            int row = candQueue.getItem(slot);
+            neighbor.setId(ids[row]);
+            if (fetchVectors) {
+                neighbor.getPoint()[0] = partID;
+                neighbor.getPoint()[1] = row;
+            }
+            context.write(outKey, neighbor);
         }
+        candQueue.clear();
     }
 }
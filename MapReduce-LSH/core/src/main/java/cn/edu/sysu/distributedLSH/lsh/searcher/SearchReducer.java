@@ -1,19 +1,23 @@
 package cn.edu.sysu.distributedLSH.lsh.searcher;
 
 import java.io.IOException;
+import java.util.Iterator;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.mapreduce.Reducer;
 
-import cn.edu.sysu.distributedLSH.common.Candidate;
 import cn.edu.sysu.distributedLSH.common.CandidatePriorityQueue;
+import cn.edu.sysu.distributedLSH.common.VectorWritable;
 
 
-public class SearchReducer extends Reducer<IntWritable, Candidate, IntWritable, CandidatePriorityQueue> {
+public class SearchReducer extends Reducer<QueryDistance, VectorWritable, IntWritable,
+        CandidatePriorityQueue> {
     private Configuration conf;
 
     private int kNeighbors;
+    private IntWritable queryIDWritable = new IntWritable();
+    private CandidatePriorityQueue candPriQueue = null;
 
 
     /**
@@ -25,22 +29,31 @@ public class SearchReducer extends Reducer<IntWritable, Candidate, IntWritable,
         conf = context.getConfiguration();
 
         kNeighbors = conf.getInt("kNeighbors", -1);
+        candPriQueue = new CandidatePriorityQueue(kNeighbors);
     }
 
     /**
-     * Reduce.
-     * @param key contains the query id
-     * @param values contains a list of candidates
+     * Reduce. The neighbors of a query arrive nearest first, thus the first
+     * k of them are the result and the others are left without a comparison.
+     * The framework still reads them when it moves to the next query; their
+     * number is bounded by SearchCombiner, which keeps k per map task.
+     * @param key contains the query id, and the distance of the current neighbor
+     * @param values contains the IDs, and the points if they are fetched, of
+     *  the neighbors
      * @param context
      * */
     @Override
-    public void reduce(final IntWritable key, final Iterable<Candidate> values,
+    public void reduce(final QueryDistance key, final Iterable<VectorWritable> values,
             final Context context) throws IOException, InterruptedException {
-        CandidatePriorityQueue candPriQueue = new CandidatePriorityQueue(kNeighbors);
-
-        for (Candidate candidate : values) {
-            candPriQueue.update(candidate);
+        queryIDWritable.set(key.getQueryID());
+        candPriQueue.clear();
+
+        Iterator<VectorWritable> it = values.iterator();
+        for (int i = 0; i < kNeighbors && it.hasNext(); i++) {
+            // Hadoop sets key to the key of the value at each step.
+            VectorWritable neighbor = it.next();
+            candPriQueue.offer(key.getDist(), neighbor.getId(), neighbor.getPoint());
         }
-        context.write(key, candPriQueue);
+        context.write(queryIDWritable, candPriQueue);
     }
 }
@@ -0,0 +1,153 @@
+package cn.edu.sysu.distributedLSH.lsh.searcher;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+
+import cn.edu.sysu.distributedLSH.common.CandidatePriorityQueue;
+import cn.edu.sysu.distributedLSH.common.LSHTool;
+
+
+/**
+ * SearchResultCollector reads the results written by
+ * SearchResultOutputFormat. Each part file is read by one call of
+ * fs.read and parsed in memory, and the files are read by a pool of
+ * threads. A query is only in one file, since the keys are partitioned by
+ * the query, thus the threads fill disjoint entries of the results.
+ * */
+public class SearchResultCollector {
+    /**
+     * Collect the results of all the part files in a directory.
+     * @param fs
+     * @param outPath the output directory of the search
+     * @param querySetSize
+     * @param threads the maximum number of files read at the same time
+     * @return the result of each query, or null if no neighbor of the query
+     *  is found
+     * */
+    public static CandidatePriorityQueue[] collect(final FileSystem fs, final Path outPath,
+            final int querySetSize, final int threads) throws IOException {
+        PathFilter reduceFileFilter = new PathFilter() {
+            public boolean accept(Path path) {
+                return path.getName().startsWith("part");
+            }
+        };
+        final FileStatus[] fileStatus = fs.listStatus(outPath, reduceFileFilter);
+        final CandidatePriorityQueue[] results = new CandidatePriorityQueue[querySetSize];
+
+        int poolSize = Math.min(threads, fileStatus.length);
+        if (poolSize <= 1) {
+            for (int i = 0; i < fileStatus.length; i++) {
+                readFile(fs, fileStatus[i], results);
+            }
+            return results;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>(fileStatus.length);
+            for (int i = 0; i < fileStatus.length; i++) {
+                final FileStatus status = fileStatus[i];
+                futures.add(pool.submit(new Callable<Object>() {
+                    public Object call() throws IOException {
+                        readFile(fs, status, results);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while collecting results", e);
+                } catch (ExecutionException e) {
+                    throw new IOException("collect results failed", e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * Read a part file at once, and parse its records.
+     * @param fs
+     * @param status the part file
+     * @param results the result of each query
+     * */
+    private static void readFile(final FileSystem fs, final FileStatus status,
+            final CandidatePriorityQueue[] results) throws IOException {
+        if (0 == status.getLen()) {
+            return;
+        }
+        if (status.getLen() > Integer.MAX_VALUE) {
+            LSHTool.printAndExit("Search result " + status.getPath() + " is too large");
+        }
+
+        byte[] buf = new byte[(int)status.getLen()];
+        FSDataInputStream fileIn = fs.open(status.getPath());
+        try {
+            fileIn.readFully(0, buf);
+        } finally {
+            fileIn.close();
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buf));
+        if (in.readInt() != SearchResultOutputFormat.MAGIC) {
+            LSHTool.printAndExit(status.getPath() + " is not a search result");
+        }
+        while (in.available() > 0) {
+            int queryID = in.readInt();
+            if (queryID < 0 || queryID >= results.length) {
+                LSHTool.printAndExit("query ID " + queryID + " out of range in "
+                        + status.getPath());
+            }
+            CandidatePriorityQueue candPriQueue = new CandidatePriorityQueue();
+            candPriQueue.readFields(in);
+            results[queryID] = candPriQueue;
+        }
+    }
+
+    /**
+     * Export the results as text. The result of a query is a line of the
+     * query ID and the number of neighbors, followed by a line for each
+     * neighbor nearest first, that is its distance, its ID and its point if
+     * it is fetched, and an empty line.
+     * @param fs
+     * @param results the result of each query
+     * @param textPath the text file
+     * */
+    public static void exportText(final FileSystem fs, final CandidatePriorityQueue[] results,
+            final Path textPath) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                fs.create(textPath, true), "UTF-8"));
+        try {
+            for (int i = 0; i < results.length; i++) {
+                if (null == results[i]) {
+                    continue;
+                }
+                writer.write(i + " " + results[i].size() + "\n");
+                writer.write(results[i].toString());
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
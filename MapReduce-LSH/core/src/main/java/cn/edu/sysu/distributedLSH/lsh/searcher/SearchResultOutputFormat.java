@@ -1,8 +1,8 @@
 package cn.edu.sysu.distributedLSH.lsh.searcher;
 
+import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
@@ -14,15 +14,27 @@ import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 
 import cn.edu.sysu.distributedLSH.common.CandidatePriorityQueue;
-import cn.edu.sysu.distributedLSH.common.LSHTool;
 
 
+/**
+ * SearchResultOutputFormat writes the search results in binary:
+ *
+ *   header:    MAGIC
+ *   record:    queryID, the CandidatePriorityQueue of the query
+ *
+ * and the queue is written as kNeighbors, dim, width, size and the
+ * neighbors nearest first, each of which is its ID, its distance and its
+ * point of dim coordinates. dim is zero if the points are not fetched. The
+ * files are read by SearchResultCollector.
+ * */
 public class SearchResultOutputFormat<K, V> extends FileOutputFormat<K, V> {
+    public static final int MAGIC = 0x4c534852;     // "LSHR"
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     /**
      * the RecordWriter for search results
      * */
     protected static class SearchResultRecordWriter<K, V> extends RecordWriter<K, V> {
-        private static final String utf8 = "UTF-8";
         private DataOutputStream out;
 
         /**
@@ -30,6 +42,7 @@ public class SearchResultOutputFormat<K, V> extends FileOutputFormat<K, V> {
          * */
         public SearchResultRecordWriter(DataOutputStream out) throws IOException {
             this.out = out;
+            out.writeInt(MAGIC);
         }
 
         /**
@@ -49,18 +62,8 @@ public class SearchResultOutputFormat<K, V> extends FileOutputFormat<K, V> {
                     || !(value instanceof CandidatePriorityQueue)) {
                 return;
             }
-            IntWritable queryIDWritable = (IntWritable)key;
-            CandidatePriorityQueue candPriQueue = (CandidatePriorityQueue)value;
-            
-            int queryID = queryIDWritable.get();
-            String str = queryID + " " + candPriQueue.size() + "\n";
-            try {
-                out.write(str.toString().getBytes(utf8));
-                out.write(value.toString().getBytes(utf8));
-            } catch (UnsupportedEncodingException e) {
-                e.printStackTrace();
-                LSHTool.printAndExit("Encoding UTF-8 is unsupported");
-            }
+            out.writeInt(((IntWritable)key).get());
+            ((CandidatePriorityQueue)value).write(out);
         }
     }
 
@@ -73,6 +76,7 @@ public class SearchResultOutputFormat<K, V> extends FileOutputFormat<K, V> {
         Path filePath = getDefaultWorkFile(job, "");
         FileSystem fs = filePath.getFileSystem(conf);
         FSDataOutputStream fileOut = fs.create(filePath, false);
-        return new SearchResultRecordWriter<K, V>(fileOut);
+        return new SearchResultRecordWriter<K, V>(new DataOutputStream(
+                new BufferedOutputStream(fileOut, BUFFER_SIZE)));
     }
 }
@@ -11,10 +11,12 @@ import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.Job;
-import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 
 import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.SideFiles;
+import cn.edu.sysu.distributedLSH.common.VectorEncoding;
+import cn.edu.sysu.distributedLSH.common.VectorInputFormat;
 
 
 public class Statistician extends Configured {
@@ -23,7 +25,6 @@ public class Statistician extends Configured {
     
     private int ratio;
     private String baseDir;
-    private String dataSetFileName;
     
     
     /**
@@ -39,7 +40,6 @@ public class Statistician extends Configured {
         }
 
         baseDir = conf.get("baseDir");
-        dataSetFileName = conf.get("dataSetFileName");
     }
     
     /**
@@ -72,15 +72,16 @@ public class Statistician extends Configured {
      * */
     private boolean getStatistics() throws  IOException, InterruptedException, ClassNotFoundException {
         // Everything in the baseDir including statistics file, built LSHs and hash tables
-        // will be deleted.
-        fs.delete(new Path(baseDir), true);
-
-        Path inputPath = new Path(dataSetFileName);
-        if (!fs.exists(inputPath)) {
-            LSHTool.printAndExit("Input data set dose not exist");
-        }
-        if (!fs.isFile(inputPath)) {
-            LSHTool.printAndExit("Input data set should be a file");
+        // will be deleted. The builds set baseDir to a new snapshot, thus the
+        // published snapshots are kept. See Snapshots. The entries beginning
+        // with "_", e.g. the marker of the snapshot being built, are kept.
+        Path basePath = new Path(baseDir);
+        if (fs.exists(basePath)) {
+            for (FileStatus status : fs.listStatus(basePath)) {
+                if (!status.getPath().getName().startsWith("_")) {
+                    fs.delete(status.getPath(), true);
+                }
+            }
         }
 
         Job job = new Job(conf, "pdlsh Statistician " + conf.get("dataset"));
@@ -89,16 +90,23 @@ public class Statistician extends Configured {
         // We do not need reduce here.
         job.setNumReduceTasks(0);
 
-        job.setInputFormatClass(TextInputFormat.class);
+        // The mappers write their statistics files as side files, thus
+        // speculative execution is safe. See SideFiles.
 
-        // TODO
-        job.setSpeculativeExecution(false);
-
-        TextInputFormat.addInputPath(job, inputPath);
-        String outFile = baseDir + "/statisticsOutput";
-        FileOutputFormat.setOutputPath(job, new Path(outFile));
+        // the text data set or the binary one, depending on dataSetFormat
+        VectorInputFormat.setDataSetInput(job, fs);
+        // The output goes to a scratch directory, which a fork skips. See
+        // Snapshots.
+        String outFile = baseDir + "/_build/statisticsOutput";
+        Path outPath = new Path(outFile);
+        fs.delete(outPath, true);
+        FileOutputFormat.setOutputPath(job, outPath);
 
-        return job.waitForCompletion(true);
+        boolean flag = job.waitForCompletion(true);
+        if (flag) {
+            SideFiles.promote(fs, outPath, baseDir);
+        }
+        return flag;
     }
     
     /**
@@ -107,41 +115,111 @@ public class Statistician extends Configured {
      * @throws IOException 
      * */
     private void collect() throws IOException {
-        // variables to be put in the final statistics file
+        int[] stat = mergeSplitStatistics(fs, new Path(baseDir + "/stat"));
+        int dimension = stat[0];
+        int maxCoordinate = stat[1];
+        int minCoordinate = stat[2];
+        // the number of radii on which we construct LSHs
+        int nRadii = calcRadiiNum(dimension, maxCoordinate, ratio);
+        
+        if (dimension < 1 || maxCoordinate < 1 || nRadii < 1) {
+            LSHTool.printAndExit("statistics error");
+        }
+        
+        System.out.printf("dim: %d\n", dimension);
+        System.out.printf("t: %d\n", maxCoordinate);
+        System.out.printf("coordinate width: %d bytes\n",
+                VectorEncoding.choose(minCoordinate, maxCoordinate));
+        System.out.printf("nRadii: %d\n", nRadii);
+        
+        saveStatistics(fs, baseDir, new int[] {dimension, maxCoordinate, nRadii, minCoordinate});
+    }
+
+    /**
+     * Merge the statistics files generated by the mappers in a directory. A
+     * split without any data point is skipped.
+     * @param fs
+     * @param statPath the directory of the statistics files
+     * @return {dimension, maxCoordinate, minCoordinate}, where dimension is
+     *  -1 if there is no data point
+     * */
+    public static int[] mergeSplitStatistics(final FileSystem fs, final Path statPath)
+            throws IOException {
         int dimension = -1;
         int maxCoordinate = -1;
-        int nRadii = -1;    // the number of radii on which we construct LSHs
+        int minCoordinate = Integer.MAX_VALUE;
 
-        Path statPath =  new Path(baseDir + "/stat");
         FileStatus[] fileStatus = fs.listStatus(statPath);
         int coordinate;
+        int minimum;
 
         for (int i = 0; i < fileStatus.length; i++) {
             FSDataInputStream in = fs.open(fileStatus[i].getPath());
             try {
-                dimension = in.readInt();
+                int dim = in.readInt();
                 coordinate = in.readInt();
+                minimum = in.readInt();
+                if (coordinate < 0) {
+                    // the split has no data point
+                    continue;
+                }
+                dimension = dim;
                 if (coordinate > maxCoordinate) {
                     maxCoordinate = coordinate;
                 }
+                if (minimum < minCoordinate) {
+                    minCoordinate = minimum;
+                }
             } finally {
                 in.close();
             }
         }
-        
-        // ratio ^ (nRadii - 1) >= sqrt(dimension) * maxCoordinate
+        return new int[] {dimension, maxCoordinate, minCoordinate};
+    }
+
+    /**
+     * Calculate the number of radii, so that the largest radius covers the
+     * whole data space.
+     * ratio ^ (nRadii - 1) >= sqrt(dimension) * maxCoordinate
+     * */
+    public static int calcRadiiNum(final int dimension, final int maxCoordinate, final int ratio) {
         double maxDistance = Math.sqrt(dimension) * maxCoordinate;
-        nRadii = 1 + (int)Math.floor(Math.log(maxDistance) / Math.log(ratio));
-        
-        if (dimension < 1 || maxCoordinate < 1 || nRadii < 1) {
-            LSHTool.printAndExit("statistics error");
+        return 1 + (int)Math.floor(Math.log(maxDistance) / Math.log(ratio));
+    }
+
+    /**
+     * Read the final statistics file.
+     * @param fs
+     * @param baseDir
+     * @return {dimension, maxCoordinate, nRadii, minCoordinate}
+     * */
+    public static int[] readStatistics(final FileSystem fs, final String baseDir)
+            throws IOException {
+        Path statPath = new Path(baseDir + "/stat/final.stat");
+        if (!fs.isFile(statPath)) {
+            LSHTool.printAndExit("statistics file does not exist");
         }
-        
-        System.out.printf("dim: %d\n", dimension);
-        System.out.printf("t: %d\n", maxCoordinate);
-        System.out.printf("nRadii: %d\n", nRadii);
-        
-        // output the final statistics file
+
+        int[] stat = new int[4];
+        FSDataInputStream in = fs.open(statPath);
+        try {
+            for (int i = 0; i < stat.length; i++) {
+                stat[i] = in.readInt();
+            }
+        } finally {
+            in.close();
+        }
+        return stat;
+    }
+
+    /**
+     * Output the final statistics file.
+     * @param fs
+     * @param baseDir
+     * @param stat {dimension, maxCoordinate, nRadii, minCoordinate}
+     * */
+    public static void saveStatistics(final FileSystem fs, final String baseDir,
+            final int[] stat) throws IOException {
         String outFile = baseDir + "/stat/final.stat";
         Path outPath = new Path(outFile);
 
@@ -149,9 +227,11 @@ public class Statistician extends Configured {
         
         FSDataOutputStream out = fs.create(outPath);
         try {
-            out.writeInt(dimension);
-            out.writeInt(maxCoordinate);
-            out.writeInt(nRadii);
+            out.writeInt(stat[0]);
+            out.writeInt(stat[1]);
+            out.writeInt(stat[2]);
+            // appended at the end so that the old readers are not affected
+            out.writeInt(stat[3]);
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
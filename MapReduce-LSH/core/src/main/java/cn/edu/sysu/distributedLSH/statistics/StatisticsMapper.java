@@ -2,28 +2,33 @@ package cn.edu.sysu.distributedLSH.statistics;
 
 import java.io.IOException;
 import java.lang.Math;
-import java.util.Scanner;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Mapper;
 
+import cn.edu.sysu.distributedLSH.common.SideFiles;
+import cn.edu.sysu.distributedLSH.common.VectorParser;
+import cn.edu.sysu.distributedLSH.common.VectorWritable;
 
-public class StatisticsMapper extends Mapper<Object, Text, Object, Object> {
+
+public class StatisticsMapper extends Mapper<Object, Writable, Object, Object> {
     private Configuration conf;
     private FileSystem fs;
-
-    private String baseDir;
     
     private int dimension;
     private boolean flag = true;
     private int[] point = null;
+    private VectorParser parser = new VectorParser();
 
     // the maximum absolute value of coordinate in the split of the data set
     private int maxCoordinate = -1;
+    // the minimum coordinate in the split of the data set
+    private int minCoordinate = Integer.MAX_VALUE;
 
 
     /**
@@ -38,64 +43,66 @@ public class StatisticsMapper extends Mapper<Object, Text, Object, Object> {
         } catch (IOException e) {
             e.printStackTrace();
         }
-        baseDir = conf.get("baseDir");
     }
 
     /**
      * map.
      * @param key dummy
-     * @param value contains the data point
+     * @param value contains the data point, which is Text for the text data
+     *  set or VectorWritable for the binary data set
      * @param context
      * */
     @Override
-    protected void map(final Object key, final Text value, final Context context)
+    protected void map(final Object key, final Writable value, final Context context)
             throws IOException, InterruptedException {
-        Scanner scanner = null;
-        int curAbs;
-        
-        if (flag) {
-            // The following code will be processed only once by a mapper.
-            dimension = getDimension(value.toString());
-            point = new int[dimension];
-            flag = false;
+        if (value instanceof VectorWritable) {
+            VectorWritable vector = (VectorWritable)value;
+            if (flag) {
+                // The following code will be processed only once by a mapper.
+                dimension = vector.getDim();
+                point = new int[dimension];
+                flag = false;
+            }
+            System.arraycopy(vector.getPoint(), 0, point, 0, dimension);
+        } else {
+            Text line = (Text)value;
+            try {
+                if (flag) {
+                    // The following code will be processed only once by a mapper.
+                    dimension = this.getDimension(line);
+                    point = new int[dimension];
+                    flag = false;
+                }
+                parser.parse(line, point, dimension);
+            } catch (NumberFormatException e) {
+                // skip the malformed line
+                System.err.println(e.getMessage());
+                context.getCounter(VectorParser.COUNTER_GROUP, VectorParser.MALFORMED_LINES).increment(1);
+                return;
+            }
         }
 
-        try {
-            scanner = new Scanner(value.toString());
-            // skip the line number
-            scanner.nextInt();
-            for (int i = 0; i < dimension; i++) {
-                point[i] = scanner.nextInt();
-                curAbs = Math.abs(point[i]);
-                if (curAbs > maxCoordinate) {
-                    maxCoordinate = curAbs;
-                }
+        int curAbs;
+        for (int i = 0; i < dimension; i++) {
+            curAbs = Math.abs(point[i]);
+            if (curAbs > maxCoordinate) {
+                maxCoordinate = curAbs;
+            }
+            if (point[i] < minCoordinate) {
+                minCoordinate = point[i];
             }
-        } catch (ArrayIndexOutOfBoundsException e) {
-            e.printStackTrace();
-        } finally {
-            scanner.close();
         }
     }
-    
+
     /**
      * Get the dimension of the given data point.
      * @param dataPoint
      * */
-    private int getDimension(final String dataPoint) {
-        Scanner scanner = null;
-        int dim = 0;
-
-        scanner = new Scanner(dataPoint.toString());
+    private int getDimension(final Text dataPoint) {
+        parser.reset(dataPoint);
         // skip the line number
-        scanner.nextInt();
-        while (scanner.hasNext()) {
-            scanner.nextInt();
-            dim++;
-        }
-        scanner.close();
-
-        return dim;
+        parser.nextInt();
+        return parser.count();
     }
     
     /**
@@ -104,15 +111,17 @@ public class StatisticsMapper extends Mapper<Object, Text, Object, Object> {
      * */
     @Override
     protected void cleanup(final Context context) throws IOException, InterruptedException {
-        String statFile = baseDir + "/stat/split_" + context.getInputSplit().toString().hashCode();
+        // The statistics file is promoted to baseDir/stat by Statistician
+        // once the job succeeds.
+        String statFile = SideFiles.getWorkDir(context) + "/stat/split_"
+                + context.getInputSplit().toString().hashCode();
         Path statPath = new Path(statFile);
 
-        fs.delete(statPath, false);
-        
         FSDataOutputStream out = fs.create(statPath);
         try {
             out.writeInt(dimension);
             out.writeInt(maxCoordinate);
+            out.writeInt(minCoordinate);
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
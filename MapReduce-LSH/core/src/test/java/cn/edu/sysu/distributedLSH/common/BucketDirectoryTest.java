@@ -0,0 +1,206 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.PositionedReadable;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+
+/**
+ * Unit tests for the layout of BucketDirectory.
+ * */
+public class BucketDirectoryTest extends TestCase {
+    // where the section is supposed to start in the index file
+    private static final long SECTION_OFFSET = 100;
+
+    private DataOutputBuffer out;
+    private SectionFile file;
+    private BucketDirectory bucketDir;
+
+
+    /**
+     * The written section as a file, which counts the positional reads.
+     * */
+    private class SectionFile implements PositionedReadable {
+        private int reads = 0;
+
+        public int read(final long position, final byte[] buffer, final int offset,
+                final int length) throws IOException {
+            int n = Math.min(length, out.getLength() - (int)(position - SECTION_OFFSET));
+            this.readFully(position, buffer, offset, n);
+            return n;
+        }
+
+        public void readFully(final long position, final byte[] buffer, final int offset,
+                final int length) throws IOException {
+            assertTrue(position >= SECTION_OFFSET);
+            assertTrue(position - SECTION_OFFSET + length <= out.getLength());
+            reads++;
+            System.arraycopy(out.getData(), (int)(position - SECTION_OFFSET), buffer, offset,
+                    length);
+        }
+
+        public void readFully(final long position, final byte[] buffer) throws IOException {
+            this.readFully(position, buffer, 0, buffer.length);
+        }
+    }
+
+    /**
+     * Write a table with the buckets {bucketID, index...} and read its
+     * directory back.
+     * */
+    private void writeAndRead(final int[][] buckets) throws IOException {
+        BucketTable table = new BucketTable();
+        for (int i = 0; i < buckets.length; i++) {
+            for (int j = 1; j < buckets[i].length; j++) {
+                table.add(buckets[i][0], buckets[i][j]);
+            }
+        }
+        out = new DataOutputBuffer();
+        BucketDirectory.write(out, table);
+
+        file = new SectionFile();
+        bucketDir = new BucketDirectory();
+        bucketDir.read(file, SECTION_OFFSET);
+    }
+
+    /**
+     * Write a table of n buckets, where bucket 2i holds the index i.
+     * */
+    private void writeAndRead(final int n) throws IOException {
+        int[][] buckets = new int[n][];
+        for (int i = 0; i < n; i++) {
+            buckets[i] = new int[] {2 * i, i};
+        }
+        this.writeAndRead(buckets);
+    }
+
+    /**
+     * Read the postings of the bucket at pos from the written bytes.
+     * */
+    private int[] readPostings(final int pos) {
+        int size = bucketDir.getBucketSize(pos);
+        int offset = (int)(bucketDir.getBucketOffset(pos) - SECTION_OFFSET);
+        int[] postings = new int[size];
+        for (int i = 0; i < size; i++, offset += 4) {
+            postings[i] = VectorEncoding.decodeInt(out.getData(), offset);
+        }
+        Arrays.sort(postings);
+        return postings;
+    }
+
+    /**
+     * The buckets are sorted by ID, including negative IDs, and each one
+     * points to its own postings.
+     * */
+    public void testLayout() throws IOException {
+        writeAndRead(new int[][] {{40, 3}, {-5, 0, 1}, {7, 2, 4, 5}, {Integer.MIN_VALUE, 6}});
+
+        assertEquals(4, bucketDir.size());
+        assertEquals(0, bucketDir.find(Integer.MIN_VALUE));
+        assertEquals(1, bucketDir.find(-5));
+        assertEquals(2, bucketDir.find(7));
+        assertEquals(3, bucketDir.find(40));
+        assertEquals(-1, bucketDir.find(0));
+        assertEquals(-1, bucketDir.find(41));
+        assertEquals(40, bucketDir.getKey(3));
+
+        assertTrue(Arrays.equals(new int[] {6}, readPostings(0)));
+        assertTrue(Arrays.equals(new int[] {0, 1}, readPostings(1)));
+        assertTrue(Arrays.equals(new int[] {2, 4, 5}, readPostings(2)));
+        assertTrue(Arrays.equals(new int[] {3}, readPostings(3)));
+
+        // nBuckets, the sparse index, a block of keys and starts, then 7
+        // postings
+        assertEquals(4 * (1 + 1 + 4 + 5 + 7), out.getLength());
+        // the postings are contiguous, bucket by bucket
+        for (int i = 0; i + 1 < bucketDir.size(); i++) {
+            assertEquals(bucketDir.getBucketOffset(i) + 4L * bucketDir.getBucketSize(i),
+                    bucketDir.getBucketOffset(i + 1));
+        }
+        assertEquals(SECTION_OFFSET + out.getLength(),
+                bucketDir.getBucketOffset(3) + 4L * bucketDir.getBucketSize(3));
+    }
+
+    /**
+     * An empty table has an empty directory.
+     * */
+    public void testEmpty() throws IOException {
+        writeAndRead(new int[0][]);
+        assertEquals(0, bucketDir.size());
+        assertEquals(-1, bucketDir.find(0));
+        assertTrue(Arrays.equals(new int[] {-1}, bucketDir.find(new int[] {0})));
+        bucketDir.readAll();
+        assertEquals(4, out.getLength());
+    }
+
+    /**
+     * Only the sparse index is read when the directory is opened, and only
+     * the blocks of the buckets found afterwards.
+     * */
+    public void testBlocks() throws IOException {
+        // three blocks, the last one is not full
+        writeAndRead(2 * BucketDirectory.BLOCK_SIZE + 44);
+        assertEquals(2, file.reads);
+        assertEquals(300, bucketDir.size());
+
+        // a bucket before the first one needs no block
+        assertEquals(-1, bucketDir.find(-1));
+        assertEquals(2, file.reads);
+        // a missing bucket in a block, then the block is cached
+        assertEquals(-1, bucketDir.find(401));
+        assertEquals(3, file.reads);
+        assertEquals(200, bucketDir.find(400));
+        assertEquals(130, bucketDir.find(260));
+        assertEquals(3, file.reads);
+        assertTrue(Arrays.equals(new int[] {130}, readPostings(130)));
+
+        // the two missing blocks are close, thus they are read at once
+        int[] positions = bucketDir.find(new int[] {598, 0, 256, 599, -3});
+        assertTrue(Arrays.equals(new int[] {299, 0, 128, -1, -1}, positions));
+        assertEquals(4, file.reads);
+        assertTrue(Arrays.equals(new int[] {299}, readPostings(299)));
+        assertEquals(598, bucketDir.getKey(299));
+
+        // the postings follow the last block
+        for (int i = 0; i + 1 < bucketDir.size(); i++) {
+            assertEquals(bucketDir.getBucketOffset(i) + 4, bucketDir.getBucketOffset(i + 1));
+        }
+        assertEquals(SECTION_OFFSET + out.getLength() - 4 * 300, bucketDir.getBucketOffset(0));
+    }
+
+    /**
+     * Blocks which are far from each other are read apart, and readAll reads
+     * the whole directory at once.
+     * */
+    public void testFarBlocks() throws IOException {
+        writeAndRead(20000);
+        int reads = file.reads;
+        int[] positions = bucketDir.find(new int[] {2 * 19999, 0});
+        assertTrue(Arrays.equals(new int[] {19999, 0}, positions));
+        assertEquals(reads + 2, file.reads);
+
+        writeAndRead(20000);
+        reads = file.reads;
+        bucketDir.readAll();
+        assertEquals(reads + 1, file.reads);
+        for (int i = 0; i < 20000; i += 97) {
+            assertEquals(2 * i, bucketDir.getKey(i));
+            assertEquals(1, bucketDir.getBucketSize(i));
+        }
+        assertEquals(12345, bucketDir.find(2 * 12345));
+        assertEquals(reads + 1, file.reads);
+
+        // readBlocksOf reads only the blocks which are missing
+        writeAndRead(20000);
+        reads = file.reads;
+        bucketDir.find(0);
+        bucketDir.readBlocksOf(new int[] {1, 2, BucketDirectory.BLOCK_SIZE});
+        assertEquals(reads + 2, file.reads);
+        assertTrue(Arrays.equals(new int[] {BucketDirectory.BLOCK_SIZE},
+                readPostings(BucketDirectory.BLOCK_SIZE)));
+    }
+}
@@ -0,0 +1,78 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+
+/**
+ * Unit tests for DeletionBitmap.
+ * */
+public class DeletionBitmapTest extends TestCase {
+
+    /**
+     * set marks a row once, and get tells which rows are marked.
+     * */
+    public void testSet() {
+        DeletionBitmap bitmap = new DeletionBitmap(130);
+        assertTrue(bitmap.set(0));
+        assertTrue(bitmap.set(63));
+        assertTrue(bitmap.set(64));
+        assertTrue(bitmap.set(129));
+        assertFalse(bitmap.set(63));
+        assertEquals(4, bitmap.getCount());
+
+        assertTrue(bitmap.get(0));
+        assertTrue(bitmap.get(63));
+        assertTrue(bitmap.get(64));
+        assertTrue(bitmap.get(129));
+        assertFalse(bitmap.get(1));
+        assertFalse(bitmap.get(128));
+    }
+
+    /**
+     * A row beyond the bitmap is not deleted, and resize keeps the marks.
+     * */
+    public void testResize() {
+        DeletionBitmap bitmap = new DeletionBitmap(10);
+        bitmap.set(9);
+        assertFalse(bitmap.get(10));
+        assertFalse(bitmap.get(1000));
+
+        bitmap.resize(1000);
+        assertEquals(1000, bitmap.getSize());
+        assertTrue(bitmap.get(9));
+        assertFalse(bitmap.get(999));
+        assertTrue(bitmap.set(999));
+        assertEquals(2, bitmap.getCount());
+
+        // a bitmap never shrinks
+        bitmap.resize(5);
+        assertEquals(1000, bitmap.getSize());
+    }
+
+    /**
+     * A bitmap survives serialization.
+     * */
+    public void testWritable() throws IOException {
+        DeletionBitmap bitmap = new DeletionBitmap(200);
+        for (int row = 0; row < 200; row += 7) {
+            bitmap.set(row);
+        }
+        DataOutputBuffer out = new DataOutputBuffer();
+        bitmap.write(out);
+
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(out.getData(), out.getLength());
+        DeletionBitmap copy = new DeletionBitmap();
+        copy.readFields(in);
+        assertEquals(bitmap.getSize(), copy.getSize());
+        assertEquals(bitmap.getCount(), copy.getCount());
+        for (int row = 0; row < 200; row++) {
+            assertEquals(bitmap.get(row), copy.get(row));
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+
+
+/**
+ * Round-trip tests for the layout of PartitionIndex.
+ * */
+public class PartitionIndexTest extends TestCase {
+    private static final int MAGIC = 0x4c534849;
+    private static final int DIM = 4;
+
+    private FileSystem fs;
+    private String partDir;
+
+
+    /**
+     * A file system which counts the positional reads of the opened files.
+     * */
+    private static class CountingFileSystem extends FilterFileSystem {
+        private int reads = 0;
+
+        CountingFileSystem(final FileSystem fs) {
+            super(fs);
+        }
+
+        @Override
+        public FSDataInputStream open(final Path f, final int bufferSize) throws IOException {
+            return new FSDataInputStream(new CountingStream(fs.open(f, bufferSize)));
+        }
+
+        /**
+         * A stream which delegates everything and counts readFully.
+         * */
+        private class CountingStream extends FSInputStream {
+            private FSDataInputStream in;
+
+            CountingStream(final FSDataInputStream in) {
+                this.in = in;
+            }
+
+            @Override
+            public void seek(final long pos) throws IOException {
+                in.seek(pos);
+            }
+
+            @Override
+            public long getPos() throws IOException {
+                return in.getPos();
+            }
+
+            @Override
+            public boolean seekToNewSource(final long targetPos) throws IOException {
+                return in.seekToNewSource(targetPos);
+            }
+
+            @Override
+            public int read() throws IOException {
+                return in.read();
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                return in.read(b, off, len);
+            }
+
+            @Override
+            public void readFully(final long position, final byte[] buffer, final int offset,
+                    final int length) throws IOException {
+                reads++;
+                in.readFully(position, buffer, offset, length);
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        }
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        fs = FileSystem.getLocal(new Configuration());
+        partDir = new File(System.getProperty("java.io.tmpdir"),
+                "PartitionIndexTest-" + System.nanoTime()).getPath();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        fs.delete(new Path(partDir), true);
+    }
+
+    /**
+     * Build a hash table whose buckets are given as {bucketID, index...}.
+     * */
+    private static HashTable createTable(final int radiusID, final int tableID,
+            final int[][] buckets) {
+        HashTable table = new HashTable(radiusID, tableID);
+        for (int i = 0; i < buckets.length; i++) {
+            for (int j = 1; j < buckets[i].length; j++) {
+                table.add(buckets[i][0], buckets[i][j]);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Get the indexes of a bucket in ascending order.
+     * */
+    private static int[] toArray(final SimpleList list) {
+        int[] a = new int[list.size()];
+        list.setCursorToHead();
+        for (int i = 0; list.hasNext(); i++) {
+            a[i] = list.next();
+        }
+        Arrays.sort(a);
+        return a;
+    }
+
+    /**
+     * Assert that a table of the index has the same buckets as expected. The
+     * buckets are found by their IDs, which are sorted in the directory.
+     * */
+    private static void assertTable(final PartitionIndex index, final HashTable expected)
+            throws IOException {
+        BucketDirectory bucketDir = index.readBucketDirectory(expected.getRadiusID(),
+                expected.getTableID());
+        Map<Integer, SimpleList> buckets = expected.get();
+        assertEquals(buckets.size(), bucketDir.size());
+
+        int[] keys = new int[buckets.size()];
+        int k = 0;
+        for (Integer bucketID : buckets.keySet()) {
+            keys[k++] = bucketID;
+        }
+        Arrays.sort(keys);
+        int[] positions = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            positions[i] = bucketDir.find(keys[i]);
+            assertEquals(i, positions[i]);
+        }
+        assertEquals(-1, bucketDir.find(12345));
+
+        int[][] postings = index.readBuckets(bucketDir, positions);
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(bucketDir.getBucketSize(i), postings[i].length);
+            Arrays.sort(postings[i]);
+            assertTrue(Arrays.equals(toArray(buckets.get(keys[i])), postings[i]));
+        }
+    }
+
+    /**
+     * Assert that the data set of the index has the rows in the width.
+     * */
+    private static void assertDataSet(final PartitionIndex index, final int[][] rows,
+            final int width) throws IOException {
+        TwoDArray points = new TwoDArray();
+        index.readDataSet(points);
+        assertEquals(rows.length, points.getRow());
+        assertEquals(DIM, points.getCol());
+        assertEquals(width, points.getWidth());
+        int[] point = new int[DIM];
+        for (int i = 0; i < rows.length; i++) {
+            points.getRow(i, point);
+            assertTrue(Arrays.equals(rows[i], point));
+        }
+    }
+
+    /**
+     * Write a small index with every kind of section.
+     * */
+    private void writeIndex(final LSH lsh, final TwoDArray dataPoints,
+            final HashTable[] tables) throws IOException {
+        PartitionIndex index = PartitionIndex.create(partDir, fs);
+        try {
+            index.writeLsh(lsh);
+            index.writeDataSet(dataPoints);
+            for (int i = 0; i < tables.length; i++) {
+                index.writeTable(tables[i]);
+                index.writeFilter(tables[i].getRadiusID(), tables[i].getTableID(),
+                        tables[i].createFilter());
+            }
+        } finally {
+            index.close();
+        }
+    }
+
+    /**
+     * Every section is read back, in any order.
+     * */
+    public void testRoundTrip() throws IOException {
+        LSH lsh = new LSH(DIM);
+        lsh.calcParameters(255, 100, 2);
+        int[][] rows = {{0, 1, 2, 3}, {10, 11, 12, 13}, {255, 0, 255, 0}};
+        TwoDArray dataPoints = new TwoDArray(3, DIM, VectorEncoding.UINT8);
+        for (int i = 0; i < 3; i++) {
+            dataPoints.set(i, rows[i]);
+        }
+        HashTable[] tables = {
+            createTable(0, 0, new int[][] {{5, 0, 1}, {-7, 2}}),
+            createTable(1, 3, new int[][] {{Integer.MAX_VALUE, 0, 1, 2}}),
+        };
+        writeIndex(lsh, dataPoints, tables);
+
+        PartitionIndex index = PartitionIndex.open(partDir, fs);
+        try {
+            for (int i = tables.length - 1; i >= 0; i--) {
+                assertTable(index, tables[i]);
+
+                BucketFilter filter = new BucketFilter();
+                index.readFilter(tables[i].getRadiusID(), tables[i].getTableID(), filter);
+                for (Integer bucketID : tables[i].get().keySet()) {
+                    assertTrue(filter.mightContain(bucketID));
+                }
+            }
+
+            assertDataSet(index, rows, VectorEncoding.UINT8);
+
+            LSH copy = new LSH(DIM);
+            index.readLsh(copy);
+            assertEquals(lsh.getHashTableSize(), copy.getHashTableSize());
+            for (int t = 0; t < lsh.getHashTableSize(); t++) {
+                for (int i = 0; i < 3; i++) {
+                    assertEquals(lsh.calcHashValue(t, 2, rows[i]),
+                            copy.calcHashValue(t, 2, rows[i]));
+                }
+            }
+        } finally {
+            index.close();
+        }
+    }
+
+    /**
+     * The data set keeps its width, and negative coordinates survive.
+     * */
+    public void testDataSetWidth() throws IOException {
+        int[][] rows = {{-300, 0, 300, 7}, {32767, -32768, 1, -1}};
+        TwoDArray dataPoints = new TwoDArray(2, DIM, VectorEncoding.INT16);
+        for (int i = 0; i < rows.length; i++) {
+            dataPoints.set(i, rows[i]);
+        }
+        LSH lsh = new LSH(DIM);
+        lsh.calcParameters(255, 100, 2);
+        writeIndex(lsh, dataPoints, new HashTable[0]);
+
+        PartitionIndex index = PartitionIndex.open(partDir, fs);
+        try {
+            assertDataSet(index, rows, VectorEncoding.INT16);
+        } finally {
+            index.close();
+        }
+    }
+
+    /**
+     * The file starts with the header and ends with the footer, which points
+     * to the directory of all the sections.
+     * */
+    public void testHeaderAndFooter() throws IOException {
+        LSH lsh = new LSH(DIM);
+        lsh.calcParameters(255, 100, 2);
+        HashTable[] tables = {createTable(0, 0, new int[][] {{1, 0}})};
+        writeIndex(lsh, new TwoDArray(1, DIM, VectorEncoding.UINT8), tables);
+
+        RandomAccessFile file = new RandomAccessFile(partDir + "/" + PartitionIndex.FILE_NAME,
+                "r");
+        try {
+            assertEquals(MAGIC, file.readInt());
+            assertEquals(2, file.readInt());
+
+            long length = file.length();
+            file.seek(length - 12);
+            long dirOffset = file.readLong();
+            assertEquals(MAGIC, file.readInt());
+            assertTrue(dirOffset > 8 && dirOffset < length - 12);
+
+            // LSH, data set, one table and its filter
+            file.seek(dirOffset);
+            int sections = file.readInt();
+            assertEquals(4, sections);
+            // each entry is (type, radiusID, tableID, offset, length)
+            assertEquals(length - 12, dirOffset + 4 + sections * 28L);
+            long end = 8;
+            for (int i = 0; i < sections; i++) {
+                file.skipBytes(12);
+                long offset = file.readLong();
+                long sectionLength = file.readLong();
+                // the sections are contiguous in the order they are written
+                assertEquals(end, offset);
+                end = offset + sectionLength;
+            }
+            assertEquals(dirOffset, end);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Buckets whose gap is small are fetched by one positional read, and a
+     * large gap splits the reads.
+     * */
+    public void testReadBucketsCoalesces() throws IOException {
+        // bucket 1 has 20000 postings, that is a gap of 80000 bytes
+        int[] big = new int[20001];
+        big[0] = 1;
+        for (int i = 1; i < big.length; i++) {
+            big[i] = i;
+        }
+        HashTable[] tables = {createTable(0, 0, new int[][] {{0, 7}, big, {2, 8}, {3, 9}})};
+        LSH lsh = new LSH(DIM);
+        lsh.calcParameters(255, 100, 2);
+        writeIndex(lsh, new TwoDArray(1, DIM, VectorEncoding.UINT8), tables);
+
+        CountingFileSystem countingFs = new CountingFileSystem(fs);
+        PartitionIndex index = PartitionIndex.open(partDir, countingFs);
+        try {
+            BucketDirectory bucketDir = index.readBucketDirectory(0, 0);
+            assertEquals(4, bucketDir.size());
+
+            // the only directory block
+            int reads = countingFs.reads;
+            int[] positions = bucketDir.find(new int[] {0, 2, 3});
+            assertTrue(Arrays.equals(new int[] {0, 2, 3}, positions));
+            assertEquals(1, countingFs.reads - reads);
+
+            reads = countingFs.reads;
+            int[][] postings = index.readBuckets(bucketDir, positions);
+            assertEquals(2, countingFs.reads - reads);
+            assertTrue(Arrays.equals(new int[] {7}, postings[0]));
+            assertTrue(Arrays.equals(new int[] {8}, postings[1]));
+            assertTrue(Arrays.equals(new int[] {9}, postings[2]));
+
+            reads = countingFs.reads;
+            postings = index.readBuckets(bucketDir, new int[] {1, 2});
+            assertEquals(1, countingFs.reads - reads);
+            Arrays.sort(postings[0]);
+            assertEquals(20000, postings[0].length);
+            assertEquals(1, postings[0][0]);
+            assertEquals(20000, postings[0][19999]);
+            assertTrue(Arrays.equals(new int[] {8}, postings[1]));
+        } finally {
+            index.close();
+        }
+    }
+
+    /**
+     * Opening a large bucket directory reads its sparse index only, and a
+     * bucket costs a directory block and its postings.
+     * */
+    public void testSparseDirectory() throws IOException {
+        int[][] buckets = new int[5000][];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new int[] {3 * i, i};
+        }
+        HashTable[] tables = {createTable(0, 0, buckets)};
+        LSH lsh = new LSH(DIM);
+        lsh.calcParameters(255, 100, 2);
+        writeIndex(lsh, new TwoDArray(1, DIM, VectorEncoding.UINT8), tables);
+
+        CountingFileSystem countingFs = new CountingFileSystem(fs);
+        PartitionIndex index = PartitionIndex.open(partDir, countingFs);
+        try {
+            int reads = countingFs.reads;
+            BucketDirectory bucketDir = index.readBucketDirectory(0, 0);
+            // nBuckets and the sparse index
+            assertEquals(2, countingFs.reads - reads);
+            assertEquals(5000, bucketDir.size());
+
+            reads = countingFs.reads;
+            int pos = bucketDir.find(3 * 4321);
+            assertEquals(4321, pos);
+            assertEquals(-1, bucketDir.find(3 * 4321 + 1));
+            int[][] postings = index.readBuckets(bucketDir, new int[] {pos});
+            assertEquals(2, countingFs.reads - reads);
+            assertTrue(Arrays.equals(new int[] {4321}, postings[0]));
+        } finally {
+            index.close();
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+
+
+/**
+ * Unit tests for Snapshots.
+ * */
+public class SnapshotsTest extends TestCase {
+    private FileSystem fs;
+    private String baseDir;
+
+
+    @Override
+    protected void setUp() throws IOException {
+        fs = FileSystem.getLocal(new Configuration());
+        baseDir = new File(System.getProperty("java.io.tmpdir"),
+                "SnapshotsTest-" + System.nanoTime()).getPath();
+        fs.mkdirs(new Path(baseDir));
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        fs.delete(new Path(baseDir), true);
+    }
+
+    /**
+     * Make a snapshot look abandoned, as if its owner died STALE_MILLIS ago.
+     * */
+    private void abandon(final String snapshotDir) throws IOException {
+        int count = 0;
+        for (FileStatus status : fs.listStatus(new Path(snapshotDir))) {
+            if (status.getPath().getName().startsWith(Snapshots.BUILDING_NAME)) {
+                File file = new File(status.getPath().toUri().getPath());
+                assertTrue(file.setLastModified(System.currentTimeMillis()
+                        - Snapshots.STALE_MILLIS - 1000));
+                count++;
+            }
+        }
+        assertEquals(1, count);
+    }
+
+    /**
+     * Whether a snapshot is marked as being built.
+     * */
+    private boolean isMarked(final String snapshotDir) throws IOException {
+        for (FileStatus status : fs.listStatus(new Path(snapshotDir))) {
+            if (status.getPath().getName().startsWith(Snapshots.BUILDING_NAME)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * An index built before the snapshots is resolved to baseDir.
+     * */
+    public void testLegacy() throws IOException {
+        assertEquals(baseDir, Snapshots.resolve(fs, baseDir));
+        assertEquals(0, Snapshots.collect(fs, baseDir, 1));
+    }
+
+    /**
+     * A snapshot is searched only after it is published.
+     * */
+    public void testPublish() throws IOException {
+        String first = Snapshots.create(fs, baseDir);
+        assertEquals(baseDir + "/snapshot_1", first);
+        assertTrue(isMarked(first));
+        assertEquals(baseDir, Snapshots.resolve(fs, baseDir));
+        Snapshots.publish(fs, baseDir, first);
+        assertEquals(first, Snapshots.resolve(fs, baseDir));
+        assertFalse(isMarked(first));
+
+        String second = Snapshots.create(fs, baseDir);
+        assertEquals(baseDir + "/snapshot_2", second);
+        assertEquals(first, Snapshots.resolve(fs, baseDir));
+        Snapshots.publish(fs, baseDir, second);
+        assertEquals(second, Snapshots.resolve(fs, baseDir));
+        // a resolved snapshot is resolved to itself
+        assertEquals(second, Snapshots.resolve(fs, second));
+    }
+
+    /**
+     * A reader which comes between the deletion of CURRENT and the rename of
+     * the new pointer finds the new pointer.
+     * */
+    public void testResolveDuringPublish() throws IOException {
+        String dir = Snapshots.create(fs, baseDir);
+        Snapshots.publish(fs, baseDir, dir);
+        assertTrue(fs.rename(new Path(baseDir, Snapshots.CURRENT_NAME),
+                new Path(baseDir, "CURRENT.new")));
+        assertEquals(dir, Snapshots.resolve(fs, baseDir));
+    }
+
+    /**
+     * A reader which misses CURRENT, and then misses the new pointer since it
+     * has just been renamed to CURRENT, reads CURRENT again rather than
+     * taking the index as one built before the snapshots.
+     * */
+    public void testResolveAfterRename() throws IOException {
+        String dir = Snapshots.create(fs, baseDir);
+        Snapshots.publish(fs, baseDir, dir);
+
+        // CURRENT is missed by the first read only
+        FileSystem racyFs = new FilterFileSystem(fs) {
+            private boolean missed = false;
+
+            @Override
+            public FSDataInputStream open(final Path f) throws IOException {
+                if (!missed && f.getName().equals(Snapshots.CURRENT_NAME)) {
+                    missed = true;
+                    throw new FileNotFoundException(f.toString());
+                }
+                return super.open(f);
+            }
+        };
+        assertEquals(dir, Snapshots.resolve(racyFs, baseDir));
+    }
+
+    /**
+     * The old snapshots are deleted, but the current one and the retained
+     * ones before it are kept. A snapshot being built is kept until it is
+     * abandoned.
+     * */
+    public void testCollect() throws IOException {
+        String[] dirs = new String[4];
+        for (int i = 0; i < dirs.length; i++) {
+            dirs[i] = Snapshots.create(fs, baseDir);
+            if (i < 3) {
+                Snapshots.publish(fs, baseDir, dirs[i]);
+            }
+        }
+        assertEquals(1, Snapshots.collect(fs, baseDir, 2));
+        assertFalse(fs.exists(new Path(dirs[0])));
+        assertTrue(fs.exists(new Path(dirs[1])));
+        assertTrue(fs.exists(new Path(dirs[2])));
+        assertTrue(fs.exists(new Path(dirs[3])));
+        assertEquals(dirs[2], Snapshots.resolve(fs, baseDir));
+
+        abandon(dirs[3]);
+        assertEquals(1, Snapshots.collect(fs, baseDir, 2));
+        assertFalse(fs.exists(new Path(dirs[3])));
+
+        // the current snapshot is always kept
+        assertEquals(1, Snapshots.collect(fs, baseDir, 0));
+        assertTrue(fs.exists(new Path(dirs[2])));
+    }
+
+    /**
+     * A snapshot being built by another job is kept by create, while one
+     * abandoned by a job which died is deleted.
+     * */
+    public void testCreateReclaimsAbandoned() throws IOException {
+        String dir = Snapshots.create(fs, baseDir);
+        Snapshots.publish(fs, baseDir, dir);
+        String building = Snapshots.create(fs, baseDir);
+        fs.create(new Path(building, "part_0/part.index")).close();
+        String other = Snapshots.create(fs, baseDir);
+        assertEquals(baseDir + "/snapshot_3", other);
+        assertTrue(fs.exists(new Path(building, "part_0")));
+
+        abandon(building);
+        abandon(other);
+        // the number of the abandoned snapshot is taken again
+        assertEquals(building, Snapshots.create(fs, baseDir));
+        assertFalse(fs.exists(new Path(building, "part_0")));
+        assertFalse(fs.exists(new Path(other)));
+    }
+
+    /**
+     * A snapshot which has been reclaimed is never published.
+     * */
+    public void testPublishReclaimed() throws IOException {
+        String dir = Snapshots.create(fs, baseDir);
+        abandon(dir);
+        Snapshots.collect(fs, baseDir, 1);
+        assertFalse(fs.exists(new Path(dir)));
+        try {
+            Snapshots.publish(fs, baseDir, dir);
+            fail("a reclaimed snapshot is published");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(baseDir, Snapshots.resolve(fs, baseDir));
+    }
+
+    /**
+     * A publish which stopped before the marker was deleted is finished by
+     * collect, which never deletes the current snapshot.
+     * */
+    public void testMarkedCurrent() throws IOException {
+        String dir = Snapshots.create(fs, baseDir);
+        Snapshots.publish(fs, baseDir, dir);
+        fs.create(new Path(dir, Snapshots.BUILDING_NAME + ".0")).close();
+        abandon(dir);
+        assertEquals(0, Snapshots.collect(fs, baseDir, 1));
+        assertTrue(fs.exists(new Path(dir)));
+        assertFalse(isMarked(dir));
+    }
+
+    /**
+     * A fork shares the directories of the current snapshot and copies the
+     * statistics and the files, but not the scratch directories. A legacy
+     * index is forked from baseDir.
+     * */
+    public void testFork() throws IOException {
+        fs.create(new Path(baseDir, "part_0/part.index")).close();
+        fs.create(new Path(baseDir, "stat/part-r-00000")).close();
+        fs.create(new Path(baseDir, "deleted.bitmap")).close();
+        fs.mkdirs(new Path(baseDir, "_insert"));
+
+        String first = Snapshots.fork(fs, baseDir);
+        assertFalse(fs.exists(new Path(first, "part_0")));
+        assertEquals(baseDir + "/part_0", Snapshots.locate(fs, first, "part_0"));
+        assertTrue(fs.exists(new Path(first, "stat/part-r-00000")));
+        assertTrue(fs.exists(new Path(first, "deleted.bitmap")));
+        assertFalse(fs.exists(new Path(first, "_insert")));
+        Snapshots.publish(fs, baseDir, first);
+
+        fs.create(new Path(first, "part_1/part.index")).close();
+        String second = Snapshots.fork(fs, baseDir);
+        // the shared entries point to the snapshots which hold them
+        assertEquals(baseDir + "/part_0", Snapshots.locate(fs, second, "part_0"));
+        assertEquals(first + "/part_1", Snapshots.locate(fs, second, "part_1"));
+        assertEquals(second + "/stat", Snapshots.locate(fs, second, "stat"));
+        assertFalse(fs.exists(new Path(second, "part_1")));
+        assertFalse(fs.exists(new Path(second, "snapshot_1")));
+        assertFalse(fs.exists(new Path(second, Snapshots.CURRENT_NAME)));
+        // the fork is not searched until it is published
+        assertEquals(first, Snapshots.resolve(fs, baseDir));
+    }
+
+    /**
+     * An entry is copied into the fork before it is rewritten, thus the
+     * snapshot which holds it is not changed.
+     * */
+    public void testOwn() throws IOException {
+        String first = Snapshots.create(fs, baseDir);
+        fs.create(new Path(first, "part_0/part.index")).close();
+        fs.create(new Path(first, "part_1/part.index")).close();
+        Snapshots.publish(fs, baseDir, first);
+        String second = Snapshots.fork(fs, baseDir);
+
+        assertTrue(Snapshots.own(fs, second, "part_0"));
+        assertTrue(fs.exists(new Path(second, "part_0/part.index")));
+        assertEquals(second + "/part_0", Snapshots.locate(fs, second, "part_0"));
+        assertEquals(first + "/part_1", Snapshots.locate(fs, second, "part_1"));
+        assertFalse(Snapshots.own(fs, second, "part_0"));
+        assertFalse(Snapshots.own(fs, second, "part_9"));
+
+        // the side files of a job are promoted to a copy of the partition
+        Path outputDir = new Path(baseDir, "_output");
+        fs.create(new Path(outputDir, SideFiles.DIR_NAME + "/part_1/part.segments")).close();
+        assertEquals(1, SideFiles.promote(fs, outputDir, second));
+        assertTrue(fs.exists(new Path(second, "part_1/part.index")));
+        assertTrue(fs.exists(new Path(second, "part_1/part.segments")));
+        assertFalse(fs.exists(new Path(first, "part_1/part.segments")));
+        assertEquals(second + "/part_1", Snapshots.locate(fs, second, "part_1"));
+    }
+
+    /**
+     * An old snapshot which holds an entry of a kept one is kept too.
+     * */
+    public void testCollectKeepsOwners() throws IOException {
+        String first = Snapshots.create(fs, baseDir);
+        fs.create(new Path(first, "part_0/part.index")).close();
+        Snapshots.publish(fs, baseDir, first);
+        String second = Snapshots.fork(fs, baseDir);
+        Snapshots.publish(fs, baseDir, second);
+        String third = Snapshots.fork(fs, baseDir);
+        Snapshots.publish(fs, baseDir, third);
+
+        assertEquals(1, Snapshots.collect(fs, baseDir, 1));
+        assertTrue(fs.exists(new Path(first)));
+        assertFalse(fs.exists(new Path(second)));
+        assertEquals(first + "/part_0", Snapshots.locate(fs, third, "part_0"));
+        assertTrue(fs.exists(new Path(Snapshots.locate(fs, third, "part_0"), "part.index")));
+    }
+}
@@ -0,0 +1,142 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Unit tests for TopKHeap.
+ * */
+public class TopKHeapTest extends TestCase {
+
+    /**
+     * The heap keeps the k nearest entries and sorts them ascending.
+     * */
+    public void testKeepsNearest() {
+        TopKHeap heap = new TopKHeap(3);
+        double[] dists = {5.0, 1.0, 4.0, 2.0, 3.0, 0.5};
+        for (int i = 0; i < dists.length; i++) {
+            heap.offer(dists[i], i);
+        }
+        assertEquals(3, heap.size());
+        assertTrue(heap.isFull());
+        assertEquals(2.0, heap.worst(), 0.0);
+
+        heap.sort();
+        int[] expected = {5, 1, 3};
+        for (int i = 0; i < expected.length; i++) {
+            int slot = heap.getSlot(i);
+            assertEquals(expected[i], heap.getItem(slot));
+            assertEquals(dists[expected[i]], heap.getDist(slot), 0.0);
+        }
+    }
+
+    /**
+     * A full heap rejects an entry which is not nearer than the worst one,
+     * thus the entry offered first wins a tie.
+     * */
+    public void testTieKeepsFirst() {
+        TopKHeap heap = new TopKHeap(2);
+        assertTrue(heap.offer(1.0, 10) >= 0);
+        assertTrue(heap.offer(2.0, 11) >= 0);
+        assertEquals(-1, heap.offer(2.0, 12));
+        assertEquals(-1, heap.offer(3.0, 13));
+
+        heap.sort();
+        assertEquals(10, heap.getItem(heap.getSlot(0)));
+        assertEquals(11, heap.getItem(heap.getSlot(1)));
+    }
+
+    /**
+     * worst is infinite until the heap is full.
+     * */
+    public void testWorstOfPartialHeap() {
+        TopKHeap heap = new TopKHeap(2);
+        assertEquals(Double.POSITIVE_INFINITY, heap.worst(), 0.0);
+        heap.offer(1.0, 0);
+        assertEquals(Double.POSITIVE_INFINITY, heap.worst(), 0.0);
+        heap.offer(7.0, 1);
+        assertEquals(7.0, heap.worst(), 0.0);
+    }
+
+    /**
+     * Offering after sort turns the sorted array back into a heap.
+     * */
+    public void testOfferAfterSort() {
+        TopKHeap heap = new TopKHeap(3);
+        heap.offer(3.0, 3);
+        heap.offer(1.0, 1);
+        heap.offer(2.0, 2);
+        heap.sort();
+        assertEquals(3.0, heap.worst(), 0.0);
+
+        heap.offer(0.5, 0);
+        heap.sort();
+        assertEquals(0, heap.getItem(heap.getSlot(0)));
+        assertEquals(1, heap.getItem(heap.getSlot(1)));
+        assertEquals(2, heap.getItem(heap.getSlot(2)));
+    }
+
+    /**
+     * The data of an entry moves with it, and is overwritten in the slot of
+     * the entry it evicts.
+     * */
+    public void testData() {
+        TopKHeap heap = new TopKHeap(2, 2);
+        heap.offer(2.0, 0, new int[] {20, 21}, 0);
+        heap.offer(1.0, 1, new int[] {0, 10, 11}, 1);
+        heap.offer(0.5, 2, new int[] {5, 6}, 0);
+        assertEquals(-1, heap.offer(9.0, 3, new int[] {90, 91}, 0));
+
+        heap.sort();
+        int[] data = heap.getData();
+        int pos = heap.getDataPos(heap.getSlot(0));
+        assertEquals(5, data[pos]);
+        assertEquals(6, data[pos + 1]);
+        pos = heap.getDataPos(heap.getSlot(1));
+        assertEquals(10, data[pos]);
+        assertEquals(11, data[pos + 1]);
+    }
+
+    /**
+     * merge offers all the entries of the other heap.
+     * */
+    public void testMerge() {
+        TopKHeap a = new TopKHeap(3, 1);
+        TopKHeap b = new TopKHeap(3, 1);
+        a.offer(1.0, 1, new int[] {1}, 0);
+        a.offer(4.0, 4, new int[] {4}, 0);
+        b.offer(2.0, 2, new int[] {2}, 0);
+        b.offer(3.0, 3, new int[] {3}, 0);
+        b.offer(5.0, 5, new int[] {5}, 0);
+
+        a.merge(b);
+        a.sort();
+        assertEquals(3, a.size());
+        for (int i = 0; i < 3; i++) {
+            int slot = a.getSlot(i);
+            assertEquals(i + 1, a.getItem(slot));
+            assertEquals(i + 1, a.getData()[a.getDataPos(slot)]);
+        }
+    }
+
+    /**
+     * clear empties the heap, which is then reused.
+     * */
+    public void testClear() {
+        TopKHeap heap = new TopKHeap(2);
+        heap.offer(1.0, 1);
+        heap.offer(2.0, 2);
+        heap.sort();
+        heap.clear();
+        assertEquals(0, heap.size());
+        assertFalse(heap.isFull());
+        assertEquals(Double.POSITIVE_INFINITY, heap.worst(), 0.0);
+
+        heap.offer(9.0, 9);
+        heap.offer(8.0, 8);
+        heap.offer(7.0, 7);
+        heap.sort();
+        assertEquals(7, heap.getItem(heap.getSlot(0)));
+        assertEquals(8, heap.getItem(heap.getSlot(1)));
+    }
+}
@@ -0,0 +1,72 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+
+/**
+ * Unit tests for VectorEncoding.
+ * */
+public class VectorEncodingTest extends TestCase {
+
+    /**
+     * The narrowest width that covers the range is chosen.
+     * */
+    public void testChoose() {
+        assertEquals(VectorEncoding.UINT8, VectorEncoding.choose(0, 255));
+        assertEquals(VectorEncoding.INT16, VectorEncoding.choose(0, 256));
+        assertEquals(VectorEncoding.INT16, VectorEncoding.choose(-1, 10));
+        assertEquals(VectorEncoding.INT16,
+                VectorEncoding.choose(Short.MIN_VALUE, Short.MAX_VALUE));
+        assertEquals(VectorEncoding.INT32, VectorEncoding.choose(0, Short.MAX_VALUE + 1));
+
+        assertEquals(VectorEncoding.UINT8, VectorEncoding.choose(new int[] {3, 255, 0}, 3));
+        assertEquals(VectorEncoding.INT16, VectorEncoding.choose(new int[] {3, -2, 0}, 3));
+        // only the first dim coordinates count
+        assertEquals(VectorEncoding.UINT8, VectorEncoding.choose(new int[] {3, 4, 70000}, 2));
+    }
+
+    /**
+     * A vector written in a width is read and decoded back.
+     * */
+    public void testRoundTrip() throws IOException {
+        int[][] points = {
+            {0, 1, 127, 128, 255},
+            {-32768, -1, 0, 300, 32767},
+            {Integer.MIN_VALUE, -70000, 0, 70000, Integer.MAX_VALUE},
+        };
+        int[] widths = {VectorEncoding.UINT8, VectorEncoding.INT16, VectorEncoding.INT32};
+
+        for (int i = 0; i < points.length; i++) {
+            int dim = points[i].length;
+            DataOutputBuffer out = new DataOutputBuffer();
+            VectorEncoding.write(out, points[i], dim, widths[i]);
+            assertEquals(dim * widths[i], out.getLength());
+
+            int[] point = new int[dim];
+            DataInputBuffer in = new DataInputBuffer();
+            in.reset(out.getData(), out.getLength());
+            VectorEncoding.read(in, point, dim, widths[i]);
+            assertTrue(Arrays.equals(points[i], point));
+
+            Arrays.fill(point, 0);
+            VectorEncoding.decode(out.getData(), 0, point, dim, widths[i]);
+            assertTrue(Arrays.equals(points[i], point));
+        }
+    }
+
+    /**
+     * decodeInt reads the byte order of DataOutput.
+     * */
+    public void testDecodeInt() throws IOException {
+        DataOutputBuffer out = new DataOutputBuffer();
+        out.writeByte(9);
+        out.writeInt(-123456789);
+        assertEquals(-123456789, VectorEncoding.decodeInt(out.getData(), 1));
+    }
+}
@@ -0,0 +1,101 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.io.Text;
+
+
+/**
+ * Unit tests for VectorParser.
+ * */
+public class VectorParserTest extends TestCase {
+
+    /**
+     * Parse a line which is expected to be malformed.
+     * */
+    private static void assertMalformed(final String line, final int dim) {
+        VectorParser parser = new VectorParser();
+        try {
+            parser.parse(new Text(line), new int[dim], dim);
+            fail("parsed malformed line: " + line);
+        } catch (NumberFormatException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith(line));
+        }
+    }
+
+    /**
+     * The ID and the coordinates are parsed, whatever the whitespace.
+     * */
+    public void testParse() {
+        VectorParser parser = new VectorParser();
+        int[] point = new int[4];
+        assertEquals(7, parser.parse(new Text("7 1 2 3 4"), point, 4));
+        assertEquals(1, point[0]);
+        assertEquals(4, point[3]);
+
+        assertEquals(8, parser.parse(new Text("\t 8\t10  20 \t30 40 \r\n"), point, 4));
+        assertEquals(10, point[0]);
+        assertEquals(40, point[3]);
+    }
+
+    /**
+     * Signs and the limits of int are accepted.
+     * */
+    public void testSigns() {
+        VectorParser parser = new VectorParser();
+        int[] point = new int[4];
+        parser.parse(new Text("-1 +5 -0 2147483647 -2147483648"), point, 4);
+        assertEquals(5, point[0]);
+        assertEquals(0, point[1]);
+        assertEquals(Integer.MAX_VALUE, point[2]);
+        assertEquals(Integer.MIN_VALUE, point[3]);
+    }
+
+    /**
+     * A value out of the range of int is rejected, however many digits.
+     * */
+    public void testOverflow() {
+        assertMalformed("1 2147483648", 1);
+        assertMalformed("1 -2147483649", 1);
+        assertMalformed("1 99999999999999999999999", 1);
+    }
+
+    /**
+     * Bad characters and a wrong number of coordinates are rejected.
+     * */
+    public void testMalformed() {
+        assertMalformed("1 2 x", 2);
+        assertMalformed("1 2 3.5", 2);
+        assertMalformed("1 2 - 3", 2);
+        assertMalformed("1 2--3 4", 2);
+        assertMalformed("1 2", 2);
+        assertMalformed("1 2 3 4", 2);
+        assertMalformed("", 0);
+    }
+
+    /**
+     * A parser is reused, also after a malformed line, and count does not
+     * move the position.
+     * */
+    public void testReuse() {
+        VectorParser parser = new VectorParser();
+        int[] point = new int[2];
+        try {
+            parser.parse(new Text("1 2 x"), point, 2);
+            fail();
+        } catch (NumberFormatException e) {
+            // expected
+        }
+        assertEquals(3, parser.parse(new Text("3 4 5"), point, 2));
+        assertEquals(5, point[1]);
+
+        byte[] bytes = "xx 10 -20 30".getBytes();
+        parser.reset(bytes, 2, bytes.length - 2);
+        assertEquals(3, parser.count());
+        assertEquals(10, parser.nextInt());
+        assertEquals(2, parser.count());
+        assertEquals(-20, parser.nextInt());
+        assertEquals(30, parser.nextInt());
+        assertFalse(parser.hasNext());
+    }
+}
@@ -0,0 +1,132 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+
+/**
+ * Unit tests for the splits of VectorInputFormat and VectorRecordReader.
+ * */
+public class VectorRecordReaderTest extends TestCase {
+    private static final int DIM = 3;
+    private static final int WIDTH = VectorEncoding.INT16;
+    private static final int RECORDS = 100;
+
+    private Configuration conf;
+    private FileSystem fs;
+    private Path dir;
+    private Path file;
+    private int recordSize;
+
+
+    /**
+     * Write a binary data set file whose point i has the ID 1000 + i and the
+     * coordinates i, -i, 2i.
+     * */
+    @Override
+    protected void setUp() throws IOException {
+        conf = new Configuration();
+        fs = FileSystem.getLocal(conf);
+        dir = new Path(System.getProperty("java.io.tmpdir"),
+                "VectorRecordReaderTest-" + System.nanoTime());
+        file = new Path(dir, "part-m-00000");
+        recordSize = VectorInputFormat.recordSize(DIM, WIDTH);
+
+        FSDataOutputStream out = fs.create(file);
+        VectorInputFormat.writeHeader(out, DIM, WIDTH);
+        int[] point = new int[DIM];
+        for (int i = 0; i < RECORDS; i++) {
+            point[0] = i;
+            point[1] = -i;
+            point[2] = 2 * i;
+            out.writeInt(1000 + i);
+            VectorEncoding.write(out, point, DIM, WIDTH);
+        }
+        out.close();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        fs.delete(dir, true);
+    }
+
+    /**
+     * Read a split and check that it holds the records [first, first + n).
+     * */
+    private void assertSplit(final FileSplit split, final int first, final int n)
+            throws IOException, InterruptedException {
+        TaskAttemptContext context = new TaskAttemptContext(conf, new TaskAttemptID());
+        VectorRecordReader reader = new VectorRecordReader();
+        reader.initialize(split, context);
+        try {
+            for (int i = first; i < first + n; i++) {
+                assertTrue(reader.nextKeyValue());
+                assertEquals(i, reader.getCurrentKey().get());
+                VectorWritable value = reader.getCurrentValue();
+                assertEquals(1000 + i, value.getId());
+                assertEquals(i, value.getPoint()[0]);
+                assertEquals(-i, value.getPoint()[1]);
+                assertEquals(2 * i, value.getPoint()[2]);
+            }
+            assertFalse(reader.nextKeyValue());
+            assertEquals(1.0f, reader.getProgress(), 0.0f);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * The splits are cut on record boundaries and cover every record once.
+     * */
+    public void testSplits() throws IOException, InterruptedException {
+        Job job = new Job(conf);
+        FileInputFormat.addInputPath(job, dir);
+        // not a multiple of the record size
+        FileInputFormat.setMaxInputSplitSize(job, 7 * recordSize + 3);
+        FileInputFormat.setMinInputSplitSize(job, 1);
+
+        List<InputSplit> splits = new VectorInputFormat().getSplits(job);
+        assertEquals((RECORDS + 6) / 7, splits.size());
+        long offset = VectorInputFormat.HEADER_SIZE;
+        int first = 0;
+        for (InputSplit genericSplit : splits) {
+            FileSplit split = (FileSplit)genericSplit;
+            assertEquals(offset, split.getStart());
+            assertEquals(0, split.getLength() % recordSize);
+            int n = (int)(split.getLength() / recordSize);
+            this.assertSplit(split, first, n);
+            offset += split.getLength();
+            first += n;
+        }
+        assertEquals(RECORDS, first);
+        assertEquals(fs.getFileStatus(file).getLen(), offset);
+    }
+
+    /**
+     * A record belongs to the split in which it starts, also when a split is
+     * not aligned.
+     * */
+    public void testUnalignedSplits() throws IOException, InterruptedException {
+        long length = fs.getFileStatus(file).getLen();
+        long cut = VectorInputFormat.HEADER_SIZE + 10 * recordSize + 1;
+        this.assertSplit(new FileSplit(file, 0, cut, null), 0, 11);
+        this.assertSplit(new FileSplit(file, cut, length - cut, null), 11, RECORDS - 11);
+
+        // a split inside a record holds nothing
+        this.assertSplit(new FileSplit(file, cut, 2, null), 0, 0);
+    }
+}
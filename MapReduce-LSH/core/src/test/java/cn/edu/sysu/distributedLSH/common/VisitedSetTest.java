@@ -0,0 +1,74 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Unit tests for VisitedSet.
+ * */
+public class VisitedSetTest extends TestCase {
+
+    /**
+     * add tells whether an element is new.
+     * */
+    public void testAdd() {
+        VisitedSet set = new VisitedSet(4);
+        assertTrue(set.add(7));
+        assertTrue(set.add(0));
+        assertTrue(set.add(-3));
+        assertFalse(set.add(7));
+        assertFalse(set.add(0));
+        assertEquals(3, set.size());
+        assertTrue(set.contains(-3));
+        assertFalse(set.contains(8));
+    }
+
+    /**
+     * The set grows past its expected size and keeps all the elements.
+     * */
+    public void testGrow() {
+        VisitedSet set = new VisitedSet(2);
+        for (int i = 0; i < 1000; i++) {
+            // adjacent rows, as in a bucket
+            assertTrue(set.add(i));
+        }
+        assertEquals(1000, set.size());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(set.contains(i));
+            assertFalse(set.add(i));
+        }
+        assertFalse(set.contains(1000));
+    }
+
+    /**
+     * clear removes the elements, also after the set has grown.
+     * */
+    public void testClear() {
+        VisitedSet set = new VisitedSet(2);
+        for (int i = 0; i < 100; i++) {
+            set.add(i * 31);
+        }
+        set.clear();
+        assertEquals(0, set.size());
+        for (int i = 0; i < 100; i++) {
+            assertFalse(set.contains(i * 31));
+        }
+
+        assertTrue(set.add(31));
+        assertFalse(set.add(31));
+        assertEquals(1, set.size());
+    }
+
+    /**
+     * A set is reused by many queries, one epoch each.
+     * */
+    public void testManyEpochs() {
+        VisitedSet set = new VisitedSet();
+        for (int epoch = 0; epoch < 10000; epoch++) {
+            assertTrue(set.add(epoch));
+            assertTrue(set.add(epoch + 1));
+            assertFalse(set.contains(epoch - 1));
+            set.clear();
+        }
+    }
+}
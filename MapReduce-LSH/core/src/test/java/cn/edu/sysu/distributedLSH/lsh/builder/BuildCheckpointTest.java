@@ -0,0 +1,190 @@
+package cn.edu.sysu.distributedLSH.lsh.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import cn.edu.sysu.distributedLSH.common.BucketDirectory;
+import cn.edu.sysu.distributedLSH.common.BucketFilter;
+import cn.edu.sysu.distributedLSH.common.HashTable;
+import cn.edu.sysu.distributedLSH.common.LSH;
+import cn.edu.sysu.distributedLSH.common.PartitionIndex;
+import cn.edu.sysu.distributedLSH.common.TwoDArray;
+import cn.edu.sysu.distributedLSH.common.VectorEncoding;
+
+
+/**
+ * Tests that a build resumes from a BuildCheckpoint.
+ * */
+public class BuildCheckpointTest extends TestCase {
+    private static final int DIM = 4;
+    private static final int PART_ID = 3;
+    private static final String ATTEMPT = "attempt_0_0001_r_000003_0";
+    private static final String RETRY = "attempt_0_0001_r_000003_1";
+
+    private FileSystem fs;
+    private String baseDir;
+
+
+    @Override
+    protected void setUp() throws IOException {
+        fs = FileSystem.getLocal(new Configuration());
+        baseDir = new File(System.getProperty("java.io.tmpdir"),
+                "BuildCheckpointTest-" + System.nanoTime()).getPath();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        fs.delete(new Path(baseDir), true);
+    }
+
+    /**
+     * Build a table of radius 0 whose bucket b holds the rows r with
+     * r % 3 == b.
+     * */
+    private static HashTable createTable(final int tableID, final int rows) {
+        HashTable table = new HashTable(0, tableID);
+        for (int row = 0; row < rows; row++) {
+            table.add(row % 3, row);
+        }
+        return table;
+    }
+
+    /**
+     * Get the point of a row, whose coordinates are distinct.
+     * */
+    private static int[] createPoint(final int row) {
+        int[] point = new int[DIM];
+        for (int j = 0; j < DIM; j++) {
+            point[j] = 10 * row + j;
+        }
+        return point;
+    }
+
+    /**
+     * Fill the data points with createPoint.
+     * */
+    private static TwoDArray createDataSet(final int rows) {
+        TwoDArray dataPoints = new TwoDArray(rows, DIM, VectorEncoding.UINT8);
+        for (int i = 0; i < rows; i++) {
+            dataPoints.set(i, createPoint(i));
+        }
+        return dataPoints;
+    }
+
+    /**
+     * A new attempt finds what the failed one has checkpointed, and copies
+     * the checkpointed table into its index.
+     * */
+    public void testResume() throws IOException {
+        LSH lsh = new LSH(DIM);
+        lsh.calcParameters(255, 100, 2);
+        TwoDArray dataPoints = createDataSet(7);
+        int[] ids = {70, 71, 72, 73, 74, 75, 76};
+        HashTable table = createTable(1, 7);
+
+        BuildCheckpoint checkpoint = new BuildCheckpoint(baseDir, PART_ID, ATTEMPT, fs);
+        assertFalse(checkpoint.canResume());
+        assertTrue(checkpoint.writeBase(lsh, dataPoints, ids));
+        checkpoint.writeTable(table, table.createFilter());
+
+        checkpoint = new BuildCheckpoint(baseDir, PART_ID, RETRY, fs);
+        assertTrue(checkpoint.canResume());
+        assertEquals(1, checkpoint.getTableCount());
+        assertTrue(checkpoint.containsTable(0, 1));
+        assertFalse(checkpoint.containsTable(0, 0));
+
+        LSH copy = new LSH(DIM);
+        TwoDArray points = new TwoDArray();
+        assertTrue(Arrays.equals(ids, checkpoint.readBase(copy, points)));
+        assertEquals(7, points.getRow());
+        int[] point = new int[DIM];
+        for (int i = 0; i < 7; i++) {
+            points.getRow(i, point);
+            assertTrue(Arrays.equals(createPoint(i), point));
+            for (int t = 0; t < lsh.getHashTableSize(); t++) {
+                assertEquals(lsh.calcHashValue(t, 2, point), copy.calcHashValue(t, 2, point));
+            }
+        }
+
+        String partDir = baseDir + "/part_" + PART_ID;
+        PartitionIndex index = PartitionIndex.create(partDir, fs);
+        try {
+            checkpoint.copyTable(index, 0, 1);
+        } finally {
+            index.close();
+        }
+        index = PartitionIndex.open(partDir, fs);
+        try {
+            BucketDirectory bucketDir = index.readBucketDirectory(0, 1);
+            assertEquals(3, bucketDir.size());
+            int[][] postings = index.readBuckets(bucketDir, new int[] {0, 1, 2});
+            for (int b = 0; b < 3; b++) {
+                assertEquals(b, bucketDir.find(b));
+                Arrays.sort(postings[b]);
+                for (int i = 0; i < postings[b].length; i++) {
+                    assertEquals(b + 3 * i, postings[b][i]);
+                }
+            }
+            BucketFilter filter = new BucketFilter();
+            index.readFilter(0, 1, filter);
+            assertTrue(filter.mightContain(2));
+        } finally {
+            index.close();
+        }
+    }
+
+    /**
+     * Only the base of the first attempt is committed, and a speculative
+     * attempt adopts it.
+     * */
+    public void testSpeculativeAttempt() throws IOException {
+        LSH lsh = new LSH(DIM);
+        lsh.calcParameters(255, 100, 2);
+        BuildCheckpoint first = new BuildCheckpoint(baseDir, PART_ID, ATTEMPT, fs);
+        BuildCheckpoint second = new BuildCheckpoint(baseDir, PART_ID, RETRY, fs);
+        assertTrue(first.writeBase(lsh, createDataSet(2), new int[] {20, 21}));
+
+        LSH other = new LSH(DIM);
+        other.calcParameters(255, 100, 2);
+        assertFalse(second.writeBase(other, createDataSet(3), new int[] {30, 31, 32}));
+        TwoDArray points = new TwoDArray();
+        assertTrue(Arrays.equals(new int[] {20, 21}, second.readBase(new LSH(DIM), points)));
+        assertEquals(2, points.getRow());
+
+        // both build the same table on the same base, and the manifest of
+        // either lists the base
+        HashTable table = createTable(0, 2);
+        first.writeTable(table, table.createFilter());
+        second.writeTable(table, table.createFilter());
+        BuildCheckpoint retry = new BuildCheckpoint(baseDir, PART_ID, "attempt_0_0001_r_000003_2",
+                fs);
+        assertTrue(retry.canResume());
+        assertTrue(retry.containsTable(0, 0));
+        assertEquals(1, retry.getTableCount());
+    }
+
+    /**
+     * A file which is not in the manifest is ignored, thus an attempt which
+     * fails while writing a file leaves nothing to resume from it.
+     * */
+    public void testHalfWrittenFile() throws IOException {
+        String dir = baseDir + "/" + BuildCheckpoint.DIR_NAME + "/part_" + PART_ID;
+        fs.create(new Path(dir + "/base." + ATTEMPT + ".tmp")).close();
+        fs.create(new Path(dir + "/table_0_0")).close();
+
+        BuildCheckpoint checkpoint = new BuildCheckpoint(baseDir, PART_ID, RETRY, fs);
+        assertFalse(checkpoint.canResume());
+        assertFalse(checkpoint.containsTable(0, 0));
+        assertEquals(0, checkpoint.getTableCount());
+
+        // another partition has its own checkpoint
+        assertFalse(new BuildCheckpoint(baseDir, PART_ID + 1, RETRY, fs).canResume());
+    }
+}
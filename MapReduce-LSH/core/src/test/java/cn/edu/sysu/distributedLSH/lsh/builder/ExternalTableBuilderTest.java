@@ -0,0 +1,157 @@
+package cn.edu.sysu.distributedLSH.lsh.builder;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import cn.edu.sysu.distributedLSH.common.HashTable;
+import cn.edu.sysu.distributedLSH.common.LSH;
+import cn.edu.sysu.distributedLSH.common.PartitionIndex;
+import cn.edu.sysu.distributedLSH.common.TwoDArray;
+import cn.edu.sysu.distributedLSH.common.VectorEncoding;
+
+
+/**
+ * Tests that ExternalTableBuilder writes the same sections as the in-memory
+ * build of HashReducer.
+ * */
+public class ExternalTableBuilderTest extends TestCase {
+    private static final int DIM = 8;
+    // more than a run of the smallest runMB, thus the runs are spilled
+    private static final int ROWS = 3000;
+    private static final int[] RADII = {1, 2, 4};
+
+    private FileSystem fs;
+    private String baseDir;
+
+
+    @Override
+    protected void setUp() throws IOException {
+        fs = FileSystem.getLocal(new Configuration());
+        baseDir = new File(System.getProperty("java.io.tmpdir"),
+                "ExternalTableBuilderTest-" + System.nanoTime()).getPath();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        fs.delete(new Path(baseDir), true);
+    }
+
+    /**
+     * Read the sections of an index file by its directory.
+     * @return key: "type radiusID tableID", value: the bytes of the section
+     * */
+    private static Map<String, byte[]> readSections(final String fileName) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            // the footer is the offset of the directory then MAGIC
+            file.seek(file.length() - 12);
+            file.seek(file.readLong());
+            int size = file.readInt();
+            long[][] entries = new long[size][];
+            for (int i = 0; i < size; i++) {
+                entries[i] = new long[] {file.readInt(), file.readInt(), file.readInt(),
+                    file.readLong(), file.readLong()};
+            }
+
+            Map<String, byte[]> sections = new HashMap<String, byte[]>();
+            for (long[] entry : entries) {
+                byte[] bytes = new byte[(int)entry[4]];
+                file.seek(entry[3]);
+                file.readFully(bytes);
+                sections.put(entry[0] + " " + entry[1] + " " + entry[2], bytes);
+            }
+            return sections;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * The external build of a partition, whose runs are spilled, has the
+     * same sections as the in-memory build, though in another order.
+     * */
+    public void testSameSections() throws IOException {
+        LSH lsh = new LSH(DIM);
+        lsh.calcParameters(255, ROWS, 2);
+        int width = VectorEncoding.UINT8;
+        Random random = new Random(7);
+        TwoDArray dataPoints = new TwoDArray(ROWS, DIM, width);
+        int[] ids = new int[ROWS];
+        int[] point = new int[DIM];
+
+        File spillFile = File.createTempFile("partition", ".spill");
+        spillFile.deleteOnExit();
+        DataOutputStream spillOut = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(spillFile)));
+        try {
+            for (int row = 0; row < ROWS; row++) {
+                // clustered points, so that buckets hold many rows
+                int center = random.nextInt(8) * 32;
+                for (int j = 0; j < DIM; j++) {
+                    point[j] = center + random.nextInt(16);
+                }
+                ids[row] = 5 * row + 1;
+                dataPoints.set(row, point);
+                spillOut.writeInt(ids[row]);
+                VectorEncoding.write(spillOut, point, DIM, width);
+            }
+        } finally {
+            spillOut.close();
+        }
+
+        String externalDir = baseDir + "/external";
+        PartitionIndex partIndex = PartitionIndex.create(externalDir, fs);
+        try {
+            partIndex.writeLsh(lsh);
+            new ExternalTableBuilder(spillFile, ROWS, DIM, width, lsh, RADII, 0).build(partIndex);
+        } finally {
+            partIndex.close();
+            spillFile.delete();
+        }
+
+        String memoryDir = baseDir + "/memory";
+        partIndex = PartitionIndex.create(memoryDir, fs);
+        try {
+            partIndex.writeLsh(lsh);
+            partIndex.writeDataSet(dataPoints);
+            partIndex.writeIdMap(ids);
+            for (int i = 0; i < RADII.length; i++) {
+                for (int j = 0; j < lsh.getHashTableSize(); j++) {
+                    HashTable hashTable = new HashTable(i, j);
+                    for (int row = 0; row < ROWS; row++) {
+                        dataPoints.getRow(row, point);
+                        hashTable.add(lsh.calcHashValue(j, RADII[i], point), row);
+                    }
+                    partIndex.writeTable(hashTable);
+                    partIndex.writeFilter(i, j, hashTable.createFilter());
+                }
+            }
+        } finally {
+            partIndex.close();
+        }
+
+        Map<String, byte[]> external = readSections(externalDir + "/" + PartitionIndex.FILE_NAME);
+        Map<String, byte[]> memory = readSections(memoryDir + "/" + PartitionIndex.FILE_NAME);
+        // the LSH, the data set, the ID map, then a table and a filter per
+        // radius and table ID
+        assertEquals(3 + 2 * RADII.length * lsh.getHashTableSize(), memory.size());
+        assertEquals(memory.keySet(), external.keySet());
+        for (String key : memory.keySet()) {
+            assertTrue("section " + key, Arrays.equals(memory.get(key), external.get(key)));
+        }
+    }
+}
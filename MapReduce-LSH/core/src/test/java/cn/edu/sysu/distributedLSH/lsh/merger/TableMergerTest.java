@@ -0,0 +1,198 @@
+package cn.edu.sysu.distributedLSH.lsh.merger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.Progressable;
+
+import cn.edu.sysu.distributedLSH.common.BucketDirectory;
+import cn.edu.sysu.distributedLSH.common.BucketFilter;
+import cn.edu.sysu.distributedLSH.common.DeletionBitmap;
+import cn.edu.sysu.distributedLSH.common.HashTable;
+import cn.edu.sysu.distributedLSH.common.LSH;
+import cn.edu.sysu.distributedLSH.common.PartitionIndex;
+import cn.edu.sysu.distributedLSH.common.PartitionSegments;
+import cn.edu.sysu.distributedLSH.common.TwoDArray;
+import cn.edu.sysu.distributedLSH.common.VectorEncoding;
+
+
+/**
+ * Tests that TableMerger merges the postings of the segments of a partition
+ * and numbers the rows again.
+ * */
+public class TableMergerTest extends TestCase {
+    private static final int DIM = 2;
+
+    private FileSystem fs;
+    private String partDir;
+    private PartitionSegments segments;
+    private PartitionIndex[] indexes;
+
+
+    /**
+     * Write a partition of a base with the rows 0, 1, 2 and a delta with the
+     * rows 3, 4. In every table of radius 0, bucket 5 holds the rows 0, 2, 4,
+     * bucket 9 holds the row 1 and bucket 2 holds the row 3.
+     * */
+    @Override
+    protected void setUp() throws IOException {
+        fs = FileSystem.getLocal(new Configuration());
+        partDir = new File(System.getProperty("java.io.tmpdir"),
+                "TableMergerTest-" + System.nanoTime()).getPath();
+        LSH lsh = new LSH(DIM);
+        lsh.calcParameters(255, 100, 2);
+
+        writeSegment(PartitionIndex.FILE_NAME, lsh, new int[] {100, 101, 102},
+                new int[] {5, 9, 5});
+        // the rows of a delta are numbered from 0 in the segment
+        String deltaName = PartitionSegments.getDeltaName(1);
+        writeSegment(deltaName, lsh, new int[] {103, 104}, new int[] {2, 5});
+
+        segments = new PartitionSegments();
+        segments.addDelta(deltaName, 1);
+        segments.save(partDir, fs);
+        segments = PartitionSegments.read(partDir, fs);
+        indexes = segments.openAll(partDir, fs);
+        assertEquals(5, segments.readRowNum(indexes));
+        assertEquals(3, segments.getRowOffset(1));
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        PartitionSegments.closeAll(indexes);
+        fs.delete(new Path(partDir), true);
+    }
+
+    /**
+     * Write a segment whose point of ID i is (i, -i).
+     * @param bucketIDs the bucket of each row, the same in every table
+     * */
+    private void writeSegment(final String name, final LSH lsh, final int[] ids,
+            final int[] bucketIDs) throws IOException {
+        TwoDArray dataPoints = new TwoDArray(ids.length, DIM, VectorEncoding.INT16);
+        for (int i = 0; i < ids.length; i++) {
+            dataPoints.set(i, new int[] {ids[i], -ids[i]});
+        }
+        PartitionIndex index = PartitionIndex.create(partDir, name, fs);
+        try {
+            index.writeLsh(lsh);
+            index.writeDataSet(dataPoints);
+            index.writeIdMap(ids);
+            for (int j = 0; j < lsh.getHashTableSize(); j++) {
+                HashTable table = new HashTable(0, j);
+                for (int row = 0; row < ids.length; row++) {
+                    table.add(bucketIDs[row], row);
+                }
+                index.writeTable(table);
+                index.writeFilter(0, j, table.createFilter());
+            }
+        } finally {
+            index.close();
+        }
+    }
+
+    /**
+     * Merge table (0, 0) into a new index and read its buckets back.
+     * @param expected {bucketID, row...} in the order of the buckets
+     * */
+    private void assertMerged(final int[] newRows, final int size, final int[][] expected)
+            throws IOException {
+        String name = "merged.index";
+        PartitionIndex newIndex = PartitionIndex.create(partDir, name, fs);
+        try {
+            TableMerger.writeTable(newIndex, indexes, segments, newRows, size, 0, 0);
+        } finally {
+            newIndex.close();
+        }
+        this.assertTable(name, 0, expected);
+    }
+
+    /**
+     * Read the buckets of a table of an index back.
+     * @param expected {bucketID, row...} in the order of the buckets
+     * */
+    private void assertTable(final String name, final int tableID, final int[][] expected)
+            throws IOException {
+        PartitionIndex index = PartitionIndex.open(partDir, name, fs);
+        try {
+            BucketDirectory dir = index.readBucketDirectory(0, tableID);
+            assertEquals(expected.length, dir.size());
+            int[] positions = new int[expected.length];
+            for (int k = 0; k < expected.length; k++) {
+                positions[k] = dir.find(expected[k][0]);
+                assertEquals(k, positions[k]);
+            }
+            int[][] buckets = index.readBuckets(dir, positions);
+            BucketFilter filter = new BucketFilter();
+            index.readFilter(0, tableID, filter);
+            for (int k = 0; k < expected.length; k++) {
+                int[] rows = Arrays.copyOfRange(expected[k], 1, expected[k].length);
+                assertTrue(Arrays.toString(buckets[k]), Arrays.equals(rows, buckets[k]));
+                assertTrue(filter.mightContain(expected[k][0]));
+            }
+        } finally {
+            index.close();
+        }
+    }
+
+    /**
+     * The rows of the delta follow the rows of the base, and the rows of a
+     * bucket are sorted descending.
+     * */
+    public void testMerge() throws IOException {
+        this.assertMerged(null, 5, new int[][] {{2, 3}, {5, 4, 2, 0}, {9, 1}});
+    }
+
+    /**
+     * The dropped rows are left out and the others are numbered again. A
+     * bucket whose rows are all dropped is left out.
+     * */
+    public void testRenumber() throws IOException {
+        int[] newRows = {-1, 0, 1, -1, 2};
+        this.assertMerged(newRows, 3, new int[][] {{5, 2, 1}, {9, 0}});
+    }
+
+    /**
+     * The partition is merged without the deleted rows. The remaining rows,
+     * their IDs and their postings are numbered again in their order.
+     * */
+    public void testWritePartition() throws IOException {
+        DeletionBitmap deleted = new DeletionBitmap(5);
+        deleted.set(0);
+        deleted.set(3);
+        String name = "merged.index";
+        PartitionIndex newIndex = PartitionIndex.create(partDir, name, fs);
+        try {
+            assertEquals(3, TableMerger.writePartition(newIndex, indexes, segments, deleted, 1,
+                    new Progressable() {
+                        public void progress() {}
+                    }));
+        } finally {
+            newIndex.close();
+        }
+
+        PartitionIndex index = PartitionIndex.open(partDir, name, fs);
+        try {
+            assertTrue(Arrays.equals(new int[] {101, 102, 104}, index.readIdMap()));
+            TwoDArray dataPoints = new TwoDArray();
+            index.readDataSet(dataPoints);
+            assertEquals(3, dataPoints.getRow());
+            int[] point = new int[DIM];
+            dataPoints.getRow(2, point);
+            assertTrue(Arrays.equals(new int[] {104, -104}, point));
+        } finally {
+            index.close();
+        }
+        LSH lsh = new LSH(DIM);
+        indexes[0].readLsh(lsh);
+        for (int j = 0; j < lsh.getHashTableSize(); j++) {
+            this.assertTable(name, j, new int[][] {{5, 2, 1}, {9, 0}});
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package cn.edu.sysu.distributedLSH.lsh.searcher;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+
+/**
+ * Unit tests for the order, the grouping and the partitioning of
+ * QueryDistance.
+ * */
+public class QueryDistanceTest extends TestCase {
+
+    /**
+     * Serialize a key as Hadoop does before the sort.
+     * */
+    private static byte[] serialize(final int queryID, final double dist) throws IOException {
+        QueryDistance key = new QueryDistance();
+        key.set(queryID, dist);
+        DataOutputBuffer out = new DataOutputBuffer();
+        key.write(out);
+        byte[] bytes = new byte[out.getLength()];
+        System.arraycopy(out.getData(), 0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * Compare two keys with a raw comparator.
+     * */
+    private static int compare(final QueryDistance.Comparator comparator,
+            final byte[] a, final byte[] b) {
+        return comparator.compare(a, 0, a.length, b, 0, b.length);
+    }
+
+    /**
+     * The keys are sorted by the query, then by the distance.
+     * */
+    public void testCompareTo() {
+        QueryDistance a = new QueryDistance();
+        QueryDistance b = new QueryDistance();
+        a.set(1, 9.0);
+        b.set(2, 0.5);
+        assertTrue(a.compareTo(b) < 0);
+        assertTrue(b.compareTo(a) > 0);
+
+        b.set(1, 9.5);
+        assertTrue(a.compareTo(b) < 0);
+        b.set(1, 9.0);
+        assertEquals(0, a.compareTo(b));
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+    }
+
+    /**
+     * The raw comparator agrees with compareTo, also for negative query IDs,
+     * whose serialized bytes do not sort as unsigned bytes.
+     * */
+    public void testRawComparator() throws IOException {
+        QueryDistance.Comparator comparator = new QueryDistance.Comparator();
+        int[] queryIDs = {-1, 0, 1, 256, Integer.MAX_VALUE};
+        double[] dists = {0.0, 0.25, 1.0, 1e9};
+        QueryDistance a = new QueryDistance();
+        QueryDistance b = new QueryDistance();
+        for (int i = 0; i < queryIDs.length; i++) {
+            for (int j = 0; j < dists.length; j++) {
+                for (int m = 0; m < queryIDs.length; m++) {
+                    for (int n = 0; n < dists.length; n++) {
+                        a.set(queryIDs[i], dists[j]);
+                        b.set(queryIDs[m], dists[n]);
+                        int expected = Integer.signum(a.compareTo(b));
+                        int actual = Integer.signum(compare(comparator,
+                                serialize(queryIDs[i], dists[j]),
+                                serialize(queryIDs[m], dists[n])));
+                        assertEquals(a + " vs " + b, expected, actual);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The group comparator ignores the distance, thus a reduce call gets all
+     * the neighbors of a query.
+     * */
+    public void testGroupComparator() throws IOException {
+        QueryDistance.GroupComparator comparator = new QueryDistance.GroupComparator();
+        byte[] a = serialize(3, 0.5);
+        byte[] b = serialize(3, 7.0);
+        byte[] c = serialize(4, 0.1);
+        assertEquals(0, comparator.compare(a, 0, a.length, b, 0, b.length));
+        assertTrue(comparator.compare(b, 0, b.length, c, 0, c.length) < 0);
+        assertTrue(comparator.compare(c, 0, c.length, a, 0, a.length) > 0);
+    }
+
+    /**
+     * The keys of a query go to the same partition, which is never negative.
+     * */
+    public void testPartitioner() {
+        QueryDistance.QueryPartitioner<Object> partitioner =
+                new QueryDistance.QueryPartitioner<Object>();
+        QueryDistance key = new QueryDistance();
+        key.set(-5, 1.0);
+        int partition = partitioner.getPartition(key, null, 7);
+        assertTrue(partition >= 0 && partition < 7);
+        key.set(-5, 2.0);
+        assertEquals(partition, partitioner.getPartition(key, null, 7));
+    }
+
+    /**
+     * A key survives serialization.
+     * */
+    public void testReadFields() throws IOException {
+        byte[] bytes = serialize(42, 3.5);
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(bytes, bytes.length);
+        QueryDistance key = new QueryDistance();
+        key.readFields(in);
+        assertEquals(42, key.getQueryID());
+        assertEquals(3.5, key.getDist(), 0.0);
+    }
+}
@@ -47,6 +47,29 @@ public class BucketTable implements Writable {
         return bucketTable.get(bucketID);
     }
 
+    /**
+     * Get the sizes of all the buckets, in no particular order.
+     * */
+    public int[] getBucketSizes() {
+        int[] sizes = new int[bucketTable.size()];
+        int i = 0;
+        for (SimpleList bucket : bucketTable.values()) {
+            sizes[i++] = bucket.size();
+        }
+        return sizes;
+    }
+
+    /**
+     * Build a BucketFilter over all the bucket IDs in this table.
+     * */
+    public BucketFilter createFilter() {
+        BucketFilter filter = new BucketFilter(bucketTable.size());
+        for (Integer bucketID : bucketTable.keySet()) {
+            filter.add(bucketID);
+        }
+        return filter;
+    }
+
     /**
      * clear.
      * */
@@ -3,14 +3,6 @@ package cn.edu.sysu.distributedLSH.common;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.PriorityQueue;
-import java.util.Queue;
-import java.util.Set;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
@@ -21,88 +13,19 @@ import org.apache.hadoop.io.Writable;
 
 
 public class CandidatePriorityQueue implements Writable {
-    /**
-     * For the candidate data point.
-     * */
-    private static class Candidate implements Comparable<Candidate> {
-        int index;      // the index of the candidate
-        double dist;    // the distance between the candidate and the query
-        int[] point;    // the candidate data point
-
-
-        /**
-         * Constructor.
-         * */
-        Candidate(final int index, final double dist, final int dim,
-                final int[] point) throws ArrayIndexOutOfBoundsException {
-            this.index = index;
-            this.dist = dist;
-            this.point = new int[dim];
-            for (int i = 0; i < dim; i++) {
-                this.point[i] = point[i];
-            }
-        }
-        
-        /**
-         * Copy constructor.
-         * */
-        Candidate(final Candidate other) {
-            index = other.index;
-            dist = other.dist;
-            point = new int[other.point.length];
-            for (int i = 0; i < point.length; i++) {
-                point[i] = other.point[i];
-            }
-        }
-
-        /**
-         * set.
-         * */
-        public void set(final int index, final double dist, final int[] point)
-                throws ArrayIndexOutOfBoundsException {
-            this.index = index;
-            this.dist = dist;
-            for (int i = 0; i < point.length; i++) {
-                this.point[i] = point[i];
-            }
-        }
-        
-        /**
-         * set.
-         * */
-        public void set(final Candidate other) throws ArrayIndexOutOfBoundsException {
-            index = other.index;
-            dist = other.dist;
-            for (int i = 0; i < point.length; i++) {
-                point[i] = other.point[i];
-            }
-        }
-
-        /**
-         * Implement the method in the interface Comparable.
-         * This is the compare function for the max-heap.
-         * */
-        public int compareTo(Candidate other) {
-            if (this.dist < other.dist) {
-                return 1;
-            } else if (this.dist > other.dist) {
-                return -1;
-            }
-            return 0;
-        }
-    }
-
-
     private int dim = -1;
     private int queryID = -1;
     private int kNeighbors = -1;
 
-    // The candQueue is a max-heap whose capacity is kNeighbors. The implementation of
-    // max-heap is PriorityQueue. It can support finding top-k minimum value efficiently.
-    private Queue<Candidate> candQueue = null;
+    // The candQueue is a max-heap whose capacity is kNeighbors. Its items are
+    // the indexes of the candidates, and its data are the candidate points.
+    private TopKHeap candQueue = null;
 
     // We use an index set so that we can judge efficiently whether a data point has been checked.
-    private Set<Integer> checkedIndexSet = null;
+    private VisitedSet checkedIndexSet = null;
+
+    // a buffer of a point
+    private int[] point = null;
 
 
     /**
@@ -114,11 +37,24 @@ public class CandidatePriorityQueue implements Writable {
      * Constructor.
      * */
     public CandidatePriorityQueue(final int dim, final int queryID, final int kNeighbors) {
+        this(dim, queryID, kNeighbors, new VisitedSet());
+    }
+
+    /**
+     * Constructor.
+     * @param checkedIndexSet the set of the checked data points, which may
+     *  be shared by the queues of the queries checked one after another; it
+     *  is cleared
+     * */
+    public CandidatePriorityQueue(final int dim, final int queryID, final int kNeighbors,
+            final VisitedSet checkedIndexSet) {
         this.dim = dim;
         this.queryID = queryID;
         this.kNeighbors = kNeighbors;
-        candQueue = new PriorityQueue<Candidate>(kNeighbors);
-        checkedIndexSet = new HashSet<Integer>();
+        candQueue = new TopKHeap(kNeighbors, dim);
+        point = new int[dim];
+        this.checkedIndexSet = checkedIndexSet;
+        checkedIndexSet.clear();
     }
 
     /**
@@ -157,121 +93,90 @@ public class CandidatePriorityQueue implements Writable {
         if (obj instanceof CandidatePriorityQueue) {
             CandidatePriorityQueue that = (CandidatePriorityQueue)obj;
             if (this.queryID == that.queryID) {
-                return this.candQueue.equals(that.candQueue);
+                return this.candQueue == that.candQueue;
             }
         }
         return false;
     }
 
     /**
-     * Given a collided point, update the candQueue.
+     * Given a collided point, update the candQueue. The point is only decoded
+     * when it enters the candQueue.
      * @param index the index of the collided point
-     * @param point the collided point
+     * @param points the split of the data set which contains the collided point
+     * @param row the row of the collided point in points
      * @param query the query
      * @param ratioRadius ratio * the current radius, which is cR
      * */
-    public void update(final int index, final int[] point, final int[] query,
-            final int ratioRadius) {
-        if (checkedIndexSet.contains(index)) {
+    public void update(final int index, final TwoDArray points, final int row,
+            final int[] query, final int ratioRadius) {
+        if (!checkedIndexSet.add(index)) {
             // the collided point has been checked
             return;
         }
 
         // We will check the collided point.
-        checkedIndexSet.add(index);
         // calculate the distance between the collided point and the query
-        double dist = LSHTool.calcL2Distance(point, query, dim);
+        double dist = points.calcL2Distance(row, query);
 
         // TODO Should this if statement be deleted?
         if (dist < ratioRadius) {
-            if (candQueue.size() == kNeighbors) {
-                // get the candidate with maximum dist in candQueue
-                Candidate candidate = candQueue.peek();
-                if (dist < candidate.dist) {
-                    candQueue.poll();
-                    // Update candidate to avoid new operation.
-                    candidate.set(index, dist, point);
-                    // insert the new candidate
-                    candQueue.add(candidate);
-                }
-            } else {
-                // insert the collided point to the candQueue
-                candQueue.add(new Candidate(index, dist, dim, point));
+            // The candidate evicts the one with maximum dist if the candQueue is full.
+            int slot = candQueue.offer(dist, index);
+            if (slot >= 0) {
+                points.getRow(row, point);
+                System.arraycopy(point, 0, candQueue.getData(), candQueue.getDataPos(slot), dim);
             }
         }
     }
-    
+
+    /**
+     * Merge the candidates of another queue of the same query.
+     * @param other
+     * */
     public void merge(final CandidatePriorityQueue other) {
-        List<Candidate> otherList = other.sortedList();
-        
-        for (Candidate cand : otherList) {
-            if (checkedIndexSet.contains(cand.index)) {
+        TopKHeap otherQueue = other.candQueue;
+        otherQueue.sort();
+
+        for (int i = 0; i < otherQueue.size(); i++) {
+            int slot = otherQueue.getSlot(i);
+            int index = otherQueue.getItem(slot);
+            if (!checkedIndexSet.add(index)) {
                 continue;
             }
-            checkedIndexSet.add(cand.index);
-
-            if (candQueue.size() == kNeighbors) {
-                // get the candidate with maximum dist in candQueue
-                Candidate maxCand = candQueue.peek();
-                if (cand.dist < maxCand.dist) {
-                    candQueue.poll();
-                    // Update candidate to avoid new operation.
-                    maxCand.set(cand);
-                    // insert the new candidate
-                    candQueue.add(maxCand);
-                } else {
-                    // since the otherList is sorted by dist in ascending order
-                    break;
-                }
-            } else {
-                // insert the cand to the candQueue
-                candQueue.add(new Candidate(cand));
+            double dist = otherQueue.getDist(slot);
+            if (dist >= candQueue.worst()) {
+                // since the other queue is sorted by dist in ascending order
+                break;
             }
+            candQueue.offer(dist, index, otherQueue.getData(), otherQueue.getDataPos(slot));
         }
     }
 
     /**
-     * sortedList.
-     * @return the sorted list which is constructed from candQueue
-     * */
-    public List<Candidate> sortedList() {
-        List<Candidate> list = new LinkedList<Candidate>(candQueue);
-
-        // Sort the list by dist in ascending order.
-        Collections.sort(list, new Comparator<Candidate>() {
-            public int compare(Candidate a, Candidate b) {
-                if (a.dist > b.dist) {
-                    return 1;
-                } else if (a.dist < b.dist) {
-                    return -1;
-                }
-                return 0;
-            }
-        });
-
-        return list;
-    }
-
-    /**
-     * This method will convert the sorted list of the candQueue to a string.
+     * This method will convert the candQueue sorted by dist in ascending
+     * order to a string.
      * */
     @Override
     public String toString() {
-        List<Candidate> candList = sortedList();
         StringBuilder stringBuilder = new StringBuilder();
 
         stringBuilder.append(queryID);
         stringBuilder.append(" ");
-        stringBuilder.append(candList.size());
+        stringBuilder.append(candQueue.size());
         stringBuilder.append("\n");
 
-        for (Candidate candidate : candList) {
-            stringBuilder.append(candidate.dist);
+        candQueue.sort();
+        int[] points = candQueue.getData();
+        for (int i = 0; i < candQueue.size(); i++) {
+            int slot = candQueue.getSlot(i);
+            stringBuilder.append(candQueue.getDist(slot));
             stringBuilder.append(" ");
-            stringBuilder.append(candidate.index);
-            for (int i = 0; i < dim; i++) {
+            stringBuilder.append(candQueue.getItem(slot));
+            int pos = candQueue.getDataPos(slot);
+            for (int j = pos; j < pos + dim; j++) {
                 stringBuilder.append(" ");
-                stringBuilder.append(candidate.point[i]);
+                stringBuilder.append(points[j]);
             }
             stringBuilder.append("\n");
         }
@@ -282,21 +187,30 @@ public class CandidatePriorityQueue implements Writable {
 
     /**
      * Implement the method in the interface Writable.
-     * We do not need to serialize the checkedIndexSet.
+     * We do not need to serialize the checkedIndexSet. The points are written
+     * in the narrowest width that covers all of them.
      * @param out output stream
      * */
     public void write(final DataOutput out) throws IOException {
+        int[] points = candQueue.getData();
+        int width = VectorEncoding.UINT8;
+        for (int i = 0; i < candQueue.size(); i++) {
+            System.arraycopy(points, candQueue.getDataPos(candQueue.getSlot(i)), point, 0, dim);
+            width = Math.max(width, VectorEncoding.choose(point, dim));
+        }
+
         out.writeInt(dim);
         out.writeInt(queryID);
         out.writeInt(kNeighbors);
+        out.writeByte(width);
 
         out.writeInt(candQueue.size());
-        for (Candidate candidate : candQueue) {
-            out.writeInt(candidate.index);
-            out.writeDouble(candidate.dist);
-            for (int i = 0; i < dim; i++) {
-                out.writeInt(candidate.point[i]);
-            }
+        for (int i = 0; i < candQueue.size(); i++) {
+            int slot = candQueue.getSlot(i);
+            out.writeInt(candQueue.getItem(slot));
+            out.writeDouble(candQueue.getDist(slot));
+            System.arraycopy(points, candQueue.getDataPos(slot), point, 0, dim);
+            VectorEncoding.write(out, point, dim, width);
         }
     }
 
@@ -305,34 +219,33 @@ public class CandidatePriorityQueue implements Writable {
      * @param out output stream
      * */
     public void readFields(final DataInput in) throws IOException {
-        int index;
-        double dist;
-
         this.clear();
-        
+
+        int oldDim = dim;
+        int oldKNeighbors = kNeighbors;
         dim = in.readInt();
         queryID = in.readInt();
         kNeighbors = in.readInt();
+        int width = VectorEncoding.check(in.readByte());
 
-        int[] point = new int[dim];
-
-        if (candQueue == null) {
-            candQueue = new PriorityQueue<Candidate>(kNeighbors);
+        // Since Writable is always reused by Hadoop, the heap is reused if
+        // it has the same shape.
+        if (candQueue == null || oldDim != dim || oldKNeighbors != kNeighbors) {
+            candQueue = new TopKHeap(kNeighbors, dim);
+            point = new int[dim];
         }
         if (checkedIndexSet == null) {
-            checkedIndexSet = new HashSet<Integer>();
+            checkedIndexSet = new VisitedSet();
         }
 
         int size = in.readInt();
         for (int i = 0; i < size; i++) {
-            index = in.readInt();
+            int index = in.readInt();
             // We need to reconstruct the checkedIndexSet.
             checkedIndexSet.add(index);
-            dist = in.readDouble();
-            for (int j = 0; j < dim; j++) {
-                point[j] = in.readInt();
-            }
-            candQueue.add(new Candidate(index, dist, dim, point));
+            double dist = in.readDouble();
+            VectorEncoding.read(in, point, dim, width);
+            candQueue.offer(dist, index, point, 0);
         }
     }
 
@@ -3,9 +3,6 @@ package cn.edu.sysu.distributedLSH.common;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Vector;
 
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
@@ -14,10 +11,22 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Writable;
 
 
+/**
+ * DatasetSplit stores the data points processed by a StatisticsMapper. When it
+ * is saved, the coordinates are written in the narrowest width that covers
+ * them, and it is read back as a TwoDArray of that width.
+ * */
 public class DatasetSplit implements Writable {
+    private static final int INITIAL_CAPACITY = 1024;
+
     private int dimension = -1;
-    private int[][] split = null;
-    private List<Vector<Integer>> splitBuffer = new LinkedList<Vector<Integer>>();
+    private TwoDArray split = null;
+
+    // the data points added so far, row by row
+    private int[] splitBuffer = null;
+    private int length = 0;
+    private int minCoordinate = 0;
+    private int maxCoordinate = 0;
 
     /**
      * Constructor.
@@ -27,7 +36,7 @@ public class DatasetSplit implements Writable {
     /**
      * get.
      * */
-    public int[][] get() {
+    public TwoDArray get() {
         return split;
     }
     
@@ -43,26 +52,41 @@ public class DatasetSplit implements Writable {
             LSHTool.printAndExit("array length error in DatasetSplit");
         }
 
-        Vector<Integer> vec = new Vector<Integer>(dimension);
+        if (null == splitBuffer) {
+            splitBuffer = new int[INITIAL_CAPACITY * dimension];
+        } else if ((length + 1) * dimension > splitBuffer.length) {
+            int[] newBuffer = new int[splitBuffer.length * 2];
+            System.arraycopy(splitBuffer, 0, newBuffer, 0, length * dimension);
+            splitBuffer = newBuffer;
+        }
+
+        int offset = length * dimension;
         for (int i = 0; i < dimension; i++) {
-            vec.add(point[i]);
+            splitBuffer[offset + i] = point[i];
+            if (point[i] < minCoordinate) {
+                minCoordinate = point[i];
+            } else if (point[i] > maxCoordinate) {
+                maxCoordinate = point[i];
+            }
         }
-        splitBuffer.add(vec);
+        length++;
     }
     
     /**
      * Implement the method in the interface Writable.
+     * The layout is the same as TwoDArray.
      * @param out output stream
      * */
     public void write(final DataOutput out) throws IOException {
-        int length = splitBuffer.size();
+        int width = VectorEncoding.choose(minCoordinate, maxCoordinate);
 
         out.writeInt(length);
         out.writeInt(dimension);
-        for (Vector<Integer> vec : splitBuffer) {
-            for (int i = 0; i < dimension; i++) {
-                out.writeInt(vec.get(i));
-            }
+        out.writeByte(width);
+        int[] point = new int[dimension];
+        for (int i = 0; i < length; i++) {
+            System.arraycopy(splitBuffer, i * dimension, point, 0, dimension);
+            VectorEncoding.write(out, point, dimension, width);
         }
     }
 
@@ -71,16 +95,9 @@ public class DatasetSplit implements Writable {
      * @param in input stream
      * */
     public void readFields(final DataInput in) throws IOException {
-        int length = in.readInt();
-
-        dimension = in.readInt();
-        split = new int[length][];
-        for (int i = 0; i < length; i++) {
-            split[i] = new int[dimension];
-            for (int j = 0; j < dimension; j++) {
-                split[i][j] = in.readInt();
-            }
-        }
+        split = new TwoDArray();
+        split.readFields(in);
+        dimension = split.getCol();
     }
 
     /**
@@ -117,7 +134,7 @@ public class DatasetSplit implements Writable {
      * */
     public void readFromHdfs(final String baseDir, final FileSystem fs, final int startID)
             throws IOException {
-        String fileName = baseDir + "/dataset/" + startID + ".split";
+        String fileName = Snapshots.locate(fs, baseDir, "dataset") + "/" + startID + ".split";
 
         Path inFile = new Path(fileName);
         if (!fs.exists(inFile)) {
@@ -16,6 +16,8 @@ public class HashTableBlock  implements Writable {
     private int blockID;
     private int blockSize;
     private BucketTable[] hashTables = null;
+    // one bucket filter per hash table, stored separately in a .filterBlock file
+    private BucketFilter[] filters = null;
 
     /**
      * Constructor.
@@ -55,6 +57,24 @@ public class HashTableBlock  implements Writable {
         return hashTables[blockTableID].getBucket(bucketID);
     }
     
+    /**
+     * Get the sizes of the buckets of the blockTableID hash table.
+     * @param blockTableID block table ID
+     * */
+    public int[] getBucketSizes(final int blockTableID) {
+        return hashTables[blockTableID].getBucketSizes();
+    }
+
+    /**
+     * Test whether the bucket may exist in the blockTableID hash table. Only
+     * the filters are required, see readFiltersFromHdfs.
+     * @param blockTableID block table ID
+     * @param bucketID bucket ID
+     * */
+    public boolean mightContain(final int blockTableID, final int bucketID) {
+        return filters[blockTableID].mightContain(bucketID);
+    }
+
     /**
      * Add the index into the bucket of the blockTableID hash table.
      * @param blockTableID block table ID
@@ -139,7 +159,8 @@ public class HashTableBlock  implements Writable {
      * @param fs
      * */
     public void readFromHdfs(final String baseDir, final FileSystem fs) throws IOException {
-        String fileName = baseDir + "/radius_" + radiusID + "/" + blockID + ".tableBlock";
+        String fileName = Snapshots.locate(fs, baseDir, "radius_" + radiusID) + "/" + blockID
+                + ".tableBlock";
 
         Path inFile = new Path(fileName);
         if (!fs.exists(inFile)) {
@@ -158,4 +179,68 @@ public class HashTableBlock  implements Writable {
             in.close();
         }
     }
+
+    /**
+     * Build the bucket filters then save them to hdfs. The filters are kept
+     * in their own file so that searchers can load them without
+     * deserializing the hash tables.
+     * @param baseDir the base directory
+     * @param fs
+     * */
+    public void saveFiltersToHdfs(final String baseDir, final FileSystem fs) throws IOException {
+        String fileName = baseDir + "/radius_" + radiusID + "/" + blockID + ".filterBlock";
+
+        Path outFile = new Path(fileName);
+        if (fs.exists(outFile)) {
+            LSHTool.printAndExit("Output file " + fileName + " already exists");
+        }
+
+        filters = new BucketFilter[blockSize];
+        for (int i = 0; i < blockSize; i++) {
+            filters[i] = hashTables[i].createFilter();
+        }
+
+        FSDataOutputStream out = fs.create(outFile);
+        try {
+            out.writeInt(blockSize);
+            for (int i = 0; i < blockSize; i++) {
+                filters[i].write(out);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @param baseDir the base directory
+     * @param fs
+     * */
+    public void readFiltersFromHdfs(final String baseDir, final FileSystem fs) throws IOException {
+        String fileName = Snapshots.locate(fs, baseDir, "radius_" + radiusID) + "/" + blockID
+                + ".filterBlock";
+
+        Path inFile = new Path(fileName);
+        if (!fs.exists(inFile)) {
+            LSHTool.printAndExit("Input file " + fileName + " not found");
+        }
+        if (!fs.isFile(inFile)) {
+            LSHTool.printAndExit("Input " + fileName + " should be a file");
+        }
+
+        FSDataInputStream in = fs.open(inFile);
+        try {
+            blockSize = in.readInt();
+            filters = new BucketFilter[blockSize];
+            for (int i = 0; i < blockSize; i++) {
+                filters[i] = new BucketFilter();
+                filters[i].readFields(in);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            in.close();
+        }
+    }
 }
@@ -346,7 +346,7 @@ public class LSHBlock implements Writable {
      * */
     public void readFromHdfs(final String baseDir, final FileSystem fs)
             throws IOException {
-        String fileName = baseDir + "/hashParam/" + blockID + ".lshBlock";
+        String fileName = Snapshots.locate(fs, baseDir, "hashParam") + "/" + blockID + ".lshBlock";
 
         Path inFile = new Path(fileName);
         if (!fs.exists(inFile)) {
@@ -0,0 +1,245 @@
+package cn.edu.sysu.distributedLSH.common;
+
+
+/**
+ * TopKHeap keeps the k entries with the smallest distances. It is a max-heap
+ * over parallel primitive arrays, thus offering an entry allocates nothing.
+ * Each entry has a distance, an int item, e.g. the row or the ID of a data
+ * point, and optionally width ints of data, e.g. the data point. An entry
+ * lives in a slot, which is reused by the entry that evicts it, and the heap
+ * only moves the slot numbers.
+ * */
+public class TopKHeap {
+    private int capacity;
+    private int width;          // the number of ints of data of an entry
+
+    // indexed by slot
+    private double[] dists;
+    private int[] items;
+    private int[] data;         // the data of slot s is in [s * width, (s + 1) * width)
+
+    private int[] heap;         // the slots, heap[0] has the largest distance
+    private int size;
+    private boolean sorted;     // whether heap is sorted ascending by sort
+
+
+    /**
+     * Constructor.
+     * @param capacity k
+     * */
+    public TopKHeap(final int capacity) {
+        this(capacity, 0);
+    }
+
+    /**
+     * Constructor.
+     * @param capacity k
+     * @param width the number of ints of data of an entry
+     * */
+    public TopKHeap(final int capacity, final int width) {
+        this.capacity = capacity;
+        this.width = width;
+        dists = new double[capacity];
+        items = new int[capacity];
+        data = new int[capacity * width];
+        heap = new int[capacity];
+        size = 0;
+        sorted = false;
+    }
+
+    /**
+     * size.
+     * */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Whether the heap has k entries.
+     * */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * The distance a new entry has to beat, i.e. the largest distance in the
+     * heap, or positive infinity if the heap is not full.
+     * */
+    public double worst() {
+        if (size < capacity) {
+            return Double.POSITIVE_INFINITY;
+        }
+        this.unsort();
+        return dists[heap[0]];
+    }
+
+    /**
+     * Offer an entry. If the heap is full, the entry evicts the one with the
+     * largest distance if it is nearer.
+     * @param dist
+     * @param item
+     * @return the slot of the entry, in which the caller may set its data, or
+     *  -1 if the entry is not kept
+     * */
+    public int offer(final double dist, final int item) {
+        this.unsort();
+        int slot;
+        if (size < capacity) {
+            slot = size;
+            dists[slot] = dist;
+            items[slot] = item;
+            heap[size] = slot;
+            this.siftUp(size++);
+        } else if (size > 0 && dist < dists[heap[0]]) {
+            slot = heap[0];
+            dists[slot] = dist;
+            items[slot] = item;
+            this.siftDown(0, size);
+        } else {
+            return -1;
+        }
+        return slot;
+    }
+
+    /**
+     * Offer an entry with its data.
+     * @param dist
+     * @param item
+     * @param src contains the data
+     * @param srcPos the position of the data in src
+     * @return the slot of the entry, or -1 if the entry is not kept
+     * */
+    public int offer(final double dist, final int item, final int[] src, final int srcPos) {
+        int slot = this.offer(dist, item);
+        if (slot >= 0) {
+            System.arraycopy(src, srcPos, data, slot * width, width);
+        }
+        return slot;
+    }
+
+    /**
+     * Offer all the entries of another heap of the same width.
+     * @param other
+     * */
+    public void merge(final TopKHeap other) {
+        for (int i = 0; i < other.size; i++) {
+            int slot = other.heap[i];
+            this.offer(other.dists[slot], other.items[slot], other.data, slot * other.width);
+        }
+    }
+
+    /**
+     * Sort the entries ascending by distance in place, after which getSlot
+     * returns the slots in that order. Offering an entry turns the heap back.
+     * */
+    public void sort() {
+        if (sorted) {
+            return;
+        }
+        for (int end = size - 1; end > 0; end--) {
+            int slot = heap[0];
+            heap[0] = heap[end];
+            heap[end] = slot;
+            this.siftDown(0, end);
+        }
+        sorted = true;
+    }
+
+    /**
+     * Get the slot of the i-th entry, which is the i-th nearest one after sort.
+     * */
+    public int getSlot(final int i) {
+        return heap[i];
+    }
+
+    /**
+     * get the distance of the entry in a slot.
+     * */
+    public double getDist(final int slot) {
+        return dists[slot];
+    }
+
+    /**
+     * get the item of the entry in a slot.
+     * */
+    public int getItem(final int slot) {
+        return items[slot];
+    }
+
+    /**
+     * Get the data of all the slots, the data of a slot starts at getDataPos.
+     * */
+    public int[] getData() {
+        return data;
+    }
+
+    /**
+     * Get the position of the data of a slot in getData.
+     * */
+    public int getDataPos(final int slot) {
+        return slot * width;
+    }
+
+    /**
+     * clear.
+     * */
+    public void clear() {
+        size = 0;
+        sorted = false;
+    }
+
+    /**
+     * A sorted array reversed is a max-heap.
+     * */
+    private void unsort() {
+        if (!sorted) {
+            return;
+        }
+        for (int i = 0, j = size - 1; i < j; i++, j--) {
+            int slot = heap[i];
+            heap[i] = heap[j];
+            heap[j] = slot;
+        }
+        sorted = false;
+    }
+
+    /**
+     * Move the slot at pos up to its place.
+     * */
+    private void siftUp(int pos) {
+        int slot = heap[pos];
+        double dist = dists[slot];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (dists[heap[parent]] >= dist) {
+                break;
+            }
+            heap[pos] = heap[parent];
+            pos = parent;
+        }
+        heap[pos] = slot;
+    }
+
+    /**
+     * Move the slot at pos down to its place in heap[0, end).
+     * */
+    private void siftDown(int pos, final int end) {
+        int slot = heap[pos];
+        double dist = dists[slot];
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= end) {
+                break;
+            }
+            if (child + 1 < end && dists[heap[child + 1]] > dists[heap[child]]) {
+                child++;
+            }
+            if (dist >= dists[heap[child]]) {
+                break;
+            }
+            heap[pos] = heap[child];
+            pos = child;
+        }
+        heap[pos] = slot;
+    }
+}
@@ -0,0 +1,196 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+
+
+/**
+ * TwoDArray can be used to store a split of data set. The rows are stored in
+ * a flat array whose element type is chosen by VectorEncoding, so a data set
+ * of uint8 coordinates takes a quarter of the memory and the disk space.
+ * */
+public class TwoDArray implements Writable {
+    private int row = 0;
+    private int col = 0;
+    private int width = VectorEncoding.INT32;
+
+    // only one of them is used, depending on the width
+    private byte[] bytes = null;
+    private short[] shorts = null;
+    private int[] ints = null;
+
+
+    /**
+     * Default constructor.
+     * */
+    public TwoDArray() {}
+
+    /**
+     * Constructor. new a 2-d array with size row * col
+     * @param row
+     * @param col
+     * @param width the width of a coordinate, see VectorEncoding
+     * */
+    public TwoDArray(final int row, final int col, final int width) {
+        this.row = row;
+        this.col = col;
+        this.width = VectorEncoding.check(width);
+        this.allocate();
+    }
+
+    /**
+     * Allocate the flat array for row * col coordinates.
+     * */
+    private void allocate() {
+        bytes = null;
+        shorts = null;
+        ints = null;
+        if (VectorEncoding.UINT8 == width) {
+            bytes = new byte[row * col];
+        } else if (VectorEncoding.INT16 == width) {
+            shorts = new short[row * col];
+        } else {
+            ints = new int[row * col];
+        }
+    }
+
+    /**
+     * get the number of rows.
+     * */
+    public int getRow() {
+        return row;
+    }
+
+    /**
+     * get the number of columns.
+     * */
+    public int getCol() {
+        return col;
+    }
+
+    /**
+     * get width.
+     * */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Set the i-th row. The coordinates must fit the width.
+     * @param i the row index
+     * @param point the data point
+     * */
+    public void set(final int i, final int[] point) {
+        int offset = i * col;
+        if (VectorEncoding.UINT8 == width) {
+            for (int j = 0; j < col; j++) {
+                bytes[offset + j] = (byte)point[j];
+            }
+        } else if (VectorEncoding.INT16 == width) {
+            for (int j = 0; j < col; j++) {
+                shorts[offset + j] = (short)point[j];
+            }
+        } else {
+            System.arraycopy(point, 0, ints, offset, col);
+        }
+    }
+
+    /**
+     * Decode the i-th row.
+     * @param i the row index
+     * @param point the array to be filled, whose length is at least col
+     * */
+    public void getRow(final int i, final int[] point) {
+        int offset = i * col;
+        if (VectorEncoding.UINT8 == width) {
+            for (int j = 0; j < col; j++) {
+                point[j] = bytes[offset + j] & 0xff;
+            }
+        } else if (VectorEncoding.INT16 == width) {
+            for (int j = 0; j < col; j++) {
+                point[j] = shorts[offset + j];
+            }
+        } else {
+            System.arraycopy(ints, offset, point, 0, col);
+        }
+    }
+
+    /**
+     * Calculate the L2 distance between the i-th row and the query. The
+     * narrow widths are accumulated in long, which is exact and avoids the
+     * int to double conversion of every coordinate.
+     * @param i the row index
+     * @param query the query
+     * */
+    public double calcL2Distance(final int i, final int[] query) {
+        int offset = i * col;
+        if (VectorEncoding.UINT8 == width) {
+            long distance = 0;
+            for (int j = 0; j < col; j++) {
+                long difference = (bytes[offset + j] & 0xff) - query[j];
+                distance += difference * difference;
+            }
+            return Math.sqrt(distance);
+        } else if (VectorEncoding.INT16 == width) {
+            long distance = 0;
+            for (int j = 0; j < col; j++) {
+                long difference = shorts[offset + j] - query[j];
+                distance += difference * difference;
+            }
+            return Math.sqrt(distance);
+        }
+
+        double difference, distance = 0;
+        for (int j = 0; j < col; j++) {
+            difference = ints[offset + j] - query[j];
+            distance += difference * difference;
+        }
+        return Math.sqrt(distance);
+    }
+
+    /**
+     * Implement the method in the interface Writable.
+     * @param out output stream
+     * */
+    public void write(final DataOutput out) throws IOException {
+        out.writeInt(row);
+        out.writeInt(col);
+        out.writeByte(width);
+        if (VectorEncoding.UINT8 == width) {
+            out.write(bytes);
+        } else if (VectorEncoding.INT16 == width) {
+            for (int i = 0; i < shorts.length; i++) {
+                out.writeShort(shorts[i]);
+            }
+        } else {
+            for (int i = 0; i < ints.length; i++) {
+                out.writeInt(ints[i]);
+            }
+        }
+    }
+
+    /**
+     * Implement the method in the interface Writable.
+     * @param out output stream
+     * */
+    public void readFields(final DataInput in) throws IOException {
+        row = in.readInt();
+        col = in.readInt();
+        width = VectorEncoding.check(in.readByte());
+        this.allocate();
+        if (VectorEncoding.UINT8 == width) {
+            in.readFully(bytes);
+        } else if (VectorEncoding.INT16 == width) {
+            for (int i = 0; i < shorts.length; i++) {
+                shorts[i] = in.readShort();
+            }
+        } else {
+            for (int i = 0; i < ints.length; i++) {
+                ints[i] = in.readInt();
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+
+/**
+ * VectorEncoding picks the narrowest width that covers the coordinates of
+ * the data set, and serializes vectors in that width. The width is the
+ * number of bytes per coordinate:
+ *   UINT8:  [0, 255], e.g. the pixels of MNIST
+ *   INT16:  [-32768, 32767]
+ *   INT32:  everything else
+ * */
+public class VectorEncoding {
+    public static final int UINT8 = 1;
+    public static final int INT16 = 2;
+    public static final int INT32 = 4;
+
+
+    /**
+     * For safe.
+     * */
+    private VectorEncoding() {}
+
+    /**
+     * Choose the width for the coordinate range [min, max].
+     * @param min the minimum coordinate
+     * @param max the maximum coordinate
+     * */
+    public static int choose(final int min, final int max) {
+        if (min >= 0 && max <= 255) {
+            return UINT8;
+        } else if (min >= Short.MIN_VALUE && max <= Short.MAX_VALUE) {
+            return INT16;
+        }
+        return INT32;
+    }
+
+    /**
+     * Choose the width for the coordinates of a vector.
+     * @param point the vector
+     * @param dim the dimensionality of the vector
+     * */
+    public static int choose(final int[] point, final int dim) {
+        int min = 0;
+        int max = 0;
+        for (int i = 0; i < dim; i++) {
+            if (point[i] < min) {
+                min = point[i];
+            } else if (point[i] > max) {
+                max = point[i];
+            }
+        }
+        return choose(min, max);
+    }
+
+    /**
+     * Check the width read from a stream.
+     * @param width the width
+     * */
+    public static int check(final int width) {
+        if (UINT8 != width && INT16 != width && INT32 != width) {
+            LSHTool.printAndExit("unknown coordinate width " + width);
+        }
+        return width;
+    }
+
+    /**
+     * Write a vector in the given width. The coordinates must fit the width.
+     * @param out output stream
+     * @param point the vector
+     * @param dim the dimensionality of the vector
+     * @param width the width of a coordinate
+     * */
+    public static void write(final DataOutput out, final int[] point, final int dim,
+            final int width) throws IOException {
+        if (UINT8 == width) {
+            for (int i = 0; i < dim; i++) {
+                out.writeByte(point[i]);
+            }
+        } else if (INT16 == width) {
+            for (int i = 0; i < dim; i++) {
+                out.writeShort(point[i]);
+            }
+        } else {
+            for (int i = 0; i < dim; i++) {
+                out.writeInt(point[i]);
+            }
+        }
+    }
+
+    /**
+     * Decode a vector from a byte array in the given width. The byte order is
+     * the same as DataOutput.
+     * @param buf the byte array
+     * @param offset the offset of the vector in buf
+     * @param point the vector to be filled
+     * @param dim the dimensionality of the vector
+     * @param width the width of a coordinate
+     * */
+    public static void decode(final byte[] buf, final int offset, final int[] point,
+            final int dim, final int width) {
+        int pos = offset;
+        if (UINT8 == width) {
+            for (int i = 0; i < dim; i++) {
+                point[i] = buf[pos++] & 0xff;
+            }
+        } else if (INT16 == width) {
+            for (int i = 0; i < dim; i++, pos += 2) {
+                point[i] = (short)(((buf[pos] & 0xff) << 8) | (buf[pos + 1] & 0xff));
+            }
+        } else {
+            for (int i = 0; i < dim; i++, pos += 4) {
+                point[i] = decodeInt(buf, pos);
+            }
+        }
+    }
+
+    /**
+     * Decode a big-endian int from a byte array.
+     * @param buf the byte array
+     * @param pos the offset of the int in buf
+     * */
+    public static int decodeInt(final byte[] buf, final int pos) {
+        return ((buf[pos] & 0xff) << 24) | ((buf[pos + 1] & 0xff) << 16)
+                | ((buf[pos + 2] & 0xff) << 8) | (buf[pos + 3] & 0xff);
+    }
+
+    /**
+     * Read a vector in the given width.
+     * @param in input stream
+     * @param point the vector to be filled
+     * @param dim the dimensionality of the vector
+     * @param width the width of a coordinate
+     * */
+    public static void read(final DataInput in, final int[] point, final int dim,
+            final int width) throws IOException {
+        if (UINT8 == width) {
+            for (int i = 0; i < dim; i++) {
+                point[i] = in.readUnsignedByte();
+            }
+        } else if (INT16 == width) {
+            for (int i = 0; i < dim; i++) {
+                point[i] = in.readShort();
+            }
+        } else {
+            for (int i = 0; i < dim; i++) {
+                point[i] = in.readInt();
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package cn.edu.sysu.distributedLSH.common;
+
+import java.util.Arrays;
+
+
+/**
+ * VisitedSet is a set of ints, which tells whether a candidate
+ * has been checked for a query. It is an open addressing hash table of
+ * primitive ints, thus adding an element allocates nothing. Each slot is
+ * stamped with the epoch in which it is filled, and a slot of an older
+ * epoch is empty, thus clear only starts a new epoch. A set is meant to be
+ * reused by the queries of a thread, one after another.
+ * */
+public class VisitedSet {
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private int[] keys;
+    private int[] stamps;       // the epoch in which a slot is filled
+    private int epoch;
+    private int mask;           // the capacity - 1, the capacity is a power of 2
+    private int size;
+
+
+    /**
+     * Constructor.
+     * */
+    public VisitedSet() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor.
+     * @param expected the expected number of elements
+     * */
+    public VisitedSet(final int expected) {
+        int capacity = 16;
+        while (capacity < 2 * expected) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        stamps = new int[capacity];
+        mask = capacity - 1;
+        epoch = 1;
+        size = 0;
+    }
+
+    /**
+     * Add an element.
+     * @param e the element
+     * @return true if the element was not in the set
+     * */
+    public boolean add(final int e) {
+        int slot = hash(e) & mask;
+        while (stamps[slot] == epoch) {
+            if (keys[slot] == e) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = e;
+        stamps[slot] = epoch;
+        if (++size * 2 > keys.length) {
+            this.grow();
+        }
+        return true;
+    }
+
+    /**
+     * Whether an element is in the set.
+     * @param e the element
+     * */
+    public boolean contains(final int e) {
+        int slot = hash(e) & mask;
+        while (stamps[slot] == epoch) {
+            if (keys[slot] == e) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * size.
+     * */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Remove all the elements in O(1).
+     * */
+    public void clear() {
+        size = 0;
+        if (Integer.MAX_VALUE == epoch) {
+            // The stamps wrap around, thus they are reset once in a while.
+            Arrays.fill(stamps, 0);
+            epoch = 0;
+        }
+        epoch++;
+    }
+
+    /**
+     * Double the capacity and add the elements again.
+     * */
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldStamps = stamps;
+        int oldEpoch = epoch;
+
+        keys = new int[oldKeys.length << 1];
+        stamps = new int[keys.length];
+        mask = keys.length - 1;
+        epoch = 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldStamps[i] == oldEpoch) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (stamps[slot] == epoch) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                stamps[slot] = epoch;
+            }
+        }
+    }
+
+    /**
+     * Spread the bits of an element, since the rows of a bucket are often
+     * close to each other.
+     * */
+    private static int hash(final int e) {
+        int h = e * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,147 @@
+package cn.edu.sysu.distributedLSH.converter;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.VectorEncoding;
+import cn.edu.sysu.distributedLSH.common.VectorWritable;
+
+
+/**
+ * Converter converts the text data set dataSetFileName into the binary data
+ * set binaryDataSetFileName once. The statistics of the text data set must
+ * have been collected by Statistician, since the width of a coordinate is
+ * chosen from them. Set dataSetFormat to binary to build from the result.
+ * */
+public class Converter extends Configured {
+    private Configuration conf;
+    private FileSystem fs;
+
+    private String baseDir;
+    private String dataSetFileName;
+    private String binaryDataSetFileName;
+
+    // statistics
+    private int dimension = -1;
+    private int maxCoordinate = -1;
+    private int minCoordinate = 0;
+
+
+    /**
+     * Constructor.
+     * */
+    public Converter(final Configuration conf, final FileSystem fs) {
+        this.conf = conf;
+        this.fs = fs;
+
+        baseDir = conf.get("baseDir");
+        dataSetFileName = conf.get("dataSetFileName");
+        binaryDataSetFileName = conf.get("binaryDataSetFileName");
+        if (null == binaryDataSetFileName) {
+            LSHTool.printAndExit("binaryDataSetFileName is not set");
+        }
+    }
+
+    /**
+     * read the final statistics file from hdfs.
+     * */
+    private void readStatistics() {
+        String statFile = baseDir + "/stat/final.stat";
+        Path statPath = new Path(statFile);
+
+        try {
+            if (!fs.isFile(statPath)) {
+                LSHTool.printAndExit("statistics file does not exist");
+            }
+            FSDataInputStream in = fs.open(statPath);
+
+            // The following variables are output to hdfs by Statistician.
+            dimension = in.readInt();
+            maxCoordinate = in.readInt();
+            // skip dataSetSize and nRadii
+            in.readInt();
+            in.readInt();
+            minCoordinate = in.readInt();
+            in.close();
+
+            if (dimension < 1 || maxCoordinate < 1) {
+                LSHTool.printAndExit("statistics error");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            LSHTool.printAndExit("read statistics file error");
+        }
+    }
+
+    /**
+     * run.
+     * */
+    public int run() throws IOException, InterruptedException, ClassNotFoundException {
+        long startMillis;
+        int totalSecond;
+
+        this.readStatistics();
+
+        startMillis = System.currentTimeMillis();
+        boolean flag = this.convert();
+        totalSecond = (int)((System.currentTimeMillis() - startMillis) / 1000.0);
+
+        System.out.printf("---------------------------------------------------------------\n");
+        System.out.printf("Data Set: %s, Time of converting data set %s\n", conf.get("dataset"),
+                LSHTool.convertTime(totalSecond));
+        System.out.printf("---------------------------------------------------------------\n");
+
+        if (!flag) {
+            LSHTool.printAndExit("convert data set failed");
+        }
+        return 0;
+    }
+
+    /**
+     * Convert the data set using MapReduce. Each mapper writes a binary file
+     * for its split, thus the order of the data points is kept.
+     * */
+    private boolean convert() throws IOException, InterruptedException, ClassNotFoundException {
+        Path inputPath = new Path(dataSetFileName);
+        if (!fs.exists(inputPath)) {
+            LSHTool.printAndExit("Input data set dose not exist");
+        }
+        if (!fs.isFile(inputPath)) {
+            LSHTool.printAndExit("Input data set should be a file");
+        }
+
+        int width = VectorEncoding.choose(minCoordinate, maxCoordinate);
+        conf.setInt("dimension", dimension);
+        conf.setInt("vectorWidth", width);
+        System.out.printf("coordinate width: %d bytes\n", width);
+
+        Path outputPath = new Path(binaryDataSetFileName);
+        fs.delete(outputPath, true);
+
+        Job job = new Job(conf, "ndlsh Converter " + conf.get("dataset"));
+        job.setJarByClass(Converter.class);
+        job.setMapperClass(ConvertMapper.class);
+        // We do not need reduce here.
+        job.setNumReduceTasks(0);
+
+        job.setInputFormatClass(TextInputFormat.class);
+        job.setOutputFormatClass(VectorOutputFormat.class);
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(VectorWritable.class);
+
+        TextInputFormat.addInputPath(job, inputPath);
+        FileOutputFormat.setOutputPath(job, outputPath);
+
+        return job.waitForCompletion(true);
+    }
+}
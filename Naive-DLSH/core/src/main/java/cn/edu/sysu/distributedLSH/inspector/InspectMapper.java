@@ -0,0 +1,119 @@
+package cn.edu.sysu.distributedLSH.inspector;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import cn.edu.sysu.distributedLSH.common.HashTableBlock;
+import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.Snapshots;
+import cn.edu.sysu.distributedLSH.common.VectorParser;
+
+
+/**
+ * InspectMapper reads the .tableBlock files of a block at all the radii,
+ * and outputs one line for each hash table of the block:
+ *
+ * radiusID blockID blockTableID bytes buckets maxBucket probeCost
+ * hist_0 ... hist_{HIST_SIZE-1}
+ *
+ * bytes is the size of the .tableBlock file, which is repeated on the lines
+ * of its tables. probeCost is the expected number of indexes a query reads
+ * from the table, assuming the queries are distributed like the data
+ * points, i.e. the sum of the squared bucket sizes divided by the data set
+ * size. hist_k is the number of buckets whose size is in [2^k, 2^(k+1)),
+ * and the last one also counts the larger buckets.
+ * */
+public class InspectMapper extends Mapper<Object, Text, Text, NullWritable> {
+    public static final int HIST_SIZE = 16;
+
+    private Configuration conf;
+    private FileSystem fs;
+
+    private int dataSetSize;
+    private int nRadii;
+    private String baseDir;
+
+    private VectorParser parser = new VectorParser();
+
+
+    /**
+     * setup.
+     * @param context
+     * */
+    @Override
+    protected void setup(final Context context) {
+        conf = context.getConfiguration();
+        try {
+            fs = FileSystem.get(conf);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // dataSetSize and nRadii are set by Inspector.
+        dataSetSize = conf.getInt("dataSetSize", -1);
+        nRadii = conf.getInt("nRadii", -1);
+        if (dataSetSize < 1 || nRadii < 1) {
+            LSHTool.printAndExit("dataSetSize or nRadii error");
+        }
+        baseDir = conf.get("baseDir");
+    }
+
+    /**
+     * map.
+     * @param key dummy
+     * @param value contains a block ID
+     * @param context
+     * */
+    @Override
+    protected void map(final Object key, final Text value, final Context context)
+            throws IOException, InterruptedException {
+        int blockID = LSHTool.parseBlockID(parser, value);
+
+        Text line = new Text();
+        for (int i = 0; i < nRadii; i++) {
+            // i is the radius id
+            HashTableBlock tableBlock = new HashTableBlock(i, blockID);
+            tableBlock.readFromHdfs(baseDir, fs);
+            long bytes = fs.getFileStatus(new Path(Snapshots.locate(fs, baseDir, "radius_" + i)
+                    + "/" + blockID + ".tableBlock")).getLen();
+
+            for (int j = 0; j < tableBlock.getBlockSize(); j++) {
+                // j is the block table id
+                int[] sizes = tableBlock.getBucketSizes(j);
+                int maxBucket = 0;
+                double squares = 0;
+                long[] hist = new long[HIST_SIZE];
+                for (int k = 0; k < sizes.length; k++) {
+                    maxBucket = Math.max(maxBucket, sizes[k]);
+                    squares += (double)sizes[k] * sizes[k];
+                    hist[Math.min(HIST_SIZE - 1, log2(sizes[k]))]++;
+                }
+                double probeCost = squares / dataSetSize;
+
+                StringBuilder sb = new StringBuilder();
+                sb.append(i).append(' ').append(blockID).append(' ').append(j);
+                sb.append(' ').append(bytes).append(' ').append(sizes.length);
+                sb.append(' ').append(maxBucket).append(' ').append(probeCost);
+                for (int k = 0; k < HIST_SIZE; k++) {
+                    sb.append(' ').append(hist[k]);
+                }
+                line.set(sb.toString());
+                context.write(line, NullWritable.get());
+            }
+            context.progress();
+        }
+    }
+
+    /**
+     * floor(log2(n)) of a positive n.
+     * */
+    private static int log2(final int n) {
+        return 31 - Integer.numberOfLeadingZeros(n);
+    }
+}
@@ -0,0 +1,298 @@
+package cn.edu.sysu.distributedLSH.inspector;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.NLineInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import cn.edu.sysu.distributedLSH.common.DeletionBitmap;
+import cn.edu.sysu.distributedLSH.common.LSHTool;
+
+
+/**
+ * Inspector reports the layout of the built hash tables: the size of the
+ * .tableBlock files of each block, the bucket size histogram, and the
+ * expected number of indexes a query reads. The blocks are read in
+ * parallel by InspectMapper. A block whose probe cost is skewFactor times
+ * the average one is marked as skewed, the CollectCandidateMapper of that
+ * block will be slower than the others.
+ * */
+public class Inspector extends Configured {
+    private static final float DEFAULT_SKEW_FACTOR = 2.0f;
+
+    private Configuration conf;
+    private FileSystem fs;
+
+    private int blockNum;
+    private String baseDir;
+    // the directory of the outputs, which is not in a snapshot
+    private String outputDir;
+    private float skewFactor;
+    private Path seedPath;
+
+    // statistics
+    private int dataSetSize;
+    private int nRadii;
+    private int tableNum = 0;
+
+    // the columns of a line of InspectMapper, indexed by block
+    private int[] blockSize;
+    private long[] bytes;
+    private int[] maxBucket;
+    // the probe cost of each block, indexed by block and radius, summed
+    // over the tables of the block
+    private double[][] blockCost;
+    // the number of buckets and the largest bucket of each radius
+    private long[] radiusBuckets;
+    private int[] radiusMaxBucket;
+    private long[] hist = new long[InspectMapper.HIST_SIZE];
+
+
+    /**
+     * Constructor.
+     * */
+    public Inspector(final Configuration conf, final FileSystem fs) {
+        this.conf = conf;
+        this.fs = fs;
+
+        blockNum = conf.getInt("blockNum", 0);
+        if (0 == blockNum) {
+            LSHTool.printAndExit("blockNum error");
+        }
+        baseDir = conf.get("baseDir");
+        outputDir = conf.get("outputDir", baseDir);
+        skewFactor = conf.getFloat("skewFactor", DEFAULT_SKEW_FACTOR);
+
+        this.readStatistics();
+        conf.setInt("dataSetSize", dataSetSize);
+        conf.setInt("nRadii", nRadii);
+    }
+
+    /**
+     * run.
+     * */
+    public int run() throws IOException, InterruptedException, ClassNotFoundException {
+        long startMillis;
+        int totalSecond;
+
+        startMillis = System.currentTimeMillis();
+        this.createSeed();
+        Path outPath = new Path(outputDir + "/inspectOutput");
+        if (!this.inspect(outPath)) {
+            LSHTool.printAndExit("inspect hash tables failed");
+        }
+        this.readReport(outPath);
+        int deleted = DeletionBitmap.readFromHdfs(baseDir + "/" + DeletionBitmap.FILE_NAME,
+                fs, dataSetSize).getCount();
+        totalSecond = (int)((System.currentTimeMillis() - startMillis) / 1000.0);
+
+        this.printReport(deleted);
+        System.out.printf("---------------------------------------------------------------\n");
+        System.out.printf("Data Set: %s, Time of inspecting %s\n", conf.get("dataset"),
+                LSHTool.convertTime(totalSecond));
+        System.out.printf("---------------------------------------------------------------\n");
+
+        return 0;
+    }
+
+    /**
+     * read the final statistics file from hdfs.
+     * */
+    private void readStatistics() {
+        String statFile = baseDir + "/stat/final.stat";
+        Path statPath = new Path(statFile);
+        // parameters that we do not need
+        int dimension;
+        int maxCoordinate;
+
+        try {
+            if (!fs.isFile(statPath)) {
+                LSHTool.printAndExit(statFile + " does not exist in Inspector");
+            }
+            FSDataInputStream in = fs.open(statPath);
+
+            // The following variables are output to hdfs by Statistician.
+            dimension = in.readInt();
+            maxCoordinate = in.readInt();
+            dataSetSize = in.readInt();
+            nRadii = in.readInt();
+            in.close();
+
+            if (dimension < 1 || maxCoordinate < 1 || dataSetSize < 1 || nRadii < 1) {
+                LSHTool.printAndExit("statistics error");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            LSHTool.printAndExit("read statistics file error");
+        }
+    }
+
+    /**
+     * Create a block seed file for InspectMapper.
+     * */
+    private void createSeed() throws IOException {
+        seedPath = new Path(outputDir + "/inspect.seed");
+        fs.delete(seedPath, false);
+
+        FSDataOutputStream out = fs.create(seedPath);
+        try {
+            for (int i = 0; i < blockNum; i++) {
+                // i is the block ID
+                String str = i + "\n";
+                out.write(str.getBytes());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Inspect the blocks using MapReduce.
+     * */
+    private boolean inspect(final Path outPath)
+            throws IOException, InterruptedException, ClassNotFoundException {
+        Job job = new Job(conf, "ndlsh Inspector " + conf.get("dataset"));
+        job.setJarByClass(Inspector.class);
+        job.setMapperClass(InspectMapper.class);
+        // We do not need reduce here.
+        job.setNumReduceTasks(0);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(NullWritable.class);
+
+        job.setInputFormatClass(NLineInputFormat.class);
+        NLineInputFormat.addInputPath(job, seedPath);
+        fs.delete(outPath, true);
+        FileOutputFormat.setOutputPath(job, outPath);
+
+        return job.waitForCompletion(true);
+    }
+
+    /**
+     * Read the lines of InspectMapper and sum them up.
+     * */
+    private void readReport(final Path outPath) throws IOException {
+        blockSize = new int[blockNum];
+        bytes = new long[blockNum];
+        maxBucket = new int[blockNum];
+        blockCost = new double[blockNum][nRadii];
+        radiusBuckets = new long[nRadii];
+        radiusMaxBucket = new int[nRadii];
+
+        FileStatus[] fileStatus = fs.listStatus(outPath);
+        for (int i = 0; i < fileStatus.length; i++) {
+            if (!fileStatus[i].getPath().getName().startsWith("part-")) {
+                continue;
+            }
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    fs.open(fileStatus[i].getPath())));
+            try {
+                String line;
+                while (null != (line = in.readLine())) {
+                    this.addLine(line.trim().split("\\s+"));
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Add a line of InspectMapper.
+     * @param cols the columns of the line
+     * */
+    private void addLine(final String[] cols) {
+        if (cols.length != 7 + InspectMapper.HIST_SIZE) {
+            LSHTool.printAndExit("inspect output error");
+        }
+        int radiusID = Integer.parseInt(cols[0]);
+        int blockID = Integer.parseInt(cols[1]);
+        int blockTableID = Integer.parseInt(cols[2]);
+        int buckets = Integer.parseInt(cols[4]);
+        int max = Integer.parseInt(cols[5]);
+
+        if (0 == radiusID) {
+            blockSize[blockID]++;
+            tableNum++;
+        }
+        // The size of a .tableBlock file is repeated on the lines of its tables.
+        if (0 == blockTableID) {
+            bytes[blockID] += Long.parseLong(cols[3]);
+        }
+        maxBucket[blockID] = Math.max(maxBucket[blockID], max);
+        blockCost[blockID][radiusID] += Double.parseDouble(cols[6]);
+        radiusBuckets[radiusID] += buckets;
+        radiusMaxBucket[radiusID] = Math.max(radiusMaxBucket[radiusID], max);
+        for (int k = 0; k < InspectMapper.HIST_SIZE; k++) {
+            hist[k] += Long.parseLong(cols[7 + k]);
+        }
+    }
+
+    /**
+     * Print the report.
+     * @param deleted the number of the deleted data points
+     * */
+    private void printReport(final int deleted) {
+        // A query reads the tables of every block at a radius.
+        double[] radiusCost = new double[nRadii];
+        double[] cost = new double[blockNum];
+        double totalCost = 0;
+        for (int i = 0; i < blockNum; i++) {
+            for (int j = 0; j < nRadii; j++) {
+                radiusCost[j] += blockCost[i][j];
+                cost[i] += blockCost[i][j] / nRadii;
+            }
+            totalCost += cost[i];
+        }
+        double avgCost = totalCost / blockNum;
+
+        System.out.printf("---------------------------------------------------------------\n");
+        System.out.printf("%d data points, %d deleted, %d radii, %d blocks, %d tables per radius\n",
+                dataSetSize, deleted, nRadii, blockNum, tableNum);
+        System.out.printf("%-6s %8s %12s %10s %12s\n", "Block", "Tables", "Bytes",
+                "MaxBucket", "ProbeCost");
+        int skewed = 0;
+        for (int i = 0; i < blockNum; i++) {
+            boolean isSkewed = cost[i] > skewFactor * avgCost;
+            if (isSkewed) {
+                skewed++;
+            }
+            System.out.printf("%-6d %8d %12d %10d %12.1f%s\n", i, blockSize[i], bytes[i],
+                    maxBucket[i], cost[i], isSkewed ? "  skewed" : "");
+        }
+
+        System.out.printf("%-6s %12s %10s %12s\n", "Radius", "Buckets", "MaxBucket",
+                "ProbeCost");
+        for (int j = 0; j < nRadii; j++) {
+            System.out.printf("%-6d %12d %10d %12.1f\n", j, radiusBuckets[j],
+                    radiusMaxBucket[j], radiusCost[j]);
+        }
+
+        System.out.printf("Bucket size histogram:\n");
+        for (int k = 0; k < InspectMapper.HIST_SIZE; k++) {
+            if (0 == hist[k]) {
+                continue;
+            }
+            if (InspectMapper.HIST_SIZE - 1 == k) {
+                System.out.printf("  [%d, ...): %d\n", 1 << k, hist[k]);
+            } else {
+                System.out.printf("  [%d, %d): %d\n", 1 << k, 1 << (k + 1), hist[k]);
+            }
+        }
+        System.out.printf("Probe cost is the expected indexes read by a query, "
+                + "summed over the tables of a block\n");
+        System.out.printf("%d blocks are skewed (probe cost > %.1f times the average "
+                + "%.1f)\n", skewed, skewFactor, avgCost);
+    }
+}
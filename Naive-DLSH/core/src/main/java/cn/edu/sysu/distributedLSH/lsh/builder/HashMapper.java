@@ -1,22 +1,24 @@
 package cn.edu.sysu.distributedLSH.lsh.builder;
 
 import java.io.IOException;
-import java.util.Scanner;
 
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PathFilter;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.conf.Configuration;
 
 import cn.edu.sysu.distributedLSH.common.IntPair;
 import cn.edu.sysu.distributedLSH.common.IntTriple;
 import cn.edu.sysu.distributedLSH.common.LSHBlock;
+import cn.edu.sysu.distributedLSH.common.VectorParser;
+import cn.edu.sysu.distributedLSH.common.VectorWritable;
 
 
-public class HashMapper extends Mapper<Object, Text, IntPair, IntTriple> {
+public class HashMapper extends Mapper<Object, Writable, IntPair, IntTriple> {
     private static final int THRESHOLD_RADIUS = 1;
     private Configuration conf;
     private FileSystem fs;
@@ -30,6 +32,7 @@ public class HashMapper extends Mapper<Object, Text, IntPair, IntTriple> {
     private int[] blockSizeArr = null;
     private int[] point = null;         // data point
     private int[] radii = null;
+    private VectorParser parser = new VectorParser();
 
     // first: the radius ID
     // second: the block ID
@@ -113,28 +116,32 @@ public class HashMapper extends Mapper<Object, Text, IntPair, IntTriple> {
     /**
      * map.
      * @param key dummy
-     * @param value contains the data point
+     * @param value contains the data point, which is Text for the text data
+     *  set or VectorWritable for the binary data set
      * @param context
      * */
     @Override
-    protected void map(final Object key, final Text value, final Context context)
+    protected void map(final Object key, final Writable value, final Context context)
             throws IOException, InterruptedException {
         int bucketID;
         int index = -1;     // the index of the data point
-        Scanner scanner = null;
 
-        try {
-            scanner = new Scanner(value.toString());
-            // Attention!
+        if (value instanceof VectorWritable) {
+            VectorWritable vector = (VectorWritable)value;
             // We count from zero while the input data set count from one.
-            index = scanner.nextInt() - 1;
-            for (int i = 0; i < dimension; i++) {
-                point[i] = scanner.nextInt();
+            index = vector.getId() - 1;
+            System.arraycopy(vector.getPoint(), 0, point, 0, dimension);
+        } else {
+            try {
+                // Attention!
+                // We count from zero while the input data set count from one.
+                index = parser.parse((Text)value, point, dimension) - 1;
+            } catch (NumberFormatException e) {
+                // skip the malformed line
+                System.err.println(e.getMessage());
+                context.getCounter(VectorParser.COUNTER_GROUP, VectorParser.MALFORMED_LINES).increment(1);
+                return;
             }
-        } catch (ArrayIndexOutOfBoundsException e) {
-            e.printStackTrace();
-        } finally {
-            scanner.close();
         }
 
         for (int i = 0; i < nRadii; i++) {
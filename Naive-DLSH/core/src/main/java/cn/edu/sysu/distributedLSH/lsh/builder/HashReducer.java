@@ -11,6 +11,7 @@ import org.apache.hadoop.mapreduce.Reducer;
 import cn.edu.sysu.distributedLSH.common.HashTableBlock;
 import cn.edu.sysu.distributedLSH.common.IntPair;
 import cn.edu.sysu.distributedLSH.common.IntTriple;
+import cn.edu.sysu.distributedLSH.common.SideFiles;
 
 
 public class HashReducer extends Reducer<IntPair, IntTriple, Object, Object> {
@@ -88,7 +89,10 @@ public class HashReducer extends Reducer<IntPair, IntTriple, Object, Object> {
         }
 
         try {
-            tableBlock.saveToHdfs(baseDir, fs);
+            // The blocks are promoted to baseDir by HashTableBuilder.
+            String workDir = SideFiles.getWorkDir(context);
+            tableBlock.saveToHdfs(workDir, fs);
+            tableBlock.saveFiltersToHdfs(workDir, fs);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -8,13 +8,15 @@ import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.mapreduce.Job;
-import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 
+import cn.edu.sysu.distributedLSH.common.DeletionBitmap;
 import cn.edu.sysu.distributedLSH.common.IntPair;
 import cn.edu.sysu.distributedLSH.common.IntTriple;
 import cn.edu.sysu.distributedLSH.common.LSH;
 import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.SideFiles;
+import cn.edu.sysu.distributedLSH.common.VectorInputFormat;
 
 
 public class HashTableBuilder extends Configured {
@@ -23,7 +25,6 @@ public class HashTableBuilder extends Configured {
 
     private int ratio;
     private String baseDir;
-    private String dataSetFileName;
 
     private int blockNum;   // the number of blocks
 
@@ -47,7 +48,6 @@ public class HashTableBuilder extends Configured {
         }
 
         baseDir = conf.get("baseDir");
-        dataSetFileName = conf.get("dataSetFileName");
 
         blockNum = conf.getInt("blockNum", 0);
         if (blockNum < 1) {
@@ -99,12 +99,17 @@ public class HashTableBuilder extends Configured {
         int totalSecond;
 
         startMillis = System.currentTimeMillis();
+        // A failed build must not be published. See Snapshots.
+        boolean flag = false;
         try {
             this.build();
-            this.hash();
+            flag = this.hash();
         } catch (IOException e) {
             e.printStackTrace();
         }
+        if (!flag) {
+            LSHTool.printAndExit("build hash tables failed");
+        }
 
         totalSecond = (int)((System.currentTimeMillis() - startMillis) / 1000.0);
         System.out.printf("---------------------------------------------------------------\n");
@@ -130,31 +135,32 @@ public class HashTableBuilder extends Configured {
      * Hash the points in the data set to hash tables using MapReduce.
      * */
     private boolean hash() throws IOException, InterruptedException, ClassNotFoundException {
-        Path inputPath = new Path(dataSetFileName);
-
-        if (!fs.exists(inputPath)) {
-            LSHTool.printAndExit("Input data set dose not exist");
-        }
-        if (!fs.isFile(inputPath)) {
-            LSHTool.printAndExit("Input data set should be a file");
-        }
-
         Job job = new Job(conf, "ndlsh HashTableBuilder " + conf.get("dataset"));
         job.setJarByClass(HashTableBuilder.class);
         job.setMapperClass(HashMapper.class);
         job.setReducerClass(HashReducer.class);
 
-        job.setInputFormatClass(TextInputFormat.class);
         job.setMapOutputKeyClass(IntPair.class);
         job.setMapOutputValueClass(IntTriple.class);
 
-        // TODO
-        job.setSpeculativeExecution(false);
-
-        TextInputFormat.addInputPath(job, inputPath);
-        String outFile = baseDir + "/buildOutput";
-        FileOutputFormat.setOutputPath(job, new Path(outFile));
-
-        return job.waitForCompletion(true);
+        // The reducers write the hash table blocks as side files, thus
+        // speculative execution is safe. See SideFiles.
+
+        // the text data set or the binary one, depending on dataSetFormat
+        VectorInputFormat.setDataSetInput(job, fs);
+        // The output goes to a scratch directory, which a fork skips. See
+        // Snapshots.
+        String outFile = baseDir + "/_build/buildOutput";
+        Path outPath = new Path(outFile);
+        fs.delete(outPath, true);
+        FileOutputFormat.setOutputPath(job, outPath);
+
+        boolean flag = job.waitForCompletion(true);
+        if (flag) {
+            SideFiles.promote(fs, outPath, baseDir);
+            // The data set is hashed again, thus the deletion bitmap is out of date.
+            fs.delete(new Path(baseDir + "/" + DeletionBitmap.FILE_NAME), false);
+        }
+        return flag;
     }
 }
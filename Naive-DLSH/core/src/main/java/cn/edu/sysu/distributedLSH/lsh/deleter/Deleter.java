@@ -0,0 +1,109 @@
+package cn.edu.sysu.distributedLSH.lsh.deleter;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import cn.edu.sysu.distributedLSH.common.DeletionBitmap;
+import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.VectorParser;
+
+
+/**
+ * Deleter removes the data points whose IDs are listed in deleteFileName,
+ * one ID per line, from the built index by marking them in the deletion
+ * bitmap of the data set. CollectCandidateReducer skips the marked points,
+ * thus they are never checked. The hash table blocks are not compacted,
+ * since the ID of a data point is its position in the dataset splits.
+ * */
+public class Deleter extends Configured {
+    private Configuration conf;
+    private FileSystem fs;
+
+    private String baseDir;
+    private Path deletePath;
+    private int dataSetSize;
+
+
+    /**
+     * Constructor.
+     * */
+    public Deleter(final Configuration conf, final FileSystem fs) {
+        this.conf = conf;
+        this.fs = fs;
+
+        baseDir = conf.get("baseDir");
+        if (null == conf.get("deleteFileName")) {
+            LSHTool.printAndExit("deleteFileName is not set");
+        }
+        deletePath = new Path(conf.get("deleteFileName"));
+    }
+
+    /**
+     * read the final statistics file from hdfs.
+     * */
+    private void readStatistics() {
+        String statFile = baseDir + "/stat/final.stat";
+        Path statPath = new Path(statFile);
+
+        try {
+            if (!fs.isFile(statPath)) {
+                LSHTool.printAndExit(statFile + " does not exist in Deleter");
+            }
+            FSDataInputStream in = fs.open(statPath);
+
+            // skip dimension and maxCoordinate
+            in.readInt();
+            in.readInt();
+            dataSetSize = in.readInt();
+            in.close();
+
+            if (dataSetSize < 1) {
+                LSHTool.printAndExit("statistics error");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            LSHTool.printAndExit("read statistics file error");
+        }
+    }
+
+    /**
+     * run.
+     * */
+    public int run() throws IOException {
+        long startMillis;
+        int totalSecond;
+
+        startMillis = System.currentTimeMillis();
+        this.readStatistics();
+
+        int[] ids = VectorParser.readIds(fs, deletePath);
+        String bitmapFile = baseDir + "/" + DeletionBitmap.FILE_NAME;
+        DeletionBitmap deleted = DeletionBitmap.readFromHdfs(bitmapFile, fs, dataSetSize);
+
+        int count = 0;
+        for (int i = 0; i < ids.length; i++) {
+            // An ID which is not in the data set is ignored.
+            if (ids[i] >= 1 && ids[i] <= dataSetSize && deleted.set(ids[i] - 1)) {
+                count++;
+            }
+        }
+        if (count > 0) {
+            deleted.saveToHdfs(bitmapFile, fs);
+        }
+        totalSecond = (int)((System.currentTimeMillis() - startMillis) / 1000.0);
+
+        System.out.printf("%d of %d points deleted, %d of %d points are deleted\n", count,
+                ids.length, deleted.getCount(), dataSetSize);
+        System.out.printf("---------------------------------------------------------------\n");
+        System.out.printf("Data Set: %s, Time of deleting %s\n", conf.get("dataset"),
+                LSHTool.convertTime(totalSecond));
+        System.out.printf("---------------------------------------------------------------\n");
+
+        return 0;
+    }
+}
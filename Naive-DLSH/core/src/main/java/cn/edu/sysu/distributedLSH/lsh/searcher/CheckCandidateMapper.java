@@ -2,9 +2,7 @@ package cn.edu.sysu.distributedLSH.lsh.searcher;
 
 import static java.lang.Math.*;
 
-import java.io.File;
 import java.io.IOException;
-import java.util.Scanner;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
@@ -17,6 +15,9 @@ import org.apache.hadoop.mapreduce.Mapper;
 import cn.edu.sysu.distributedLSH.common.CandidatePriorityQueue;
 import cn.edu.sysu.distributedLSH.common.DatasetSplit;
 import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.TwoDArray;
+import cn.edu.sysu.distributedLSH.common.VectorParser;
+import cn.edu.sysu.distributedLSH.common.VisitedSet;
 
 
 public class CheckCandidateMapper
@@ -33,11 +34,16 @@ extends Mapper<Object, Text, IntWritable, CandidatePriorityQueue> {
     private int radiusID;
 
     private String baseDir;
+    // the directory of the outputs, which is not in a snapshot
+    private String outputDir;
     private String querySetFileName;
 
     private int ratioRadius;
     private int[][] querySet = null;
     private IntWritable queryIDWritable = new IntWritable();
+    private VectorParser parser = new VectorParser();
+    // the checked data points of the current query
+    private VisitedSet checkedIndexSet = new VisitedSet();
 
 
     /**
@@ -60,6 +66,7 @@ extends Mapper<Object, Text, IntWritable, CandidatePriorityQueue> {
         radiusID = conf.getInt("radiusID", -1);
 
         baseDir = conf.get("baseDir");
+        outputDir = conf.get("outputDir", baseDir);
         querySetFileName = conf.get("querySetFileName");
         
         // ratio * the current radius
@@ -81,27 +88,7 @@ extends Mapper<Object, Text, IntWritable, CandidatePriorityQueue> {
             LSHTool.printAndExit("querySetSize and dimension should not be zero");
         }
 
-        File inputFile = new File(querySetFileName);
-        Scanner scanner = null;
-        try {
-            scanner = new Scanner(inputFile, "UTF-8");
-
-            // initialize querySet
-            querySet = new int[querySetSize][];
-            for (int i = 0; i < querySetSize; i++) {
-                querySet[i] = new int[dimension];
-            }
-
-            for (int i = 0; i < querySetSize; i++) {
-                // skip the query ID
-                scanner.nextInt();
-                for (int j = 0; j < dimension; j++) {
-                    querySet[i][j] = scanner.nextInt();
-                }
-            }
-        } finally {
-            scanner.close();
-        }
+        querySet = VectorParser.readQuerySet(querySetFileName, querySetSize, dimension);
     }
 
     /**
@@ -118,25 +105,26 @@ extends Mapper<Object, Text, IntWritable, CandidatePriorityQueue> {
 
         // read the split of the data set from hdfs
         datasetSplit.readFromHdfs(baseDir, fs, startID);
-        int[][] split = datasetSplit.get();
+        TwoDArray split = datasetSplit.get();
         
         // read candidate indices file from hdfs
-        String candFile = baseDir + "/splitCand/radius_" + radiusID + "/" + startID + ".cand";
+        String candFile = outputDir + "/splitCand/radius_" + radiusID + "/" + startID + ".cand";
         Path candPath = new Path(candFile);
         FSDataInputStream in = fs.open(candPath);
         
         int splitQuerySize = in.readInt();
         for (int i = 0; i < splitQuerySize; i++) {
             int queryID = in.readInt();
+            // The queries are checked one after another, thus they share a set.
             CandidatePriorityQueue candPriQueue =
-                    new CandidatePriorityQueue(dimension, queryID, kNeighbors);
+                    new CandidatePriorityQueue(dimension, queryID, kNeighbors, checkedIndexSet);
             int candNum = in.readInt();
 
             for (int j = 0; j < candNum; j++) {
                 int globalIndex = in.readInt();
                 // relative index: the index of a data point in a split
                 int relativeIndex = globalIndex - startID;
-                candPriQueue.update(globalIndex, split[relativeIndex],
+                candPriQueue.update(globalIndex, split, relativeIndex,
                         querySet[queryID], ratioRadius);
             }
             queryIDWritable.set(queryID);
@@ -149,14 +137,12 @@ extends Mapper<Object, Text, IntWritable, CandidatePriorityQueue> {
      * @param value contains the start ID
      * */
     private int parseStartID(final Text value) {
-        int startID = -1;
-        Scanner scanner = null;
+        parser.reset(value);
         try {
-            scanner = new Scanner(value.toString());
-            startID = scanner.nextInt();
-        } finally {
-            scanner.close();
+            return parser.nextInt();
+        } catch (NumberFormatException e) {
+            LSHTool.printAndExit(e.getMessage());
         }
-        return startID;
+        return -1;
     }
 }
@@ -7,6 +7,7 @@ import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.mapreduce.Reducer;
 
 import cn.edu.sysu.distributedLSH.common.CandidatePriorityQueue;
+import cn.edu.sysu.distributedLSH.common.SideFiles;
 
 
 public class CheckCandidateReducer
@@ -15,7 +16,8 @@ extends Reducer<IntWritable, CandidatePriorityQueue, Object, CandidatePriorityQu
 
     private int kNeighbors;
     private int radiusID;
-    private String baseDir;
+    // the directory of the outputs, which is not in a snapshot
+    private String outputDir;
 
     // statistics
     private int dimension;
@@ -32,7 +34,7 @@ extends Reducer<IntWritable, CandidatePriorityQueue, Object, CandidatePriorityQu
 
         kNeighbors = conf.getInt("kNeighbors", 0);
         radiusID = conf.getInt("radiusID", -1);
-        baseDir = conf.get("baseDir");
+        outputDir = conf.get("outputDir", conf.get("baseDir"));
 
         dimension = conf.getInt("dimension", 0);
         nRadii = conf.getInt("nRadii", 0);
@@ -55,7 +57,7 @@ extends Reducer<IntWritable, CandidatePriorityQueue, Object, CandidatePriorityQu
         if (radiusID > 0) {
             // Read intermediate result from the previous radius,
             // whose id is radiusID-1.
-            candPriQueue.readFromHdfs(radiusID - 1, baseDir, conf);
+            candPriQueue.readFromHdfs(radiusID - 1, outputDir, conf);
         }
 
         // merge the search results from all data set splits
@@ -68,7 +70,8 @@ extends Reducer<IntWritable, CandidatePriorityQueue, Object, CandidatePriorityQu
             // is the last radius, we will save the result to the final output.
             context.write(null, candPriQueue);
         } else {
-            candPriQueue.saveToHdfs(radiusID, baseDir, conf);
+            // The intermediate result is promoted to outputDir by LSHSearcher.
+            candPriQueue.saveToHdfs(radiusID, SideFiles.getWorkDir(context), conf);
         }
     }
 }
@@ -2,9 +2,7 @@ package cn.edu.sysu.distributedLSH.lsh.searcher;
 
 import static java.lang.Math.*;
 
-import java.io.File;
 import java.io.IOException;
-import java.util.Scanner;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
@@ -18,6 +16,7 @@ import cn.edu.sysu.distributedLSH.common.HashTableBlock;
 import cn.edu.sysu.distributedLSH.common.LSHBlock;
 import cn.edu.sysu.distributedLSH.common.LSHTool;
 import cn.edu.sysu.distributedLSH.common.SimpleList;
+import cn.edu.sysu.distributedLSH.common.VectorParser;
 
 
 public class CollectCandidateMapper extends Mapper<Object, Text, IntWritable, SimpleList> {
@@ -32,6 +31,8 @@ public class CollectCandidateMapper extends Mapper<Object, Text, IntWritable, Si
     private int radiusID;
 
     private String baseDir;
+    // the directory of the outputs, which is not in a snapshot
+    private String outputDir;
     private String querySetFileName;
 
     private int radius;
@@ -39,6 +40,7 @@ public class CollectCandidateMapper extends Mapper<Object, Text, IntWritable, Si
     private boolean[] valid = null;
 
     private IntWritable queryIDWritable = new IntWritable();
+    private VectorParser parser = new VectorParser();
     private SimpleList emptyList = new SimpleList();
 
 
@@ -61,6 +63,7 @@ public class CollectCandidateMapper extends Mapper<Object, Text, IntWritable, Si
         radiusID = conf.getInt("radiusID", -1);
 
         baseDir = conf.get("baseDir");
+        outputDir = conf.get("outputDir", baseDir);
         querySetFileName = conf.get("querySetFileName");
         
         radius = (int)(THRESHOLD_RADIUS * pow(ratio, radiusID));
@@ -90,27 +93,7 @@ public class CollectCandidateMapper extends Mapper<Object, Text, IntWritable, Si
             LSHTool.printAndExit("querySetSize and dimension should not be zero");
         }
 
-        File inputFile = new File(querySetFileName);
-        Scanner scanner = null;
-        try {
-            scanner = new Scanner(inputFile, "UTF-8");
-
-            // initialize querySet
-            querySet = new int[querySetSize][];
-            for (int i = 0; i < querySetSize; i++) {
-                querySet[i] = new int[dimension];
-            }
-
-            for (int i = 0; i < querySetSize; i++) {
-                // skip the query ID
-                scanner.nextInt();
-                for (int j = 0; j < dimension; j++) {
-                    querySet[i][j] = scanner.nextInt();
-                }
-            }
-        } finally {
-            scanner.close();
-        }
+        querySet = VectorParser.readQuerySet(querySetFileName, querySetSize, dimension);
     }
     
     /**
@@ -121,7 +104,7 @@ public class CollectCandidateMapper extends Mapper<Object, Text, IntWritable, Si
             valid[i] = false;
         }
 
-        Path path = new Path(baseDir + "/remaining.qid");
+        Path path = new Path(outputDir + "/remaining.qid");
         try {
             FSDataInputStream in = fs.open(path);
             int length = in.readInt();
@@ -144,15 +127,17 @@ public class CollectCandidateMapper extends Mapper<Object, Text, IntWritable, Si
     @Override
     protected void map(final Object key, final Text value, final Context context)
             throws IOException, InterruptedException {
-        int blockID = this.parseBlockID(value);
+        int blockID = LSHTool.parseBlockID(parser, value);
 
         // read lsh parameters
         LSHBlock lshBlock = new LSHBlock(blockID, dimension);
         lshBlock.readFromHdfs(baseDir, fs);
         
-        // read a block of hash tables
+        // Read the bucket filters of this block first. The block of hash tables
+        // is only loaded when some query may fall into an existing bucket.
         HashTableBlock tableBlock = new HashTableBlock(radiusID, blockID);
-        tableBlock.readFromHdfs(baseDir, fs);
+        tableBlock.readFiltersFromHdfs(baseDir, fs);
+        boolean tablesLoaded = false;
 
         int blockSize = tableBlock.getBlockSize();
         
@@ -162,41 +147,36 @@ public class CollectCandidateMapper extends Mapper<Object, Text, IntWritable, Si
                 // the i-th query has collected enough near neighbors
                 continue;
             }
+            queryIDWritable.set(i);     // set query id
+            boolean emitted = false;
+
             for (int j = 0; j < blockSize; j++) {
                 // j is the block table ID
                 int bucketID = lshBlock.calcHashValue(j, radius, querySet[i]);
+                if (!tableBlock.mightContain(j, bucketID)) {
+                    continue;
+                }
+                if (!tablesLoaded) {
+                    tableBlock.readFromHdfs(baseDir, fs);
+                    tablesLoaded = true;
+                }
                 SimpleList indexList = tableBlock.getBucket(j, bucketID);
-                
-                // No matter whether the bucket is empty or not, we will emit
-                // all the queries that collide with it. Thus those queries that
-                // collide with no data points in the current search radius will
-                // be saved in the intermediate directory in CheckCandidateReducer, 
-                // although actually there is no intermediate results. This
-                // procedure is important since in this way these queries will
-                // be processed again in the next search radius.
-                if (null == indexList) {
-                    indexList = emptyList;
+                if (null != indexList) {
+                    context.write(queryIDWritable, indexList);
+                    emitted = true;
                 }
+            }
 
-                queryIDWritable.set(i);     // set query id
-                context.write(queryIDWritable, indexList);
+            // Even if the query collides with no bucket in this block, we
+            // emit an empty list once. Thus those queries that collide with
+            // no data points in the current search radius will be saved in
+            // the intermediate directory in CheckCandidateReducer, although
+            // actually there is no intermediate results. This procedure is
+            // important since in this way these queries will be processed
+            // again in the next search radius.
+            if (!emitted) {
+                context.write(queryIDWritable, emptyList);
             }
         }
     }
-    
-    /**
-     * Parse the block ID.
-     * @param value contains the block ID
-     * */
-    private int parseBlockID(final Text value) {
-        int blockID = -1;
-        Scanner scanner = null;
-        try {
-            scanner = new Scanner(value.toString());
-            blockID = scanner.nextInt();
-        } finally {
-            scanner.close();
-        }
-        return blockID;
     }
-}
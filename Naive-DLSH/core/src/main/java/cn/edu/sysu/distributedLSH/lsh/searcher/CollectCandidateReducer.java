@@ -16,8 +16,11 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.mapreduce.Reducer;
 
+import cn.edu.sysu.distributedLSH.common.DeletionBitmap;
 import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.SideFiles;
 import cn.edu.sysu.distributedLSH.common.SimpleList;
+import cn.edu.sysu.distributedLSH.common.Snapshots;
 
 
 public class CollectCandidateReducer
@@ -36,6 +39,8 @@ extends Reducer<IntWritable, SimpleList, Object, Object> {
     private int searchThreshold;
     private int[] splitIndexArr;
     private Vector<Map<Integer, Set<Integer>>> splitCand;
+    // the deleted data points, indexed by the candidate index
+    private DeletionBitmap deleted;
     
     private Set<Integer> emptySet = new HashSet<Integer>();
 
@@ -69,6 +74,14 @@ extends Reducer<IntWritable, SimpleList, Object, Object> {
             e.printStackTrace();
             LSHTool.printAndExit("get split index failed in CollectCandidateReducer");
         }
+
+        try {
+            deleted = DeletionBitmap.readFromHdfs(baseDir + "/" + DeletionBitmap.FILE_NAME, fs,
+                    conf.getInt("dataSetSize", 0));
+        } catch (IOException e) {
+            e.printStackTrace();
+            LSHTool.printAndExit("read deletion bitmap failed in CollectCandidateReducer");
+        }
         
         splitCand = new Vector<Map<Integer, Set<Integer>>>(splitNum);
         for (int i = 0; i < splitNum; i++) {
@@ -80,7 +93,7 @@ extends Reducer<IntWritable, SimpleList, Object, Object> {
      * get the index of all splits.
      * */
     private void getSplitIndex() throws IOException {
-        String dir = baseDir + "/dataset";
+        String dir = Snapshots.locate(fs, baseDir, "dataset");
         Path path =  new Path(dir);
         FileStatus[] fileStatus = fs.listStatus(path);
         
@@ -118,8 +131,13 @@ extends Reducer<IntWritable, SimpleList, Object, Object> {
         for (SimpleList indexList : values) {
             indexList.setCursorToHead();
             while (indexList.hasNext()) {
-                count++;
                 int candIndex = indexList.next();
+                if (deleted.get(candIndex)) {
+                    // A deleted point is never checked, thus it does not
+                    // count towards searchThreshold.
+                    continue;
+                }
+                count++;
                 int splitIndex = this.findSplitIndex(candIndex);
                 try {
                     // Add the index of the candidate point to the split
@@ -181,8 +199,9 @@ extends Reducer<IntWritable, SimpleList, Object, Object> {
      * */
     @Override
     protected void cleanup(final Context context) throws IOException, InterruptedException {
-        String file = baseDir + "/splitCand/radius_" + radiusID;
-        fs.delete(new Path(file), true);
+        // The candidate files are promoted to outputDir by LSHSearcher, which
+        // has cleared them of the previous search.
+        String file = SideFiles.getWorkDir(context) + "/splitCand/radius_" + radiusID;
 
         int cursor = 0;
         for (Map<Integer, Set<Integer>> splitMap : splitCand) {
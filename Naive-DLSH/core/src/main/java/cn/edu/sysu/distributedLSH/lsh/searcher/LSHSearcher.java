@@ -23,7 +23,9 @@ import org.apache.hadoop.mapreduce.lib.input.NLineInputFormat;
 
 import cn.edu.sysu.distributedLSH.common.CandidatePriorityQueue;
 import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.SideFiles;
 import cn.edu.sysu.distributedLSH.common.SimpleList;
+import cn.edu.sysu.distributedLSH.common.Snapshots;
 
 
 public class LSHSearcher extends Configured {
@@ -35,6 +37,8 @@ public class LSHSearcher extends Configured {
     private int blockNum;
 
     private String baseDir;
+    // the directory of the outputs, which is not in a snapshot
+    private String outputDir;
     private String groundTruthFileName;
 
     // statistics
@@ -63,6 +67,7 @@ public class LSHSearcher extends Configured {
         blockNum = conf.getInt("blockNum", 0);
         
         baseDir = conf.get("baseDir");
+        outputDir = conf.get("outputDir", baseDir);
         groundTruthFileName = conf.get("groundTruthFileName");
         
         this.readStatistics();
@@ -93,7 +98,7 @@ public class LSHSearcher extends Configured {
      * */
     private void handleSplits() {
         try {
-            String dir = baseDir + "/dataset";
+            String dir = Snapshots.locate(fs, baseDir, "dataset");
             Path path =  new Path(dir);
             FileStatus[] fileStatus = fs.listStatus(path);
 
@@ -104,7 +109,7 @@ public class LSHSearcher extends Configured {
             conf.setInt("splitNum", splitNum);
 
             // Create a split seed file for CheckCandidateMapper.
-            String fileName = baseDir + "/split.seed";
+            String fileName = outputDir + "/split.seed";
             this.splitSeedPath = new Path(fileName);
 
             fs.delete(splitSeedPath, false);
@@ -138,7 +143,7 @@ public class LSHSearcher extends Configured {
      * @throws IOException 
      */
     private int getHashTableSize() throws IOException {
-        String inFile = baseDir + "/hashParam/blockSize.info";
+        String inFile = Snapshots.locate(fs, baseDir, "hashParam") + "/blockSize.info";
         Path inPath = new Path(inFile);
         int hashTableSize = 0;
 
@@ -188,7 +193,7 @@ public class LSHSearcher extends Configured {
      * Create a query seed file for CollectCandidateMapper.
      * */
     private void createBlockSeed() {
-        String fileName = baseDir + "/block.seed";
+        String fileName = outputDir + "/block.seed";
         this.blockSeedPath = new Path(fileName);
 
         try {
@@ -260,7 +265,7 @@ public class LSHSearcher extends Configured {
         boolean flag;
 
         // clear the intermediate directory in current radius
-        String interDirName = baseDir + "/radius_" + radiusID + "/intermediate";
+        String interDirName = outputDir + "/radius_" + radiusID + "/intermediate";
         interPath = new Path(interDirName);
         fs.delete(interPath, true);
 
@@ -300,12 +305,17 @@ public class LSHSearcher extends Configured {
         job.setMapOutputValueClass(SimpleList.class);
 
         NLineInputFormat.addInputPath(job, blockSeedPath);
-        String outputDir = baseDir + "/collectCandOutput";
-        Path outPath = new Path(outputDir);
+        Path outPath = new Path(outputDir + "/collectCandOutput");
         fs.delete(outPath, true);
         FileOutputFormat.setOutputPath(job, outPath);
 
-        return job.waitForCompletion(true);
+        // The candidates of the previous search in this radius are stale.
+        fs.delete(new Path(outputDir + "/splitCand/radius_" + radiusID), true);
+        boolean flag = job.waitForCompletion(true);
+        if (flag) {
+            SideFiles.promote(fs, outPath, outputDir);
+        }
+        return flag;
     }
     
     private boolean checkCandidate(final int radiusID)
@@ -324,12 +334,15 @@ public class LSHSearcher extends Configured {
         job.setOutputFormatClass(SearchResultOutputFormat.class);
 
         NLineInputFormat.addInputPath(job, splitSeedPath);
-        String outputDir = baseDir + "/checkCandOutput_" + radiusID;
-        Path outPath = new Path(outputDir);
+        Path outPath = new Path(outputDir + "/checkCandOutput_" + radiusID);
         fs.delete(outPath, true);
         FileOutputFormat.setOutputPath(job, outPath);
 
-        return job.waitForCompletion(true);
+        boolean flag = job.waitForCompletion(true);
+        if (flag) {
+            SideFiles.promote(fs, outPath, outputDir);
+        }
+        return flag;
     }
 
     /**
@@ -338,7 +351,7 @@ public class LSHSearcher extends Configured {
      * query IDs to hdfs.
      * */
     private void saveRemainingQueryID() throws IOException {
-        Path path = new Path(baseDir + "/remaining.qid");
+        Path path = new Path(outputDir + "/remaining.qid");
         fs.delete(path, false);
         FSDataOutputStream out = fs.create(path);
         FileStatus[] fileStatus = fs.listStatus(interPath);
@@ -416,8 +429,7 @@ public class LSHSearcher extends Configured {
         searchResult = new double[querySetSize][];
 
         for (int i = 0; i < searchCount; i++) {
-            String outputDir = baseDir + "/checkCandOutput_" + i;
-            Path outPath =  new Path(outputDir);
+            Path outPath = new Path(outputDir + "/checkCandOutput_" + i);
             FileStatus[] fileStatus = fs.listStatus(outPath, reduceFileFilter);
 
             for (int j = 0; j < fileStatus.length; j++) {
@@ -11,10 +11,12 @@ import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.Job;
-import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 
 import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.SideFiles;
+import cn.edu.sysu.distributedLSH.common.VectorEncoding;
+import cn.edu.sysu.distributedLSH.common.VectorInputFormat;
 
 
 public class Statistician extends Configured {
@@ -23,7 +25,6 @@ public class Statistician extends Configured {
     
     private int ratio;
     private String baseDir;
-    private String dataSetFileName;
     
     
     /**
@@ -39,7 +40,6 @@ public class Statistician extends Configured {
         }
 
         baseDir = conf.get("baseDir");
-        dataSetFileName = conf.get("dataSetFileName");
     }
     
     /**
@@ -72,15 +72,16 @@ public class Statistician extends Configured {
      * */
     private boolean getStatistics() throws  IOException, InterruptedException, ClassNotFoundException {
         // Everything in the baseDir including statistics file, built LSHs and hash tables
-        // will be deleted.
-        fs.delete(new Path(baseDir), true);
-
-        Path inputPath = new Path(dataSetFileName);
-        if (!fs.exists(inputPath)) {
-            LSHTool.printAndExit("Input data set dose not exist");
-        }
-        if (!fs.isFile(inputPath)) {
-            LSHTool.printAndExit("Input data set should be a file");
+        // will be deleted. The builds set baseDir to a new snapshot, thus the
+        // published snapshots are kept. See Snapshots. The entries beginning
+        // with "_", e.g. the marker of the snapshot being built, are kept.
+        Path basePath = new Path(baseDir);
+        if (fs.exists(basePath)) {
+            for (FileStatus status : fs.listStatus(basePath)) {
+                if (!status.getPath().getName().startsWith("_")) {
+                    fs.delete(status.getPath(), true);
+                }
+            }
         }
 
         Job job = new Job(conf, "ndlsh Statistician " + conf.get("dataset"));
@@ -89,16 +90,23 @@ public class Statistician extends Configured {
         // We do not need reduce here.
         job.setNumReduceTasks(0);
 
-        job.setInputFormatClass(TextInputFormat.class);
-
-        // TODO
-        job.setSpeculativeExecution(false);
+        // The mappers write their statistics files and data set splits as
+        // side files, thus speculative execution is safe. See SideFiles.
 
-        TextInputFormat.addInputPath(job, inputPath);
-        String outFile = baseDir + "/statisticsOutput";
-        FileOutputFormat.setOutputPath(job, new Path(outFile));
+        // the text data set or the binary one, depending on dataSetFormat
+        VectorInputFormat.setDataSetInput(job, fs);
+        // The output goes to a scratch directory, which a fork skips. See
+        // Snapshots.
+        String outFile = baseDir + "/_build/statisticsOutput";
+        Path outPath = new Path(outFile);
+        fs.delete(outPath, true);
+        FileOutputFormat.setOutputPath(job, outPath);
 
-        return job.waitForCompletion(true);
+        boolean flag = job.waitForCompletion(true);
+        if (flag) {
+            SideFiles.promote(fs, outPath, baseDir);
+        }
+        return flag;
     }
     
     /**
@@ -110,12 +118,14 @@ public class Statistician extends Configured {
         // variables to be put in the final statistics file
         int dimension = -1;
         int maxCoordinate = -1;
+        int minCoordinate = Integer.MAX_VALUE;
         int dataSetSize = 0;
         int nRadii = -1;    // the number of radii on which we construct LSHs
 
         Path statPath =  new Path(baseDir + "/stat");
         FileStatus[] fileStatus = fs.listStatus(statPath);
         int coordinate;
+        int minimum;
         int size;
 
         for (int i = 0; i < fileStatus.length; i++) {
@@ -128,6 +138,10 @@ public class Statistician extends Configured {
                 }
                 size = in.readInt();
                 dataSetSize += size;
+                minimum = in.readInt();
+                if (minimum < minCoordinate) {
+                    minCoordinate = minimum;
+                }
             } finally {
                 in.close();
             }
@@ -144,6 +158,8 @@ public class Statistician extends Configured {
         // TODO delete
         System.out.printf("dim: %d\n", dimension);
         System.out.printf("t: %d\n", maxCoordinate);
+        System.out.printf("coordinate width: %d bytes\n",
+                VectorEncoding.choose(minCoordinate, maxCoordinate));
         System.out.printf("n: %d\n", dataSetSize);
         System.out.printf("nRadii: %d\n", nRadii);
         
@@ -159,6 +175,8 @@ public class Statistician extends Configured {
             out.writeInt(maxCoordinate);
             out.writeInt(dataSetSize);
             out.writeInt(nRadii);
+            // appended at the end so that the old readers are not affected
+            out.writeInt(minCoordinate);
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
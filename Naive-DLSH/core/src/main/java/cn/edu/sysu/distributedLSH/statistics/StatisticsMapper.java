@@ -2,30 +2,35 @@ package cn.edu.sysu.distributedLSH.statistics;
 
 import java.io.IOException;
 import java.lang.Math;
-import java.util.Scanner;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Mapper;
 
 import cn.edu.sysu.distributedLSH.common.DatasetSplit;
+import cn.edu.sysu.distributedLSH.common.LSHTool;
+import cn.edu.sysu.distributedLSH.common.SideFiles;
+import cn.edu.sysu.distributedLSH.common.VectorParser;
+import cn.edu.sysu.distributedLSH.common.VectorWritable;
 
 
-public class StatisticsMapper extends Mapper<Object, Text, Object, Object> {
+public class StatisticsMapper extends Mapper<Object, Writable, Object, Object> {
     private Configuration conf;
     private FileSystem fs;
-
-    private String baseDir;
     
     private int dimension;
     private boolean flag = true;
     private int[] point = null;
+    private VectorParser parser = new VectorParser();
 
     // the maximum absolute value of coordinate in the split of the data set
     private int maxCoordinate = -1;
+    // the minimum coordinate in the split of the data set
+    private int minCoordinate = Integer.MAX_VALUE;
     private int size = 0;
     // the ID of the first data point that is processed by the mapper
     private int startID = -1;
@@ -44,68 +49,73 @@ public class StatisticsMapper extends Mapper<Object, Text, Object, Object> {
         } catch (IOException e) {
             e.printStackTrace();
         }
-        baseDir = conf.get("baseDir");
     }
 
     /**
      * map.
      * @param key dummy
-     * @param value contains the data point
+     * @param value contains the data point, which is Text for the text data
+     *  set or VectorWritable for the binary data set
      * @param context
      * */
     @Override
-    protected void map(final Object key, final Text value, final Context context)
+    protected void map(final Object key, final Writable value, final Context context)
             throws IOException, InterruptedException {
-        Scanner scanner = null;
-        int curAbs;
-        
-        if (flag) {
-            // The following code will be processed only once by a mapper.
-            dimension = handleFirstPoint(value.toString());
-            point = new int[dimension];
-            flag = false;
-            datasetSplit.setDimension(dimension);
+        if (value instanceof VectorWritable) {
+            VectorWritable vector = (VectorWritable)value;
+            if (flag) {
+                // The following code will be processed only once by a mapper.
+                dimension = vector.getDim();
+                // The ID of the data point counts from 1 while we prefer counting from 0.
+                startID = vector.getId() - 1;
+                point = new int[dimension];
+                flag = false;
+                datasetSplit.setDimension(dimension);
+            }
+            System.arraycopy(vector.getPoint(), 0, point, 0, dimension);
+        } else {
+            Text line = (Text)value;
+            try {
+                if (flag) {
+                    // The following code will be processed only once by a mapper.
+                    dimension = this.handleFirstPoint(line);
+                    point = new int[dimension];
+                    flag = false;
+                    datasetSplit.setDimension(dimension);
+                }
+                parser.parse(line, point, dimension);
+            } catch (NumberFormatException e) {
+                // The data points of a split are located by their offsets to
+                // startID, thus a malformed line can not be skipped.
+                context.getCounter(VectorParser.COUNTER_GROUP, VectorParser.MALFORMED_LINES).increment(1);
+                LSHTool.printAndExit(e.getMessage());
+            }
         }
+        size++;
 
-        try {
-            scanner = new Scanner(value.toString());
-            size++;
-            // skip the data point ID
-            scanner.nextInt();
-            for (int i = 0; i < dimension; i++) {
-                point[i] = scanner.nextInt();
-                curAbs = Math.abs(point[i]);
-                if (curAbs > maxCoordinate) {
-                    maxCoordinate = curAbs;
-                }
+        int curAbs;
+        for (int i = 0; i < dimension; i++) {
+            curAbs = Math.abs(point[i]);
+            if (curAbs > maxCoordinate) {
+                maxCoordinate = curAbs;
+            }
+            if (point[i] < minCoordinate) {
+                minCoordinate = point[i];
             }
-            datasetSplit.addDataPoint(point);
-        } catch (ArrayIndexOutOfBoundsException e) {
-            e.printStackTrace();
-        } finally {
-            scanner.close();
         }
+        datasetSplit.addDataPoint(point);
     }
-    
+
     /**
      * Handle the first data point. We will get the dimension of the given data point
      * then get the start ID.
      * @param dataPoint
      * */
-    private int handleFirstPoint(final String dataPoint) {
-        Scanner scanner = null;
-        int dim = 0;
-
-        scanner = new Scanner(dataPoint.toString());
+    private int handleFirstPoint(final Text dataPoint) {
+        parser.reset(dataPoint);
         // The ID of the data point counts from 1 while we prefer counting from 0.
-        startID = scanner.nextInt() - 1;
-        while (scanner.hasNext()) {
-            scanner.nextInt();
-            dim++;
-        }
-        scanner.close();
-
-        return dim;
+        startID = parser.nextInt() - 1;
+        return parser.count();
     }
     
     /**
@@ -114,17 +124,19 @@ public class StatisticsMapper extends Mapper<Object, Text, Object, Object> {
      * */
     @Override
     protected void cleanup(final Context context) throws IOException, InterruptedException {
-        String statFile = baseDir + "/stat/split_" + startID;
+        // The statistics file and the data set split are promoted to
+        // baseDir by Statistician once the job succeeds.
+        String workDir = SideFiles.getWorkDir(context);
+        String statFile = workDir + "/stat/split_" + startID;
         
         Path statPath = new Path(statFile);
 
-        fs.delete(statPath, false);
-        
         FSDataOutputStream out = fs.create(statPath);
         try {
             out.writeInt(dimension);
             out.writeInt(maxCoordinate);
             out.writeInt(size);
+            out.writeInt(minCoordinate);
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
@@ -132,6 +144,6 @@ public class StatisticsMapper extends Mapper<Object, Text, Object, Object> {
         }
         
         // save the data set split to hdfs
-        datasetSplit.saveToHdfs(baseDir, fs, startID);
+        datasetSplit.saveToHdfs(workDir, fs, startID);
     }
 }